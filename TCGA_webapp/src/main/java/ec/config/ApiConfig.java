@@ -1,5 +1,10 @@
 package ec.config;
 
+import ec.model.CancerPredictor;
+import ec.model.PredictionCache;
+import ec.util.ModelLoader;
+
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Properties;
@@ -24,6 +29,208 @@ public class ApiConfig {
     }
     
     public static String getGeminiApiKey() {
-        return properties.getProperty("gemini.api.key");
+        return property("gemini.api.key");
+    }
+    
+    /**
+     * Maximum number of predictions kept per loaded model ("prediction.cache.size",
+     * default {@link CancerPredictor#DEFAULT_CACHE_SIZE}); 0 turns the cache off.
+     */
+    public static int getPredictionCacheSize() {
+        return getInt("prediction.cache.size", CancerPredictor.DEFAULT_CACHE_SIZE);
+    }
+    
+    /**
+     * Model file to serve ("model.path", default {@link ModelLoader#MODEL_PATH}).
+     */
+    public static String getModelPath() {
+        return property("model.path", ModelLoader.MODEL_PATH);
+    }
+    
+    /**
+     * Cell_Lines_Details.csv, read when a model carries no category lists
+     * ("data.path", default {@link ModelLoader#CSV_PATH}).
+     */
+    public static String getDataPath() {
+        return property("data.path", ModelLoader.CSV_PATH);
+    }
+    
+    /**
+     * Seconds between checks of the model file for a retrained model
+     * ("model.watch.interval.seconds", default 10); 0 turns watching off.
+     */
+    public static int getModelWatchIntervalSeconds() {
+        return getInt("model.watch.interval.seconds", 10);
+    }
+    
+    /**
+     * Smallest share of smoke-test samples, in percent, on which a reloaded model must
+     * predict the same label as the active one to replace it
+     * ("model.swap.min.agreement.percent", default 0, which accepts any model).
+     */
+    public static int getModelSwapMinAgreementPercent() {
+        return getInt("model.swap.min.agreement.percent", 0);
+    }
+    
+    /**
+     * Token the admin endpoints expect in the X-Admin-Token header ("admin.token").
+     * Without one they only answer requests from the server itself.
+     */
+    public static String getAdminToken() {
+        String token = property("admin.token");
+        return token == null || token.trim().isEmpty() ? null : token.trim();
+    }
+    
+    /**
+     * URL of the Gemini model, without the method suffix ("gemini.api.url"). Point
+     * it at a local stub for load tests.
+     */
+    public static String getGeminiApiUrl() {
+        String url = property("gemini.api.url");
+        return url == null || url.trim().isEmpty()
+                ? "https://generativelanguage.googleapis.com/v1/models/gemini-2.0-flash" : url.trim();
+    }
+    
+    /**
+     * Extra attempts after a Gemini call fails with a connection error, 429 or 5xx
+     * ("gemini.max.retries", default 2).
+     */
+    public static int getGeminiMaxRetries() {
+        return getInt("gemini.max.retries", 2);
+    }
+    
+    /**
+     * Consecutive Gemini failures after which calls are refused for a while
+     * ("gemini.circuit.failure.threshold", default 5).
+     */
+    public static int getGeminiCircuitFailureThreshold() {
+        return Math.max(1, getInt("gemini.circuit.failure.threshold", 5));
+    }
+    
+    /**
+     * How long calls are refused the first time the circuit opens
+     * ("gemini.circuit.open.millis", default 5000); doubles each time a trial call fails.
+     */
+    public static int getGeminiCircuitOpenMillis() {
+        return getInt("gemini.circuit.open.millis", 5000);
+    }
+    
+    /**
+     * Upper bound on how long the circuit stays open ("gemini.circuit.max.open.millis", default 300000).
+     */
+    public static int getGeminiCircuitMaxOpenMillis() {
+        return getInt("gemini.circuit.max.open.millis", 300000);
+    }
+    
+    /**
+     * Most Gemini lookups /treatment-info runs at once ("treatment.max.concurrent", default 8).
+     */
+    public static int getTreatmentMaxConcurrent() {
+        return getInt("treatment.max.concurrent", 8);
+    }
+    
+    /**
+     * Lookups that may wait for a free slot before new ones are turned away
+     * ("treatment.queue.size", default 16).
+     */
+    public static int getTreatmentQueueSize() {
+        return getInt("treatment.queue.size", 16);
+    }
+    
+    /**
+     * Deadline for one /treatment-info request, including queueing
+     * ("treatment.timeout.millis", default 15000).
+     */
+    public static int getTreatmentTimeoutMillis() {
+        return getInt("treatment.timeout.millis", 15000);
+    }
+    
+    /**
+     * Whether request handling and Gemini lookups run on virtual threads
+     * ("threads.virtual", default false). Needs JDK 21 or later; ignored before.
+     */
+    public static boolean isVirtualThreads() {
+        return Boolean.parseBoolean(property("threads.virtual", "false").trim());
+    }
+    
+    /**
+     * Most requests the embedded launcher serves at once on virtual threads
+     * ("requests.virtual.max.concurrent", default 10000); further ones get 503.
+     */
+    public static int getRequestsVirtualMaxConcurrent() {
+        return getInt("requests.virtual.max.concurrent", 10000);
+    }
+    
+    /**
+     * Most treatment lookups in flight at once on virtual threads
+     * ("treatment.virtual.max.concurrent", default 1000); further ones get 503.
+     */
+    public static int getTreatmentVirtualMaxConcurrent() {
+        return getInt("treatment.virtual.max.concurrent", 1000);
+    }
+    
+    /**
+     * Hours a Gemini treatment summary is reused before it is fetched again
+     * ("treatment.cache.ttl.hours", default 24); 0 turns the cache off.
+     */
+    public static int getTreatmentCacheTtlHours() {
+        return getInt("treatment.cache.ttl.hours", 24);
+    }
+    
+    /**
+     * File the treatment summaries are kept in across restarts ("treatment.cache.file").
+     * Defaults to treatment-info-cache.json in the server's data directory.
+     */
+    public static File getTreatmentCacheFile() {
+        String file = property("treatment.cache.file");
+        if (file != null && !file.trim().isEmpty()) {
+            return new File(file.trim());
+        }
+        String dir = System.getProperty("jboss.server.data.dir", System.getProperty("java.io.tmpdir"));
+        return new File(dir, "treatment-info-cache.json");
+    }
+    
+    /**
+     * Whether to fetch summaries for every class label of a newly loaded model in
+     * the background ("treatment.cache.prefill", default false).
+     */
+    public static boolean isTreatmentCachePrefill() {
+        return Boolean.parseBoolean(property("treatment.cache.prefill", "false").trim());
+    }
+    
+    /**
+     * Eviction policy of the prediction cache ("prediction.cache.eviction", LRU or FIFO, default LRU).
+     */
+    public static PredictionCache.Eviction getPredictionCacheEviction() {
+        String value = property("prediction.cache.eviction", "LRU");
+        try {
+            return PredictionCache.Eviction.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid prediction.cache.eviction '" + value + "', using LRU");
+            return PredictionCache.Eviction.LRU;
+        }
+    }
+    
+    // A system property of the same name wins over config.properties
+    private static String property(String key) {
+        return System.getProperty(key, properties.getProperty(key));
+    }
+    
+    private static String property(String key, String defaultValue) {
+        String value = property(key);
+        return value != null ? value : defaultValue;
+    }
+    
+    private static int getInt(String key, int defaultValue) {
+        String value = property(key);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid " + key + " '" + value + "', using " + defaultValue);
+            return defaultValue;
+        }
     }
 }
\ No newline at end of file
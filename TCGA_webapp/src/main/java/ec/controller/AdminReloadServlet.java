@@ -0,0 +1,107 @@
+package ec.controller;
+
+import ec.config.ApiConfig;
+import ec.model.ModelHolder;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Reloads the model file on demand, e.g. right after ModelTrainingApp has written
+ * a new model. The reload runs in the background and the current model keeps
+ * serving until the new one is ready. With {@code ?wait=true} the response
+ * carries the outcome; otherwise it returns 202 straight away.
+ */
+@WebServlet("/admin/reload")
+public class AdminReloadServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final long WAIT_SECONDS = 120;
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+
+        response.setContentType("application/json");
+
+        if (!isAuthorized(request)) {
+            writeError(response, HttpServletResponse.SC_FORBIDDEN, "Not authorized");
+            return;
+        }
+
+        ModelHolder holder = (ModelHolder) getServletContext()
+                .getAttribute(PredictionServlet.MODEL_HOLDER_ATTRIBUTE);
+        if (holder == null) {
+            writeError(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Prediction model is not loaded");
+            return;
+        }
+
+        CompletableFuture<ModelHolder.Swap> reload = holder.reload();
+        if (!Boolean.parseBoolean(request.getParameter("wait"))) {
+            response.setStatus(HttpServletResponse.SC_ACCEPTED);
+            response.getWriter().write(Json.createObjectBuilder()
+                .add("success", true)
+                .add("status", "reloading")
+                .add("path", holder.getModelPath())
+                .build().toString());
+            return;
+        }
+
+        try {
+            ModelHolder.Swap swap = reload.get(WAIT_SECONDS, TimeUnit.SECONDS);
+            JsonObjectBuilder jsonBuilder = Json.createObjectBuilder()
+                .add("success", swap.isActivated())
+                .add("version", swap.getVersion())
+                .add("message", swap.getMessage())
+                .add("loadMillis", swap.getLoadMillis())
+                .add("warmupMillis", swap.getWarmupMillis());
+            if (!swap.isActivated()) {
+                response.setStatus(HttpServletResponse.SC_CONFLICT);
+            }
+            response.getWriter().write(jsonBuilder.build().toString());
+        } catch (TimeoutException e) {
+            response.setStatus(HttpServletResponse.SC_ACCEPTED);
+            response.getWriter().write(Json.createObjectBuilder()
+                .add("success", true)
+                .add("status", "still reloading")
+                .build().toString());
+        } catch (InterruptedException | ExecutionException e) {
+            getServletContext().log("Error reloading model: " + e.getMessage(), e);
+            writeError(response, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, String.valueOf(e.getMessage()));
+        }
+    }
+
+    // A configured token is required; without one only local requests are allowed
+    private static boolean isAuthorized(HttpServletRequest request) {
+        String token = ApiConfig.getAdminToken();
+        if (token != null) {
+            return token.equals(request.getHeader("X-Admin-Token"));
+        }
+        try {
+            return InetAddress.getByName(request.getRemoteAddr()).isLoopbackAddress();
+        } catch (UnknownHostException e) {
+            return false;
+        }
+    }
+
+    private static void writeError(HttpServletResponse response, int status, String message) throws IOException {
+        response.setStatus(status);
+        response.getWriter().write(Json.createObjectBuilder()
+            .add("success", false)
+            .add("error", message)
+            .build().toString());
+    }
+}
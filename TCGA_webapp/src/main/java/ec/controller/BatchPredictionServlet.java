@@ -0,0 +1,404 @@
+package ec.controller;
+
+import ec.csv.CsvReader;
+import ec.model.CancerPredictor;
+import ec.model.Prediction;
+import ec.util.FeatureKeys;
+
+import javax.json.Json;
+import javax.json.JsonBuilderFactory;
+import javax.json.JsonObjectBuilder;
+import javax.json.stream.JsonParser;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.MultipartConfig;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.Part;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scores many cell lines in one request. The body is either a JSON array of
+ * objects or a CSV file (sent as text/csv or as the "file" part of a multipart
+ * upload) whose keys or headers are the form parameter names or the dataset
+ * column names. Records are parsed as they arrive, scored in chunks on a
+ * bounded pool and written back in input order as NDJSON, one line per record,
+ * followed by a trailer line with the totals and throughput. A record with values
+ * the model has never seen is still scored, treating them as "unknown", and its
+ * line lists them under "unknownValues".
+ */
+@WebServlet("/predict/batch")
+@MultipartConfig
+public class BatchPredictionServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int CHUNK_SIZE = 256;
+    private static final String ID_KEY = "id";
+
+    // Looked up once; Json.createObjectBuilder() searches for a provider on every call
+    private static final JsonBuilderFactory JSON = Json.createBuilderFactory(null);
+
+    private transient ExecutorService scoringPool;
+    private int maxChunksInFlight;
+
+    @Override
+    public void init() throws ServletException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadNumber = new AtomicInteger();
+        scoringPool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "batch-predict-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Bounds how far parsing may run ahead of writing for a single request
+        maxChunksInFlight = 2 * threads;
+    }
+
+    @Override
+    public void destroy() {
+        scoringPool.shutdownNow();
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+
+        // The whole batch is scored by one model, even if a new one is swapped in meanwhile
+        CancerPredictor predictor = PredictionServlet.activePredictor(getServletContext());
+        if (predictor == null) {
+            writeError(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Prediction model is not loaded");
+            return;
+        }
+
+        response.setContentType("application/x-ndjson");
+        response.setCharacterEncoding("UTF-8");
+        PrintWriter out = response.getWriter();
+
+        long start = System.nanoTime();
+        long records = 0;
+        long errors = 0;
+        long withUnknownValues = 0;
+        Deque<Future<ChunkResult>> inFlight = new ArrayDeque<>();
+
+        try (RecordSource source = openSource(request)) {
+            List<Map<String, String>> chunk = new ArrayList<>(CHUNK_SIZE);
+            long nextIndex = 0;
+            Map<String, String> record;
+
+            while ((record = source.next()) != null) {
+                chunk.add(record);
+                if (chunk.size() == CHUNK_SIZE) {
+                    inFlight.add(submit(predictor, chunk, nextIndex));
+                    nextIndex += chunk.size();
+                    chunk = new ArrayList<>(CHUNK_SIZE);
+
+                    // Write finished chunks in order before reading further ahead
+                    while (inFlight.size() >= maxChunksInFlight) {
+                        ChunkResult result = getResult(inFlight.poll());
+                        write(out, response, result);
+                        records += result.records;
+                        errors += result.errors;
+                        withUnknownValues += result.withUnknownValues;
+                    }
+                }
+            }
+            if (!chunk.isEmpty()) {
+                inFlight.add(submit(predictor, chunk, nextIndex));
+            }
+            while (!inFlight.isEmpty()) {
+                ChunkResult result = getResult(inFlight.poll());
+                write(out, response, result);
+                records += result.records;
+                errors += result.errors;
+                withUnknownValues += result.withUnknownValues;
+            }
+
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+            out.println(JSON.createObjectBuilder()
+                .add("trailer", true)
+                .add("records", records)
+                .add("errors", errors)
+                .add("recordsWithUnknownValues", withUnknownValues)
+                .add("elapsedMillis", elapsedMillis)
+                .add("recordsPerSecond", records * 1000.0 / Math.max(1, elapsedMillis))
+                .build().toString());
+            out.flush();
+
+        } catch (Exception e) {
+            for (Future<ChunkResult> future : inFlight) {
+                future.cancel(true);
+            }
+            getServletContext().log("Error in batch prediction: " + e.getMessage(), e);
+
+            if (!response.isCommitted()) {
+                response.resetBuffer();
+                writeError(response, HttpServletResponse.SC_BAD_REQUEST, String.valueOf(e.getMessage()));
+                return;
+            }
+
+            // Results have already been streamed, so the trailer carries the error
+            out.println(JSON.createObjectBuilder()
+                .add("trailer", true)
+                .add("records", records)
+                .add("errors", errors)
+                .add("error", String.valueOf(e.getMessage()))
+                .build().toString());
+            out.flush();
+        }
+    }
+
+    private RecordSource openSource(HttpServletRequest request) throws IOException, ServletException {
+        String contentType = request.getContentType() == null ? "" : request.getContentType().toLowerCase();
+
+        if (contentType.startsWith("multipart/")) {
+            Part part = request.getPart("file");
+            if (part == null) {
+                throw new IOException("Multipart upload has no 'file' part");
+            }
+            return new CsvRecordSource(part.getInputStream());
+        }
+        if (contentType.contains("csv")) {
+            return new CsvRecordSource(request.getInputStream());
+        }
+        return new JsonRecordSource(request.getInputStream());
+    }
+
+    private Future<ChunkResult> submit(CancerPredictor predictor, List<Map<String, String>> chunk, long firstIndex) {
+        return scoringPool.submit(() -> score(predictor, chunk, firstIndex));
+    }
+
+    private static ChunkResult score(CancerPredictor predictor, List<Map<String, String>> chunk, long firstIndex) {
+        StringBuilder lines = new StringBuilder(chunk.size() * 64);
+        int errors = 0;
+        int withUnknownValues = 0;
+        Map<String, String> unknownValues = new LinkedHashMap<>();
+
+        for (int i = 0; i < chunk.size(); i++) {
+            Map<String, String> record = chunk.get(i);
+            JsonObjectBuilder line = JSON.createObjectBuilder().add("index", firstIndex + i);
+            String id = record.get(ID_KEY);
+            if (id != null) {
+                line.add(ID_KEY, id);
+            }
+
+            unknownValues.clear();
+            try {
+                Prediction prediction = predictor.predict(record, unknownValues);
+                line.add("prediction", prediction.getLabel())
+                    .add("confidence", prediction.getConfidence());
+            } catch (Exception e) {
+                errors++;
+                line.add("error", String.valueOf(e.getMessage()));
+            }
+            if (!unknownValues.isEmpty()) {
+                withUnknownValues++;
+                JsonObjectBuilder unknown = JSON.createObjectBuilder();
+                for (Map.Entry<String, String> entry : unknownValues.entrySet()) {
+                    unknown.add(entry.getKey(), entry.getValue());
+                }
+                line.add("unknownValues", unknown);
+            }
+            lines.append(line.build().toString()).append('\n');
+        }
+
+        return new ChunkResult(lines.toString(), chunk.size(), errors, withUnknownValues);
+    }
+
+    private static ChunkResult getResult(Future<ChunkResult> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : new Exception(cause);
+        }
+    }
+
+    private static void write(PrintWriter out, HttpServletResponse response, ChunkResult result) throws IOException {
+        out.write(result.lines);
+        out.flush();
+        response.flushBuffer();
+    }
+
+    private static void writeError(HttpServletResponse response, int status, String message) throws IOException {
+        response.setStatus(status);
+        response.setContentType("application/json");
+        response.getWriter().write(JSON.createObjectBuilder()
+            .add("success", false)
+            .add("error", message)
+            .build().toString());
+    }
+
+    private static class ChunkResult {
+        private final String lines;
+        private final int records;
+        private final int errors;
+        private final int withUnknownValues;
+
+        ChunkResult(String lines, int records, int errors, int withUnknownValues) {
+            this.lines = lines;
+            this.records = records;
+            this.errors = errors;
+            this.withUnknownValues = withUnknownValues;
+        }
+    }
+
+    /**
+     * Yields one record at a time as feature values keyed by column name, plus
+     * an optional "id" that is echoed back. Returns null after the last record.
+     */
+    private interface RecordSource extends Closeable {
+        Map<String, String> next() throws IOException;
+    }
+
+    private static class CsvRecordSource implements RecordSource {
+        private final CsvReader reader;
+        private int[] columns;
+        private String[] keys;
+
+        CsvRecordSource(InputStream in) {
+            this.reader = CsvReader.read(in);
+        }
+
+        @Override
+        public Map<String, String> next() throws IOException {
+            if (keys == null && !readHeader()) {
+                return null;
+            }
+            if (!reader.next()) {
+                return null;
+            }
+
+            Map<String, String> record = new HashMap<>();
+            for (int i = 0; i < columns.length; i++) {
+                record.put(keys[i], reader.get(columns[i]));
+            }
+            return record;
+        }
+
+        // Only the feature and id columns are ever decoded
+        private boolean readHeader() throws IOException {
+            if (!reader.next()) {
+                return false;
+            }
+            String[] headers = reader.getAll();
+            List<Integer> keptColumns = new ArrayList<>();
+            List<String> keptKeys = new ArrayList<>();
+            for (int i = 0; i < headers.length; i++) {
+                String key = headers[i].equalsIgnoreCase(ID_KEY) ? ID_KEY : FeatureKeys.toColumnName(headers[i]);
+                if (key != null) {
+                    keptColumns.add(i);
+                    keptKeys.add(key);
+                }
+            }
+
+            columns = new int[keptColumns.size()];
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = keptColumns.get(i);
+            }
+            keys = keptKeys.toArray(new String[0]);
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    private static class JsonRecordSource implements RecordSource {
+        private final JsonParser parser;
+        private boolean started;
+
+        JsonRecordSource(InputStream in) {
+            this.parser = Json.createParser(in);
+        }
+
+        @Override
+        public Map<String, String> next() throws IOException {
+            if (!started) {
+                started = true;
+                if (!parser.hasNext() || parser.next() != JsonParser.Event.START_ARRAY) {
+                    throw new IOException("Expected a JSON array of records");
+                }
+            }
+
+            if (!parser.hasNext()) {
+                throw new IOException("Unexpected end of JSON input");
+            }
+            JsonParser.Event event = parser.next();
+            if (event == JsonParser.Event.END_ARRAY) {
+                return null;
+            }
+            if (event != JsonParser.Event.START_OBJECT) {
+                throw new IOException("Expected a JSON object for each record, found " + event);
+            }
+
+            Map<String, String> record = new HashMap<>();
+            String key = null;
+            while (parser.hasNext()) {
+                event = parser.next();
+                switch (event) {
+                    case END_OBJECT:
+                        return record;
+                    case KEY_NAME:
+                        String name = parser.getString();
+                        key = name.equalsIgnoreCase(ID_KEY) ? ID_KEY : FeatureKeys.toColumnName(name);
+                        break;
+                    case VALUE_STRING:
+                    case VALUE_NUMBER:
+                        if (key != null) {
+                            record.put(key, parser.getString());
+                        }
+                        break;
+                    case VALUE_TRUE:
+                    case VALUE_FALSE:
+                        if (key != null) {
+                            record.put(key, String.valueOf(event == JsonParser.Event.VALUE_TRUE));
+                        }
+                        break;
+                    case START_OBJECT:
+                    case START_ARRAY:
+                        skipNested();
+                        break;
+                    default:
+                        break;
+                }
+            }
+            throw new IOException("Unexpected end of JSON input");
+        }
+
+        private void skipNested() {
+            int depth = 1;
+            while (depth > 0 && parser.hasNext()) {
+                JsonParser.Event event = parser.next();
+                if (event == JsonParser.Event.START_OBJECT || event == JsonParser.Event.START_ARRAY) {
+                    depth++;
+                } else if (event == JsonParser.Event.END_OBJECT || event == JsonParser.Event.END_ARRAY) {
+                    depth--;
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            parser.close();
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package ec.controller;
 
+import ec.config.ApiConfig;
+import ec.model.CancerPredictor;
 import ec.util.ModelLoader;
 
 import javax.servlet.ServletException;
@@ -10,11 +12,16 @@ import javax.servlet.http.HttpServletResponse;
 import javax.json.Json;
 import javax.json.JsonArrayBuilder;
 import javax.json.JsonObjectBuilder;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
 
 @WebServlet("/categories")
 public class CategoriesServlet extends HttpServlet {
@@ -24,47 +31,165 @@ public class CategoriesServlet extends HttpServlet {
 	 */
 	private static final long serialVersionUID = 1L;
 
+	/** How long browsers may reuse the categories before revalidating them with the ETag. */
+	private static final String CACHE_CONTROL = "public, max-age=60, must-revalidate";
+	
+	// Serialized response, rebuilt only when the model bundle or the CSV file changes
+	private transient volatile CategoriesPayload payload;
+
 	@Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response) 
             throws ServletException, IOException {
         
         response.setContentType("application/json");
         
+        CategoriesPayload current;
         try {
-            // Load categories from CSV file
-            Map<String, List<String>> columnCategories = ModelLoader.loadCategoriesFromCSV();
-            
-            // Build JSON response
-            JsonObjectBuilder jsonBuilder = Json.createObjectBuilder();
-            
-            for (Map.Entry<String, List<String>> entry : columnCategories.entrySet()) {
-                JsonArrayBuilder categoryArray = Json.createArrayBuilder();
-                
-                for (String value : entry.getValue()) {
-                    categoryArray.add(value);
-                }
-                
-                // The key in the JSON will be a simplified version of the column name for easy use in JavaScript
-                String simplifiedKey = getSimplifiedKey(entry.getKey());
-                jsonBuilder.add(simplifiedKey, categoryArray);
-            }
-            
-            response.getWriter().write(jsonBuilder.build().toString());
-            
+            current = getPayload();
         } catch (Exception e) {
             getServletContext().log("Error retrieving categories: " + e.getMessage(), e);
             
             // Return error response
             JsonObjectBuilder jsonBuilder = Json.createObjectBuilder()
-                .add("error", e.getMessage());
+                .add("error", String.valueOf(e.getMessage()));
             
             response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
             response.getWriter().write(jsonBuilder.build().toString());
+            return;
+        }
+        
+        // Send the gzip'd bytes to clients that accept them; each encoding has its own ETag
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        boolean gzip = acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+        String etag = gzip ? current.gzipEtag : current.etag;
+        
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", CACHE_CONTROL);
+        response.setHeader("ETag", etag);
+        response.setHeader("Vary", "Accept-Encoding");
+        
+        if (matchesEtag(request.getHeader("If-None-Match"), etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        
+        byte[] body = gzip ? current.gzipBytes : current.bytes;
+        if (gzip) {
+            response.setHeader("Content-Encoding", "gzip");
+        }
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+    }
+    
+    private CategoriesPayload getPayload() throws IOException {
+        CancerPredictor predictor = PredictionServlet.activePredictor(getServletContext());
+        
+        // Use the categories stored in the model bundle, falling back to the CSV file
+        File source = new File(predictor != null ? predictor.getModelPath() : ApiConfig.getDataPath());
+        long lastModified = source.lastModified();
+        
+        CategoriesPayload current = payload;
+        if (current != null && current.isFor(predictor, source, lastModified)) {
+            return current;
+        }
+        
+        synchronized (this) {
+            current = payload;
+            if (current == null || !current.isFor(predictor, source, lastModified)) {
+                Map<String, List<String>> columnCategories = predictor != null 
+                        ? predictor.getCategories() 
+                        : ModelLoader.loadCategoriesFromCSV();
+                current = new CategoriesPayload(buildJson(columnCategories), predictor, source, lastModified);
+                payload = current;
+                getServletContext().log("Categories rebuilt from " + source.getPath() + 
+                                        " (" + current.bytes.length + " bytes, " + 
+                                        current.gzipBytes.length + " gzip'd)");
+            }
+            return current;
+        }
+    }
+    
+    /**
+     * Serializes the categories as served by this endpoint, keyed by form field name.
+     */
+    public static byte[] buildJson(Map<String, List<String>> columnCategories) {
+        // Build JSON response
+        JsonObjectBuilder jsonBuilder = Json.createObjectBuilder();
+        
+        for (Map.Entry<String, List<String>> entry : columnCategories.entrySet()) {
+            JsonArrayBuilder categoryArray = Json.createArrayBuilder();
+            
+            for (String value : entry.getValue()) {
+                categoryArray.add(value);
+            }
+            
+            // The key in the JSON will be a simplified version of the column name for easy use in JavaScript
+            String simplifiedKey = getSimplifiedKey(entry.getKey());
+            jsonBuilder.add(simplifiedKey, categoryArray);
+        }
+        
+        return jsonBuilder.build().toString().getBytes(StandardCharsets.UTF_8);
+    }
+    
+    // Checks an If-None-Match header, which may list several (possibly weak) tags or "*"
+    private static boolean matchesEtag(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * The pre-encoded categories JSON, plain and gzip'd, with the file it was built
+     * from so it can tell when it is out of date.
+     */
+    private static class CategoriesPayload {
+        private final byte[] bytes;
+        private final byte[] gzipBytes;
+        private final String etag;
+        private final String gzipEtag;
+        private final CancerPredictor predictor;
+        private final File source;
+        private final long lastModified;
+        
+        CategoriesPayload(byte[] bytes, CancerPredictor predictor, File source, long lastModified) throws IOException {
+            this.bytes = bytes;
+            this.gzipBytes = gzip(bytes);
+            this.predictor = predictor;
+            this.source = source;
+            this.lastModified = lastModified;
+            
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            String hash = Long.toHexString(crc.getValue()) + "-" + Integer.toHexString(bytes.length);
+            this.etag = "\"" + hash + "\"";
+            this.gzipEtag = "\"" + hash + "-gzip\"";
+        }
+        
+        boolean isFor(CancerPredictor predictor, File source, long lastModified) {
+            return this.predictor == predictor && this.source.equals(source) && this.lastModified == lastModified;
+        }
+        
+        private static byte[] gzip(byte[] bytes) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 64);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+                gzip.write(bytes);
+            }
+            return out.toByteArray();
         }
     }
     
     // Helper method to convert column names to JavaScript-friendly keys
-    private String getSimplifiedKey(String columnName) {
+    private static String getSimplifiedKey(String columnName) {
         // Map the column names to the form field IDs
         switch (columnName) {
             case "Whole Exome Sequencing (WES)":
@@ -96,7 +221,7 @@ public class CategoriesServlet extends HttpServlet {
     }
     
     // Helper method to convert strings to camelCase
-    private String toCamelCase(String input) {
+    private static String toCamelCase(String input) {
         // First make everything lowercase
         String result = input.toLowerCase();
         
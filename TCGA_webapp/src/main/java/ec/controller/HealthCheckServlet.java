@@ -1,11 +1,17 @@
 package ec.controller;
 
+import ec.config.ApiConfig;
+import ec.model.CancerPredictor;
+import ec.model.ModelHolder;
+import ec.model.PredictionCache;
+
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.json.Json;
+import javax.json.JsonArrayBuilder;
 import javax.json.JsonObjectBuilder;
 import java.io.IOException;
 import java.io.File;
@@ -21,7 +27,10 @@ public class HealthCheckServlet extends HttpServlet {
         
         response.setContentType("application/json");
         
-        String modelPath = "C:/enterprise/workspace/630project/tmp/model/best.model";
+        // Report on the file the model is actually loaded from
+        ModelHolder holder = (ModelHolder) getServletContext()
+                .getAttribute(PredictionServlet.MODEL_HOLDER_ATTRIBUTE);
+        String modelPath = holder != null ? holder.getModelPath() : ApiConfig.getModelPath();
         File modelFile = new File(modelPath);
         
         JsonObjectBuilder jsonBuilder = Json.createObjectBuilder()
@@ -35,6 +44,45 @@ public class HealthCheckServlet extends HttpServlet {
             jsonBuilder.add("modelLastModified", modelFile.lastModified());
         }
         
+        if (holder != null && holder.getActiveSwap() != null) {
+            jsonBuilder.add("activeModel", toJson(holder.getActiveSwap()));
+            
+            JsonArrayBuilder history = Json.createArrayBuilder();
+            for (ModelHolder.Swap swap : holder.getHistory()) {
+                history.add(toJson(swap));
+            }
+            jsonBuilder.add("swapHistory", history);
+        }
+        
+        CancerPredictor predictor = PredictionServlet.activePredictor(getServletContext());
+        if (predictor != null) {
+            PredictionCache cache = predictor.getCache();
+            jsonBuilder.add("predictionCache", Json.createObjectBuilder()
+                .add("enabled", cache.isEnabled())
+                .add("eviction", cache.getEviction().name())
+                .add("size", cache.size())
+                .add("maxEntries", cache.getMaxEntries())
+                .add("hits", cache.getHits())
+                .add("misses", cache.getMisses())
+                .add("evictions", cache.getEvictions()));
+        }
+        
         response.getWriter().write(jsonBuilder.build().toString());
     }
+    
+    private static JsonObjectBuilder toJson(ModelHolder.Swap swap) {
+        JsonObjectBuilder json = Json.createObjectBuilder()
+            .add("version", swap.getVersion())
+            .add("activated", swap.isActivated())
+            .add("message", swap.getMessage())
+            .add("path", swap.getPath())
+            .add("fileLastModified", swap.getFileLastModified())
+            .add("loadMillis", swap.getLoadMillis())
+            .add("warmupMillis", swap.getWarmupMillis())
+            .add("completedAt", swap.getCompletedAt());
+        if (swap.getAgreement() >= 0) {
+            json.add("agreementWithPrevious", swap.getAgreement());
+        }
+        return json;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,92 @@
+package ec.controller;
+
+import ec.metrics.Metrics;
+import ec.metrics.RequestMetrics;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Counts requests, errors (exceptions and 5xx responses) and in-flight requests
+ * per endpoint and records their latency. Asynchronous requests are measured
+ * until they complete, not until the servlet returns.
+ */
+@WebFilter(urlPatterns = {"/predict", "/predict/batch", "/predict/stream", "/categories", "/treatment-info",
+                          "/health", "/admin/reload"},
+           asyncSupported = true)
+public class MetricsFilter implements Filter {
+
+    @Override
+    public void init(FilterConfig filterConfig) {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        HttpServletResponse httpResponse = (HttpServletResponse) response;
+        RequestMetrics metrics = Metrics.endpoint(httpRequest.getServletPath());
+
+        long start = System.nanoTime();
+        metrics.begin();
+        boolean failed = true;
+        try {
+            chain.doFilter(request, response);
+            failed = false;
+        } finally {
+            if (!failed && request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new CompletionListener(metrics, start));
+            } else {
+                metrics.end(System.nanoTime() - start, failed || httpResponse.getStatus() >= 500);
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    private static class CompletionListener implements AsyncListener {
+        private final RequestMetrics metrics;
+        private final long start;
+        private volatile boolean failed;
+
+        CompletionListener(RequestMetrics metrics, long start) {
+            this.metrics = metrics;
+            this.start = start;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            int status = ((HttpServletResponse) event.getSuppliedResponse()).getStatus();
+            metrics.end(System.nanoTime() - start, failed || status >= 500);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            failed = true;
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            failed = true;
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // Measurement continues across re-dispatches
+            event.getAsyncContext().addListener(this);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package ec.controller;
+
+import ec.metrics.LatencyHistogram;
+import ec.metrics.Metrics;
+import ec.metrics.RequestMetrics;
+import ec.model.CancerPredictor;
+import ec.model.ModelHolder;
+import ec.model.PredictionCache;
+import ec.service.CircuitBreaker;
+import ec.service.GeminiService;
+import ec.service.TreatmentInfoCache;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+
+/**
+ * Exposes the counters and latency histograms in the Prometheus text format
+ * (version 0.0.4). Latencies are summaries with p50, p95 and p99, in seconds.
+ */
+@WebServlet("/metrics")
+public class MetricsServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final double[] QUANTILES = {0.5, 0.95, 0.99};
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+
+        StringBuilder out = new StringBuilder(8192);
+        Map<String, RequestMetrics> endpoints = Metrics.endpoints();
+
+        header(out, "http_requests_total", "counter", "Requests handled, by endpoint.");
+        for (Map.Entry<String, RequestMetrics> entry : endpoints.entrySet()) {
+            sample(out, "http_requests_total", endpointLabel(entry.getKey()), entry.getValue().getRequests());
+        }
+        header(out, "http_request_errors_total", "counter", "Requests that failed or returned 5xx, by endpoint.");
+        for (Map.Entry<String, RequestMetrics> entry : endpoints.entrySet()) {
+            sample(out, "http_request_errors_total", endpointLabel(entry.getKey()), entry.getValue().getErrors());
+        }
+        header(out, "http_requests_in_flight", "gauge", "Requests currently being handled, by endpoint.");
+        for (Map.Entry<String, RequestMetrics> entry : endpoints.entrySet()) {
+            sample(out, "http_requests_in_flight", endpointLabel(entry.getKey()), entry.getValue().getInFlight());
+        }
+        header(out, "http_request_duration_seconds", "summary", "Request latency, by endpoint.");
+        for (Map.Entry<String, RequestMetrics> entry : endpoints.entrySet()) {
+            summary(out, "http_request_duration_seconds", endpointLabel(entry.getKey()), entry.getValue().getLatency());
+        }
+
+        header(out, "model_inference_duration_seconds", "summary",
+                "Time spent evaluating the model, excluding cache hits.");
+        summary(out, "model_inference_duration_seconds", "", Metrics.INFERENCE);
+
+        RequestMetrics gemini = Metrics.GEMINI;
+        header(out, "gemini_requests_total", "counter", "Calls to the Gemini API.");
+        sample(out, "gemini_requests_total", "", gemini.getRequests());
+        header(out, "gemini_errors_total", "counter", "Gemini calls that failed or returned an error status.");
+        sample(out, "gemini_errors_total", "", gemini.getErrors());
+        header(out, "gemini_requests_in_flight", "gauge", "Gemini calls currently waiting for a response.");
+        sample(out, "gemini_requests_in_flight", "", gemini.getInFlight());
+        header(out, "gemini_request_duration_seconds", "summary", "Gemini call latency.");
+        summary(out, "gemini_request_duration_seconds", "", gemini.getLatency());
+
+        CircuitBreaker breaker = GeminiService.getCircuitBreaker();
+        header(out, "gemini_circuit_state", "gauge", "Gemini circuit breaker: 0 closed, 1 open, 2 half-open.");
+        sample(out, "gemini_circuit_state", "", breaker.getState().ordinal());
+        header(out, "gemini_circuit_rejected_total", "counter", "Gemini calls refused while the circuit was open.");
+        sample(out, "gemini_circuit_rejected_total", "", breaker.getRejected());
+
+        TreatmentInfoCache treatmentCache = GeminiService.getCache();
+        header(out, "treatment_cache_hits_total", "counter", "Treatment lookups answered from the cache.");
+        sample(out, "treatment_cache_hits_total", "", treatmentCache.getHits());
+        header(out, "treatment_cache_misses_total", "counter", "Treatment lookups that found no fresh summary.");
+        sample(out, "treatment_cache_misses_total", "", treatmentCache.getMisses());
+        header(out, "treatment_cache_loads_total", "counter", "Gemini calls made for cache misses after coalescing.");
+        sample(out, "treatment_cache_loads_total", "", treatmentCache.getLoads());
+        header(out, "treatment_cache_entries", "gauge", "Treatment summaries currently cached.");
+        sample(out, "treatment_cache_entries", "", treatmentCache.size());
+
+        writeModelMetrics(out);
+
+        response.setContentType("text/plain; version=0.0.4");
+        response.setCharacterEncoding("UTF-8");
+        PrintWriter writer = response.getWriter();
+        writer.write(out.toString());
+    }
+
+    private void writeModelMetrics(StringBuilder out) {
+        ModelHolder holder = (ModelHolder) getServletContext()
+                .getAttribute(PredictionServlet.MODEL_HOLDER_ATTRIBUTE);
+        if (holder == null || holder.getActiveSwap() == null) {
+            return;
+        }
+        header(out, "model_generation", "gauge", "Load generation of the active model.");
+        sample(out, "model_generation", "", holder.getActiveSwap().getGeneration());
+
+        CancerPredictor predictor = holder.get();
+        if (predictor == null) {
+            return;
+        }
+        PredictionCache cache = predictor.getCache();
+        header(out, "prediction_cache_hits_total", "counter", "Predictions answered from the cache (active model).");
+        sample(out, "prediction_cache_hits_total", "", cache.getHits());
+        header(out, "prediction_cache_misses_total", "counter", "Predictions that had to evaluate the model (active model).");
+        sample(out, "prediction_cache_misses_total", "", cache.getMisses());
+        header(out, "prediction_cache_evictions_total", "counter", "Cache entries evicted (active model).");
+        sample(out, "prediction_cache_evictions_total", "", cache.getEvictions());
+        header(out, "prediction_cache_entries", "gauge", "Predictions currently cached.");
+        sample(out, "prediction_cache_entries", "", cache.size());
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(format(value)).append('\n');
+    }
+
+    private static void summary(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        for (double quantile : QUANTILES) {
+            sample(out, name, prefix + "quantile=\"" + quantile + "\"", histogram.percentile(quantile) / 1e9);
+        }
+        sample(out, name + "_sum", labels, histogram.getSumNanos() / 1e9);
+        sample(out, name + "_count", labels, histogram.getCount());
+    }
+
+    private static String endpointLabel(String endpoint) {
+        return "endpoint=\"" + endpoint.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private static String format(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+}
@@ -1,7 +1,13 @@
 package ec.controller;
 
+import ec.config.ApiConfig;
 import ec.model.CancerPredictor;
+import ec.model.ModelHolder;
+import ec.model.Prediction;
+import ec.service.GeminiService;
+import ec.util.FeatureKeys;
 
+import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -17,60 +23,79 @@ import java.util.Map;
 public class PredictionServlet extends HttpServlet {
     
     private static final long serialVersionUID = 1L;
-	private CancerPredictor predictor;
+    
+    /** Servlet context attribute holding the {@link ModelHolder} with the active model. */
+    public static final String MODEL_HOLDER_ATTRIBUTE = "ec.modelHolder";
+    
+	private transient ModelHolder holder;
     
     @Override
     public void init() throws ServletException {
-        String modelPath = "C:/enterprise/workspace/630project/tmp/model/model";
+        String modelPath = ApiConfig.getModelPath();
+        holder = new ModelHolder(modelPath, ApiConfig.getPredictionCacheSize(),
+                ApiConfig.getPredictionCacheEviction(), ApiConfig.getModelSwapMinAgreementPercent() / 100.0);
         try {
-            predictor = new CancerPredictor(modelPath);
+            holder.loadInitial();
             getServletContext().log("Model loaded successfully from: " + modelPath);
         } catch (Exception e) {
+            holder.close();
             getServletContext().log("Error loading model: " + e.getMessage(), e);
             throw new ServletException("Failed to load prediction model", e);
         }
+        
+        // Pick up retrained models without a redeploy
+        holder.watch(ApiConfig.getModelWatchIntervalSeconds());
+        
+        // Share the holder so other servlets use the same, current model
+        getServletContext().setAttribute(MODEL_HOLDER_ATTRIBUTE, holder);
+        
+        if (ApiConfig.isTreatmentCachePrefill()) {
+            GeminiService.prefill(holder.get().getClassLabels());
+        }
+    }
+    
+    @Override
+    public void destroy() {
+        getServletContext().removeAttribute(MODEL_HOLDER_ATTRIBUTE);
+        holder.close();
+    }
+    
+    /**
+     * The predictor currently being served, or null if no model is loaded. Fetch it
+     * once per request so a model swap does not change it halfway through.
+     */
+    static CancerPredictor activePredictor(ServletContext context) {
+        ModelHolder modelHolder = (ModelHolder) context.getAttribute(MODEL_HOLDER_ATTRIBUTE);
+        return modelHolder != null ? modelHolder.get() : null;
+    }
+    
+    /**
+     * The request parameters - including the two GDSC tissue descriptors - keyed by column name.
+     */
+    static Map<String, String> readFeatures(HttpServletRequest request) {
+        Map<String, String> features = new HashMap<>();
+        for (Map.Entry<String, String> feature : FeatureKeys.columnsByKey().entrySet()) {
+            features.put(feature.getValue(), request.getParameter(feature.getKey()));
+        }
+        return features;
     }
     
     @Override
     protected void doPost(HttpServletRequest request, HttpServletResponse response) 
             throws ServletException, IOException {
         
-        // Parse input parameters - including the two new GDSC tissue descriptors
-        String wes = request.getParameter("wes");
-        String cna = request.getParameter("cna");
-        String geneExpression = request.getParameter("geneExpression");
-        String methylation = request.getParameter("methylation");
-        String drugResponse = request.getParameter("drugResponse");
-        String gdscTissue1 = request.getParameter("gdscTissue1");
-        String gdscTissue2 = request.getParameter("gdscTissue2");
-        String msi = request.getParameter("msi");
-        String screenMedium = request.getParameter("screenMedium");
-        String growthProperties = request.getParameter("growthProperties");
-        
-        // Prepare data for prediction
-        Map<String, String> features = new HashMap<>();
-        features.put("Whole Exome Sequencing (WES)", wes);
-        features.put("Copy Number Alterations (CNA)", cna);
-        features.put("Gene Expression", geneExpression);
-        features.put("Methylation", methylation);
-        features.put("Drug Response", drugResponse);
-        features.put("GDSC Tissue descriptor 1", gdscTissue1);
-        features.put("GDSC Tissue descriptor 2", gdscTissue2);
-        features.put("Microsatellite instability Status (MSI)", msi);
-        features.put("Screen Medium", screenMedium);
-        features.put("Growth Properties", growthProperties);
+        Map<String, String> features = readFeatures(request);
         
         response.setContentType("application/json");
         try {
-            // Make prediction
-            String prediction = predictor.predict(features);
-            double confidence = predictor.getPredictionConfidence();
+            // Make prediction - the result is local to this request
+            Prediction prediction = holder.get().predict(features);
             
             // Create JSON response
             JsonObjectBuilder jsonBuilder = Json.createObjectBuilder()
                 .add("success", true)
-                .add("prediction", prediction)
-                .add("confidence", confidence);
+                .add("prediction", prediction.getLabel())
+                .add("confidence", prediction.getConfidence());
             
             response.getWriter().write(jsonBuilder.build().toString());
         } catch (Exception e) {
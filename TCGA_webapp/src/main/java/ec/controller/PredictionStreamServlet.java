@@ -0,0 +1,224 @@
+package ec.controller;
+
+import ec.config.ApiConfig;
+import ec.model.CancerPredictor;
+import ec.model.Prediction;
+import ec.service.GeminiService;
+import ec.util.VirtualThreads;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Predicts the cancer type and streams the treatment summary in one response,
+ * as Server-Sent Events:
+ * <ul>
+ * <li>{@code prediction}: the same JSON /predict returns, sent as soon as the model has answered</li>
+ * <li>{@code treatment}: {@code {"text": ...}}, a piece of the summary as Gemini writes it</li>
+ * <li>{@code error}: {@code {"error": ...}} if the prediction or the summary failed</li>
+ * <li>{@code done}: the end of the stream</li>
+ * </ul>
+ * Summaries are fetched on a bounded pool of their own, with the same limits
+ * and deadline as /treatment-info, or on virtual threads with threads.virtual.
+ */
+@WebServlet(value = "/predict/stream", asyncSupported = true)
+public class PredictionStreamServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    private transient ExecutorService streamPool;
+    private int timeoutMillis;
+
+    @Override
+    public void init() throws ServletException {
+        int maxConcurrent = Math.max(1, ApiConfig.getTreatmentMaxConcurrent());
+        timeoutMillis = Math.max(1, ApiConfig.getTreatmentTimeoutMillis());
+
+        if (VirtualThreads.isEnabled()) {
+            streamPool = VirtualThreads.newExecutor("treatment-stream-", ApiConfig.getTreatmentVirtualMaxConcurrent());
+            return;
+        }
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor platformPool = new ThreadPoolExecutor(maxConcurrent, maxConcurrent, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, ApiConfig.getTreatmentQueueSize())),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "treatment-stream-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        platformPool.allowCoreThreadTimeOut(true);
+        streamPool = platformPool;
+    }
+
+    @Override
+    public void destroy() {
+        streamPool.shutdownNow();
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+
+        response.setContentType("text/event-stream");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+        // Stops reverse proxies from holding the events back
+        response.setHeader("X-Accel-Buffering", "no");
+
+        EventStream events = new EventStream(response.getWriter());
+
+        Prediction prediction;
+        try {
+            CancerPredictor predictor = PredictionServlet.activePredictor(getServletContext());
+            if (predictor == null) {
+                throw new IllegalStateException("No model loaded");
+            }
+            prediction = predictor.predict(PredictionServlet.readFeatures(request));
+        } catch (Exception e) {
+            getServletContext().log("Error making prediction: " + e.getMessage(), e);
+            events.send("error", Json.createObjectBuilder()
+                    .add("success", false)
+                    .add("error", String.valueOf(e.getMessage()))
+                    .build());
+            events.finish();
+            return;
+        }
+
+        events.send("prediction", Json.createObjectBuilder()
+                .add("success", true)
+                .add("prediction", prediction.getLabel())
+                .add("confidence", prediction.getConfidence())
+                .build());
+
+        String cancerType = prediction.getLabel();
+        if (cancerType == null || cancerType.equalsIgnoreCase("unknown")) {
+            events.finish();
+            return;
+        }
+
+        AsyncContext asyncContext = request.startAsync();
+        asyncContext.setTimeout(timeoutMillis);
+        events.attach(asyncContext);
+
+        Future<?> lookup;
+        try {
+            lookup = streamPool.submit(() -> streamTreatment(events, cancerType));
+        } catch (RejectedExecutionException e) {
+            getServletContext().log("Treatment info streams saturated, skipping summary for " + cancerType);
+            events.send("error", errorJson("Too many treatment information requests, please try again shortly"));
+            events.finish();
+            return;
+        }
+
+        asyncContext.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                lookup.cancel(true);
+                if (events.send("error", errorJson("Timed out retrieving treatment information"))) {
+                    getServletContext().log("Treatment info stream for " + cancerType + " timed out after "
+                            + timeoutMillis + " ms");
+                }
+                events.finish();
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                lookup.cancel(true);
+                events.finish();
+            }
+
+            @Override
+            public void onComplete(AsyncEvent event) {
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+    }
+
+    private void streamTreatment(EventStream events, String cancerType) {
+        try {
+            GeminiService.streamCancerTreatmentInfo(cancerType, timeoutMillis, chunk -> {
+                if (!events.send("treatment", Json.createObjectBuilder().add("text", chunk).build())) {
+                    throw new IOException("Treatment info stream for " + cancerType + " already ended");
+                }
+            });
+        } catch (Exception e) {
+            if (!events.isFinished()) {
+                getServletContext().log("Error streaming treatment info: " + e.getMessage(), e);
+                events.send("error", errorJson("Failed to retrieve treatment information: " + e.getMessage()));
+            }
+        } finally {
+            events.finish();
+        }
+    }
+
+    private static JsonObject errorJson(String message) {
+        return Json.createObjectBuilder().add("error", message).build();
+    }
+
+    /**
+     * Writes events until the stream is finished. The lookup and the timeout may
+     * race to write, so everything goes through one lock, and nothing is written
+     * once the stream has ended.
+     */
+    private static class EventStream {
+        private final PrintWriter writer;
+        private AsyncContext asyncContext;
+        private boolean finished;
+
+        EventStream(PrintWriter writer) {
+            this.writer = writer;
+        }
+
+        synchronized void attach(AsyncContext asyncContext) {
+            this.asyncContext = asyncContext;
+        }
+
+        synchronized boolean isFinished() {
+            return finished;
+        }
+
+        /** Sends and flushes an event; false if the stream has ended or the client has gone. */
+        synchronized boolean send(String event, JsonObject data) {
+            if (finished) {
+                return false;
+            }
+            writer.write("event: " + event + "\ndata: " + data + "\n\n");
+            writer.flush();
+            return !writer.checkError();
+        }
+
+        synchronized void finish() {
+            if (finished) {
+                return;
+            }
+            writer.write("event: done\ndata: {}\n\n");
+            writer.flush();
+            finished = true;
+            if (asyncContext != null) {
+                asyncContext.complete();
+            }
+        }
+    }
+}
@@ -1,7 +1,13 @@
 package ec.controller;
 
+import ec.config.ApiConfig;
+import ec.model.CancerPredictor;
 import ec.service.GeminiService;
+import ec.util.VirtualThreads;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -10,65 +16,219 @@ import javax.servlet.http.HttpServletResponse;
 import javax.json.Json;
 import javax.json.JsonObjectBuilder;
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
-@WebServlet("/treatment-info")
+/**
+ * Looks up treatment information with Gemini. The lookup runs asynchronously on
+ * a small pool of its own, so a slow upstream holds none of the container's
+ * threads: at most treatment.max.concurrent calls run at once, a bounded number
+ * wait, and further requests are turned away with 503 straight away. Each
+ * request has a deadline, after which it is answered with 504.
+ * <p>
+ * Only the active model's class labels are looked up; anything else is answered
+ * with 400, so clients cannot fill the cache, its store file or the Gemini bill
+ * with made-up cancer types.
+ * <p>
+ * With threads.virtual on JDK 21, each lookup gets a virtual thread instead,
+ * and up to treatment.virtual.max.concurrent may wait on Gemini at once.
+ */
+@WebServlet(value = "/treatment-info", asyncSupported = true)
 public class TreatmentInfoServlet extends HttpServlet {
-    
+
     /**
-	 * 
+	 *
 	 */
 	private static final long serialVersionUID = 1L;
 
+	private transient ExecutorService lookupPool;
+	private int timeoutMillis;
+
 	@Override
-	protected void doGet(HttpServletRequest request, HttpServletResponse response) 
+	public void init() throws ServletException {
+	    int maxConcurrent = Math.max(1, ApiConfig.getTreatmentMaxConcurrent());
+	    timeoutMillis = Math.max(1, ApiConfig.getTreatmentTimeoutMillis());
+
+	    if (VirtualThreads.isEnabled()) {
+	        lookupPool = VirtualThreads.newExecutor("treatment-info-", ApiConfig.getTreatmentVirtualMaxConcurrent());
+	        return;
+	    }
+
+	    AtomicInteger threadNumber = new AtomicInteger();
+	    ThreadPoolExecutor platformPool = new ThreadPoolExecutor(maxConcurrent, maxConcurrent, 60, TimeUnit.SECONDS,
+	            new ArrayBlockingQueue<>(Math.max(1, ApiConfig.getTreatmentQueueSize())),
+	            runnable -> {
+	                Thread thread = new Thread(runnable, "treatment-info-" + threadNumber.incrementAndGet());
+	                thread.setDaemon(true);
+	                return thread;
+	            },
+	            new ThreadPoolExecutor.AbortPolicy());
+	    platformPool.allowCoreThreadTimeOut(true);
+	    lookupPool = platformPool;
+	}
+
+	@Override
+	public void destroy() {
+	    lookupPool.shutdownNow();
+	}
+
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response)
 	        throws ServletException, IOException {
-	    
-	    String cancerType = request.getParameter("cancerType");
-	    getServletContext().log("TreatmentInfoServlet called with cancerType: " + cancerType);
-	    
+
+	    String requested = request.getParameter("cancerType");
+	    getServletContext().log("TreatmentInfoServlet called with cancerType: " + requested);
+
 	    response.setContentType("application/json");
-	    
-	    if (cancerType == null || cancerType.isEmpty() || cancerType.equalsIgnoreCase("unknown")) {
+
+	    if (requested == null || requested.isEmpty() || requested.equalsIgnoreCase("unknown")) {
 	        JsonObjectBuilder jsonBuilder = Json.createObjectBuilder()
 	            .add("success", true)
-	            .add("cancerType", cancerType == null ? "unknown" : cancerType)
+	            .add("cancerType", requested == null ? "unknown" : requested)
 	            .add("treatmentInfo", (String)null);
-	        
+
 	        response.getWriter().write(jsonBuilder.build().toString());
 	        return;
 	    }
-	    
+
+	    CancerPredictor predictor = PredictionServlet.activePredictor(getServletContext());
+	    if (predictor == null) {
+	        writeError(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Prediction model is not loaded");
+	        return;
+	    }
+	    String cancerType = classLabel(predictor.getClassLabels(), requested);
+	    if (cancerType == null) {
+	        writeError(response, HttpServletResponse.SC_BAD_REQUEST, "Unknown cancer type: " + requested);
+	        return;
+	    }
+
+	    AsyncContext asyncContext = request.startAsync();
+	    asyncContext.setTimeout(timeoutMillis);
+
+	    // Exactly one of the lookup and the timeout gets to answer
+	    AtomicBoolean answered = new AtomicBoolean();
+	    Future<?> lookup;
+	    try {
+	        lookup = lookupPool.submit(() -> lookUp(asyncContext, answered, cancerType));
+	    } catch (RejectedExecutionException e) {
+	        getServletContext().log("Treatment info lookups saturated, rejecting request for " + cancerType);
+	        answered.set(true);
+	        response.setHeader("Retry-After", "1");
+	        writeError(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+	                "Too many treatment information requests, please try again shortly");
+	        asyncContext.complete();
+	        return;
+	    }
+
+	    asyncContext.addListener(new AsyncListener() {
+	        @Override
+	        public void onTimeout(AsyncEvent event) throws IOException {
+	            lookup.cancel(true);
+	            if (answered.compareAndSet(false, true)) {
+	                getServletContext().log("Treatment info lookup for " + cancerType + " timed out after "
+	                        + timeoutMillis + " ms");
+	                writeError((HttpServletResponse) event.getSuppliedResponse(),
+	                        HttpServletResponse.SC_GATEWAY_TIMEOUT,
+	                        "Timed out retrieving treatment information");
+	                event.getAsyncContext().complete();
+	            }
+	        }
+
+	        @Override
+	        public void onError(AsyncEvent event) {
+	            // Client went away; stop waiting on its behalf
+	            lookup.cancel(true);
+	            answered.set(true);
+	        }
+
+	        @Override
+	        public void onComplete(AsyncEvent event) {
+	        }
+
+	        @Override
+	        public void onStartAsync(AsyncEvent event) {
+	        }
+	    });
+	}
+
+	private void lookUp(AsyncContext asyncContext, AtomicBoolean answered, String cancerType) {
+	    if (answered.get()) {
+	        return; // Timed out while queued
+	    }
+
+	    JsonObjectBuilder jsonBuilder;
+	    int status = HttpServletResponse.SC_OK;
 	    try {
 	        getServletContext().log("Calling GeminiService.getCancerTreatmentInfo...");
-	        String treatmentInfo = GeminiService.getCancerTreatmentInfo(cancerType);
-	        
+	        String treatmentInfo = GeminiService.getCancerTreatmentInfo(cancerType, timeoutMillis);
+
 	        if (treatmentInfo != null) {
 	            getServletContext().log("Treatment info received, length: " + treatmentInfo.length());
 	        } else {
 	            getServletContext().log("No treatment info returned for this cancer type");
 	        }
-	        
-	        JsonObjectBuilder jsonBuilder = Json.createObjectBuilder()
+
+	        jsonBuilder = Json.createObjectBuilder()
 	            .add("success", true)
 	            .add("cancerType", cancerType);
-	        
+
 	        if (treatmentInfo != null) {
 	            jsonBuilder.add("treatmentInfo", treatmentInfo);
 	        } else {
 	            jsonBuilder.addNull("treatmentInfo");
 	        }
-	        
-	        response.getWriter().write(jsonBuilder.build().toString());
-	        
+
 	    } catch (Exception e) {
 	        getServletContext().log("Error retrieving treatment info: " + e.getMessage(), e);
-	        
-	        JsonObjectBuilder jsonBuilder = Json.createObjectBuilder()
+
+	        jsonBuilder = Json.createObjectBuilder()
 	            .add("success", false)
 	            .add("error", "Failed to retrieve treatment information: " + e.getMessage());
-	        
-	        response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+	        status = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+	    }
+
+	    if (!answered.compareAndSet(false, true)) {
+	        return; // The deadline passed first and has answered already
+	    }
+	    try {
+	        HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+	        response.setStatus(status);
 	        response.getWriter().write(jsonBuilder.build().toString());
+	    } catch (IOException | IllegalStateException e) {
+	        getServletContext().log("Could not send treatment info: " + e.getMessage());
+	    } finally {
+	        asyncContext.complete();
+	    }
+	}
+
+	/**
+	 * The class label matching the requested cancer type, ignoring case and
+	 * surrounding spaces, or null if the model has no such label.
+	 */
+	static String classLabel(List<String> labels, String cancerType) {
+	    String requested = cancerType.trim();
+	    for (String label : labels) {
+	        if (label.equalsIgnoreCase(requested)) {
+	            return label;
+	        }
 	    }
+	    return null;
+	}
+
+	private static void writeError(HttpServletResponse response, int status, String message) throws IOException {
+	    JsonObjectBuilder jsonBuilder = Json.createObjectBuilder()
+	        .add("success", false)
+	        .add("error", message);
+
+	    response.setStatus(status);
+	    response.setContentType("application/json");
+	    response.getWriter().write(jsonBuilder.build().toString());
 	}
-}
\ No newline at end of file
+}
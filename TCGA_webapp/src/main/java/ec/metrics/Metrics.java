@@ -0,0 +1,40 @@
+package ec.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Process-wide instrumentation, exposed by MetricsServlet at /metrics.
+ */
+public class Metrics {
+
+    /** Time spent evaluating the model, excluding cache hits and request handling. */
+    public static final LatencyHistogram INFERENCE = new LatencyHistogram();
+
+    /** Calls to the Gemini API; failed calls and non-200 responses count as errors. */
+    public static final RequestMetrics GEMINI = new RequestMetrics();
+
+    // Sorted so the exposition output is stable
+    private static final ConcurrentMap<String, RequestMetrics> ENDPOINTS = new ConcurrentSkipListMap<>();
+
+    static {
+        // Listed up front so they are exported before their first request
+        for (String endpoint : new String[] {"/predict", "/categories", "/treatment-info", "/health"}) {
+            ENDPOINTS.put(endpoint, new RequestMetrics());
+        }
+    }
+
+    private Metrics() {
+    }
+
+    public static RequestMetrics endpoint(String path) {
+        RequestMetrics metrics = ENDPOINTS.get(path);
+        return metrics != null ? metrics : ENDPOINTS.computeIfAbsent(path, p -> new RequestMetrics());
+    }
+
+    public static Map<String, RequestMetrics> endpoints() {
+        return Collections.unmodifiableMap(ENDPOINTS);
+    }
+}
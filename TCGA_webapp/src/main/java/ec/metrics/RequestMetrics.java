@@ -0,0 +1,47 @@
+package ec.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters, an in-flight gauge and a latency histogram for one kind of call,
+ * such as one endpoint or the Gemini API.
+ */
+public class RequestMetrics {
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder inFlight = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    /**
+     * Marks a call as started; every call must be matched by {@link #end}.
+     */
+    public void begin() {
+        inFlight.increment();
+    }
+
+    public void end(long nanos, boolean error) {
+        inFlight.decrement();
+        requests.increment();
+        if (error) {
+            errors.increment();
+        }
+        latency.record(nanos);
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public long getInFlight() {
+        return inFlight.sum();
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+}
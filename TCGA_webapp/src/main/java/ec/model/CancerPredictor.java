@@ -1,131 +1,371 @@
 package ec.model;
 
+import ec.compiled.CompiledEnsemble;
+import ec.metrics.Metrics;
 import ec.util.ModelLoader;
+import weka.classifiers.AbstractClassifier;
 import weka.classifiers.Classifier;
+import weka.classifiers.trees.RandomForest;
+import weka.classifiers.trees.RandomTree;
 import weka.core.Attribute;
 import weka.core.DenseInstance;
 import weka.core.Instance;
 import weka.core.Instances;
+import weka.core.Utils;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Predicts the cancer type of a cell line. A single instance is shared by all
+ * request threads: everything built at construction time is read-only, and each
+ * call returns its own immutable {@link Prediction}.
+ * <p>
+ * Every feature is nominal with only a handful of values, so the encoded
+ * feature vector is packed into a single long and repeated combinations are
+ * answered from a {@link PredictionCache} without evaluating the model.
+ * Random Forests, LogitBoost and IBk are evaluated through their
+ * {@link CompiledEnsemble} when the bundle has one. Other classifiers that keep
+ * state while classifying are copied, at most once per CPU, and the copies are
+ * lent out to one request at a time until the predictor is {@link #retire() retired}.
+ */
 public class CancerPredictor {
     
-    private Classifier model;
-    private ArrayList<Attribute> attributes;
-    private Map<String, List<String>> attributeValues;
-    private Map<String, Integer> attributeIndexMap; // For fast attribute lookups
-    private double lastPredictionConfidence = 0.0;
-    
+    /** Cache size used when none is configured. */
+    public static final int DEFAULT_CACHE_SIZE = 10_000;
+
+    /** Distinct unknown values that are logged; later ones are only reported to the caller. */
+    private static final int MAX_LOGGED_UNKNOWN_VALUES = 1000;
+
+    private final Classifier model;
+    private final CompiledEnsemble compiledModel; // Null unless the model could be compiled
+    private final Instances header; // Shared, never modified after construction
+    private final String modelPath;
+    private final int classIndex;
+    private final String[] classLabels;
+    private final Map<String, List<String>> attributeValues;
+    private final Map<String, Integer> attributeIndexMap; // For fast attribute lookups
+    private final List<Map<String, Integer>> valueIndexMaps; // Value -> nominal index, per attribute
+    private final double[] defaultValues; // "unknown" for every feature, missing class
+    private final int[] keyShifts; // Bit offset of each feature in the packed key, -1 for the class
+    private final PredictionCache cache;
+    private final Set<String> loggedUnknownValues = ConcurrentHashMap.newKeySet();
+
+    // Classifiers whose distributionForInstance keeps state (SMO filters, IBk search) are copied into a pool;
+    // more copies than CPUs would only wait for a core, and an IBk copy holds the whole training set
+    private final BlockingQueue<Classifier> modelPool; // Null if the model can be shared
+    private final int poolSize;
+    private final AtomicInteger copiesMade = new AtomicInteger();
+    private volatile boolean retired;
+
     public CancerPredictor(String modelPath) throws Exception {
-        // Load the model
-        model = ModelLoader.loadModel(modelPath);
-        
-        // Define the attributes (must match the model's training data)
-        attributes = new ArrayList<>();
-        attributeValues = new HashMap<>();
+        this(ModelLoader.loadModelBundle(modelPath));
+    }
+
+    public CancerPredictor(String modelPath, int cacheSize, PredictionCache.Eviction eviction) throws Exception {
+        this(ModelLoader.loadModelBundle(modelPath), cacheSize, eviction);
+    }
+
+    public CancerPredictor(ModelBundle bundle) {
+        this(bundle, DEFAULT_CACHE_SIZE, PredictionCache.Eviction.LRU);
+    }
+
+    /**
+     * @param cacheSize maximum number of cached predictions; 0 disables caching
+     */
+    public CancerPredictor(ModelBundle bundle, int cacheSize, PredictionCache.Eviction eviction) {
+        // The bundle carries the classifier and the exact header it was trained on
+        model = bundle.getClassifier();
+        compiledModel = bundle.getCompiledModel();
+        header = new Instances(bundle.getHeader(), 0);
+        modelPath = bundle.getPath();
+        classIndex = header.classIndex();
+
+        attributeValues = new LinkedHashMap<>();
         attributeIndexMap = new HashMap<>();
-        
-        // Initialize with exact values as specified
-        initializeAttributes(modelPath);
+        valueIndexMaps = new ArrayList<>();
+        defaultValues = new double[header.numAttributes()];
+
+        // Take attribute names and values straight from the training header
+        for (int i = 0; i < header.numAttributes(); i++) {
+            Attribute attr = header.attribute(i);
+            List<String> values = new ArrayList<>();
+            Map<String, Integer> valueIndex = new HashMap<>();
+            for (int j = 0; j < attr.numValues(); j++) {
+                values.add(attr.value(j));
+                valueIndex.put(attr.value(j), j);
+            }
+            attributeValues.put(attr.name(), Collections.unmodifiableList(values));
+            attributeIndexMap.put(attr.name(), i);
+            valueIndexMaps.add(valueIndex);
+
+            Integer unknown = valueIndex.get("unknown");
+            defaultValues[i] = unknown != null ? unknown : Utils.missingValue();
+        }
+        defaultValues[classIndex] = Utils.missingValue();
+
+        Attribute classAttr = header.classAttribute();
+        classLabels = new String[classAttr.numValues()];
+        for (int i = 0; i < classLabels.length; i++) {
+            classLabels[i] = classAttr.value(i);
+        }
+
+        poolSize = Runtime.getRuntime().availableProcessors();
+        modelPool = compiledModel != null || isThreadSafe(model) ? null : new ArrayBlockingQueue<>(poolSize);
+
+        // Each feature takes just enough bits for its values plus one code for "missing"
+        keyShifts = new int[header.numAttributes()];
+        int keyBits = 0;
+        for (int i = 0; i < header.numAttributes(); i++) {
+            if (i == classIndex) {
+                keyShifts[i] = -1;
+                continue;
+            }
+            keyShifts[i] = keyBits;
+            keyBits += 32 - Integer.numberOfLeadingZeros(header.attribute(i).numValues());
+        }
+        if (keyBits > Long.SIZE && cacheSize > 0) {
+            System.out.println("Warning: features need " + keyBits + " bits, more than a cache key holds. "
+                    + "Prediction caching is disabled.");
+            cacheSize = 0;
+        }
+        cache = new PredictionCache(cacheSize, eviction);
     }
-    
-    private void initializeAttributes(String modelPath) {
-        // Set up attribute values for each feature as specified
-        
-        Map<String, List<String>> columnCategories = ModelLoader.loadCategoriesFromCSV();
-        attributeValues = new HashMap<>();
-        List<String> columns = Arrays.asList(
-        	    "Whole Exome Sequencing (WES)",
-        	    "Copy Number Alterations (CNA)",
-        	    "Gene Expression",
-        	    "Methylation",
-        	    "Drug Response",
-        	    "GDSC Tissue descriptor 1",
-        	    "GDSC Tissue descriptor 2",
-        	    "Microsatellite instability Status (MSI)",
-        	    "Screen Medium",
-        	    "Growth Properties",
-        	    "Cancer Type (matching TCGA label)"
-    	);
-
-    	int index = 0;
-    	for (String column : columns) {
-    	    if (columnCategories.containsKey(column)) {
-    	        attributeValues.put(column, columnCategories.get(column));
-    	        attributes.add(createAttribute(column, index++));
-    	    }
-    	}
+
+    /**
+     * The file the model bundle was loaded from.
+     */
+    public String getModelPath() {
+        return modelPath;
     }
-    
-    // Helper method to create attribute and store its index
-    private Attribute createAttribute(String name, int index) {
-        Attribute attr = new Attribute(name, attributeValues.get(name));
-        attributeIndexMap.put(name, index);
-        return attr;
+
+    /**
+     * The nominal values of every attribute, in training order, keyed by column name.
+     */
+    public Map<String, List<String>> getCategories() {
+        return Collections.unmodifiableMap(attributeValues);
     }
-    
-    public String predict(Map<String, String> features) throws Exception {
-        // Create dataset structure
-        Instances dataStructure = new Instances("TestInstances", attributes, 0);
-        dataStructure.setClassIndex(attributes.size() - 1); // Set last attribute as class
-        
-        // Create instance with the feature values
-        Instance instance = new DenseInstance(attributes.size());
-        instance.setDataset(dataStructure);
-        
-        // Fill with default values first to prevent any null values
-        for (int i = 0; i < attributes.size() - 1; i++) { // Skip class attribute
-            instance.setValue(i, attributeValues.get(attributes.get(i).name()).indexOf("unknown"));
-        }
-        
-        // Set attribute values from features map
+
+    /**
+     * The possible predictions, indexed like {@link Prediction#getDistribution()}.
+     */
+    public List<String> getClassLabels() {
+        return Collections.unmodifiableList(Arrays.asList(classLabels));
+    }
+
+    /**
+     * The cache in front of the model, for its hit and miss counters.
+     */
+    public PredictionCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Drops the pooled model copies once this predictor has been replaced.
+     * Requests still holding it keep working, each on a copy of its own.
+     */
+    public void retire() {
+        retired = true;
+        if (modelPool != null) {
+            modelPool.clear();
+        }
+    }
+
+    public Prediction predict(Map<String, String> features) throws Exception {
+        return predict(features, null);
+    }
+
+    /**
+     * Same as {@link #predict(Map)}, and puts the features whose values the model
+     * has never seen, and so treated as "unknown", into unknownValues if it is not null.
+     */
+    public Prediction predict(Map<String, String> features, Map<String, String> unknownValues) throws Exception {
+        double[] values = encode(features, unknownValues);
+        if (!cache.isEnabled()) {
+            return predictTimed(values);
+        }
+
+        // Predictions are immutable, so one instance can be handed to every caller
+        long key = packKey(values);
+        Prediction prediction = cache.get(key);
+        if (prediction == null) {
+            prediction = predictTimed(values);
+            cache.put(key, prediction);
+        }
+        return prediction;
+    }
+
+    private Prediction predictTimed(double[] values) throws Exception {
+        long start = System.nanoTime();
+        Prediction prediction = predictEncoded(values);
+        Metrics.INFERENCE.record(System.nanoTime() - start);
+        return prediction;
+    }
+
+    /**
+     * Converts feature values to the nominal indices the model was trained on.
+     * Missing, empty and unseen values become "unknown"; the unseen ones are
+     * collected into unknownValues if it is not null.
+     */
+    private double[] encode(Map<String, String> features, Map<String, String> unknownValues) {
+        // Start from the defaults to prevent any missing feature values
+        double[] values = defaultValues.clone();
+
         for (Map.Entry<String, String> entry : features.entrySet()) {
             String attrName = entry.getKey();
             String attrValue = entry.getValue();
-            
+
+            // Use our index map to quickly find the attribute index
+            Integer attrIndex = attributeIndexMap.get(attrName);
+            if (attrIndex == null || attrIndex == classIndex) {
+                continue;
+            }
+
             // Make sure we handle unknown values
             if (attrValue == null || attrValue.isEmpty()) {
-                attrValue = "unknown";
+                continue;
             }
-            
-            // Use our index map to quickly find the attribute index
-            Integer attrIndex = attributeIndexMap.get(attrName);
-            
-            if (attrIndex != null && attrIndex < attributes.size()) {
-                Attribute attr = attributes.get(attrIndex);
-                List<String> values = attributeValues.get(attrName);
-                
-                // Check if entered value is valid - this applies to all fields including tissue descriptors
-                if (values.contains(attrValue)) {
-                    instance.setValue(attrIndex, values.indexOf(attrValue));
-                } else {
-                    // Use unknown for values not in our list
-                    System.out.println("Warning: Unknown value '" + attrValue + "' for attribute '" + 
-                                      attrName + "'. Using 'unknown' instead.");
-                    instance.setValue(attrIndex, values.indexOf("unknown"));
+
+            // Check if entered value is valid - this applies to all fields including tissue descriptors
+            Integer valueIndex = valueIndexMaps.get(attrIndex).get(attrValue);
+            if (valueIndex != null) {
+                values[attrIndex] = valueIndex;
+            } else {
+                // Use unknown for values not in our list
+                if (unknownValues != null) {
+                    unknownValues.put(attrName, attrValue);
                 }
+                logUnknownValue(attrName, attrValue);
             }
         }
-        
-        // Make the prediction
-        double[] distribution = model.distributionForInstance(instance);
-        int predictionIndex = (int) model.classifyInstance(instance);
-        
-        // Get confidence
-        if (distribution.length > 0) {
-            lastPredictionConfidence = distribution[predictionIndex] * 100.0;
+
+        return values;
+    }
+
+    /**
+     * Logs each unknown value once per attribute, so a batch upload that repeats
+     * one does not flood the log, and stops after a bounded number of them.
+     */
+    private void logUnknownValue(String attrName, String attrValue) {
+        if (loggedUnknownValues.size() > MAX_LOGGED_UNKNOWN_VALUES
+                || !loggedUnknownValues.add(attrName + '\u0000' + attrValue)) {
+            return;
+        }
+        if (loggedUnknownValues.size() > MAX_LOGGED_UNKNOWN_VALUES) {
+            System.out.println("Warning: more than " + MAX_LOGGED_UNKNOWN_VALUES
+                    + " distinct unknown values; no longer logging them.");
+            return;
         }
-        
-        // Return the predicted class name
-        Attribute classAttr = dataStructure.classAttribute();
-        return classAttr.value(predictionIndex);
+        System.out.println("Warning: Unknown value '" + attrValue + "' for attribute '" +
+                          attrName + "'. Using 'unknown' instead. Logged once per value.");
     }
-    
-    public double getPredictionConfidence() {
-        return lastPredictionConfidence;
+
+    /**
+     * Evaluates the model without consulting or filling the cache, for warming up
+     * a freshly loaded model.
+     */
+    Prediction predictUncached(Map<String, String> features) throws Exception {
+        return predictEncoded(encode(features, null));
+    }
+
+    private long packKey(double[] values) {
+        long key = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (keyShifts[i] < 0) {
+                continue;
+            }
+            // Missing values use the code one past the last nominal index
+            long code = Utils.isMissingValue(values[i]) ? valueIndexMaps.get(i).size() : (long) values[i];
+            key |= code << keyShifts[i];
+        }
+        return key;
+    }
+
+    private Prediction predictEncoded(double[] values) throws Exception {
+        if (compiledModel != null) {
+            double[] distribution = new double[classLabels.length];
+            compiledModel.distributionForInstance(values, distribution);
+            int predictionIndex = Utils.maxIndex(distribution);
+            return new Prediction(classLabels[predictionIndex], distribution[predictionIndex] * 100.0, distribution);
+        }
+
+        Instance instance = new DenseInstance(1.0, values);
+        instance.setDataset(header);
+
+        // One evaluation gives both the predicted class and its confidence
+        double[] distribution;
+        if (modelPool == null) {
+            distribution = model.distributionForInstance(instance);
+        } else {
+            Classifier copy = borrowModel();
+            try {
+                distribution = copy.distributionForInstance(instance);
+            } finally {
+                returnModel(copy);
+            }
+        }
+        int predictionIndex = Utils.maxIndex(distribution);
+
+        return new Prediction(classLabels[predictionIndex], distribution[predictionIndex] * 100.0, distribution);
+    }
+
+    private static boolean isThreadSafe(Classifier model) {
+        // Tree ensembles only read their nodes when classifying
+        return model instanceof RandomForest || model instanceof RandomTree;
+    }
+
+    /**
+     * Takes a copy from the pool, makes one if fewer than poolSize exist, and
+     * otherwise waits for one to be returned.
+     */
+    private Classifier borrowModel() throws InterruptedException {
+        Classifier copy = modelPool.poll();
+        while (copy == null) {
+            if (retired) {
+                return copyModel();
+            }
+            int made = copiesMade.get();
+            if (made < poolSize) {
+                if (copiesMade.compareAndSet(made, made + 1)) {
+                    try {
+                        return copyModel();
+                    } catch (RuntimeException e) {
+                        copiesMade.decrementAndGet();
+                        throw e;
+                    }
+                }
+                continue;
+            }
+            // Returns are dropped after retirement, so don't wait for one indefinitely
+            copy = modelPool.poll(100, TimeUnit.MILLISECONDS);
+        }
+        return copy;
+    }
+
+    private void returnModel(Classifier copy) {
+        if (!retired) {
+            modelPool.offer(copy);
+            if (retired) {
+                modelPool.clear();
+            }
+        }
+    }
+
+    private Classifier copyModel() {
+        try {
+            return AbstractClassifier.makeCopy(model);
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not copy the model for a request", e);
+        }
     }
-}
\ No newline at end of file
+}
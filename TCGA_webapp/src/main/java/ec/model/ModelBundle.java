@@ -0,0 +1,54 @@
+package ec.model;
+
+import ec.compiled.CompiledEnsemble;
+import weka.classifiers.Classifier;
+import weka.core.Instances;
+
+/**
+ * A trained classifier together with the header (attributes, nominal values and
+ * class index) of the data it was trained on, as written by ModelTrainingApp.
+ * Random Forests, LogitBoost and IBk also carry their flattened form when it
+ * could be compiled. A bundle read from a compact model file has only that form, and no
+ * Weka classifier.
+ */
+public class ModelBundle {
+    
+    private final Classifier classifier;
+    private final Instances header;
+    private final String path;
+    private final CompiledEnsemble compiledModel;
+    
+    public ModelBundle(Classifier classifier, Instances header, String path) {
+        this(classifier, header, path, null);
+    }
+    
+    public ModelBundle(Classifier classifier, Instances header, String path, CompiledEnsemble compiledModel) {
+        this.classifier = classifier;
+        this.header = header;
+        this.path = path;
+        this.compiledModel = compiledModel;
+    }
+    
+    /**
+     * The Weka classifier, or null if the bundle was read from a compact model file.
+     */
+    public Classifier getClassifier() {
+        return classifier;
+    }
+    
+    public Instances getHeader() {
+        return header;
+    }
+    
+    public String getPath() {
+        return path;
+    }
+    
+    /**
+     * The classifier compiled to flat arrays, or null if it is not a Random Forest,
+     * LogitBoost or IBk, or did not match Weka's output.
+     */
+    public CompiledEnsemble getCompiledModel() {
+        return compiledModel;
+    }
+}
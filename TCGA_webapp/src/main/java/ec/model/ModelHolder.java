@@ -0,0 +1,414 @@
+package ec.model;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+
+/**
+ * Owns the active {@link CancerPredictor} and replaces it without downtime when
+ * the model file changes. A new model is loaded, warmed up and smoke tested on a
+ * background thread, then swapped in atomically; requests that already hold the
+ * old predictor finish on it, and it is retired so its pooled model copies can
+ * be collected. A model that fails to load, fails the smoke test or agrees with
+ * the current model on fewer smoke-test samples than the configured minimum is
+ * rejected, and the current one stays active.
+ */
+public class ModelHolder {
+
+    /** Number of past loads kept for the health check. */
+    private static final int HISTORY_SIZE = 20;
+    private static final int SAMPLE_COUNT = 200;
+    private static final int WARMUP_ROUNDS = 5;
+
+    private final String modelPath;
+    private final int cacheSize;
+    private final PredictionCache.Eviction eviction;
+    private final double minAgreement;
+
+    private final AtomicReference<Active> active = new AtomicReference<>();
+    private final Deque<Swap> history = new ArrayDeque<>();
+    private final AtomicInteger generations = new AtomicInteger();
+    private final AtomicReference<CompletableFuture<Swap>> pendingReload = new AtomicReference<>();
+    private final ScheduledExecutorService executor;
+
+    // Modification time and length of the file, as last seen and as last loaded; guarded by this
+    private String lastSeenStamp;
+    private String lastLoadedStamp;
+
+    public ModelHolder(String modelPath, int cacheSize, PredictionCache.Eviction eviction) {
+        this(modelPath, cacheSize, eviction, 0);
+    }
+
+    /**
+     * @param minAgreement share of smoke-test samples, from 0 to 1, on which a new
+     *        model must predict the same label as the active one to replace it
+     */
+    public ModelHolder(String modelPath, int cacheSize, PredictionCache.Eviction eviction, double minAgreement) {
+        this.modelPath = modelPath;
+        this.cacheSize = cacheSize;
+        this.eviction = eviction;
+        this.minAgreement = minAgreement;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "model-reload");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Loads the first model on the calling thread.
+     *
+     * @throws Exception if the model cannot be loaded or fails the smoke test
+     */
+    public Swap loadInitial() throws Exception {
+        Swap swap = load();
+        if (!swap.isActivated()) {
+            throw new Exception(swap.getMessage());
+        }
+        return swap;
+    }
+
+    /**
+     * The predictor to use for one request. Callers should fetch it once and use
+     * that instance throughout, so a swap never changes models mid-request.
+     */
+    public CancerPredictor get() {
+        Active current = active.get();
+        return current != null ? current.predictor : null;
+    }
+
+    public String getModelPath() {
+        return modelPath;
+    }
+
+    /**
+     * The load that produced the active predictor, or null before the first load.
+     */
+    public Swap getActiveSwap() {
+        Active current = active.get();
+        return current != null ? current.swap : null;
+    }
+
+    /**
+     * Past loads, most recent first, including rejected ones.
+     */
+    public List<Swap> getHistory() {
+        synchronized (history) {
+            return Collections.unmodifiableList(new ArrayList<>(history));
+        }
+    }
+
+    /**
+     * Reloads the model file in the background. Calls made while a reload is
+     * running share its result.
+     */
+    public CompletableFuture<Swap> reload() {
+        while (true) {
+            CompletableFuture<Swap> pending = pendingReload.get();
+            if (pending != null) {
+                return pending;
+            }
+            CompletableFuture<Swap> future = new CompletableFuture<>();
+            if (pendingReload.compareAndSet(null, future)) {
+                executor.execute(() -> {
+                    // Cleared before completing, so a reload asked for after this one finished runs again
+                    try {
+                        Swap swap = load();
+                        pendingReload.set(null);
+                        future.complete(swap);
+                    } catch (Throwable t) {
+                        pendingReload.set(null);
+                        future.completeExceptionally(t);
+                    }
+                });
+                return future;
+            }
+        }
+    }
+
+    /**
+     * Polls the model file and reloads it once it has changed and then stayed the
+     * same for one interval, so a file still being written is not picked up.
+     */
+    public void watch(long intervalSeconds) {
+        if (intervalSeconds <= 0) {
+            return;
+        }
+        executor.scheduleWithFixedDelay(this::pollModelFile, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private synchronized void pollModelFile() {
+        File file = new File(modelPath);
+        if (!file.isFile()) {
+            return;
+        }
+        String stamp = file.lastModified() + ":" + file.length();
+        if (stamp.equals(lastLoadedStamp)) {
+            lastSeenStamp = stamp;
+            return;
+        }
+        if (stamp.equals(lastSeenStamp)) {
+            System.out.println("Model file changed, reloading " + modelPath);
+            // Already on the executor thread, so load directly instead of queueing behind ourselves
+            load();
+        }
+        lastSeenStamp = stamp;
+    }
+
+    private synchronized Swap load() {
+        File file = new File(modelPath);
+        String stamp = file.lastModified() + ":" + file.length();
+        Active previous = active.get();
+
+        String checksum;
+        try {
+            checksum = checksum(file);
+        } catch (IOException e) {
+            checksum = null;
+        }
+        if (previous != null && previous.swap.checksum.equals(checksum)) {
+            // Touched but not changed: nothing to swap
+            lastLoadedStamp = stamp;
+            return previous.swap;
+        }
+
+        int generation = generations.incrementAndGet();
+        long start = System.currentTimeMillis();
+        Swap swap;
+        try {
+            if (checksum == null) {
+                throw new IOException("Cannot read " + file.getAbsolutePath());
+            }
+            CancerPredictor candidate = new CancerPredictor(modelPath, cacheSize, eviction);
+            long loadMillis = System.currentTimeMillis() - start;
+
+            List<Map<String, String>> samples = sampleInputs(candidate, SAMPLE_COUNT);
+            long warmupStart = System.currentTimeMillis();
+            for (int round = 0; round < WARMUP_ROUNDS; round++) {
+                for (Map<String, String> sample : samples) {
+                    candidate.predictUncached(sample);
+                }
+            }
+            long warmupMillis = System.currentTimeMillis() - warmupStart;
+
+            String failure = smokeTest(candidate, samples);
+            double agreement = failure == null && previous != null
+                    ? agreement(previous.predictor, candidate, samples) : -1;
+            if (failure != null) {
+                swap = new Swap(generation, modelPath, checksum, file.lastModified(), false,
+                        "Smoke test failed: " + failure, loadMillis, warmupMillis, -1);
+                candidate.retire();
+            } else if (previous != null && agreement < minAgreement) {
+                swap = new Swap(generation, modelPath, checksum, file.lastModified(), false,
+                        String.format("Agrees with the active model on %.1f%% of samples, below the minimum of "
+                                + "%.1f%%", agreement * 100, minAgreement * 100),
+                        loadMillis, warmupMillis, agreement);
+                candidate.retire();
+            } else {
+                swap = new Swap(generation, modelPath, checksum, file.lastModified(), true,
+                        "Activated", loadMillis, warmupMillis, agreement);
+                active.set(new Active(candidate, swap));
+                if (previous != null) {
+                    previous.predictor.retire();
+                }
+            }
+        } catch (Exception e) {
+            swap = new Swap(generation, modelPath, checksum, file.lastModified(), false,
+                    "Load failed: " + e.getMessage(), System.currentTimeMillis() - start, 0, -1);
+        }
+
+        // A rejected file is not retried until it changes again
+        lastLoadedStamp = stamp;
+        synchronized (history) {
+            history.addFirst(swap);
+            while (history.size() > HISTORY_SIZE) {
+                history.removeLast();
+            }
+        }
+        System.out.println("Model generation " + generation + ": " + swap.getMessage()
+                + " (" + modelPath + ", load " + swap.getLoadMillis() + " ms, warm-up "
+                + swap.getWarmupMillis() + " ms)");
+        return swap;
+    }
+
+    /**
+     * Random but repeatable inputs drawn from the model's own categories.
+     */
+    private static List<Map<String, String>> sampleInputs(CancerPredictor predictor, int count) {
+        Random random = new Random(42);
+        List<Map<String, String>> samples = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Map<String, String> sample = new HashMap<>();
+            for (Map.Entry<String, List<String>> entry : predictor.getCategories().entrySet()) {
+                List<String> values = entry.getValue();
+                if (!values.isEmpty()) {
+                    sample.put(entry.getKey(), values.get(random.nextInt(values.size())));
+                }
+            }
+            samples.add(sample);
+        }
+        return samples;
+    }
+
+    /**
+     * Returns null if every sample gets a known label and a proper probability
+     * distribution, or a description of the first problem found.
+     */
+    private static String smokeTest(CancerPredictor predictor, List<Map<String, String>> samples) throws Exception {
+        List<String> labels = predictor.getClassLabels();
+        if (labels.isEmpty()) {
+            return "model has no class labels";
+        }
+        for (Map<String, String> sample : samples) {
+            Prediction prediction = predictor.predictUncached(sample);
+            if (!labels.contains(prediction.getLabel())) {
+                return "unknown label " + prediction.getLabel();
+            }
+            double sum = 0;
+            for (double p : prediction.getDistribution()) {
+                if (Double.isNaN(p) || p < 0) {
+                    return "invalid probability " + p;
+                }
+                sum += p;
+            }
+            if (Math.abs(sum - 1.0) > 1e-6) {
+                return "probabilities sum to " + sum;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Share of samples on which the old and new model predict the same label.
+     */
+    private static double agreement(CancerPredictor previous, CancerPredictor candidate,
+            List<Map<String, String>> samples) throws Exception {
+        int same = 0;
+        for (Map<String, String> sample : samples) {
+            if (previous.predictUncached(sample).getLabel().equals(candidate.predictUncached(sample).getLabel())) {
+                same++;
+            }
+        }
+        return (double) same / samples.size();
+    }
+
+    private static String checksum(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+            }
+        }
+        return String.format("%08x", crc.getValue());
+    }
+
+    private static class Active {
+        private final CancerPredictor predictor;
+        private final Swap swap;
+
+        Active(CancerPredictor predictor, Swap swap) {
+            this.predictor = predictor;
+            this.swap = swap;
+        }
+    }
+
+    /**
+     * The outcome of one attempt to load the model file.
+     */
+    public static class Swap {
+        private final int generation;
+        private final String path;
+        private final String checksum;
+        private final long fileLastModified;
+        private final boolean activated;
+        private final String message;
+        private final long loadMillis;
+        private final long warmupMillis;
+        private final double agreement;
+        private final long completedAt;
+
+        Swap(int generation, String path, String checksum, long fileLastModified, boolean activated,
+                String message, long loadMillis, long warmupMillis, double agreement) {
+            this.generation = generation;
+            this.path = path;
+            this.checksum = checksum;
+            this.fileLastModified = fileLastModified;
+            this.activated = activated;
+            this.message = message;
+            this.loadMillis = loadMillis;
+            this.warmupMillis = warmupMillis;
+            this.agreement = agreement;
+            this.completedAt = System.currentTimeMillis();
+        }
+
+        /** Counts every load attempt, starting at 1. */
+        public int getGeneration() {
+            return generation;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        /** CRC32 of the model file, or null if it could not be read. */
+        public String getChecksum() {
+            return checksum;
+        }
+
+        /** Version string shown by the health check: generation and file checksum. */
+        public String getVersion() {
+            return generation + "-" + (checksum != null ? checksum : "unreadable");
+        }
+
+        public long getFileLastModified() {
+            return fileLastModified;
+        }
+
+        public boolean isActivated() {
+            return activated;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public long getLoadMillis() {
+            return loadMillis;
+        }
+
+        public long getWarmupMillis() {
+            return warmupMillis;
+        }
+
+        /** Share of smoke-test samples predicted the same as the previous model, -1 if there was none. */
+        public double getAgreement() {
+            return agreement;
+        }
+
+        public long getCompletedAt() {
+            return completedAt;
+        }
+    }
+}
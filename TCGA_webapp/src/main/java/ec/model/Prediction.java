@@ -0,0 +1,36 @@
+package ec.model;
+
+/**
+ * The immutable result of one prediction: the predicted cancer type, its
+ * confidence in percent and the full class probability distribution.
+ */
+public class Prediction {
+
+    private final String label;
+    private final double confidence;
+    private final double[] distribution;
+
+    public Prediction(String label, double confidence, double[] distribution) {
+        this.label = label;
+        this.confidence = confidence;
+        this.distribution = distribution.clone();
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * Probability of the predicted class, in percent.
+     */
+    public double getConfidence() {
+        return confidence;
+    }
+
+    /**
+     * Probability of every class, indexed like {@link CancerPredictor#getClassLabels()}.
+     */
+    public double[] getDistribution() {
+        return distribution.clone();
+    }
+}
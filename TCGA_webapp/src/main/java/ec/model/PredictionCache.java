@@ -0,0 +1,159 @@
+package ec.model;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded, thread-safe map from packed feature vectors to their predictions.
+ * Entries are spread over independently locked segments, each evicting its own
+ * least recently used (or oldest inserted) entry once full.
+ * <p>
+ * A cache belongs to a single {@link CancerPredictor}, so loading a new model
+ * starts from an empty cache.
+ */
+public class PredictionCache {
+
+    public enum Eviction {
+        /** Evict the entry that was read or written least recently. */
+        LRU,
+        /** Evict the entry that was inserted first, whatever its use since. */
+        FIFO
+    }
+
+    private static final int MAX_SEGMENTS = 16;
+
+    private final Segment[] segments;
+    private final int segmentMask;
+    private final int maxEntries;
+    private final Eviction eviction;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxEntries upper bound on cached predictions; 0 disables the cache
+     */
+    public PredictionCache(int maxEntries, Eviction eviction) {
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException("maxEntries must not be negative: " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+        this.eviction = eviction;
+
+        // Small caches get fewer segments so every segment still holds a few entries
+        int segmentCount = 1;
+        while (segmentCount < MAX_SEGMENTS && segmentCount * 2 * 64 <= maxEntries) {
+            segmentCount *= 2;
+        }
+        segments = new Segment[segmentCount];
+        int perSegment = (maxEntries + segmentCount - 1) / segmentCount;
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(perSegment, eviction == Eviction.LRU);
+        }
+        segmentMask = segmentCount - 1;
+    }
+
+    public boolean isEnabled() {
+        return maxEntries > 0;
+    }
+
+    /**
+     * Returns the cached prediction for the key, or null, and counts the hit or miss.
+     */
+    public Prediction get(long key) {
+        if (!isEnabled()) {
+            return null;
+        }
+        Prediction prediction = segmentFor(key).get(key);
+        if (prediction != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return prediction;
+    }
+
+    public void put(long key, Prediction prediction) {
+        if (isEnabled()) {
+            segmentFor(key).put(key, prediction);
+        }
+    }
+
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public Eviction getEviction() {
+        return eviction;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    private Segment segmentFor(long key) {
+        // Packed keys differ mostly in their low bits, so mix before picking a segment
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return segments[(int) (hash >>> 32) & segmentMask];
+    }
+
+    private final class Segment {
+        private final Map<Long, Prediction> entries;
+
+        Segment(int capacity, boolean accessOrder) {
+            entries = new LinkedHashMap<Long, Prediction>(16, 0.75f, accessOrder) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, Prediction> eldest) {
+                    if (size() > capacity) {
+                        evictions.increment();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        // Reads reorder an access-ordered map, so they need the lock as well
+        synchronized Prediction get(long key) {
+            return entries.get(key);
+        }
+
+        synchronized void put(long key, Prediction prediction) {
+            entries.put(key, prediction);
+        }
+
+        synchronized void clear() {
+            entries.clear();
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+    }
+}
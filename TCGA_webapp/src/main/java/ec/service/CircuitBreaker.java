@@ -0,0 +1,90 @@
+package ec.service;
+
+/**
+ * Stops calling an upstream that keeps failing. After a run of consecutive
+ * failures the breaker opens and calls are refused without trying; once the
+ * open period has passed a single trial call is let through. If it succeeds the
+ * breaker closes again, otherwise it reopens for twice as long, up to a cap.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openMillis;
+    private final long maxOpenMillis;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private int consecutiveOpenings;
+    private long openUntil;
+    private long rejected;
+
+    /**
+     * @param failureThreshold consecutive failures that open the breaker
+     * @param openMillis       how long it stays open the first time
+     * @param maxOpenMillis    longest it stays open after repeated failed trials
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis, long maxOpenMillis) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("failureThreshold must be at least 1: " + failureThreshold);
+        }
+        this.failureThreshold = failureThreshold;
+        this.openMillis = Math.max(1, openMillis);
+        this.maxOpenMillis = Math.max(this.openMillis, maxOpenMillis);
+    }
+
+    /**
+     * Whether a call may go ahead. Every permitted call must be followed by
+     * {@link #recordSuccess()} or {@link #recordFailure()}.
+     */
+    public synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() >= openUntil) {
+                    state = State.HALF_OPEN;
+                    return true;
+                }
+                break;
+            case HALF_OPEN:
+                // The trial call is still running
+                break;
+        }
+        rejected++;
+        return false;
+    }
+
+    public synchronized void recordSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        consecutiveOpenings = 0;
+    }
+
+    public synchronized void recordFailure() {
+        if (state == State.OPEN) {
+            return; // A call started before the breaker opened; don't extend the wait
+        }
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            long duration = Math.min(openMillis << Math.min(consecutiveOpenings, 20), maxOpenMillis);
+            openUntil = System.currentTimeMillis() + duration;
+            consecutiveOpenings++;
+            state = State.OPEN;
+            System.err.println("Circuit breaker opened after " + consecutiveFailures + " failures, next try in "
+                    + duration + " ms");
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /** Calls refused because the breaker was open. */
+    public synchronized long getRejected() {
+        return rejected;
+    }
+}
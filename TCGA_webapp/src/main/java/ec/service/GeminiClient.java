@@ -0,0 +1,364 @@
+package ec.service;
+
+import ec.metrics.Metrics;
+
+import javax.json.Json;
+import javax.json.stream.JsonParser;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Calls the Gemini generateContent and streamGenerateContent APIs. Connections
+ * are kept alive and reused between calls (bodies are always read to the end so
+ * the JDK can pool them), responses are parsed as a stream, transient failures
+ * are retried with exponential backoff within the caller's deadline, and a
+ * circuit breaker refuses calls outright while the API keeps failing.
+ */
+public class GeminiClient {
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 10000;
+    private static final int READ_TIMEOUT_MILLIS = 30000;
+    private static final long RETRY_BASE_DELAY_MILLIS = 200;
+    private static final int MAX_ERROR_BODY_CHARS = 2000;
+
+    private final String modelUrl;
+    private final String apiKey;
+    private final int maxRetries;
+    private final CircuitBreaker breaker;
+
+    /**
+     * @param modelUrl   URL of the model, without the ":generateContent" method suffix
+     * @param maxRetries extra attempts after a failed call that is worth retrying
+     */
+    public GeminiClient(String modelUrl, String apiKey, int maxRetries, CircuitBreaker breaker) {
+        this.modelUrl = modelUrl.endsWith("/") ? modelUrl.substring(0, modelUrl.length() - 1) : modelUrl;
+        this.apiKey = apiKey;
+        this.maxRetries = Math.max(0, maxRetries);
+        this.breaker = breaker;
+    }
+
+    /** Receives the text of a streamed response piece by piece. */
+    public interface ChunkListener {
+        void onChunk(String text) throws IOException;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return breaker;
+    }
+
+    /**
+     * Sends the prompt and returns the text of the first candidate, or null if
+     * the API failed, answered with an error, or the circuit is open. Gives up
+     * once timeoutMillis has passed.
+     */
+    public String generate(String prompt, int timeoutMillis) throws InterruptedIOException {
+        byte[] requestBody = requestBody(prompt);
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+
+        for (int attempt = 0; ; attempt++) {
+            int remaining = (int) Math.min(Integer.MAX_VALUE, deadline - System.currentTimeMillis());
+            if (remaining <= 0 || !breaker.allowRequest()) {
+                return null;
+            }
+            Attempt result = attempt(requestBody, remaining);
+            if (result.text != null) {
+                breaker.recordSuccess();
+                return result.text;
+            }
+            if (result.countsAgainstUpstream) {
+                breaker.recordFailure();
+            } else {
+                // The upstream is up, the request or key is at fault
+                breaker.recordSuccess();
+            }
+            if (!result.retryable || attempt >= maxRetries) {
+                return null;
+            }
+
+            // Full jitter, so callers that failed together don't retry together
+            long backoff = ThreadLocalRandom.current().nextLong(RETRY_BASE_DELAY_MILLIS << attempt);
+            if (System.currentTimeMillis() + backoff >= deadline) {
+                return null;
+            }
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting to retry the Gemini call");
+            }
+        }
+    }
+
+    /**
+     * Sends the prompt to the streaming API and hands each piece of text to the
+     * listener as it arrives. Returns the whole text, or null if the API failed,
+     * answered with an error, or the circuit is open. There are no retries, since
+     * the listener may already have passed text on. Exceptions thrown by the
+     * listener end the call and are rethrown.
+     */
+    public String stream(String prompt, int timeoutMillis, ChunkListener listener) throws IOException {
+        if (!breaker.allowRequest()) {
+            return null;
+        }
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+
+        long start = System.nanoTime();
+        boolean failed = true;
+        boolean upstreamFault = true;
+        HttpURLConnection connection = null;
+        Metrics.GEMINI.begin();
+        try {
+            connection = open("streamGenerateContent", requestBody(prompt), timeoutMillis);
+            int responseCode = connection.getResponseCode();
+            if (responseCode != 200) {
+                System.err.println("Error from Gemini API (" + responseCode + "): " + readErrorBody(connection));
+                upstreamFault = responseCode == 429 || responseCode >= 500;
+                return null;
+            }
+
+            StringBuilder text = new StringBuilder();
+            StringBuilder data = new StringBuilder();
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("data:")) {
+                        data.append(line, line.startsWith("data: ") ? 6 : 5, line.length());
+                    } else if (line.isEmpty() && data.length() > 0) {
+                        // End of an event: each carries one chunk of the response
+                        String chunk = firstCandidateText(
+                                new ByteArrayInputStream(data.toString().getBytes(StandardCharsets.UTF_8)));
+                        data.setLength(0);
+                        if (chunk != null && !chunk.isEmpty()) {
+                            text.append(chunk);
+                            try {
+                                listener.onChunk(chunk);
+                            } catch (IOException | RuntimeException e) {
+                                // Our caller's problem, not the API's
+                                upstreamFault = false;
+                                connection.disconnect();
+                                throw e;
+                            }
+                        }
+                    }
+                    if (System.currentTimeMillis() > deadline) {
+                        System.err.println("Gemini API stream ran past its deadline");
+                        connection.disconnect();
+                        return null;
+                    }
+                }
+            }
+            if (text.length() == 0) {
+                System.err.println("Gemini API stream has no candidate text");
+                upstreamFault = false;
+                return null;
+            }
+            failed = false;
+            return text.toString();
+        } catch (InterruptedIOException e) {
+            System.err.println("Gemini API stream timed out: " + e.getMessage());
+            return null;
+        } catch (IOException | RuntimeException e) {
+            if (!upstreamFault) {
+                throw e;
+            }
+            System.err.println("Error calling Gemini API: " + e.getMessage());
+            return null;
+        } finally {
+            if (!failed || !upstreamFault) {
+                breaker.recordSuccess();
+            } else {
+                breaker.recordFailure();
+            }
+            Metrics.GEMINI.end(System.nanoTime() - start, failed && upstreamFault);
+        }
+    }
+
+    private Attempt attempt(byte[] requestBody, int timeoutMillis) {
+        long start = System.nanoTime();
+        boolean failed = true;
+        Metrics.GEMINI.begin();
+        try {
+            HttpURLConnection connection = open("generateContent", requestBody, timeoutMillis);
+            int responseCode = connection.getResponseCode();
+
+            if (responseCode != 200) {
+                System.err.println("Error from Gemini API (" + responseCode + "): " + readErrorBody(connection));
+                boolean upstreamFault = responseCode == 429 || responseCode >= 500;
+                return Attempt.failed(upstreamFault, upstreamFault);
+            }
+
+            String text;
+            try (InputStream in = connection.getInputStream()) {
+                text = firstCandidateText(in);
+                drain(in);
+            }
+            if (text == null) {
+                System.err.println("Gemini API response has no candidate text");
+                return Attempt.failed(false, false);
+            }
+            failed = false;
+            return new Attempt(text, false, false);
+        } catch (InterruptedIOException e) {
+            // Timed out: the upstream is slow, another attempt would be too
+            System.err.println("Gemini API call timed out: " + e.getMessage());
+            return Attempt.failed(true, false);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error calling Gemini API: " + e.getMessage());
+            return Attempt.failed(true, true);
+        } finally {
+            Metrics.GEMINI.end(System.nanoTime() - start, failed);
+        }
+    }
+
+    HttpURLConnection open(String method, byte[] requestBody, int timeoutMillis) throws IOException {
+        URL url = new URL(modelUrl + ":" + method + (method.startsWith("stream") ? "?alt=sse&key=" : "?key=")
+                + URLEncoder.encode(apiKey, "UTF-8"));
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", "application/json");
+        connection.setRequestProperty("Accept", method.startsWith("stream") ? "text/event-stream" : "application/json");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(requestBody.length);
+        connection.setConnectTimeout(Math.min(CONNECT_TIMEOUT_MILLIS, timeoutMillis));
+        connection.setReadTimeout(Math.min(READ_TIMEOUT_MILLIS, timeoutMillis));
+
+        try (OutputStream os = connection.getOutputStream()) {
+            os.write(requestBody);
+        }
+        return connection;
+    }
+
+    static byte[] requestBody(String prompt) {
+        return Json.createObjectBuilder()
+                .add("contents", Json.createArrayBuilder()
+                        .add(Json.createObjectBuilder()
+                                .add("parts", Json.createArrayBuilder()
+                                        .add(Json.createObjectBuilder()
+                                                .add("text", prompt)))))
+                .build().toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Pulls candidates[0].content.parts[*].text out of a generateContent response
+     * without building the JSON tree; null if there is none.
+     */
+    static String firstCandidateText(InputStream in) {
+        // Key that opened each enclosing object or array; null for array elements and the root
+        List<String> path = new ArrayList<>();
+        String key = null;
+        int candidate = -1;
+        StringBuilder text = null;
+
+        try (JsonParser parser = Json.createParser(new NonClosingInputStream(in))) {
+            while (parser.hasNext()) {
+                JsonParser.Event event = parser.next();
+                switch (event) {
+                    case START_OBJECT:
+                    case START_ARRAY:
+                        if (path.size() == 2 && "candidates".equals(path.get(1)) && event == JsonParser.Event.START_OBJECT) {
+                            candidate++;
+                            if (candidate > 0) {
+                                return text != null ? text.toString() : null;
+                            }
+                        }
+                        path.add(key);
+                        key = null;
+                        break;
+                    case END_OBJECT:
+                    case END_ARRAY:
+                        path.remove(path.size() - 1);
+                        break;
+                    case KEY_NAME:
+                        key = parser.getString();
+                        break;
+                    case VALUE_STRING:
+                        if ("text".equals(key) && path.size() == 6 && "candidates".equals(path.get(1))
+                                && "content".equals(path.get(3)) && "parts".equals(path.get(4))) {
+                            if (text == null) {
+                                text = new StringBuilder();
+                            }
+                            text.append(parser.getString());
+                        }
+                        key = null;
+                        break;
+                    default:
+                        key = null;
+                        break;
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Error parsing Gemini API response: " + e.getMessage());
+            return null;
+        }
+        return text != null ? text.toString() : null;
+    }
+
+    private static String readErrorBody(HttpURLConnection connection) {
+        InputStream err = connection.getErrorStream();
+        if (err == null) {
+            return "";
+        }
+        StringBuilder body = new StringBuilder();
+        byte[] buffer = new byte[4096];
+        try (InputStream in = err) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                if (body.length() < MAX_ERROR_BODY_CHARS) {
+                    body.append(new String(buffer, 0, n, StandardCharsets.UTF_8));
+                }
+            }
+        } catch (IOException e) {
+            // Only used for the log message
+        }
+        return body.length() > MAX_ERROR_BODY_CHARS ? body.substring(0, MAX_ERROR_BODY_CHARS) + "..." : body.toString();
+    }
+
+    // Reading to the end lets the connection go back to the keep-alive pool
+    static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[4096];
+        while (in.read(buffer) >= 0) {
+            // discard
+        }
+    }
+
+    private static class Attempt {
+        final String text;
+        final boolean countsAgainstUpstream;
+        final boolean retryable;
+
+        Attempt(String text, boolean countsAgainstUpstream, boolean retryable) {
+            this.text = text;
+            this.countsAgainstUpstream = countsAgainstUpstream;
+            this.retryable = retryable;
+        }
+
+        static Attempt failed(boolean countsAgainstUpstream, boolean retryable) {
+            return new Attempt(null, countsAgainstUpstream, retryable);
+        }
+    }
+
+    // Lets the parser be closed without closing the connection's stream before it is drained
+    private static class NonClosingInputStream extends FilterInputStream {
+        NonClosingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -2,19 +2,46 @@ package ec.service;
 
 import ec.config.ApiConfig;
 
-import javax.json.Json;
-import javax.json.JsonObject;
-import javax.json.JsonReader;
-import java.io.*;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class GeminiService {
 
-    private static final String GEMINI_API_URL = "https://generativelanguage.googleapis.com/v1/models/gemini-2.0-flash:generateContent";
+    private static final int READ_TIMEOUT_MILLIS = 30000;
+    
+    private static final GeminiClient CLIENT = new GeminiClient(ApiConfig.getGeminiApiUrl(),
+            ApiConfig.getGeminiApiKey(), ApiConfig.getGeminiMaxRetries(),
+            new CircuitBreaker(ApiConfig.getGeminiCircuitFailureThreshold(),
+                    ApiConfig.getGeminiCircuitOpenMillis(), ApiConfig.getGeminiCircuitMaxOpenMillis()));
+    
+    private static final TreatmentInfoCache CACHE = new TreatmentInfoCache(GeminiService::fetchTreatmentInfo,
+            TimeUnit.HOURS.toMillis(ApiConfig.getTreatmentCacheTtlHours()), ApiConfig.getTreatmentCacheFile());
+    
+    private static final ThreadPoolExecutor PREFILL = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "treatment-prefill");
+                thread.setDaemon(true);
+                return thread;
+            });
+    
+    static {
+        PREFILL.allowCoreThreadTimeOut(true);
+    }
     
     public static String getCancerTreatmentInfo(String cancerType) throws IOException {
+        return getCancerTreatmentInfo(cancerType, READ_TIMEOUT_MILLIS);
+    }
+    
+    /**
+     * Same as {@link #getCancerTreatmentInfo(String)}, but neither connecting nor
+     * waiting for the response may take longer than the given time.
+     */
+    public static String getCancerTreatmentInfo(String cancerType, int timeoutMillis) throws IOException {
         // Check if cancer type is unknown and return early
         if (cancerType == null || cancerType.equalsIgnoreCase("unknown")) {
             return null; // Return null to indicate we shouldn't show treatment info
@@ -26,75 +53,143 @@ public class GeminiService {
             return "API key not configured. Please set the Gemini API key in config.properties.";
         }
         
-        String prompt = "Provide a concise paragraph (maximum 100 words) about the current treatment approaches for " + 
-                        cancerType + " cancer. Do not include any markdown formatting or code blocks in your response.";
-        
-        String requestBody = Json.createObjectBuilder()
-                .add("contents", Json.createArrayBuilder()
-                        .add(Json.createObjectBuilder()
-                                .add("parts", Json.createArrayBuilder()
-                                        .add(Json.createObjectBuilder()
-                                                .add("text", prompt)))))
-                .build().toString();
-        
-        URL url = new URL(GEMINI_API_URL + "?key=" + apiKey);
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-        connection.setRequestMethod("POST");
-        connection.setRequestProperty("Content-Type", "application/json");
-        connection.setRequestProperty("Accept", "application/json");
-        connection.setDoOutput(true);
-        connection.setConnectTimeout(10000); // 10 seconds timeout
-        connection.setReadTimeout(30000); // 30 seconds read timeout
-        
-        try (OutputStream os = connection.getOutputStream()) {
-            byte[] input = requestBody.getBytes(StandardCharsets.UTF_8);
-            os.write(input, 0, input.length);
+        String text = CACHE.get(cancerType, timeoutMillis);
+        return text != null ? text : "Unable to retrieve treatment information at this time.";
+    }
+    
+    /**
+     * Streaming counterpart of {@link #getCancerTreatmentInfo(String, int)}: passes
+     * the summary to the listener piece by piece as Gemini writes it, or in one
+     * piece if it is cached or another request is already fetching it. Returns
+     * the whole summary, or null for unknown types.
+     * Throws if the stream fails after some of it has been passed on.
+     */
+    public static String streamCancerTreatmentInfo(String cancerType, int timeoutMillis,
+                                                   GeminiClient.ChunkListener listener) throws IOException {
+        if (cancerType == null || cancerType.equalsIgnoreCase("unknown")) {
+            return null;
         }
         
-        int responseCode = connection.getResponseCode();
+        String apiKey = ApiConfig.getGeminiApiKey();
+        if (apiKey == null || apiKey.isEmpty()) {
+            String text = "API key not configured. Please set the Gemini API key in config.properties.";
+            listener.onChunk(text);
+            return text;
+        }
         
-        if (responseCode != 200) {
-            try (BufferedReader br = new BufferedReader(
-                    new InputStreamReader(connection.getErrorStream(), StandardCharsets.UTF_8))) {
-                StringBuilder errorResponse = new StringBuilder();
-                String responseLine;
-                while ((responseLine = br.readLine()) != null) {
-                    errorResponse.append(responseLine.trim());
-                }
-                System.err.println("Error from Gemini API: " + errorResponse.toString());
-                return "Unable to retrieve treatment information at this time.";
+        // Whoever misses first streams; other misses for the type wait for its text
+        StreamingLoad load = new StreamingLoad(listener);
+        String text;
+        try {
+            text = CACHE.get(cancerType, timeoutMillis, load);
+        } catch (IOException e) {
+            if (load.started || load.clientError != null) {
+                throw e;
             }
+            text = null;
         }
-        
-        StringBuilder response = new StringBuilder();
-        try (BufferedReader br = new BufferedReader(
-                new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
-            String responseLine;
-            while ((responseLine = br.readLine()) != null) {
-                response.append(responseLine.trim());
+        if (load.clientError != null) {
+            throw load.clientError;
+        }
+        if (load.started) {
+            if (!load.finished) {
+                // Too late to start over; the listener already has the first part
+                throw new IOException("Treatment information stream for " + cancerType + " broke off");
             }
+            return text;
+        }
+        if (text == null) {
+            text = CACHE.getIfPresent(cancerType);
+        }
+        if (text == null) {
+            text = "Unable to retrieve treatment information at this time.";
         }
+        listener.onChunk(text);
+        return text;
+    }
+    
+    /**
+     * Streams the summary to one listener while the cache loads it. If the
+     * listener fails, e.g. because its client went away, the rest is still read
+     * so the callers waiting on this load and the cache get the whole summary.
+     */
+    private static class StreamingLoad implements TreatmentInfoCache.Loader {
+        private final GeminiClient.ChunkListener listener;
+        boolean started;
+        boolean finished;
+        IOException clientError;
         
-        String extractedText = extractTextFromResponse(response.toString());
-        return cleanResponseText(extractedText);
+        StreamingLoad(GeminiClient.ChunkListener listener) {
+            this.listener = listener;
+        }
+        
+        @Override
+        public String load(String cancerType, int timeoutMillis) throws IOException {
+            String streamed = CLIENT.stream(prompt(cancerType), timeoutMillis, chunk -> {
+                // Fences can only be stripped piece by piece here; the cached copy is cleaned as a whole
+                String cleaned = chunk.replaceAll("```\\w*", "").replaceAll("```", "");
+                if (!started) {
+                    cleaned = cleaned.replaceAll("^\\s+", "");
+                }
+                if (cleaned.isEmpty() || clientError != null) {
+                    return;
+                }
+                started = true;
+                try {
+                    listener.onChunk(cleaned);
+                } catch (IOException e) {
+                    clientError = e;
+                }
+            });
+            finished = streamed != null;
+            return cleanResponseText(streamed);
+        }
+    }
+    
+    public static TreatmentInfoCache getCache() {
+        return CACHE;
     }
     
-    private static String extractTextFromResponse(String responseBody) {
-        try (JsonReader jsonReader = Json.createReader(new StringReader(responseBody))) {
-            JsonObject jsonObject = jsonReader.readObject();
-            
-            return jsonObject
-                    .getJsonArray("candidates")
-                    .getJsonObject(0)
-                    .getJsonObject("content")
-                    .getJsonArray("parts")
-                    .getJsonObject(0)
-                    .getString("text");
-        } catch (Exception e) {
-            System.err.println("Error parsing Gemini API response: " + e.getMessage());
-            e.printStackTrace();
-            return "Unable to parse treatment information.";
+    public static CircuitBreaker getCircuitBreaker() {
+        return CLIENT.getCircuitBreaker();
+    }
+    
+    /**
+     * Fetches, one at a time in the background, the summaries of the given cancer
+     * types that are not cached yet, so the first visitors don't wait for Gemini.
+     */
+    public static void prefill(Collection<String> cancerTypes) {
+        String apiKey = ApiConfig.getGeminiApiKey();
+        if (!CACHE.isEnabled() || apiKey == null || apiKey.isEmpty()) {
+            return;
         }
+        List<String> types = new ArrayList<>(cancerTypes);
+        PREFILL.execute(() -> {
+            int fetched = 0;
+            for (String cancerType : types) {
+                if (cancerType.equalsIgnoreCase("unknown") || CACHE.containsFresh(cancerType)) {
+                    continue;
+                }
+                try {
+                    if (CACHE.get(cancerType, READ_TIMEOUT_MILLIS) != null) {
+                        fetched++;
+                    }
+                } catch (IOException e) {
+                    System.err.println("Pre-filling treatment info for " + cancerType + " failed: " + e.getMessage());
+                }
+            }
+            System.out.println("Pre-filled treatment info for " + fetched + " cancer types");
+        });
+    }
+    
+    // Asks Gemini; null means the call failed and the answer must not be cached
+    private static String fetchTreatmentInfo(String cancerType, int timeoutMillis) throws IOException {
+        return cleanResponseText(CLIENT.generate(prompt(cancerType), timeoutMillis));
+    }
+    
+    static String prompt(String cancerType) {
+        return "Provide a concise paragraph (maximum 100 words) about the current treatment approaches for " + 
+               cancerType + " cancer. Do not include any markdown formatting or code blocks in your response.";
     }
     
     // Clean the response text by removing markdown code blocks
@@ -0,0 +1,269 @@
+package ec.service;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonReader;
+import javax.json.JsonValue;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Treatment summaries by cancer type. Entries are kept for a fixed time, and
+ * concurrent misses for the same type share a single upstream call. Every
+ * successful lookup is written through to a JSON file, which is read back on
+ * start-up so a restarted node does not have to ask again.
+ * <p>
+ * When a refresh fails the expired summary is served rather than nothing.
+ */
+public class TreatmentInfoCache {
+
+    /** Fetches the summary for a cancer type; null means "failed, do not cache". */
+    public interface Loader {
+        String load(String cancerType, int timeoutMillis) throws IOException;
+    }
+
+    private static final int FILE_VERSION = 1;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+    private final Loader loader;
+    private final long ttlMillis;
+    private final File storeFile;
+    private final Object storeLock = new Object();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+
+    /**
+     * @param ttlMillis how long a summary is served before it is fetched again; 0 disables the cache
+     * @param storeFile file the entries are persisted to, or null to keep them in memory only
+     */
+    public TreatmentInfoCache(Loader loader, long ttlMillis, File storeFile) {
+        if (ttlMillis < 0) {
+            throw new IllegalArgumentException("ttlMillis must not be negative: " + ttlMillis);
+        }
+        this.loader = loader;
+        this.ttlMillis = ttlMillis;
+        this.storeFile = ttlMillis > 0 ? storeFile : null;
+        readStore();
+    }
+
+    public boolean isEnabled() {
+        return ttlMillis > 0;
+    }
+
+    /**
+     * Returns the summary for the cancer type, from the cache if it is fresh and
+     * otherwise from the loader, waiting at most about timeoutMillis. Returns null
+     * if it could not be loaded and nothing is cached.
+     */
+    public String get(String cancerType, int timeoutMillis) throws IOException {
+        return get(cancerType, timeoutMillis, loader);
+    }
+
+    /**
+     * Same as {@link #get(String, int)}, but a miss that is not coalesced into a
+     * call already in flight is loaded with the given loader. Other misses for the
+     * type wait for it in the meantime, so a streamed summary is fetched once too.
+     */
+    public String get(String cancerType, int timeoutMillis, Loader loader) throws IOException {
+        if (!isEnabled()) {
+            loads.increment();
+            return loader.load(cancerType, timeoutMillis);
+        }
+
+        String key = keyOf(cancerType);
+        Entry entry = entries.get(key);
+        if (entry != null && isFresh(entry)) {
+            hits.increment();
+            return entry.text;
+        }
+        misses.increment();
+
+        CompletableFuture<String> mine = new CompletableFuture<>();
+        CompletableFuture<String> pending = inFlight.putIfAbsent(key, mine);
+        if (pending == null) {
+            return loadAndStore(loader, key, cancerType, timeoutMillis, entry, mine);
+        }
+        return await(pending, cancerType, timeoutMillis);
+    }
+
+    private String loadAndStore(Loader loader, String key, String cancerType, int timeoutMillis, Entry stale,
+                                CompletableFuture<String> result) throws IOException {
+        try {
+            loads.increment();
+            String text = loader.load(cancerType, timeoutMillis);
+            if (text != null) {
+                entries.put(key, new Entry(text, System.currentTimeMillis()));
+                writeStore();
+            } else if (stale != null) {
+                text = stale.text;
+            }
+            result.complete(text);
+            return text;
+        } catch (IOException | RuntimeException e) {
+            if (stale != null) {
+                System.err.println("Refreshing treatment info for " + cancerType + " failed, serving cached copy: "
+                        + e.getMessage());
+                result.complete(stale.text);
+                return stale.text;
+            }
+            result.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, result);
+        }
+    }
+
+    private static String await(CompletableFuture<String> pending, String cancerType, int timeoutMillis)
+            throws IOException {
+        try {
+            return pending.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for treatment info for " + cancerType);
+        } catch (TimeoutException e) {
+            throw new IOException("Timed out waiting for treatment info for " + cancerType);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Loading treatment info for " + cancerType + " failed: " + cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Returns the cached summary even if it has expired, or null.
+     */
+    public String getIfPresent(String cancerType) {
+        Entry entry = entries.get(keyOf(cancerType));
+        return entry != null ? entry.text : null;
+    }
+
+    /**
+     * True if a summary for the cancer type is cached and has not expired.
+     */
+    public boolean containsFresh(String cancerType) {
+        Entry entry = entries.get(keyOf(cancerType));
+        return entry != null && isFresh(entry);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /** Calls made to the loader, i.e. misses that were not coalesced into another call. */
+    public long getLoads() {
+        return loads.sum();
+    }
+
+    private boolean isFresh(Entry entry) {
+        return System.currentTimeMillis() - entry.fetchedAt < ttlMillis;
+    }
+
+    private static String keyOf(String cancerType) {
+        return cancerType.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private void readStore() {
+        if (storeFile == null || !storeFile.isFile()) {
+            return;
+        }
+        try (InputStream in = Files.newInputStream(storeFile.toPath());
+             JsonReader reader = Json.createReader(in)) {
+            JsonObject root = reader.readObject();
+            if (root.getInt("version", 0) != FILE_VERSION) {
+                System.out.println("Ignoring treatment info cache with unknown version: " + storeFile);
+                return;
+            }
+            for (Map.Entry<String, JsonValue> stored : root.getJsonObject("entries").entrySet()) {
+                JsonObject value = (JsonObject) stored.getValue();
+                entries.put(stored.getKey(), new Entry(value.getString("text"),
+                        value.getJsonNumber("fetchedAt").longValue()));
+            }
+            System.out.println("Loaded " + entries.size() + " treatment summaries from " + storeFile);
+        } catch (Exception e) {
+            // A damaged file only costs us the warm start
+            System.err.println("Could not read treatment info cache " + storeFile + ": " + e.getMessage());
+        }
+    }
+
+    private void writeStore() {
+        if (storeFile == null) {
+            return;
+        }
+        synchronized (storeLock) {
+            JsonObjectBuilder stored = Json.createObjectBuilder();
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                stored.add(entry.getKey(), Json.createObjectBuilder()
+                        .add("text", entry.getValue().text)
+                        .add("fetchedAt", entry.getValue().fetchedAt));
+            }
+            JsonObject root = Json.createObjectBuilder()
+                    .add("version", FILE_VERSION)
+                    .add("entries", stored)
+                    .build();
+
+            // Write a sibling file and rename it, so readers never see half a file
+            File dir = storeFile.getAbsoluteFile().getParentFile();
+            File temp = new File(dir, storeFile.getName() + ".tmp");
+            try {
+                Files.createDirectories(dir.toPath());
+                try (OutputStream out = Files.newOutputStream(temp.toPath());
+                     Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+                    writer.write(root.toString());
+                }
+                try {
+                    Files.move(temp.toPath(), storeFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp.toPath(), storeFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (IOException e) {
+                System.err.println("Could not write treatment info cache " + storeFile + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static class Entry {
+        final String text;
+        final long fetchedAt;
+
+        Entry(String text, long fetchedAt) {
+            this.text = text;
+            this.fetchedAt = fetchedAt;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package ec.util;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Maps the short request parameter names used by the form (and by batch
+ * uploads) to the dataset column names the model was trained on.
+ */
+public class FeatureKeys {
+    
+    private static final Map<String, String> COLUMNS_BY_KEY = new LinkedHashMap<>();
+    
+    static {
+        COLUMNS_BY_KEY.put("wes", "Whole Exome Sequencing (WES)");
+        COLUMNS_BY_KEY.put("cna", "Copy Number Alterations (CNA)");
+        COLUMNS_BY_KEY.put("geneExpression", "Gene Expression");
+        COLUMNS_BY_KEY.put("methylation", "Methylation");
+        COLUMNS_BY_KEY.put("drugResponse", "Drug Response");
+        COLUMNS_BY_KEY.put("gdscTissue1", "GDSC Tissue descriptor 1");
+        COLUMNS_BY_KEY.put("gdscTissue2", "GDSC Tissue descriptor 2");
+        COLUMNS_BY_KEY.put("msi", "Microsatellite instability Status (MSI)");
+        COLUMNS_BY_KEY.put("screenMedium", "Screen Medium");
+        COLUMNS_BY_KEY.put("growthProperties", "Growth Properties");
+    }
+    
+    /**
+     * The ten feature parameters, in form order, with their column names.
+     */
+    public static Map<String, String> columnsByKey() {
+        return Collections.unmodifiableMap(COLUMNS_BY_KEY);
+    }
+    
+    /**
+     * Resolves either a short key or a full column name to the column name, or
+     * returns null if it names no feature.
+     */
+    public static String toColumnName(String keyOrColumn) {
+        String column = COLUMNS_BY_KEY.get(keyOrColumn);
+        if (column != null) {
+            return column;
+        }
+        return COLUMNS_BY_KEY.containsValue(keyOrColumn) ? keyOrColumn : null;
+    }
+}
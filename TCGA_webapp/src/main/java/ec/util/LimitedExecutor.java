@@ -0,0 +1,113 @@
+package ec.util;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs every task on a new thread from the given factory, with at most
+ * maxConcurrent running at once; further tasks are rejected straight away
+ * rather than queued. Meant for virtual threads, which are cheap to start and
+ * park, so the only limit worth having is on the work they put on others.
+ */
+public class LimitedExecutor extends AbstractExecutorService {
+
+    private final ThreadFactory threadFactory;
+    private final int maxConcurrent;
+    private final Semaphore permits;
+    private final Set<Thread> running = ConcurrentHashMap.newKeySet();
+    private final AtomicLong rejected = new AtomicLong();
+    private volatile boolean shutdown;
+
+    public LimitedExecutor(ThreadFactory threadFactory, int maxConcurrent) {
+        this.threadFactory = threadFactory;
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.permits = new Semaphore(this.maxConcurrent);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (shutdown) {
+            throw new RejectedExecutionException("Executor has been shut down");
+        }
+        if (!permits.tryAcquire()) {
+            rejected.incrementAndGet();
+            throw new RejectedExecutionException(maxConcurrent + " tasks are running already");
+        }
+        Thread thread;
+        try {
+            thread = threadFactory.newThread(() -> {
+                try {
+                    command.run();
+                } finally {
+                    running.remove(Thread.currentThread());
+                    permits.release();
+                }
+            });
+        } catch (RuntimeException | Error e) {
+            permits.release();
+            throw e;
+        }
+        running.add(thread);
+        thread.start();
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    /** Tasks running now. */
+    public int getActive() {
+        return maxConcurrent - permits.availablePermits();
+    }
+
+    /** Tasks turned away because maxConcurrent were running. */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown = true;
+        for (Thread thread : running) {
+            thread.interrupt();
+        }
+        // Tasks start at once, so none are ever waiting
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return shutdown && getActive() == 0;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!isTerminated()) {
+            long left = deadline - System.nanoTime();
+            if (left <= 0) {
+                return false;
+            }
+            Thread.sleep(Math.min(10, Math.max(1, TimeUnit.NANOSECONDS.toMillis(left))));
+        }
+        return true;
+    }
+}
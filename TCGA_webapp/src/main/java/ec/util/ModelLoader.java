@@ -1,18 +1,35 @@
 package ec.util;
 
+import ec.compiled.CompactModelFile;
+import ec.compiled.CompiledEnsemble;
+import ec.config.ApiConfig;
+import ec.csv.CsvReader;
+import ec.model.ModelBundle;
 import weka.classifiers.Classifier;
+import weka.core.Attribute;
+import weka.core.Instances;
 import weka.core.SerializationHelper;
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 public class ModelLoader {
     
+    /** Where ModelTrainingApp saves the model bundle the webapp serves. */
+    public static final String MODEL_PATH = "C:/enterprise/workspace/630project/tmp/model/model";
+    
+    /** Location of the Cell Lines dataset used when a model has no training header. */
+    public static final String CSV_PATH = "C:/enterprise/workspace/630project/data/Cell_Lines_Details.csv";
+    
+    /** Random instances the compiled model must agree on with Weka before it is used. */
+    private static final int PARITY_SAMPLES = 500;
+    
     public static Classifier loadModel(String path) throws Exception {
         File modelFile = new File(path);
         
@@ -27,27 +44,156 @@ public class ModelLoader {
         }
     }
     
+    /**
+     * Loads a model bundle written by ModelTrainingApp: the classifier followed by
+     * the header of the data it was trained on. Older model files that only hold
+     * the classifier are still accepted, with the header rebuilt from the CSV file.
+     * <p>
+     * A compact model file, given as the path or found next to it and at least as
+     * new, is read instead; the serialized bundle is the fallback when it is
+     * missing, stale or unreadable.
+     */
+    public static ModelBundle loadModelBundle(String path) throws Exception {
+        File modelFile = new File(path);
+        
+        if (!modelFile.exists()) {
+            throw new IllegalArgumentException("Model file not found at: " + modelFile.getAbsolutePath());
+        }
+        
+        File compactFile = compactFileFor(modelFile);
+        if (compactFile != null) {
+            try {
+                long start = System.currentTimeMillis();
+                CompactModelFile.Contents contents = CompactModelFile.read(compactFile);
+                System.out.println("Loaded compact model " + compactFile + " in "
+                        + (System.currentTimeMillis() - start) + " ms");
+                return new ModelBundle(null, contents.getHeader(), path, contents.getModel());
+            } catch (IOException e) {
+                System.out.println("Could not use compact model, reading the serialized one: " + e.getMessage());
+            }
+        }
+        
+        Object[] objects;
+        try {
+            objects = SerializationHelper.readAll(modelFile.getAbsolutePath());
+        } catch (Exception e) {
+            throw new Exception("Error loading model: " + e.getMessage(), e);
+        }
+        
+        if (objects.length == 0 || !(objects[0] instanceof Classifier)) {
+            throw new Exception("Error loading model: " + path + " does not contain a classifier");
+        }
+        Classifier classifier = (Classifier) objects[0];
+        
+        Instances header;
+        if (objects.length > 1 && objects[1] instanceof Instances) {
+            header = (Instances) objects[1];
+        } else {
+            System.out.println("Model file has no training header, rebuilding it from the CSV file");
+            header = buildHeaderFromCSV();
+        }
+        
+        return new ModelBundle(classifier, header, path, compileModel(classifier, header));
+    }
+    
+    /**
+     * The model file itself if it is compact, otherwise the compact file next to
+     * it if that was written no earlier than the model; null if there is none.
+     */
+    private static File compactFileFor(File modelFile) {
+        if (CompactModelFile.isCompactModel(modelFile)) {
+            return modelFile;
+        }
+        File sibling = CompactModelFile.siblingOf(modelFile);
+        if (sibling.isFile() && sibling.lastModified() >= modelFile.lastModified()) {
+            return sibling;
+        }
+        return null;
+    }
+    
+    /**
+     * Flattens a Random Forest, LogitBoost or IBk for faster scoring and checks it
+     * against Weka on random instances. Returns null, so that Weka is used, for
+     * any other model or on any mismatch.
+     */
+    private static CompiledEnsemble compileModel(Classifier classifier, Instances header) {
+        if (!CompiledEnsemble.isSupported(classifier)) {
+            return null;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            CompiledEnsemble compiled = CompiledEnsemble.compile(classifier);
+            if (!compiled.agreesWith(classifier, header, PARITY_SAMPLES, new Random(1))) {
+                System.out.println("Compiled model does not match Weka, using the Weka model");
+                return null;
+            }
+            System.out.println("Compiled " + classifier.getClass().getSimpleName() + " in "
+                    + (System.currentTimeMillis() - start) + " ms");
+            return compiled;
+        } catch (Exception e) {
+            System.out.println("Could not compile the model, using the Weka model: " + e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Rebuilds the training header from the categories found in the CSV file, with
+     * the cancer type as the last (class) attribute.
+     */
+    public static Instances buildHeaderFromCSV() {
+        Map<String, List<String>> columnCategories = loadCategoriesFromCSV();
+        List<String> columns = Arrays.asList(
+            "Whole Exome Sequencing (WES)",
+            "Copy Number Alterations (CNA)",
+            "Gene Expression",
+            "Methylation",
+            "Drug Response",
+            "GDSC Tissue descriptor 1",
+            "GDSC Tissue descriptor 2",
+            "Microsatellite instability Status (MSI)",
+            "Screen Medium",
+            "Growth Properties",
+            "Cancer Type (matching TCGA label)"
+        );
+        
+        ArrayList<Attribute> attributes = new ArrayList<>();
+        for (String column : columns) {
+            if (columnCategories.containsKey(column)) {
+                attributes.add(new Attribute(column, columnCategories.get(column)));
+            }
+        }
+        
+        Instances header = new Instances("CellLinesDataset", attributes, 0);
+        header.setClassIndex(attributes.size() - 1);
+        return header;
+    }
+    
     /**
      * Loads the CSV file from the specified path and retrieves the column categories
      * Adds them to the appropriate lists in attributeValues map
      * @return 
      */
     public static Map<String, List<String>> loadCategoriesFromCSV() {
-    	String path = "C:/enterprise/workspace/630project/data/Cell_Lines_Details.csv";
+        return loadCategoriesFromCSV(ApiConfig.getDataPath());
+    }
+    
+    /**
+     * Same as {@link #loadCategoriesFromCSV()} for a CSV file at another location.
+     */
+    public static Map<String, List<String>> loadCategoriesFromCSV(String path) {
         Map<String, List<String>> columnCategories = new HashMap<>();
         
         System.out.println("Attempting to load categories from: " + path);
         
-        try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
+        try (CsvReader reader = CsvReader.open(Paths.get(path))) {
             // Read header
-            String headerLine = reader.readLine();
-            if (headerLine == null) {
+            if (!reader.next()) {
                 System.err.println("CSV file is empty");
                 return columnCategories;
             }
             
             // Parse header to get column names
-            String[] headers = parseCSVLine(headerLine);
+            String[] headers = reader.getAll();
             
             // Initialize category lists for each column
             for (String header : headers) {
@@ -57,13 +203,13 @@ public class ModelLoader {
             }
             
             // Read data rows and collect unique values for each column
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] values = parseCSVLine(line);
-                
-                for (int i = 0; i < Math.min(values.length, headers.length); i++) {
-                    String value = values[i].trim();
-                    if (!value.isEmpty() && !columnCategories.get(headers[i]).contains(value)) {
+            while (reader.next()) {
+                for (int i = 0; i < Math.min(reader.getFieldCount(), headers.length); i++) {
+                    if (reader.isEmpty(i)) {
+                        continue;
+                    }
+                    String value = reader.get(i);
+                    if (!columnCategories.get(headers[i]).contains(value)) {
                         columnCategories.get(headers[i]).add(value);
                     }
                 }
@@ -92,27 +238,4 @@ public class ModelLoader {
         
         return columnCategories;
     }
-
-    /**
-     * Parses a CSV line handling quotes and commas within fields
-     */
-    private static String[] parseCSVLine(String line) {
-        List<String> tokens = new ArrayList<>();
-        StringBuilder sb = new StringBuilder();
-        boolean inQuotes = false;
-        
-        for (char c : line.toCharArray()) {
-            if (c == '"') {
-                inQuotes = !inQuotes;
-            } else if (c == ',' && !inQuotes) {
-                tokens.add(sb.toString().trim());
-                sb.setLength(0);
-            } else {
-                sb.append(c);
-            }
-        }
-        tokens.add(sb.toString().trim());
-        
-        return tokens.toArray(new String[0]);
-    }
 }
\ No newline at end of file
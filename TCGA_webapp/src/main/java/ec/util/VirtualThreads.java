@@ -0,0 +1,84 @@
+package ec.util;
+
+import ec.config.ApiConfig;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Virtual threads (JDK 21) for a build that still targets Java 8: they are
+ * reached by reflection, and {@link #isEnabled()} is only true when
+ * threads.virtual is set and the running JDK has them.
+ */
+public final class VirtualThreads {
+
+    private static final Method OF_VIRTUAL;
+    private static final Method NAME;
+    private static final Method FACTORY;
+    private static final boolean SUPPORTED;
+
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method factory = null;
+        boolean supported = false;
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            name = builder.getMethod("name", String.class, long.class);
+            factory = builder.getMethod("factory");
+            // A preview API on JDK 19 and 20 throws here unless --enable-preview is given
+            factory.invoke(ofVirtual.invoke(null));
+            supported = true;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Older JDK
+        }
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        FACTORY = factory;
+        SUPPORTED = supported;
+
+        if (ApiConfig.isVirtualThreads() && !supported) {
+            System.err.println("threads.virtual is set, but Java " + System.getProperty("java.version")
+                    + " has no virtual threads; using platform threads");
+        }
+    }
+
+    private VirtualThreads() {
+    }
+
+    /** Whether the running JDK can start virtual threads. */
+    public static boolean isSupported() {
+        return SUPPORTED;
+    }
+
+    /** Whether to use virtual threads: configured and supported. */
+    public static boolean isEnabled() {
+        return SUPPORTED && ApiConfig.isVirtualThreads();
+    }
+
+    /**
+     * Factory of virtual threads named namePrefix1, namePrefix2, ...
+     *
+     * @throws UnsupportedOperationException before JDK 21
+     */
+    public static ThreadFactory factory(String namePrefix) {
+        if (!SUPPORTED) {
+            throw new UnsupportedOperationException("Virtual threads need JDK 21 or later");
+        }
+        try {
+            return (ThreadFactory) FACTORY.invoke(NAME.invoke(OF_VIRTUAL.invoke(null), namePrefix, 1L));
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Could not create virtual threads", e);
+        }
+    }
+
+    /**
+     * One virtual thread per task, at most maxConcurrent at once.
+     *
+     * @throws UnsupportedOperationException before JDK 21
+     */
+    public static LimitedExecutor newExecutor(String namePrefix, int maxConcurrent) {
+        return new LimitedExecutor(factory(namePrefix), maxConcurrent);
+    }
+}
@@ -26,6 +26,13 @@ document.addEventListener('DOMContentLoaded', function() {
         const formData = new FormData(predictionForm);
         const queryString = new URLSearchParams(formData).toString();
         
+        // Stream the prediction and its treatment summary in one request where the
+        // browser can read a response body as it arrives
+        if (window.ReadableStream && window.TextDecoder) {
+            streamPrediction(queryString);
+            return;
+        }
+        
         // Make AJAX request
         fetch('predict', {
             method: 'POST',
@@ -36,56 +43,143 @@ document.addEventListener('DOMContentLoaded', function() {
         })
         .then(response => response.json())
         .then(data => {
-            // Hide loading message
-            waitingMessage.classList.add('d-none');
-            resultsContainer.classList.remove('d-none');
-            
             if (data.success) {
-                // Display prediction
-                predictionResult.textContent = data.prediction;
-                
-                // Update confidence bar
-                const confidence = Math.round(data.confidence);
-                confidenceBar.style.width = confidence + '%';
-                confidenceBar.setAttribute('aria-valuenow', confidence);
-                confidenceBar.textContent = confidence + '%';
-                
-                // Set color based on confidence
-                if (confidence >= 70) {
-                    confidenceBar.classList.remove('bg-warning', 'bg-danger');
-                    confidenceBar.classList.add('bg-success');
-                } else if (confidence >= 40) {
-                    confidenceBar.classList.remove('bg-success', 'bg-danger');
-                    confidenceBar.classList.add('bg-warning');
-                } else {
-                    confidenceBar.classList.remove('bg-success', 'bg-warning');
-                    confidenceBar.classList.add('bg-danger');
-                }
-                
-                explanationText.innerHTML = `The model predicts with ${confidence}% confidence that this cell line is of <strong>${data.prediction}</strong> cancer type based on the provided characteristics.`;
-            
+                showPrediction(data);
 				fetchTreatmentInfo(data.prediction);
-	
 			} else {
-                // Show error
-                predictionResult.textContent = 'ERROR';
-                confidenceBar.style.width = '0%';
-                confidenceBar.setAttribute('aria-valuenow', 0);
-                confidenceBar.textContent = '0%';
-                explanationText.textContent = 'An error occurred: ' + data.error;
+                showPredictionError(data.error);
             }
         })
         .catch(error => {
-            waitingMessage.classList.add('d-none');
-            resultsContainer.classList.remove('d-none');
-            predictionResult.textContent = 'ERROR';
-            confidenceBar.style.width = '0%';
-            confidenceBar.setAttribute('aria-valuenow', 0);
-            confidenceBar.textContent = '0%';
-            explanationText.textContent = 'An error occurred: ' + error.message;
+            showPredictionError(error.message);
         });
     });
     
+    function showPrediction(data) {
+        // Hide loading message
+        waitingMessage.classList.add('d-none');
+        resultsContainer.classList.remove('d-none');
+        
+        // Display prediction
+        predictionResult.textContent = data.prediction;
+        
+        // Update confidence bar
+        const confidence = Math.round(data.confidence);
+        confidenceBar.style.width = confidence + '%';
+        confidenceBar.setAttribute('aria-valuenow', confidence);
+        confidenceBar.textContent = confidence + '%';
+        
+        // Set color based on confidence
+        if (confidence >= 70) {
+            confidenceBar.classList.remove('bg-warning', 'bg-danger');
+            confidenceBar.classList.add('bg-success');
+        } else if (confidence >= 40) {
+            confidenceBar.classList.remove('bg-success', 'bg-danger');
+            confidenceBar.classList.add('bg-warning');
+        } else {
+            confidenceBar.classList.remove('bg-success', 'bg-warning');
+            confidenceBar.classList.add('bg-danger');
+        }
+        
+        explanationText.innerHTML = `The model predicts with ${confidence}% confidence that this cell line is of <strong>${data.prediction}</strong> cancer type based on the provided characteristics.`;
+    }
+    
+    function showPredictionError(message) {
+        waitingMessage.classList.add('d-none');
+        resultsContainer.classList.remove('d-none');
+        predictionResult.textContent = 'ERROR';
+        confidenceBar.style.width = '0%';
+        confidenceBar.setAttribute('aria-valuenow', 0);
+        confidenceBar.textContent = '0%';
+        explanationText.textContent = 'An error occurred: ' + message;
+    }
+    
+    // Reads the Server-Sent Events from predict/stream: the prediction first, then
+    // the treatment summary piece by piece
+    function streamPrediction(queryString) {
+        const treatmentCard = document.getElementById('treatmentCard');
+        const treatmentText = document.getElementById('treatmentText');
+        const treatmentTitle = document.getElementById('treatmentTitle');
+        let cancerType = null;
+        let receivedText = false;
+        
+        function handleEvent(name, data) {
+            if (name === 'prediction') {
+                showPrediction(data);
+                cancerType = data.prediction;
+                if (cancerType && !cancerType.toLowerCase().includes('unknown')) {
+                    treatmentCard.classList.remove('d-none');
+                    treatmentTitle.textContent = `Treatment Approaches for ${cancerType} Cancer`;
+                    treatmentText.innerHTML = '<i class="fas fa-spinner fa-spin"></i> Loading treatment information...';
+                }
+            } else if (name === 'treatment') {
+                if (!receivedText) {
+                    treatmentText.textContent = '';
+                    receivedText = true;
+                }
+                treatmentText.appendChild(document.createTextNode(data.text));
+            } else if (name === 'error') {
+                if (cancerType === null) {
+                    showPredictionError(data.error);
+                } else if (!receivedText) {
+                    treatmentText.innerHTML = '<i class="fas fa-exclamation-triangle text-warning"></i> ' + 
+                                              'Could not retrieve treatment information: ' + data.error;
+                    showFallbackTreatmentInfo(cancerType);
+                }
+            }
+        }
+        
+        fetch('predict/stream', {
+            method: 'POST',
+            headers: {
+                'Content-Type': 'application/x-www-form-urlencoded',
+                'Accept': 'text/event-stream'
+            },
+            body: queryString
+        })
+        .then(response => {
+            const reader = response.body.getReader();
+            const decoder = new TextDecoder();
+            let buffer = '';
+            
+            function read() {
+                return reader.read().then(({done, value}) => {
+                    if (done) {
+                        return;
+                    }
+                    buffer += decoder.decode(value, {stream: true});
+                    
+                    // Events are separated by a blank line
+                    let end;
+                    while ((end = buffer.indexOf('\n\n')) >= 0) {
+                        const block = buffer.substring(0, end);
+                        buffer = buffer.substring(end + 2);
+                        let name = 'message';
+                        let data = '';
+                        block.split('\n').forEach(line => {
+                            if (line.startsWith('event:')) {
+                                name = line.substring(6).trim();
+                            } else if (line.startsWith('data:')) {
+                                data += line.substring(5).trim();
+                            }
+                        });
+                        handleEvent(name, data ? JSON.parse(data) : {});
+                    }
+                    return read();
+                });
+            }
+            return read();
+        })
+        .catch(error => {
+            if (cancerType === null) {
+                showPredictionError(error.message);
+            } else if (!receivedText) {
+                console.error("Error streaming treatment info: " + error);
+                showFallbackTreatmentInfo(cancerType);
+            }
+        });
+    }
+    
     // Function to fetch categories and populate the dropdowns
     function fetchCategories() {
         fetch('categories')
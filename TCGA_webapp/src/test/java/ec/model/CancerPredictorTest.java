@@ -0,0 +1,112 @@
+package ec.model;
+
+import org.junit.jupiter.api.Test;
+import weka.classifiers.AbstractClassifier;
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CancerPredictorTest {
+
+    /** Every instance of the stateful classifier that has classified something. */
+    private static final Set<Integer> USED_COPIES = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    /** Fails if two threads classify with the same instance at once, as SMO or IBk would misbehave. */
+    static class StatefulClassifier extends AbstractClassifier {
+        private final AtomicBoolean inUse = new AtomicBoolean();
+
+        @Override
+        public void buildClassifier(Instances data) {
+        }
+
+        @Override
+        public double[] distributionForInstance(Instance instance) throws Exception {
+            if (!inUse.compareAndSet(false, true)) {
+                throw new IllegalStateException("Classifier used by two threads at once");
+            }
+            try {
+                USED_COPIES.add(System.identityHashCode(this));
+                Thread.sleep(1);
+                return new double[] {0.25, 0.75};
+            } finally {
+                inUse.set(false);
+            }
+        }
+    }
+
+    private static CancerPredictor predictor() {
+        ArrayList<Attribute> attributes = new ArrayList<>();
+        attributes.add(new Attribute("Tissue", Arrays.asList("lung", "skin", "unknown")));
+        attributes.add(new Attribute("Cancer Type", Arrays.asList("LUAD", "SKCM")));
+        Instances header = new Instances("cells", attributes, 0);
+        header.setClassIndex(1);
+        StatefulClassifier model = new StatefulClassifier();
+        return new CancerPredictor(new ModelBundle(model, header, "test"), 0, PredictionCache.Eviction.LRU);
+    }
+
+    @Test
+    void sharesAtMostOneCopyPerCpuBetweenRequests() throws Exception {
+        USED_COPIES.clear();
+        CancerPredictor predictor = predictor();
+        Map<String, String> features = Collections.singletonMap("Tissue", "lung");
+
+        int threads = 16;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Prediction>> predictions = new ArrayList<>();
+            for (int i = 0; i < threads * 20; i++) {
+                predictions.add(pool.submit(() -> predictor.predict(features)));
+            }
+            for (Future<Prediction> prediction : predictions) {
+                assertEquals("SKCM", prediction.get().getLabel());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        int copies = USED_COPIES.size();
+        assertTrue(copies >= 1 && copies <= Runtime.getRuntime().availableProcessors(), copies + " copies");
+    }
+
+    @Test
+    void keepsPredictingAfterRetirement() throws Exception {
+        CancerPredictor predictor = predictor();
+        Map<String, String> features = Collections.singletonMap("Tissue", "skin");
+        assertEquals("SKCM", predictor.predict(features).getLabel());
+
+        predictor.retire();
+        assertEquals("SKCM", predictor.predict(features).getLabel());
+        assertEquals("SKCM", predictor.predict(features).getLabel());
+    }
+
+    @Test
+    void reportsValuesTheModelHasNotSeen() throws Exception {
+        CancerPredictor predictor = predictor();
+        Map<String, String> features = new HashMap<>();
+        features.put("Tissue", "bone");
+        features.put("Unused column", "anything");
+        Map<String, String> unknownValues = new HashMap<>();
+
+        assertEquals("SKCM", predictor.predict(features, unknownValues).getLabel());
+        assertEquals(Collections.singletonMap("Tissue", "bone"), unknownValues);
+
+        unknownValues.clear();
+        predictor.predict(Collections.singletonMap("Tissue", "lung"), unknownValues);
+        assertTrue(unknownValues.isEmpty());
+    }
+}
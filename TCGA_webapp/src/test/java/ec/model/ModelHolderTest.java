@@ -0,0 +1,105 @@
+package ec.model;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import weka.classifiers.AbstractClassifier;
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SerializationHelper;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ModelHolderTest {
+
+    @TempDir
+    File tempDir;
+
+    /** Predicts the same class for every input; the name tells model files apart. */
+    static class ConstantClassifier extends AbstractClassifier {
+        private static final long serialVersionUID = 1L;
+
+        private final int label;
+        private final String name;
+
+        ConstantClassifier(int label, String name) {
+            this.label = label;
+            this.name = name;
+        }
+
+        @Override
+        public void buildClassifier(Instances data) {
+        }
+
+        @Override
+        public double[] distributionForInstance(Instance instance) {
+            double[] distribution = new double[instance.numClasses()];
+            distribution[label] = 1;
+            return distribution;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private static void writeModel(File file, int label, String name) throws Exception {
+        ArrayList<Attribute> attributes = new ArrayList<>();
+        attributes.add(new Attribute("Tissue", Arrays.asList("lung", "skin", "unknown")));
+        attributes.add(new Attribute("Cancer Type", Arrays.asList("LUAD", "SKCM")));
+        Instances header = new Instances("cells", attributes, 0);
+        header.setClassIndex(1);
+        SerializationHelper.writeAll(file.getPath(), new Object[] {new ConstantClassifier(label, name), header});
+    }
+
+    @Test
+    void rejectsModelThatDisagreesTooMuch() throws Exception {
+        File file = new File(tempDir, "model");
+        writeModel(file, 0, "first");
+        ModelHolder holder = new ModelHolder(file.getPath(), 0, PredictionCache.Eviction.LRU, 0.9);
+        try {
+            holder.loadInitial();
+            CancerPredictor first = holder.get();
+
+            writeModel(file, 1, "disagrees");
+            ModelHolder.Swap rejected = holder.reload().get();
+            assertFalse(rejected.isActivated());
+            assertEquals(0.0, rejected.getAgreement());
+            assertTrue(rejected.getMessage().contains("below the minimum"), rejected.getMessage());
+            assertSame(first, holder.get());
+
+            writeModel(file, 0, "agrees");
+            ModelHolder.Swap accepted = holder.reload().get();
+            assertTrue(accepted.isActivated(), accepted.getMessage());
+            assertEquals(1.0, accepted.getAgreement());
+            assertEquals("LUAD", holder.get().predict(Collections.singletonMap("Tissue", "lung")).getLabel());
+        } finally {
+            holder.close();
+        }
+    }
+
+    @Test
+    void acceptsAnyModelWithoutAMinimum() throws Exception {
+        File file = new File(tempDir, "model");
+        writeModel(file, 0, "first");
+        ModelHolder holder = new ModelHolder(file.getPath(), 0, PredictionCache.Eviction.LRU);
+        try {
+            holder.loadInitial();
+            writeModel(file, 1, "disagrees");
+            ModelHolder.Swap swap = holder.reload().get();
+            assertTrue(swap.isActivated(), swap.getMessage());
+            assertEquals(0.0, swap.getAgreement());
+        } finally {
+            holder.close();
+        }
+    }
+}
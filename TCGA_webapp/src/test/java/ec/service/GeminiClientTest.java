@@ -0,0 +1,128 @@
+package ec.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GeminiClientTest {
+
+    private static final int TIMEOUT_MILLIS = 10000;
+
+    private StubGeminiServer stub;
+
+    @BeforeEach
+    void startStub() throws Exception {
+        stub = new StubGeminiServer();
+    }
+
+    @AfterEach
+    void stopStub() {
+        stub.close();
+    }
+
+    private GeminiClient client(int maxRetries, CircuitBreaker breaker) {
+        return new GeminiClient(stub.getModelUrl(), "test-key", maxRetries, breaker);
+    }
+
+    @Test
+    void retriesServerErrorsAndRateLimits() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(10, 1000, 1000);
+        stub.respondWith(503, 429);
+        assertEquals("summary 3", client(3, breaker).generate("prompt", TIMEOUT_MILLIS));
+        assertEquals(3, stub.getCalls());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void givesUpAfterMaxRetries() throws Exception {
+        stub.setDefaultStatus(500);
+        assertNull(client(2, new CircuitBreaker(10, 1000, 1000)).generate("prompt", TIMEOUT_MILLIS));
+        assertEquals(3, stub.getCalls());
+    }
+
+    @Test
+    void doesNotRetryClientErrors() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(1, 1000, 1000);
+        stub.setDefaultStatus(400);
+        assertNull(client(3, breaker).generate("prompt", TIMEOUT_MILLIS));
+        assertEquals(1, stub.getCalls());
+        // The API answered, so a bad request does not count against it
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void stopsRetryingAtTheDeadline() throws Exception {
+        stub.setDefaultStatus(503);
+        stub.setDelayMillis(300);
+        long start = System.currentTimeMillis();
+        assertNull(client(20, new CircuitBreaker(100, 1000, 1000)).generate("prompt", 1000));
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue(elapsed < 2000, "took " + elapsed + " ms");
+        assertTrue(stub.getCalls() < 20, stub.getCalls() + " calls");
+    }
+
+    @Test
+    void breakerOpensAndRefusesCalls() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(2, 60000, 60000);
+        GeminiClient client = client(0, breaker);
+        stub.setDefaultStatus(503);
+        assertNull(client.generate("prompt", TIMEOUT_MILLIS));
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertNull(client.generate("prompt", TIMEOUT_MILLIS));
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        stub.setDefaultStatus(200);
+        assertNull(client.generate("prompt", TIMEOUT_MILLIS));
+        assertEquals(2, stub.getCalls());
+        assertEquals(1, breaker.getRejected());
+    }
+
+    @Test
+    void breakerStopsRetriesOnceOpen() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(2, 60000, 60000);
+        stub.setDefaultStatus(503);
+        assertNull(client(5, breaker).generate("prompt", TIMEOUT_MILLIS));
+        assertEquals(2, stub.getCalls());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void successfulTrialClosesBreaker() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(1, 200, 200);
+        GeminiClient client = client(0, breaker);
+        stub.respondWith(503);
+        assertNull(client.generate("prompt", TIMEOUT_MILLIS));
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        Thread.sleep(300);
+        assertEquals("summary 2", client.generate("prompt", TIMEOUT_MILLIS));
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void failedTrialReopensBreaker() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(1, 500, 10000);
+        GeminiClient client = client(3, breaker);
+        stub.setDefaultStatus(503);
+        assertNull(client.generate("prompt", TIMEOUT_MILLIS));
+        assertEquals(1, stub.getCalls());
+
+        Thread.sleep(600);
+        // One trial call, and no retries after it fails
+        assertNull(client.generate("prompt", TIMEOUT_MILLIS));
+        assertEquals(2, stub.getCalls());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        // Open for twice as long the second time
+        Thread.sleep(500);
+        assertNull(client.generate("prompt", TIMEOUT_MILLIS));
+        assertEquals(2, stub.getCalls());
+        Thread.sleep(700);
+        assertNull(client.generate("prompt", TIMEOUT_MILLIS));
+        assertEquals(3, stub.getCalls());
+    }
+}
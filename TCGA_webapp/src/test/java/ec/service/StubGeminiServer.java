@@ -0,0 +1,133 @@
+package ec.service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A scripted stand-in for the Gemini generateContent API on a local port. Call n
+ * is answered with "summary n", or with the next queued error status, and calls
+ * can be held back until the test lets them through. streamGenerateContent sends
+ * the same text as two server-sent events, "summary " and "n".
+ */
+final class StubGeminiServer implements AutoCloseable {
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final AtomicInteger calls = new AtomicInteger();
+    private final Queue<Integer> statuses = new ConcurrentLinkedQueue<>();
+
+    private volatile int defaultStatus = 200;
+    private volatile long delayMillis;
+    private volatile CountDownLatch gate;
+
+    StubGeminiServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 64);
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "stub-gemini");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    String getModelUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/v1/models/stub";
+    }
+
+    int getCalls() {
+        return calls.get();
+    }
+
+    /** Answers the next calls with these statuses, then goes back to the default. */
+    void respondWith(int... statuses) {
+        for (int status : statuses) {
+            this.statuses.add(status);
+        }
+    }
+
+    void setDefaultStatus(int status) {
+        defaultStatus = status;
+    }
+
+    void setDelayMillis(long delayMillis) {
+        this.delayMillis = delayMillis;
+    }
+
+    /** Holds every call until the returned latch is counted down. */
+    CountDownLatch hold() {
+        CountDownLatch latch = new CountDownLatch(1);
+        gate = latch;
+        return latch;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buffer = new byte[4096];
+            while (in.read(buffer) >= 0) {
+                // The prompt is not needed
+            }
+        }
+        int call = calls.incrementAndGet();
+        try {
+            CountDownLatch latch = gate;
+            if (latch != null && !latch.await(30, TimeUnit.SECONDS)) {
+                throw new IOException("Stub call was never let through");
+            }
+            if (delayMillis > 0) {
+                Thread.sleep(delayMillis);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            exchange.close();
+            return;
+        }
+
+        Integer queued = statuses.poll();
+        int status = queued != null ? queued : defaultStatus;
+        boolean streaming = exchange.getRequestURI().getPath().endsWith(":streamGenerateContent");
+        String body;
+        if (status != 200) {
+            body = "{\"error\":{\"code\":" + status + ",\"message\":\"Stubbed failure\"}}";
+        } else if (streaming) {
+            body = "data: " + candidate("summary ") + "\n\n" + "data: " + candidate(String.valueOf(call)) + "\n\n";
+        } else {
+            body = candidate("summary " + call);
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type",
+                streaming && status == 200 ? "text/event-stream" : "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String candidate(String text) {
+        return "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"" + text + "\"}],\"role\":\"model\"}}]}";
+    }
+
+    @Override
+    public void close() {
+        CountDownLatch latch = gate;
+        if (latch != null) {
+            latch.countDown();
+        }
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,189 @@
+package ec.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TreatmentInfoCacheTest {
+
+    private static final int TIMEOUT_MILLIS = 10000;
+
+    @TempDir
+    File tempDir;
+
+    private StubGeminiServer stub;
+    private GeminiClient client;
+
+    @BeforeEach
+    void startStub() throws Exception {
+        stub = new StubGeminiServer();
+        client = new GeminiClient(stub.getModelUrl(), "test-key", 0, new CircuitBreaker(100, 1000, 1000));
+    }
+
+    @AfterEach
+    void stopStub() {
+        stub.close();
+    }
+
+    private TreatmentInfoCache cache(long ttlMillis, File storeFile) {
+        return new TreatmentInfoCache(client::generate, ttlMillis, storeFile);
+    }
+
+    @Test
+    void concurrentMissesShareOneUpstreamCall() throws Exception {
+        TreatmentInfoCache cache = cache(60000, null);
+        int callers = 16;
+        CountDownLatch release = stub.hold();
+        ExecutorService pool = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                results.add(pool.submit(() -> cache.get("BRCA", TIMEOUT_MILLIS)));
+            }
+            // Let the call through only once every caller has missed and is waiting on it
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (cache.getMisses() < callers && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Thread.sleep(100);
+            release.countDown();
+
+            for (Future<String> result : results) {
+                assertEquals("summary 1", result.get());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(1, stub.getCalls());
+        assertEquals(1, cache.getLoads());
+        assertEquals(callers, cache.getMisses());
+    }
+
+    @Test
+    void concurrentMissesWaitForAStreamInFlight() throws Exception {
+        TreatmentInfoCache cache = cache(60000, null);
+        int waiters = 8;
+        CountDownLatch release = stub.hold();
+        ExecutorService pool = Executors.newFixedThreadPool(waiters + 1);
+        try {
+            List<String> chunks = new CopyOnWriteArrayList<>();
+            Future<String> streamed = pool.submit(() -> cache.get("BRCA", TIMEOUT_MILLIS,
+                    (cancerType, timeoutMillis) -> client.stream(cancerType, timeoutMillis, chunks::add)));
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (stub.getCalls() < 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < waiters; i++) {
+                results.add(pool.submit(() -> cache.get("BRCA", TIMEOUT_MILLIS)));
+            }
+            while (cache.getMisses() < waiters + 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Thread.sleep(100);
+            release.countDown();
+
+            assertEquals("summary 1", streamed.get());
+            assertEquals(Arrays.asList("summary ", "1"), chunks);
+            for (Future<String> result : results) {
+                assertEquals("summary 1", result.get());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(1, stub.getCalls());
+        assertEquals(1, cache.getLoads());
+        // Served from the cache now, without streaming again
+        assertEquals("summary 1", cache.get("brca", TIMEOUT_MILLIS, (cancerType, timeoutMillis) -> "unused"));
+    }
+
+    @Test
+    void refetchesAfterTtlExpires() throws Exception {
+        TreatmentInfoCache cache = cache(300, null);
+        assertEquals("summary 1", cache.get("BRCA", TIMEOUT_MILLIS));
+        assertEquals("summary 1", cache.get("brca ", TIMEOUT_MILLIS));
+        assertEquals(1, stub.getCalls());
+
+        Thread.sleep(400);
+        assertEquals("summary 2", cache.get("BRCA", TIMEOUT_MILLIS));
+        assertEquals(2, stub.getCalls());
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    void servesStaleEntryWhenRefreshFails() throws Exception {
+        TreatmentInfoCache cache = cache(200, null);
+        assertEquals("summary 1", cache.get("BRCA", TIMEOUT_MILLIS));
+
+        stub.setDefaultStatus(503);
+        Thread.sleep(300);
+        assertEquals("summary 1", cache.get("BRCA", TIMEOUT_MILLIS));
+        assertEquals(2, stub.getCalls());
+        // Still expired, so the next request tries again
+        assertEquals("summary 1", cache.get("BRCA", TIMEOUT_MILLIS));
+        assertEquals(3, stub.getCalls());
+
+        stub.setDefaultStatus(200);
+        assertEquals("summary 4", cache.get("BRCA", TIMEOUT_MILLIS));
+    }
+
+    @Test
+    void servesStaleEntryWhenLoaderThrows() throws Exception {
+        boolean[] failing = new boolean[1];
+        TreatmentInfoCache cache = new TreatmentInfoCache((cancerType, timeoutMillis) -> {
+            if (failing[0]) {
+                throw new IOException("upstream unreachable");
+            }
+            return client.generate(cancerType, timeoutMillis);
+        }, 200, null);
+        assertEquals("summary 1", cache.get("BRCA", TIMEOUT_MILLIS));
+
+        failing[0] = true;
+        Thread.sleep(300);
+        assertEquals("summary 1", cache.get("BRCA", TIMEOUT_MILLIS));
+    }
+
+    @Test
+    void restartReadsStoreFileWarm() throws Exception {
+        File store = new File(tempDir, "treatment-cache.json");
+        TreatmentInfoCache first = cache(60000, store);
+        assertEquals("summary 1", first.get("BRCA", TIMEOUT_MILLIS));
+        assertEquals("summary 2", first.get("LUAD", TIMEOUT_MILLIS));
+        assertTrue(store.isFile());
+
+        TreatmentInfoCache restarted = cache(60000, store);
+        assertEquals(2, restarted.size());
+        assertEquals("summary 1", restarted.get("BRCA", TIMEOUT_MILLIS));
+        assertEquals("summary 2", restarted.get("LUAD", TIMEOUT_MILLIS));
+        assertEquals(2, stub.getCalls());
+        assertEquals(2, restarted.getHits());
+        assertEquals(0, restarted.getLoads());
+    }
+
+    @Test
+    void restartRefetchesEntriesThatExpiredWhileDown() throws Exception {
+        File store = new File(tempDir, "treatment-cache.json");
+        assertEquals("summary 1", cache(200, store).get("BRCA", TIMEOUT_MILLIS));
+
+        Thread.sleep(300);
+        TreatmentInfoCache restarted = cache(200, store);
+        assertEquals("summary 2", restarted.get("BRCA", TIMEOUT_MILLIS));
+        assertEquals(2, stub.getCalls());
+    }
+}
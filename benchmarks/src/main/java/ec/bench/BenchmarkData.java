@@ -0,0 +1,155 @@
+package ec.bench;
+
+import ec.StreamingInstancesLoader;
+import ec.csv.CsvReader;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import weka.core.Instances;
+
+/**
+ * Inputs shared by the JMH benchmarks: the bundled Cell_Lines_Details.csv and
+ * larger synthetic files made by resampling its rows, so every value and
+ * category is a real one.
+ * <p>
+ * The CSV is looked up at {@code -Dbench.csv=...}, then at
+ * {@code data/Cell_Lines_Details.csv} from the working directory or its parent.
+ */
+final class BenchmarkData {
+
+    static final String TARGET_COLUMN = "Cancer Type (matching TCGA label)";
+
+    /** The columns ModelTrainingApp trains on, target last. */
+    static final List<String> TRAINING_COLUMNS = Collections.unmodifiableList(Arrays.asList(
+        "Whole Exome Sequencing (WES)",
+        "Copy Number Alterations (CNA)",
+        "Gene Expression",
+        "Methylation",
+        "Drug Response",
+        "GDSC Tissue descriptor 1",
+        "GDSC Tissue descriptor 2",
+        "Microsatellite instability Status (MSI)",
+        "Screen Medium",
+        "Growth Properties",
+        TARGET_COLUMN
+    ));
+
+    private BenchmarkData() {
+    }
+
+    static File csvFile() {
+        String configured = System.getProperty("bench.csv");
+        List<File> candidates = new ArrayList<>();
+        if (configured != null) {
+            candidates.add(new File(configured));
+        }
+        candidates.add(new File("data/Cell_Lines_Details.csv"));
+        candidates.add(new File("../data/Cell_Lines_Details.csv"));
+        for (File candidate : candidates) {
+            if (candidate.isFile()) {
+                return candidate;
+            }
+        }
+        throw new IllegalStateException("Cell_Lines_Details.csv not found; run from the project root "
+                + "or pass -Dbench.csv=<path>");
+    }
+
+    /**
+     * The CSV at {@code scale} times its real size: scale 1 is the bundled file,
+     * larger scales are written once to the temp directory and reused.
+     */
+    static File scaledCsv(int scale) throws IOException {
+        File source = csvFile();
+        if (scale <= 1) {
+            return source;
+        }
+        File target = new File(System.getProperty("java.io.tmpdir"), "cell_lines_x" + scale + ".csv");
+        if (target.isFile()) {
+            return target;
+        }
+
+        List<String> rows = new ArrayList<>();
+        String header;
+        try (CsvReader reader = CsvReader.open(Paths.get(source.getPath()))) {
+            if (!reader.next()) {
+                throw new IOException(source + " is empty");
+            }
+            header = toLine(reader.getAll());
+            while (reader.next()) {
+                rows.add(toLine(reader.getAll()));
+            }
+        }
+
+        Random random = new Random(42);
+        File partial = new File(target.getPath() + ".tmp");
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(partial), 1 << 20)) {
+            writer.write(header);
+            writer.write('\n');
+            for (long i = 0, count = (long) rows.size() * scale; i < count; i++) {
+                writer.write(rows.get(random.nextInt(rows.size())));
+                writer.write('\n');
+            }
+        }
+        if (!partial.renameTo(target)) {
+            throw new IOException("Could not create " + target);
+        }
+        return target;
+    }
+
+    /**
+     * The training dataset, built the way ModelTrainingApp builds it.
+     */
+    static Instances trainingData() throws IOException {
+        return new StreamingInstancesLoader(csvFile().getPath()).load(TARGET_COLUMN, TRAINING_COLUMNS);
+    }
+
+    /**
+     * Every row of the CSV as the feature map CancerPredictor takes.
+     */
+    static List<Map<String, String>> featureRows() throws IOException {
+        List<Map<String, String>> rows = new ArrayList<>();
+        try (CsvReader reader = CsvReader.open(Paths.get(csvFile().getPath()))) {
+            if (!reader.next()) {
+                return rows;
+            }
+            String[] headers = reader.getAll();
+            while (reader.next()) {
+                Map<String, String> row = new HashMap<>();
+                for (int i = 0; i < headers.length; i++) {
+                    if (TRAINING_COLUMNS.contains(headers[i]) && !headers[i].equals(TARGET_COLUMN)) {
+                        row.put(headers[i], reader.get(i));
+                    }
+                }
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    private static String toLine(String[] fields) {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                line.append(',');
+            }
+            String field = fields[i];
+            if (field.indexOf(',') >= 0 || field.indexOf('"') >= 0 || field.indexOf('\n') >= 0) {
+                line.append('"').append(field.replace("\"", "\"\"")).append('"');
+            } else {
+                line.append(field);
+            }
+        }
+        return line.toString();
+    }
+}
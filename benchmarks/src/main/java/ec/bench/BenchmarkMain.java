@@ -0,0 +1,25 @@
+package ec.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Entry point of benchmarks.jar: runs JMH with the given arguments and, unless
+ * a result format is chosen, writes the results as JSON to jmh-result.json so
+ * runs can be compared over time.
+ * <p>
+ * Examples: {@code java -jar benchmarks/target/benchmarks.jar} runs everything;
+ * {@code java -jar benchmarks/target/benchmarks.jar PredictorBenchmark -p engine=compiled}
+ * runs one class with one parameter value.
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        List<String> options = new ArrayList<>(Arrays.asList(args));
+        if (!options.contains("-rf")) {
+            options.addAll(Arrays.asList("-rf", "json", "-rff", "jmh-result.json"));
+        }
+        org.openjdk.jmh.Main.main(options.toArray(new String[0]));
+    }
+}
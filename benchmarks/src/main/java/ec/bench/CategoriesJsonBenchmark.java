@@ -0,0 +1,56 @@
+package ec.bench;
+
+import ec.controller.CategoriesServlet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import weka.core.Attribute;
+import weka.core.Instances;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the /categories JSON from the categories of the training header,
+ * which the servlet does whenever the model changes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CategoriesJsonBenchmark {
+
+    private Map<String, List<String>> categories;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Instances header = BenchmarkData.trainingData();
+        categories = new LinkedHashMap<>();
+        for (int i = 0; i < header.numAttributes(); i++) {
+            Attribute attribute = header.attribute(i);
+            List<String> values = new ArrayList<>();
+            for (int j = 0; j < attribute.numValues(); j++) {
+                values.add(attribute.value(j));
+            }
+            categories.put(attribute.name(), values);
+        }
+    }
+
+    @Benchmark
+    public byte[] buildJson() {
+        return CategoriesServlet.buildJson(categories);
+    }
+}
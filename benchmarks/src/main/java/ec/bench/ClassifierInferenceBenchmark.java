@@ -0,0 +1,69 @@
+package ec.bench;
+
+import ec.ModelTrainingApp;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import weka.classifiers.Classifier;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-instance inference latency of each classifier ModelTrainingApp can
+ * select, configured as the trainer configures it and trained on the bundled CSV.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ClassifierInferenceBenchmark {
+
+    @Param({"RandomForest", "IBk", "SMO", "LogitBoost"})
+    public String classifier;
+
+    private Classifier model;
+    private Instances data;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        data = BenchmarkData.trainingData();
+        switch (classifier) {
+            case "RandomForest":
+                model = ModelTrainingApp.createRandomForest(1);
+                break;
+            case "IBk":
+                model = ModelTrainingApp.createKNN();
+                break;
+            case "SMO":
+                model = ModelTrainingApp.createSVM();
+                break;
+            case "LogitBoost":
+                model = ModelTrainingApp.createXGBoost();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown classifier " + classifier);
+        }
+        model.buildClassifier(data);
+    }
+
+    @Benchmark
+    public double[] distributionForInstance() throws Exception {
+        Instance instance = data.instance(next);
+        next = next + 1 == data.numInstances() ? 0 : next + 1;
+        return model.distributionForInstance(instance);
+    }
+}
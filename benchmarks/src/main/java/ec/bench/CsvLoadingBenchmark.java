@@ -0,0 +1,102 @@
+package ec.bench;
+
+import ec.ModelTrainingApp;
+import ec.StreamingInstancesLoader;
+import ec.csv.CsvReader;
+import ec.util.ModelLoader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import weka.core.Instances;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CSV parsing and dataset building on the bundled file and on resampled copies
+ * 10 and 100 times its size: raw line parsing, the webapp's category scan, and
+ * the trainer's in-memory and streaming conversions to Weka instances.
+ * <p>
+ * The legacy ModelLoader.parseCSVLine is gone; {@link #parseLines} measures the
+ * shared CsvReader that replaced it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CsvLoadingBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int scale;
+
+    private File csv;
+    private List<String[]> rows;
+    private PrintStream console;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        csv = BenchmarkData.scaledCsv(scale);
+
+        // The code under test logs progress and every category it finds; keep that out of the timings
+        console = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+        rows = ModelTrainingApp.readCSVFile(csv.getPath());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(console);
+    }
+
+    @Benchmark
+    public void parseLines(Blackhole blackhole) throws IOException {
+        try (CsvReader reader = CsvReader.open(Paths.get(csv.getPath()))) {
+            while (reader.next()) {
+                blackhole.consume(reader.getAll());
+            }
+        }
+    }
+
+    @Benchmark
+    public Map<String, List<String>> loadCategoriesFromCSV() {
+        return ModelLoader.loadCategoriesFromCSV(csv.getPath());
+    }
+
+    @Benchmark
+    public Instances convertToInstances() {
+        return ModelTrainingApp.convertToInstances(rows, BenchmarkData.TARGET_COLUMN, BenchmarkData.TRAINING_COLUMNS);
+    }
+
+    @Benchmark
+    public Instances streamingLoader() throws IOException {
+        return new StreamingInstancesLoader(csv.getPath())
+                .load(BenchmarkData.TARGET_COLUMN, BenchmarkData.TRAINING_COLUMNS);
+    }
+}
@@ -0,0 +1,171 @@
+package ec.bench;
+
+import ec.csv.CsvReader;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the shared {@link CsvReader} with the char-by-char tokenizer that the
+ * trainer and the webapp used before, on a synthetic file shaped like
+ * Cell_Lines_Details.csv.
+ * <p>
+ * Usage: {@code CsvParserBenchmark [sizeInMB] [file]}. The file is generated if
+ * it does not exist yet (default 2048 MB in the temp directory) and is kept for
+ * later runs.
+ */
+public class CsvParserBenchmark {
+
+    private static final String HEADER = "Sample Name,COSMIC identifier,Whole Exome Sequencing (WES),"
+            + "Copy Number Alterations (CNA),Gene Expression,Methylation,Drug Response,"
+            + "GDSC Tissue descriptor 1,GDSC Tissue descriptor 2,Cancer Type (matching TCGA label),"
+            + "Microsatellite instability Status (MSI),Screen Medium,Growth Properties";
+
+    private static final String[] TISSUES_1 = {"aero_dig_tract", "lung_NSCLC", "leukemia", "breast", "skin",
+            "digestive_system", "nervous_system", "urogenital_system", "bone", "kidney"};
+    private static final String[] TISSUES_2 = {"head and neck", "lung_NSCLC_adenocarcinoma", "AML", "breast",
+            "melanoma", "\"stomach, upper GI\"", "glioma", "\"prostate \"\"hormone\"\" sensitive\"", "osteosarcoma"};
+    private static final String[] CANCER_TYPES = {"HNSC", "LUAD", "LAML", "BRCA", "SKCM", "STAD", "GBM", "PRAD", ""};
+    private static final String[] MEDIA = {"D/F12", "R", "\"D/F12, R\""};
+    private static final String[] GROWTH = {"Adherent", "Suspension", "Semi-Adherent"};
+
+    /** Keeps the JIT from discarding the parsed values. */
+    static volatile long sink;
+
+    /** The ten feature columns and the target, as used for training. */
+    private static final int[] TRAINING_COLUMNS = {2, 3, 4, 5, 6, 7, 8, 10, 11, 12, 9};
+
+    public static void main(String[] args) throws IOException {
+        long sizeMb = args.length > 0 ? Long.parseLong(args[0]) : 2048;
+        File file = args.length > 1 ? new File(args[1])
+                : new File(System.getProperty("java.io.tmpdir"), "cell_lines_" + sizeMb + "mb.csv");
+
+        if (!file.exists()) {
+            System.out.println("Generating " + sizeMb + " MB synthetic CSV at " + file.getAbsolutePath() + "...");
+            generate(file, sizeMb * 1024 * 1024);
+        }
+        double sizeMbActual = file.length() / (1024.0 * 1024.0);
+        System.out.println(String.format("Benchmark file: %s (%.1f MB)", file.getAbsolutePath(), sizeMbActual));
+
+        // One untimed pass warms the page cache and the JIT for every parser
+        legacy(file);
+        sharedAllColumns(file);
+        sharedProjected(file);
+
+        System.out.println("parser,rows,millis,mb_per_second");
+        report("legacy-tokenizer", sizeMbActual, () -> legacy(file));
+        report("csvreader-all-columns", sizeMbActual, () -> sharedAllColumns(file));
+        report("csvreader-projected", sizeMbActual, () -> sharedProjected(file));
+    }
+
+    private static void report(String name, double sizeMb, Run run) throws IOException {
+        long start = System.nanoTime();
+        long rows = run.rows();
+        long millis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+        System.out.println(String.format("%s,%d,%d,%.1f", name, rows, millis, sizeMb * 1000.0 / millis));
+    }
+
+    /**
+     * The tokenizer that used to be duplicated in ModelTrainingApp.readCSVFile and
+     * ModelLoader.parseCSVLine.
+     */
+    private static long legacy(File file) throws IOException {
+        long rows = 0;
+        long checksum = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                List<String> tokens = new ArrayList<>();
+                StringBuilder sb = new StringBuilder();
+                boolean inQuotes = false;
+
+                for (char c : line.toCharArray()) {
+                    if (c == '"') {
+                        inQuotes = !inQuotes;
+                    } else if (c == ',' && !inQuotes) {
+                        tokens.add(sb.toString().trim());
+                        sb.setLength(0);
+                    } else {
+                        sb.append(c);
+                    }
+                }
+                tokens.add(sb.toString().trim());
+
+                String[] values = tokens.toArray(new String[0]);
+                checksum += values.length;
+                rows++;
+            }
+        }
+        sink = checksum;
+        return rows;
+    }
+
+    private static long sharedAllColumns(File file) throws IOException {
+        long rows = 0;
+        long checksum = 0;
+        try (CsvReader reader = CsvReader.open(Paths.get(file.getPath()))) {
+            while (reader.next()) {
+                checksum += reader.getAll().length;
+                rows++;
+            }
+        }
+        sink = checksum;
+        return rows;
+    }
+
+    private static long sharedProjected(File file) throws IOException {
+        long rows = 0;
+        long checksum = 0;
+        String[] values = new String[TRAINING_COLUMNS.length];
+        try (CsvReader reader = CsvReader.open(Paths.get(file.getPath()))) {
+            while (reader.next()) {
+                reader.get(TRAINING_COLUMNS, values);
+                checksum += values[0].length();
+                rows++;
+            }
+        }
+        sink = checksum;
+        return rows;
+    }
+
+    private static void generate(File file, long targetBytes) throws IOException {
+        Random random = new Random(42);
+        long written = 0;
+        long row = 0;
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file), 1 << 20)) {
+            writer.write(HEADER);
+            writer.write('\n');
+            StringBuilder sb = new StringBuilder(256);
+            while (written < targetBytes) {
+                sb.setLength(0);
+                sb.append("CL-").append(row).append(',');
+                sb.append(900000 + row).append(',');
+                for (int i = 0; i < 5; i++) {
+                    sb.append(random.nextInt(10) == 0 ? "N" : "Y").append(',');
+                }
+                sb.append(TISSUES_1[random.nextInt(TISSUES_1.length)]).append(',');
+                sb.append(TISSUES_2[random.nextInt(TISSUES_2.length)]).append(',');
+                sb.append(CANCER_TYPES[random.nextInt(CANCER_TYPES.length)]).append(',');
+                sb.append(random.nextInt(8) == 0 ? "MSI-H" : "MSS/MSI-L").append(',');
+                sb.append(MEDIA[random.nextInt(MEDIA.length)]).append(',');
+                sb.append(GROWTH[random.nextInt(GROWTH.length)]).append('\n');
+                writer.append(sb);
+                written += sb.length();
+                row++;
+            }
+        }
+        System.out.println("Generated " + row + " rows, " + written + " bytes");
+    }
+
+    private interface Run {
+        long rows() throws IOException;
+    }
+}
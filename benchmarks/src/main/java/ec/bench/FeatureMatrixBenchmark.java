@@ -0,0 +1,106 @@
+package ec.bench;
+
+import ec.FeatureMatrix;
+import ec.ModelTrainingApp;
+import ec.StreamingInstancesLoader;
+import weka.classifiers.Classifier;
+import weka.classifiers.Evaluation;
+import weka.classifiers.functions.SMO;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Compares cross-validating the SVM the way CrossValidationEvaluator did before
+ * {@link FeatureMatrix} (copy the fold's rows, let SMO filter them, evaluate on
+ * nominal rows) with training and testing on the shared one-hot encoding: time
+ * to train and to evaluate all folds, and whether both give the same class
+ * distribution for every test row.
+ * <p>
+ * Usage: {@code FeatureMatrixBenchmark [scale] [folds] [rounds]}. The first
+ * round warms up the JIT and is not reported.
+ */
+public class FeatureMatrixBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int scale = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+        int numFolds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        Instances data = new StreamingInstancesLoader(BenchmarkData.scaledCsv(scale).getPath())
+                .load(BenchmarkData.TARGET_COLUMN, BenchmarkData.TRAINING_COLUMNS);
+        long start = System.nanoTime();
+        FeatureMatrix matrix = new FeatureMatrix(data);
+        System.out.println(String.format("Encoded %,d rows in %.1f ms", data.numInstances(),
+                (System.nanoTime() - start) / 1e6));
+
+        Random random = new Random(42);
+        int[] folds = new int[data.numInstances()];
+        for (int i = 0; i < folds.length; i++) {
+            folds[i] = random.nextInt(numFolds);
+        }
+
+        for (int round = 0; round <= rounds; round++) {
+            long baselineTrain = 0;
+            long baselineEval = 0;
+            long sharedTrain = 0;
+            long sharedEval = 0;
+            int identical = 0;
+            int total = 0;
+            for (int fold = 0; fold < numFolds; fold++) {
+                int[] trainRows = rows(folds, fold, false);
+                int[] testRows = rows(folds, fold, true);
+                Instances train = select(data, trainRows);
+                Instances test = select(data, testRows);
+
+                long t0 = System.nanoTime();
+                SMO baseline = ModelTrainingApp.createSVM();
+                baseline.buildClassifier(train);
+                long t1 = System.nanoTime();
+                Evaluation eval = new Evaluation(test);
+                eval.evaluateModel(baseline, test);
+                long t2 = System.nanoTime();
+                Classifier shared = matrix.train(ModelTrainingApp.createSVM(), trainRows);
+                long t3 = System.nanoTime();
+                matrix.evaluate(shared, testRows);
+                long t4 = System.nanoTime();
+
+                baselineTrain += t1 - t0;
+                baselineEval += t2 - t1;
+                sharedTrain += t3 - t2;
+                sharedEval += t4 - t3;
+                for (Instance instance : test) {
+                    total++;
+                    if (Arrays.equals(baseline.distributionForInstance(instance),
+                            shared.distributionForInstance(instance))) {
+                        identical++;
+                    }
+                }
+            }
+            if (round == 0) {
+                continue;
+            }
+            System.out.println(String.format("Round %d: filtered SMO train %8.1f ms, eval %6.1f ms | "
+                            + "shared encoding train %8.1f ms, eval %6.1f ms | identical %d/%d",
+                    round, baselineTrain / 1e6, baselineEval / 1e6, sharedTrain / 1e6, sharedEval / 1e6,
+                    identical, total));
+        }
+    }
+
+    private static int[] rows(int[] folds, int fold, boolean inFold) {
+        return IntStream.range(0, folds.length)
+                .filter(i -> (folds[i] == fold) == inFold)
+                .toArray();
+    }
+
+    private static Instances select(Instances data, int[] rows) {
+        Instances subset = new Instances(data, rows.length);
+        for (int r : rows) {
+            subset.add(data.instance(r));
+        }
+        return subset;
+    }
+}
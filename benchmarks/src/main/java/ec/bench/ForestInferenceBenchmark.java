@@ -0,0 +1,122 @@
+package ec.bench;
+
+import ec.compiled.CompiledForest;
+import weka.classifiers.trees.RandomForest;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SerializationHelper;
+import weka.core.Utils;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares single-prediction latency of a trained Weka {@link RandomForest}
+ * with its {@link CompiledForest}, after checking that both give identical
+ * distributions.
+ * <p>
+ * Usage: {@code ForestInferenceBenchmark [modelFile] [predictions]}. The model
+ * file is a bundle written by ModelTrainingApp (the forest followed by its
+ * training header).
+ */
+public class ForestInferenceBenchmark {
+
+    private static final String DEFAULT_MODEL = "C:/enterprise/workspace/630project/tmp/model/model";
+
+    /** Keeps the JIT from discarding the predictions. */
+    static volatile double sink;
+
+    public static void main(String[] args) throws Exception {
+        String modelFile = args.length > 0 ? args[0] : DEFAULT_MODEL;
+        int predictions = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+
+        Object[] bundle = SerializationHelper.readAll(modelFile);
+        if (!(bundle[0] instanceof RandomForest) || bundle.length < 2) {
+            System.err.println(modelFile + " does not hold a Random Forest bundle");
+            return;
+        }
+        RandomForest forest = (RandomForest) bundle[0];
+        Instances header = new Instances((Instances) bundle[1], 0);
+
+        long start = System.nanoTime();
+        CompiledForest compiled = CompiledForest.compile(forest);
+        System.out.println(String.format("Compiled %d trees, %d nodes in %.1f ms", compiled.numTrees(),
+                compiled.numNodes(), (System.nanoTime() - start) / 1e6));
+
+        if (!compiled.agreesWith(forest, header, 10_000, new Random(1))) {
+            System.err.println("Compiled forest does not match Weka; not benchmarking");
+            return;
+        }
+        System.out.println("Parity: 10000 random instances identical");
+
+        // The same inputs for both engines, as the webapp encodes them
+        double[][] inputs = randomInputs(header, 4096, new Random(42));
+        Instance[] instances = new Instance[inputs.length];
+        for (int i = 0; i < inputs.length; i++) {
+            instances[i] = new DenseInstance(1.0, inputs[i]);
+            instances[i].setDataset(header);
+        }
+        double[] distribution = new double[compiled.numClasses()];
+
+        // One untimed pass warms the JIT for both
+        runWeka(forest, instances, predictions / 4, new long[predictions / 4]);
+        runCompiled(compiled, inputs, distribution, predictions / 4, new long[predictions / 4]);
+
+        System.out.println("engine,predictions,p50_us,p99_us,mean_us,predictions_per_second");
+        long[] latencies = new long[predictions];
+        report("weka", latencies, runWeka(forest, instances, predictions, latencies));
+        report("compiled", latencies, runCompiled(compiled, inputs, distribution, predictions, latencies));
+    }
+
+    private static long runWeka(RandomForest forest, Instance[] instances, int count, long[] latencies)
+            throws Exception {
+        double checksum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            long t0 = System.nanoTime();
+            double[] distribution = forest.distributionForInstance(instances[i % instances.length]);
+            latencies[i] = System.nanoTime() - t0;
+            checksum += distribution[0];
+        }
+        long elapsed = System.nanoTime() - start;
+        sink = checksum;
+        return elapsed;
+    }
+
+    private static long runCompiled(CompiledForest compiled, double[][] inputs, double[] distribution, int count,
+            long[] latencies) {
+        double checksum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            long t0 = System.nanoTime();
+            compiled.distributionForInstance(inputs[i % inputs.length], distribution);
+            latencies[i] = System.nanoTime() - t0;
+            checksum += distribution[0];
+        }
+        long elapsed = System.nanoTime() - start;
+        sink = checksum;
+        return elapsed;
+    }
+
+    private static void report(String engine, long[] latencies, long elapsedNanos) {
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        double p50 = sorted[sorted.length / 2] / 1000.0;
+        double p99 = sorted[(int) (sorted.length * 0.99)] / 1000.0;
+        double mean = elapsedNanos / 1000.0 / sorted.length;
+        double perSecond = sorted.length * 1e9 / elapsedNanos;
+        System.out.println(String.format("%s,%d,%.2f,%.2f,%.2f,%.0f", engine, sorted.length, p50, p99, mean, perSecond));
+    }
+
+    private static double[][] randomInputs(Instances header, int count, Random random) {
+        double[][] inputs = new double[count][header.numAttributes()];
+        for (double[] values : inputs) {
+            for (int i = 0; i < values.length; i++) {
+                values[i] = i == header.classIndex() ? Utils.missingValue()
+                        : random.nextInt(header.attribute(i).numValues());
+            }
+        }
+        return inputs;
+    }
+}
@@ -0,0 +1,119 @@
+package ec.bench;
+
+import ec.compiled.CompactModelFile;
+import ec.compiled.CompiledEnsemble;
+import ec.util.ModelLoader;
+import weka.classifiers.Classifier;
+import weka.core.Instances;
+import weka.core.SerializationHelper;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares loading a model bundle with {@code SerializationHelper} (what
+ * ModelLoader did before compact files) with loading its
+ * {@link CompactModelFile}: time per load and heap kept alive by the loaded
+ * model. The compact file is written to a temporary file first, after checking
+ * that the compiled model matches Weka.
+ * <p>
+ * Usage: {@code ModelLoadBenchmark [modelFile] [loads]}. The model file is
+ * written by ModelTrainingApp and holds a Random Forest, LogitBoost or IBk; for an
+ * older one without its training header, pass the CSV with -Ddata.path.
+ */
+public class ModelLoadBenchmark {
+
+    private static final String DEFAULT_MODEL = "C:/enterprise/workspace/630project/tmp/model/model";
+
+    /** Keeps loaded models reachable while their heap is measured. */
+    static volatile Object retained;
+
+    public static void main(String[] args) throws Exception {
+        String modelFile = args.length > 0 ? args[0] : DEFAULT_MODEL;
+        int loads = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        // One load up front, so class loading is not counted against either format
+        Object[] bundle = SerializationHelper.readAll(modelFile);
+        if (bundle.length == 0 || !(bundle[0] instanceof Classifier)) {
+            System.err.println(modelFile + " does not hold a classifier");
+            return;
+        }
+        Classifier classifier = (Classifier) bundle[0];
+        // Older files hold only the classifier; rebuild the header as the webapp does (-Ddata.path=...)
+        Instances header = bundle.length > 1 && bundle[1] instanceof Instances
+                ? (Instances) bundle[1] : ModelLoader.buildHeaderFromCSV();
+        if (!CompiledEnsemble.isSupported(classifier)) {
+            System.err.println("No compact form for " + classifier.getClass().getName());
+            return;
+        }
+        CompiledEnsemble compiled = CompiledEnsemble.compile(classifier);
+        if (!compiled.agreesWith(classifier, header, 10_000, new Random(1))) {
+            System.err.println("Compiled model does not match Weka; not benchmarking");
+            return;
+        }
+        File compactFile = File.createTempFile("model", CompactModelFile.SUFFIX);
+        compactFile.deleteOnExit();
+        CompactModelFile.write(compactFile, compiled, header);
+
+        CompactModelFile.Contents reread = CompactModelFile.read(compactFile);
+        if (!reread.getModel().agreesWith(classifier, header, 10_000, new Random(2))) {
+            System.err.println("Model read back from the compact file does not match Weka; not benchmarking");
+            return;
+        }
+        System.out.println(String.format("%s: %s, serialized %,d bytes, compact %,d bytes; "
+                        + "parity: 10000 random instances identical",
+                modelFile, classifier.getClass().getSimpleName(), new File(modelFile).length(),
+                compactFile.length()));
+        bundle = null;
+        classifier = null;
+        compiled = null;
+        reread = null;
+
+        report("SerializationHelper.readAll", loads, () -> SerializationHelper.readAll(modelFile));
+        report("readAll + compile", loads, () -> {
+            // What the webapp kept before: the Weka model and its compiled form
+            Object[] loaded = SerializationHelper.readAll(modelFile);
+            return new Object[] {loaded, CompiledEnsemble.compile((Classifier) loaded[0])};
+        });
+        report("CompactModelFile.read", loads, () -> CompactModelFile.read(compactFile));
+    }
+
+    private interface Load {
+        Object run() throws Exception;
+    }
+
+    private static void report(String name, int loads, Load load) throws Exception {
+        double[] millis = new double[loads];
+        for (int i = 0; i < loads; i++) {
+            long start = System.nanoTime();
+            retained = load.run();
+            millis[i] = (System.nanoTime() - start) / 1e6;
+        }
+        double first = millis[0];
+        Arrays.sort(millis);
+
+        retained = null;
+        long before = usedHeapAfterGc();
+        retained = load.run();
+        long after = usedHeapAfterGc();
+        retained = null;
+
+        System.out.println(String.format("%-28s first %8.1f ms, median %8.1f ms, min %8.1f ms, retained heap %,10d KB",
+                name, first, millis[loads / 2], millis[0], (after - before) / 1024));
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long used = Long.MAX_VALUE;
+        // Collect until the figure settles
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(50);
+            used = Math.min(used, memory.getHeapMemoryUsage().getUsed());
+        }
+        return used;
+    }
+}
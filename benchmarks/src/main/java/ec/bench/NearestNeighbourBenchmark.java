@@ -0,0 +1,131 @@
+package ec.bench;
+
+import ec.ModelTrainingApp;
+import ec.StreamingInstancesLoader;
+import ec.compiled.CompiledKNN;
+import weka.classifiers.lazy.IBk;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares the trainer's IBk (k=5, hold-one-out over k) with its
+ * {@link CompiledKNN}, scanning every bit-packed row and scanning each distinct
+ * row once, at several training set sizes: time to choose k, time per
+ * prediction, and whether all three give the same distribution for every query.
+ * <p>
+ * Larger training sets are drawn from the resampled CSV. IBk's own hold-one-out
+ * grows with the square of the rows, so above {@value #WEKA_HOLD_ONE_OUT_LIMIT}
+ * rows Weka is given the k the compiled model chose instead of choosing it.
+ * <p>
+ * Usage: {@code NearestNeighbourBenchmark [rows...]}, by default 1000, 100000
+ * and 1000000.
+ */
+public class NearestNeighbourBenchmark {
+
+    private static final int WEKA_HOLD_ONE_OUT_LIMIT = 20_000;
+
+    /** Rows in the bundled CSV, which the resampled files multiply. */
+    private static final int BASE_ROWS = 1_001;
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = args.length > 0 ? Arrays.stream(args).mapToInt(Integer::parseInt).toArray()
+                : new int[] {1_000, 100_000, 1_000_000};
+
+        for (int size : sizes) {
+            run(size);
+        }
+    }
+
+    private static void run(int size) throws Exception {
+        int scale = (size + BASE_ROWS - 1) / BASE_ROWS;
+        Instances data = new StreamingInstancesLoader(BenchmarkData.scaledCsv(scale).getPath())
+                .load(BenchmarkData.TARGET_COLUMN, BenchmarkData.TRAINING_COLUMNS);
+        Instances train = new Instances(data, 0, Math.min(size, data.numInstances()));
+
+        IBk weka = ModelTrainingApp.createKNN();
+        weka.buildClassifier(train);
+        long start = System.nanoTime();
+        CompiledKNN bucketed = CompiledKNN.compile(weka, true);
+        double bucketedMillis = (System.nanoTime() - start) / 1e6;
+        start = System.nanoTime();
+        CompiledKNN flat = CompiledKNN.compile(weka, false);
+        double flatMillis = (System.nanoTime() - start) / 1e6;
+
+        String wekaSelection;
+        if (train.numInstances() <= WEKA_HOLD_ONE_OUT_LIMIT) {
+            // IBk runs its hold-one-out on the first prediction
+            start = System.nanoTime();
+            weka.distributionForInstance(query(data, 0));
+            wekaSelection = String.format("%.1f ms, k=%d", (System.nanoTime() - start) / 1e6, weka.getKNN());
+        } else {
+            weka.setCrossValidate(false);
+            weka.setKNN(bucketed.getK());
+            wekaSelection = "skipped, given k=" + bucketed.getK();
+        }
+        System.out.println(String.format("%,d rows, %,d distinct; choosing k: IBk %s | compiled %.1f ms "
+                        + "(bucketed), %.1f ms (every row), k=%d",
+                train.numInstances(), bucketed.numBuckets(), wekaSelection, bucketedMillis, flatMillis,
+                bucketed.getK()));
+
+        int numQueries = Math.max(20, Math.min(2_000, 20_000_000 / train.numInstances()));
+        Instance[] instances = new Instance[numQueries];
+        double[][] values = new double[numQueries][];
+        Random random = new Random(1);
+        for (int q = 0; q < numQueries; q++) {
+            instances[q] = query(data, random.nextInt(data.numInstances()));
+            values[q] = instances[q].toDoubleArray();
+        }
+
+        double[][] expected = new double[numQueries][];
+        start = System.nanoTime();
+        for (int q = 0; q < numQueries; q++) {
+            expected[q] = weka.distributionForInstance(instances[q]);
+        }
+        double wekaMicros = (System.nanoTime() - start) / 1e3 / numQueries;
+
+        int identical = 0;
+        double[] distribution = new double[bucketed.numClasses()];
+        for (CompiledKNN model : new CompiledKNN[] {flat, bucketed}) {
+            for (int q = 0; q < numQueries; q++) {
+                model.distributionForInstance(values[q], distribution);
+                if (Arrays.equals(expected[q], distribution)) {
+                    identical++;
+                }
+            }
+        }
+        double flatMicros = time(flat, values, distribution);
+        double bucketedMicros = time(bucketed, values, distribution);
+
+        System.out.println(String.format("  per prediction: IBk %,10.1f us | every row %,9.1f us | bucketed %,7.1f us"
+                        + " | identical %d/%d", wekaMicros, flatMicros, bucketedMicros, identical, 2 * numQueries));
+    }
+
+    /** A row of the data as a query: a copy, so IBk does not skip it as a training row, without its class. */
+    private static Instance query(Instances data, int index) {
+        Instance instance = (Instance) data.instance(index).copy();
+        instance.setDataset(data);
+        instance.setClassMissing();
+        return instance;
+    }
+
+    /** Mean microseconds per prediction, over enough repeats to run for about a second. */
+    private static double time(CompiledKNN model, double[][] values, double[] distribution) {
+        int repeats = 1;
+        while (true) {
+            long start = System.nanoTime();
+            for (int r = 0; r < repeats; r++) {
+                for (double[] query : values) {
+                    model.distributionForInstance(query, distribution);
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            if (elapsed > 1_000_000_000L || repeats >= 1 << 20) {
+                return elapsed / 1e3 / repeats / values.length;
+            }
+            repeats *= 2;
+        }
+    }
+}
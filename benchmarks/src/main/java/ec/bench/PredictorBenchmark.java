@@ -0,0 +1,89 @@
+package ec.bench;
+
+import ec.ModelTrainingApp;
+import ec.compiled.CompiledForest;
+import ec.model.CancerPredictor;
+import ec.model.ModelBundle;
+import ec.model.Prediction;
+import ec.model.PredictionCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import weka.classifiers.trees.RandomForest;
+import weka.core.Instances;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link CancerPredictor#predict} on every row of the bundled CSV, with the
+ * trainer's Random Forest scored by Weka or by the compiled forest, with and
+ * without the prediction cache, from one and from four threads.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PredictorBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Model {
+
+        @Param({"weka", "compiled"})
+        public String engine;
+
+        @Param({"0", "10000"})
+        public int cacheSize;
+
+        CancerPredictor predictor;
+        List<Map<String, String>> rows;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            Instances data = BenchmarkData.trainingData();
+            RandomForest forest = ModelTrainingApp.createRandomForest(1);
+            forest.buildClassifier(data);
+
+            CompiledForest compiled = "compiled".equals(engine) ? CompiledForest.compile(forest) : null;
+            ModelBundle bundle = new ModelBundle(forest, new Instances(data, 0), "benchmark", compiled);
+            predictor = new CancerPredictor(bundle, cacheSize, PredictionCache.Eviction.LRU);
+            rows = BenchmarkData.featureRows();
+        }
+    }
+
+    /** Each thread walks the rows from its own position. */
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        Map<String, String> nextRow(List<Map<String, String>> rows) {
+            Map<String, String> row = rows.get(next);
+            next = next + 1 == rows.size() ? 0 : next + 1;
+            return row;
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Prediction predictSingleThread(Model model, Cursor cursor) throws Exception {
+        return model.predictor.predict(cursor.nextRow(model.rows));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Prediction predictFourThreads(Model model, Cursor cursor) throws Exception {
+        return model.predictor.predict(cursor.nextRow(model.rows));
+    }
+}
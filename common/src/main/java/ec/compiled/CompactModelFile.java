@@ -0,0 +1,429 @@
+package ec.compiled;
+
+import weka.core.Attribute;
+import weka.core.Instances;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Binary file holding a {@link CompiledEnsemble} and its training header, read
+ * far faster than a Java-serialized Weka model: the file is memory-mapped and
+ * every array is copied out in one bulk operation.
+ * <p>
+ * Layout, little-endian:
+ * <pre>
+ *   0  magic "TCGAMODL"
+ *   8  int   format version ({@link #VERSION})
+ *  12  int   model kind (1 Random Forest, 2 LogitBoost, 3 nearest neighbours)
+ *  16  long  length of the body
+ *  24  int   CRC-32 of the body
+ *  28  int   reserved
+ *  32  body: the training header, then the model's own fields
+ * </pre>
+ * In the body, strings are an int byte count and UTF-8 bytes, and arrays an int
+ * length followed by the values, starting on an 8-byte boundary.
+ * <p>
+ * Positions and limits are set through {@link Buffer}, as ByteBuffer's own
+ * overrides of those methods only exist from Java 9 on.
+ */
+public final class CompactModelFile {
+
+    /** Format version this code writes and reads. */
+    public static final int VERSION = 1;
+
+    /** Suffix of the compact file ModelTrainingApp writes next to a serialized model bundle. */
+    public static final String SUFFIX = ".bin";
+
+    private static final byte[] MAGIC = {'T', 'C', 'G', 'A', 'M', 'O', 'D', 'L'};
+    private static final int HEADER_SIZE = 32;
+    private static final int KIND_RANDOM_FOREST = 1;
+    private static final int KIND_LOGIT_BOOST = 2;
+    private static final int KIND_NEAREST_NEIGHBOURS = 3;
+    private static final byte NOMINAL = 0;
+    private static final byte NUMERIC = 1;
+
+    private CompactModelFile() {
+    }
+
+    /**
+     * A model read from a compact file.
+     */
+    public static final class Contents {
+        private final CompiledEnsemble model;
+        private final Instances header;
+
+        Contents(CompiledEnsemble model, Instances header) {
+            this.model = model;
+            this.header = header;
+        }
+
+        public CompiledEnsemble getModel() {
+            return model;
+        }
+
+        /** Header of the training data, without instances. */
+        public Instances getHeader() {
+            return header;
+        }
+    }
+
+    /** The compact file that goes with a serialized model bundle. */
+    public static File siblingOf(File modelFile) {
+        return new File(modelFile.getPath() + SUFFIX);
+    }
+
+    /** Whether the file starts like a compact model file. */
+    public static boolean isCompactModel(File file) {
+        byte[] start = new byte[MAGIC.length];
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.read(ByteBuffer.wrap(start)) == MAGIC.length && Arrays.equals(start, MAGIC);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes the model and its training header, replacing the file in one step
+     * so a reader never sees half of it.
+     */
+    public static void write(File file, CompiledEnsemble model, Instances header) throws IOException {
+        int kind;
+        if (model instanceof CompiledForest) {
+            kind = KIND_RANDOM_FOREST;
+        } else if (model instanceof CompiledLogitBoost) {
+            kind = KIND_LOGIT_BOOST;
+        } else if (model instanceof CompiledKNN) {
+            kind = KIND_NEAREST_NEIGHBOURS;
+        } else {
+            throw new IllegalArgumentException("No compact form for " + model.getClass().getName());
+        }
+
+        Writer body = new Writer();
+        writeHeader(body, header);
+        if (kind == KIND_RANDOM_FOREST) {
+            ((CompiledForest) model).write(body);
+        } else if (kind == KIND_LOGIT_BOOST) {
+            ((CompiledLogitBoost) model).write(body);
+        } else {
+            ((CompiledKNN) model).write(body);
+        }
+        ByteBuffer bodyBytes = body.finish();
+
+        CRC32 crc = new CRC32();
+        crc.update(bodyBytes.duplicate());
+        ByteBuffer fileHeader = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        fileHeader.put(MAGIC).putInt(VERSION).putInt(kind).putLong(bodyBytes.remaining())
+                .putInt((int) crc.getValue()).putInt(0);
+        ((Buffer) fileHeader).flip();
+
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.exists()) {
+            dir.mkdirs();
+        }
+        File temp = new File(dir, file.getName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp.toPath())) {
+            out.write(fileHeader.array(), 0, fileHeader.remaining());
+            out.write(bodyBytes.array(), bodyBytes.arrayOffset() + bodyBytes.position(), bodyBytes.remaining());
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Reads a compact model file.
+     *
+     * @throws IOException if the file is not one, was written by another format
+     *         version, or is damaged
+     */
+    public static Contents read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                throw new IOException(file + " is too short to be a compact model");
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+            byte[] magic = new byte[MAGIC.length];
+            mapped.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException(file + " is not a compact model");
+            }
+            int version = mapped.getInt();
+            if (version != VERSION) {
+                throw new IOException(file + " has format version " + version + ", this code reads " + VERSION);
+            }
+            int kind = mapped.getInt();
+            long bodyLength = mapped.getLong();
+            int expectedCrc = mapped.getInt();
+            if (bodyLength != size - HEADER_SIZE) {
+                throw new IOException(file + " is truncated: " + (size - HEADER_SIZE) + " of " + bodyLength
+                        + " bytes");
+            }
+
+            ((Buffer) mapped).position(HEADER_SIZE);
+            ByteBuffer body = mapped.slice().order(ByteOrder.LITTLE_ENDIAN);
+            CRC32 crc = new CRC32();
+            crc.update(body.duplicate());
+            if ((int) crc.getValue() != expectedCrc) {
+                throw new IOException(file + " is damaged: checksum mismatch");
+            }
+
+            Reader in = new Reader(body);
+            Instances header = readHeader(in);
+            CompiledEnsemble model;
+            if (kind == KIND_RANDOM_FOREST) {
+                model = CompiledForest.read(in);
+            } else if (kind == KIND_LOGIT_BOOST) {
+                model = CompiledLogitBoost.read(in);
+            } else if (kind == KIND_NEAREST_NEIGHBOURS) {
+                model = CompiledKNN.read(in);
+            } else {
+                throw new IOException(file + " holds an unknown kind of model: " + kind);
+            }
+            if (model.numAttributes() != header.numAttributes() || model.numClasses() != header.numClasses()) {
+                throw new IOException(file + ": model and training header disagree");
+            }
+            return new Contents(model, header);
+        } catch (RuntimeException e) {
+            // Buffer underflows and bad sizes from a file that passed the checksum but not the parse
+            throw new IOException(file + " could not be parsed: " + e, e);
+        }
+    }
+
+    private static void writeHeader(Writer out, Instances header) {
+        out.putString(header.relationName());
+        out.putInt(header.numAttributes());
+        out.putInt(header.classIndex());
+        for (int i = 0; i < header.numAttributes(); i++) {
+            Attribute attribute = header.attribute(i);
+            out.putString(attribute.name());
+            if (attribute.isNominal()) {
+                out.putByte(NOMINAL);
+                out.putInt(attribute.numValues());
+                for (int j = 0; j < attribute.numValues(); j++) {
+                    out.putString(attribute.value(j));
+                }
+            } else if (attribute.isNumeric()) {
+                out.putByte(NUMERIC);
+            } else {
+                throw new IllegalArgumentException("Attribute " + attribute.name() + " is neither nominal nor numeric");
+            }
+        }
+    }
+
+    private static Instances readHeader(Reader in) throws IOException {
+        String relation = in.getString();
+        int numAttributes = in.getInt();
+        int classIndex = in.getInt();
+        ArrayList<Attribute> attributes = new ArrayList<>(numAttributes);
+        for (int i = 0; i < numAttributes; i++) {
+            String name = in.getString();
+            byte type = in.getByte();
+            if (type == NOMINAL) {
+                int numValues = in.getInt();
+                List<String> values = new ArrayList<>(numValues);
+                for (int j = 0; j < numValues; j++) {
+                    values.add(in.getString());
+                }
+                attributes.add(new Attribute(name, values));
+            } else if (type == NUMERIC) {
+                attributes.add(new Attribute(name));
+            } else {
+                throw new IOException("Attribute " + name + " has unknown type " + type);
+            }
+        }
+        Instances header = new Instances(relation, attributes, 0);
+        header.setClassIndex(classIndex);
+        return header;
+    }
+
+    /**
+     * Appends fields to a growing little-endian buffer.
+     */
+    static final class Writer {
+        private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+
+        private void ensure(int bytes) {
+            if (buffer.remaining() < bytes) {
+                int capacity = Math.max(buffer.capacity() * 2, buffer.position() + bytes);
+                ByteBuffer grown = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+                ((Buffer) buffer).flip();
+                grown.put(buffer);
+                buffer = grown;
+            }
+        }
+
+        private void align() {
+            int padding = -buffer.position() & 7;
+            ensure(padding);
+            for (int i = 0; i < padding; i++) {
+                buffer.put((byte) 0);
+            }
+        }
+
+        // Past values written through a view buffer
+        private void skip(int bytes) {
+            ((Buffer) buffer).position(buffer.position() + bytes);
+        }
+
+        void putByte(byte value) {
+            ensure(1);
+            buffer.put(value);
+        }
+
+        void putBoolean(boolean value) {
+            putByte(value ? (byte) 1 : 0);
+        }
+
+        void putInt(int value) {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        void putString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            ensure(bytes.length);
+            buffer.put(bytes);
+        }
+
+        void putInts(int[] values) {
+            putInt(values.length);
+            align();
+            ensure(values.length * 4);
+            buffer.asIntBuffer().put(values);
+            skip(values.length * 4);
+        }
+
+        void putLongs(long[] values) {
+            putInt(values.length);
+            align();
+            ensure(values.length * 8);
+            buffer.asLongBuffer().put(values);
+            skip(values.length * 8);
+        }
+
+        void putDoubles(double[] values) {
+            putInt(values.length);
+            align();
+            ensure(values.length * 8);
+            buffer.asDoubleBuffer().put(values);
+            skip(values.length * 8);
+        }
+
+        void putBooleans(boolean[] values) {
+            putInt(values.length);
+            align();
+            ensure(values.length);
+            for (boolean value : values) {
+                buffer.put(value ? (byte) 1 : 0);
+            }
+        }
+
+        ByteBuffer finish() {
+            align();
+            ((Buffer) buffer).flip();
+            return buffer;
+        }
+    }
+
+    /**
+     * Reads fields back from the mapped body, in the order they were written.
+     */
+    static final class Reader {
+        private final ByteBuffer buffer;
+
+        Reader(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        private void align() {
+            skip(-buffer.position() & 7);
+        }
+
+        private void skip(int bytes) {
+            ((Buffer) buffer).position(buffer.position() + bytes);
+        }
+
+        private int length(int elementSize) throws IOException {
+            int length = buffer.getInt();
+            align();
+            if (length < 0 || (long) length * elementSize > buffer.remaining()) {
+                throw new IOException("Array of " + length + " elements runs past the end of the file");
+            }
+            return length;
+        }
+
+        byte getByte() {
+            return buffer.get();
+        }
+
+        boolean getBoolean() {
+            return buffer.get() != 0;
+        }
+
+        int getInt() {
+            return buffer.getInt();
+        }
+
+        String getString() throws IOException {
+            int length = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) {
+                throw new IOException("String of " + length + " bytes runs past the end of the file");
+            }
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        int[] getInts() throws IOException {
+            int[] values = new int[length(4)];
+            buffer.asIntBuffer().get(values);
+            skip(values.length * 4);
+            return values;
+        }
+
+        long[] getLongs() throws IOException {
+            long[] values = new long[length(8)];
+            buffer.asLongBuffer().get(values);
+            skip(values.length * 8);
+            return values;
+        }
+
+        double[] getDoubles() throws IOException {
+            double[] values = new double[length(8)];
+            buffer.asDoubleBuffer().get(values);
+            skip(values.length * 8);
+            return values;
+        }
+
+        boolean[] getBooleans() throws IOException {
+            boolean[] values = new boolean[length(1)];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = buffer.get() != 0;
+            }
+            return values;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package ec.compiled;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.lazy.IBk;
+import weka.classifiers.meta.LogitBoost;
+import weka.classifiers.trees.RandomForest;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A trained Weka ensemble, or nearest neighbour model, flattened into primitive
+ * arrays and scored without Weka. Implementations reproduce the distribution of
+ * the classifier they were compiled from bit for bit, and can be stored in a
+ * {@link CompactModelFile}.
+ */
+public interface CompiledEnsemble {
+
+    int numClasses();
+
+    /** Attributes of the training header, class included. */
+    int numAttributes();
+
+    /**
+     * Computes the class distribution for one instance.
+     *
+     * @param values attribute values as in a Weka instance: nominal indices, NaN for missing
+     * @param distribution receives the distribution; must hold {@link #numClasses()} values
+     */
+    void distributionForInstance(double[] values, double[] distribution);
+
+    /**
+     * Convenience overload that allocates the result.
+     */
+    default double[] distributionForInstance(double[] values) {
+        double[] distribution = new double[numClasses()];
+        distributionForInstance(values, distribution);
+        return distribution;
+    }
+
+    /**
+     * Checks the compiled model against the classifier it came from on random
+     * instances, including missing values. Both must give bit-identical distributions.
+     */
+    default boolean agreesWith(Classifier reference, Instances header, int samples, Random random) throws Exception {
+        Instances dataset = new Instances(header, 0);
+        double[] compiled = new double[numClasses()];
+        for (int n = 0; n < samples; n++) {
+            double[] values = new double[numAttributes()];
+            for (int i = 0; i < values.length; i++) {
+                if (i == dataset.classIndex() || random.nextInt(10) == 0) {
+                    values[i] = Utils.missingValue();
+                } else if (dataset.attribute(i).isNominal()) {
+                    values[i] = random.nextInt(dataset.attribute(i).numValues());
+                } else {
+                    values[i] = random.nextGaussian();
+                }
+            }
+
+            Instance instance = new DenseInstance(1.0, values);
+            instance.setDataset(dataset);
+            double[] expected = reference.distributionForInstance(instance);
+            distributionForInstance(values, compiled);
+            if (!Arrays.equals(expected, compiled)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Whether {@link #compile(Classifier)} knows the classifier's type. */
+    static boolean isSupported(Classifier classifier) {
+        return classifier instanceof RandomForest || classifier instanceof LogitBoost || classifier instanceof IBk;
+    }
+
+    /**
+     * Flattens a Random Forest, a LogitBoost of decision stumps or an IBk.
+     *
+     * @throws IllegalArgumentException for any other classifier, or one built in a
+     *         way the compiled form does not cover
+     */
+    static CompiledEnsemble compile(Classifier classifier) {
+        if (classifier instanceof RandomForest) {
+            return CompiledForest.compile((RandomForest) classifier);
+        }
+        if (classifier instanceof LogitBoost) {
+            return CompiledLogitBoost.compile((LogitBoost) classifier);
+        }
+        if (classifier instanceof IBk) {
+            return CompiledKNN.compile((IBk) classifier);
+        }
+        throw new IllegalArgumentException(classifier.getClass().getName() + " cannot be compiled");
+    }
+}
@@ -0,0 +1,382 @@
+package ec.compiled;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.trees.RandomForest;
+import weka.classifiers.trees.RandomTree;
+import weka.core.Instances;
+import weka.core.Utils;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A Weka {@link RandomForest} of {@link RandomTree}s flattened into primitive
+ * arrays. Nodes of all trees share one set of arrays; the children of a node sit
+ * next to each other, so a nominal split is a single index addition. Leaf class
+ * distributions are normalized once, at compile time.
+ * <p>
+ * Predictions reproduce {@code RandomForest.distributionForInstance} exactly,
+ * including the weighted descent into every branch for missing values, and
+ * allocate nothing once a thread has made its first prediction.
+ */
+public final class CompiledForest implements CompiledEnsemble {
+
+    private final int numClasses;
+    private final int numAttributes;
+    private final boolean allowUnclassified;
+
+    private final int[] roots;
+    private final int[] attribute;          // Split attribute, -1 for a leaf
+    private final boolean[] numericSplit;   // Split on m_SplitPoint rather than on the nominal code
+    private final double[] splitPoint;
+    private final int[] firstChild;
+    private final int[] childCount;
+    private final double[] branchWeight;    // Share of training weight that went down to this node (m_Prop)
+    private final int[] distributionOffset; // Start of the node's normalized distribution, -1 if it has none
+    private final double[] distributions;
+    private final int maxDepth;
+
+    // One buffer per level of missing-value descent, created once per thread
+    private final ThreadLocal<double[][]> scratch;
+
+    private CompiledForest(Builder builder) {
+        numClasses = builder.numClasses;
+        numAttributes = builder.numAttributes;
+        allowUnclassified = builder.allowUnclassified;
+        roots = builder.roots;
+        int size = builder.size;
+        attribute = Arrays.copyOf(builder.attribute, size);
+        numericSplit = Arrays.copyOf(builder.numericSplit, size);
+        splitPoint = Arrays.copyOf(builder.splitPoint, size);
+        firstChild = Arrays.copyOf(builder.firstChild, size);
+        childCount = Arrays.copyOf(builder.childCount, size);
+        branchWeight = Arrays.copyOf(builder.branchWeight, size);
+        distributionOffset = Arrays.copyOf(builder.distributionOffset, size);
+        distributions = builder.toDistributionArray();
+        maxDepth = builder.maxDepth;
+
+        int depth = maxDepth + 1;
+        scratch = ThreadLocal.withInitial(() -> new double[depth][numClasses]);
+    }
+
+    // Read back from a compact model file, in the order write() puts them
+    private CompiledForest(CompactModelFile.Reader in) throws IOException {
+        numClasses = in.getInt();
+        numAttributes = in.getInt();
+        allowUnclassified = in.getBoolean();
+        maxDepth = in.getInt();
+        roots = in.getInts();
+        attribute = in.getInts();
+        numericSplit = in.getBooleans();
+        splitPoint = in.getDoubles();
+        firstChild = in.getInts();
+        childCount = in.getInts();
+        branchWeight = in.getDoubles();
+        distributionOffset = in.getInts();
+        distributions = in.getDoubles();
+
+        int size = attribute.length;
+        if (numericSplit.length != size || splitPoint.length != size || firstChild.length != size
+                || childCount.length != size || branchWeight.length != size || distributionOffset.length != size) {
+            throw new IOException("Forest node arrays differ in length");
+        }
+        int depth = maxDepth + 1;
+        scratch = ThreadLocal.withInitial(() -> new double[depth][numClasses]);
+    }
+
+    /**
+     * Flattens a trained forest.
+     *
+     * @throws IllegalArgumentException if the forest has a numeric class or is
+     *         made of anything but plain RandomTrees
+     */
+    public static CompiledForest compile(RandomForest forest) {
+        Classifier[] members = (Classifier[]) readField(forest, "m_Classifiers");
+        int numIterations = (Integer) readField(forest, "m_NumIterations");
+        if (members == null || members.length < numIterations) {
+            throw new IllegalArgumentException("Forest has not been built");
+        }
+        if ((Boolean) readField(forest, "m_Numeric")) {
+            throw new IllegalArgumentException("Only forests with a nominal class can be compiled");
+        }
+
+        Builder builder = null;
+        int[] roots = new int[numIterations];
+        for (int i = 0; i < numIterations; i++) {
+            if (!(members[i] instanceof RandomTree)) {
+                throw new IllegalArgumentException("Forest member " + i + " is a "
+                        + members[i].getClass().getName() + ", not a RandomTree");
+            }
+            RandomTree tree = (RandomTree) members[i];
+            if (readField(tree, "m_zeroR") != null) {
+                throw new IllegalArgumentException("Forest member " + i + " fell back to ZeroR");
+            }
+            Instances info = (Instances) readField(tree, "m_Info");
+            if (builder == null) {
+                builder = new Builder(info, (Boolean) readField(tree, "m_AllowUnclassifiedInstances"));
+            }
+            roots[i] = builder.add(readField(tree, "m_Tree"), info);
+        }
+        if (builder == null) {
+            throw new IllegalArgumentException("Forest has no trees");
+        }
+        builder.roots = roots;
+        return new CompiledForest(builder);
+    }
+
+    @Override
+    public int numClasses() {
+        return numClasses;
+    }
+
+    @Override
+    public int numAttributes() {
+        return numAttributes;
+    }
+
+    void write(CompactModelFile.Writer out) {
+        out.putInt(numClasses);
+        out.putInt(numAttributes);
+        out.putBoolean(allowUnclassified);
+        out.putInt(maxDepth);
+        out.putInts(roots);
+        out.putInts(attribute);
+        out.putBooleans(numericSplit);
+        out.putDoubles(splitPoint);
+        out.putInts(firstChild);
+        out.putInts(childCount);
+        out.putDoubles(branchWeight);
+        out.putInts(distributionOffset);
+        out.putDoubles(distributions);
+    }
+
+    static CompiledForest read(CompactModelFile.Reader in) throws IOException {
+        return new CompiledForest(in);
+    }
+
+    public int numTrees() {
+        return roots.length;
+    }
+
+    public int numNodes() {
+        return attribute.length;
+    }
+
+    @Override
+    public void distributionForInstance(double[] values, double[] distribution) {
+        Arrays.fill(distribution, 0, numClasses, 0.0);
+
+        for (int root : roots) {
+            // Follow the split values down to a leaf; only a missing value needs the buffers
+            int node = root;
+            int fallback = -1;
+            boolean missing = false;
+            while (attribute[node] >= 0) {
+                if (distributionOffset[node] >= 0) {
+                    fallback = distributionOffset[node];
+                }
+                double value = values[attribute[node]];
+                if (Double.isNaN(value)) {
+                    missing = true;
+                    break;
+                }
+                node = child(node, value);
+            }
+
+            if (missing) {
+                double[][] buffers = scratch.get();
+                evaluateMissing(node, values, buffers, 0);
+                double[] treeDistribution = buffers[0];
+                for (int j = 0; j < numClasses; j++) {
+                    distribution[j] += treeDistribution[j];
+                }
+                continue;
+            }
+
+            int offset = distributionOffset[node];
+            if (offset < 0) {
+                if (allowUnclassified) {
+                    continue; // The tree votes all zeros
+                }
+                offset = fallback;
+                if (offset < 0) {
+                    throw new IllegalStateException("Tree has no class distribution for this instance");
+                }
+            }
+            for (int j = 0; j < numClasses; j++) {
+                distribution[j] += distributions[offset + j];
+            }
+        }
+
+        // Same as Bagging: leave an all-zero vote alone, normalize anything else
+        if (!Utils.eq(Utils.sum(distribution), 0)) {
+            Utils.normalize(distribution);
+        }
+    }
+
+    private int child(int node, double value) {
+        if (numericSplit[node]) {
+            return firstChild[node] + (value < splitPoint[node] ? 0 : 1);
+        }
+        return firstChild[node] + (int) value;
+    }
+
+    /**
+     * The general recursive form of RandomTree.Tree.distributionForInstance,
+     * writing into buffers[level]. Returns false where Weka would return null.
+     */
+    private boolean evaluateMissing(int node, double[] values, double[][] buffers, int level) {
+        double[] result = buffers[level];
+        int fallback = -1;
+        while (attribute[node] >= 0) {
+            if (distributionOffset[node] >= 0) {
+                fallback = distributionOffset[node];
+            }
+            double value = values[attribute[node]];
+            if (Double.isNaN(value)) {
+                // Every branch contributes in proportion to its share of the training data
+                Arrays.fill(result, 0.0);
+                for (int i = 0; i < childCount[node]; i++) {
+                    int child = firstChild[node] + i;
+                    if (evaluateMissing(child, values, buffers, level + 1)) {
+                        double[] help = buffers[level + 1];
+                        for (int j = 0; j < numClasses; j++) {
+                            result[j] += branchWeight[child] * help[j];
+                        }
+                    }
+                }
+                return true;
+            }
+            node = child(node, value);
+        }
+
+        int offset = distributionOffset[node];
+        if (offset < 0) {
+            if (allowUnclassified) {
+                Arrays.fill(result, 0.0);
+                return true;
+            }
+            offset = fallback;
+            if (offset < 0) {
+                return false;
+            }
+        }
+        System.arraycopy(distributions, offset, result, 0, numClasses);
+        return true;
+    }
+
+    static Object readField(Object target, String name) {
+        for (Class<?> type = target.getClass(); type != null; type = type.getSuperclass()) {
+            try {
+                Field field = type.getDeclaredField(name);
+                field.setAccessible(true);
+                return field.get(target);
+            } catch (NoSuchFieldException e) {
+                // Declared further up
+            } catch (IllegalAccessException e) {
+                throw new IllegalArgumentException("Cannot read " + name + " of " + target.getClass().getName(), e);
+            }
+        }
+        throw new IllegalArgumentException(target.getClass().getName() + " has no field " + name
+                + "; this Weka version is not supported");
+    }
+
+    /**
+     * Collects nodes into growable arrays, tree by tree.
+     */
+    private static final class Builder {
+        final int numClasses;
+        final int numAttributes;
+        final boolean allowUnclassified;
+        int[] roots;
+
+        int size;
+        int maxDepth;
+        int[] attribute = new int[1024];
+        boolean[] numericSplit = new boolean[1024];
+        double[] splitPoint = new double[1024];
+        int[] firstChild = new int[1024];
+        int[] childCount = new int[1024];
+        double[] branchWeight = new double[1024];
+        int[] distributionOffset = new int[1024];
+        final List<double[]> leafDistributions = new ArrayList<>();
+
+        Builder(Instances info, boolean allowUnclassified) {
+            this.numClasses = info.numClasses();
+            this.numAttributes = info.numAttributes();
+            this.allowUnclassified = allowUnclassified;
+        }
+
+        int add(Object tree, Instances info) {
+            int root = reserve(1);
+            fill(tree, root, 1.0, info, 1);
+            return root;
+        }
+
+        private int reserve(int count) {
+            int start = size;
+            size += count;
+            if (size > attribute.length) {
+                int capacity = Math.max(size, attribute.length * 2);
+                attribute = Arrays.copyOf(attribute, capacity);
+                numericSplit = Arrays.copyOf(numericSplit, capacity);
+                splitPoint = Arrays.copyOf(splitPoint, capacity);
+                firstChild = Arrays.copyOf(firstChild, capacity);
+                childCount = Arrays.copyOf(childCount, capacity);
+                branchWeight = Arrays.copyOf(branchWeight, capacity);
+                distributionOffset = Arrays.copyOf(distributionOffset, capacity);
+            }
+            return start;
+        }
+
+        private void fill(Object tree, int index, double weight, Instances info, int depth) {
+            maxDepth = Math.max(maxDepth, depth);
+            int splitAttribute = (Integer) readField(tree, "m_Attribute");
+            Object[] successors = (Object[]) readField(tree, "m_Successors");
+            double[] classDistribution = (double[]) readField(tree, "m_ClassDistribution");
+
+            branchWeight[index] = weight;
+            distributionOffset[index] = classDistribution == null ? -1 : addDistribution(classDistribution);
+
+            if (splitAttribute < 0 || successors == null) {
+                attribute[index] = -1;
+                return;
+            }
+
+            attribute[index] = splitAttribute;
+            numericSplit[index] = !info.attribute(splitAttribute).isNominal();
+            splitPoint[index] = (Double) readField(tree, "m_SplitPoint");
+            double[] prop = (double[]) readField(tree, "m_Prop");
+
+            int first = reserve(successors.length);
+            firstChild[index] = first;
+            childCount[index] = successors.length;
+            for (int i = 0; i < successors.length; i++) {
+                fill(successors[i], first + i, prop[i], info, depth + 1);
+            }
+        }
+
+        private int addDistribution(double[] classDistribution) {
+            double[] normalized = classDistribution.clone();
+            // Weka normalizes on every call and throws for an empty distribution; refuse it up front
+            double sum = Utils.sum(normalized);
+            if (Double.isNaN(sum) || sum == 0) {
+                throw new IllegalArgumentException("Tree node has an empty class distribution");
+            }
+            Utils.normalize(normalized);
+            leafDistributions.add(normalized);
+            return (leafDistributions.size() - 1) * numClasses;
+        }
+
+        double[] toDistributionArray() {
+            double[] flat = new double[leafDistributions.size() * numClasses];
+            for (int i = 0; i < leafDistributions.size(); i++) {
+                System.arraycopy(leafDistributions.get(i), 0, flat, i * numClasses, numClasses);
+            }
+            return flat;
+        }
+    }
+}
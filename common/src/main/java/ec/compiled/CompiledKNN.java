@@ -0,0 +1,385 @@
+package ec.compiled;
+
+import weka.classifiers.lazy.IBk;
+import weka.core.DistanceFunction;
+import weka.core.EuclideanDistance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.core.neighboursearch.LinearNNSearch;
+import weka.core.neighboursearch.NearestNeighbourSearch;
+
+import java.io.IOException;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A Weka {@link IBk} over nominal attributes with its training rows bit-packed:
+ * every value of every attribute has a bit of its own, so a row is a few longs
+ * with one bit set per attribute. The distance IBk computes between two such
+ * rows, the number of attributes whose values differ, is the number of
+ * attributes less {@code Long.bitCount} of the two rows ANDed together. A
+ * missing value sets no bit and so never matches, as in Weka.
+ * <p>
+ * Rows with the same values can be kept once, as a bucket with a count per
+ * class, so a prediction scans each distinct row only once.
+ * <p>
+ * Predictions reproduce {@code IBk.distributionForInstance} exactly. The
+ * neighbours are all training rows no farther than the k-th nearest, with ties
+ * included as LinearNNSearch includes them. When IBk cross-validates, k is
+ * chosen by the same hold-one-out search IBk runs.
+ */
+public final class CompiledKNN implements CompiledEnsemble {
+
+    private final int numClasses;
+    private final int numAttributes;
+    private final int classIndex;
+    private final int numTrain;         // Training rows, duplicates included
+    private final int k;
+    private final int[] numValues;      // Nominal values of each attribute
+    private final int[] firstBit;       // Bit of the first value of each attribute, -1 for the class
+    private final int words;            // Longs per packed row
+    private final long[] rows;          // Packed rows, one per bucket
+    private final int[] bucketStart;    // Class counts of bucket b run from bucketStart[b] to bucketStart[b + 1]
+    private final int[] bucketClass;
+    private final int[] bucketCount;
+
+    private final ThreadLocal<Scratch> scratch;
+
+    /** Per-thread buffers, so predictions allocate nothing. */
+    private final class Scratch {
+        final long[] query = new long[words];
+        final int[] classesAt = new int[numAttributes * numClasses];   // Class counts by distance
+        final int[] rowsAt = new int[numAttributes];                    // Rows by distance
+        final int[] counts = new int[numClasses];
+    }
+
+    private CompiledKNN(int numClasses, int classIndex, int numTrain, int k, int[] numValues, long[] rows,
+            int[] bucketStart, int[] bucketClass, int[] bucketCount) {
+        this.numClasses = numClasses;
+        this.numAttributes = numValues.length;
+        this.classIndex = classIndex;
+        this.numTrain = numTrain;
+        this.k = k;
+        this.numValues = numValues;
+        this.firstBit = new int[numAttributes];
+        int bits = 0;
+        for (int i = 0; i < numAttributes; i++) {
+            if (i == classIndex) {
+                firstBit[i] = -1;
+                continue;
+            }
+            firstBit[i] = bits;
+            bits += numValues[i];
+        }
+        this.words = Math.max(1, (bits + Long.SIZE - 1) / Long.SIZE);
+        this.rows = rows;
+        this.bucketStart = bucketStart;
+        this.bucketClass = bucketClass;
+        this.bucketCount = bucketCount;
+        scratch = ThreadLocal.withInitial(Scratch::new);
+    }
+
+    /**
+     * Packs a trained IBk with identical rows bucketed together.
+     */
+    public static CompiledKNN compile(IBk knn) {
+        return compile(knn, true);
+    }
+
+    /**
+     * Packs a trained IBk, choosing k by hold-one-out first if IBk would.
+     *
+     * @param bucketed keep rows with the same values once; otherwise every
+     *        training row is scanned, as IBk does
+     * @throws IllegalArgumentException if it is not built, has numeric attributes,
+     *         weighted rows, or a search, distance or weighting other than
+     *         IBk's defaults
+     */
+    public static CompiledKNN compile(IBk knn, boolean bucketed) {
+        Instances train = (Instances) CompiledForest.readField(knn, "m_Train");
+        if (train == null || train.numInstances() < 2) {
+            throw new IllegalArgumentException("IBk has not been built on at least two instances");
+        }
+        if (knn.getWindowSize() != 0) {
+            throw new IllegalArgumentException("IBk with a window size cannot be compiled");
+        }
+        if (knn.getDistanceWeighting().getSelectedTag().getID() != IBk.WEIGHT_NONE) {
+            throw new IllegalArgumentException("Only IBk without distance weighting can be compiled");
+        }
+        NearestNeighbourSearch search = knn.getNearestNeighbourSearchAlgorithm();
+        if (search.getClass() != LinearNNSearch.class || ((LinearNNSearch) search).getSkipIdentical()) {
+            throw new IllegalArgumentException("Only IBk with a plain LinearNNSearch can be compiled");
+        }
+        DistanceFunction distance = search.getDistanceFunction();
+        if (distance.getClass() != EuclideanDistance.class || distance.getInvertSelection()
+                || !"first-last".equals(distance.getAttributeIndices())) {
+            throw new IllegalArgumentException("Only IBk with Euclidean distance over all attributes can be compiled");
+        }
+        int[] numValues = new int[train.numAttributes()];
+        for (int i = 0; i < train.numAttributes(); i++) {
+            if (!train.attribute(i).isNominal()) {
+                throw new IllegalArgumentException("Attribute " + train.attribute(i).name() + " is not nominal");
+            }
+            numValues[i] = train.attribute(i).numValues();
+        }
+
+        // Every row packed, then grouped by its bits
+        CompiledKNN layout = new CompiledKNN(train.numClasses(), train.classIndex(), train.numInstances(), 0,
+                numValues, new long[0], new int[] {0}, new int[0], new int[0]);
+        int words = layout.words;
+        long[] packed = new long[train.numInstances() * words];
+        int[] classes = new int[train.numInstances()];
+        int[] bucketOf = new int[train.numInstances()];
+        Map<LongBuffer, Integer> buckets = new HashMap<>();
+        double[] values = new double[train.numAttributes()];
+        for (int r = 0; r < train.numInstances(); r++) {
+            Instance instance = train.instance(r);
+            if (instance.weight() != 1.0) {
+                throw new IllegalArgumentException("Only unweighted training rows can be compiled");
+            }
+            for (int i = 0; i < values.length; i++) {
+                values[i] = instance.value(i);
+            }
+            layout.pack(values, packed, r * words);
+            classes[r] = (int) instance.classValue();
+            // LongBuffer compares its remaining longs, which makes it a key for the row
+            bucketOf[r] = buckets.computeIfAbsent(LongBuffer.wrap(packed, r * words, words), key -> buckets.size());
+        }
+
+        CompiledKNN grouped = layout.index(packed, classes, bucketOf, buckets.size(), 0);
+        int k = knn.getKNN();
+        boolean selected = (Boolean) CompiledForest.readField(knn, "m_kNNValid");
+        int upper = (Integer) CompiledForest.readField(knn, "m_kNNUpper");
+        if (!selected && knn.getCrossValidate() && upper >= 1) {
+            k = grouped.holdOneOut(upper);
+        }
+
+        if (!bucketed) {
+            for (int r = 0; r < bucketOf.length; r++) {
+                bucketOf[r] = r;
+            }
+            return layout.index(packed, classes, bucketOf, bucketOf.length, k);
+        }
+        return grouped.withK(k);
+    }
+
+    /**
+     * Builds the buckets from the packed rows and the bucket of each row, with
+     * the class counts of every bucket in ascending class order.
+     */
+    private CompiledKNN index(long[] packed, int[] classes, int[] bucketOf, int numBuckets, int k) {
+        long[] keys = new long[classes.length];
+        for (int r = 0; r < classes.length; r++) {
+            keys[r] = (long) bucketOf[r] * numClasses + classes[r];
+        }
+        Arrays.sort(keys);
+
+        long[] bucketRows = new long[numBuckets * words];
+        for (int r = 0; r < bucketOf.length; r++) {
+            System.arraycopy(packed, r * words, bucketRows, bucketOf[r] * words, words);
+        }
+        int[] start = new int[numBuckets + 1];
+        int[] bucketClasses = new int[keys.length];
+        int[] counts = new int[keys.length];
+        int entries = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (i > 0 && keys[i] == keys[i - 1]) {
+                counts[entries - 1]++;
+                continue;
+            }
+            start[(int) (keys[i] / numClasses) + 1] = entries + 1;
+            bucketClasses[entries] = (int) (keys[i] % numClasses);
+            counts[entries++] = 1;
+        }
+        // Buckets are never empty, so each start was set by its last class
+        return new CompiledKNN(numClasses, classIndex, numTrain, k, numValues, bucketRows, start,
+                Arrays.copyOf(bucketClasses, entries), Arrays.copyOf(counts, entries));
+    }
+
+    private CompiledKNN withK(int k) {
+        return new CompiledKNN(numClasses, classIndex, numTrain, k, numValues, rows, bucketStart, bucketClass,
+                bucketCount);
+    }
+
+    /**
+     * IBk's crossValidate: predicts every training row from all the others for
+     * each k up to {@code upper}, and returns the lowest k with the fewest errors.
+     * Rows in one bucket with the same class get the same prediction, so each
+     * such group is predicted once.
+     */
+    private int holdOneOut(int upper) {
+        Scratch buffers = scratch.get();
+        double[] errors = new double[upper];
+        double[] distribution = new double[numClasses];
+        for (int b = 0; b < numBuckets(); b++) {
+            search(rows, b * words, buffers);
+            int self = distance(b, rows, b * words);
+            for (int e = bucketStart[b]; e < bucketStart[b + 1]; e++) {
+                int actual = bucketClass[e];
+                // Leave one row of this class out
+                buffers.classesAt[self * numClasses + actual]--;
+                buffers.rowsAt[self]--;
+                for (int j = upper; j >= 1; j--) {
+                    neighbours(buffers, j);
+                    makeDistribution(buffers.counts, distribution);
+                    if (Utils.maxIndex(distribution) != actual) {
+                        errors[j - 1] += bucketCount[e];
+                    }
+                }
+                buffers.classesAt[self * numClasses + actual]++;
+                buffers.rowsAt[self]++;
+            }
+        }
+
+        double best = Double.NaN;
+        int bestK = 1;
+        for (int i = 0; i < upper; i++) {
+            if (Double.isNaN(best) || best > errors[i]) {
+                best = errors[i];
+                bestK = i + 1;
+            }
+        }
+        return bestK;
+    }
+
+    @Override
+    public int numClasses() {
+        return numClasses;
+    }
+
+    @Override
+    public int numAttributes() {
+        return numAttributes;
+    }
+
+    /** The number of neighbours used, chosen by hold-one-out if IBk cross-validates. */
+    public int getK() {
+        return k;
+    }
+
+    /** Distinct packed rows scanned per prediction. */
+    public int numBuckets() {
+        return bucketStart.length - 1;
+    }
+
+    @Override
+    public void distributionForInstance(double[] values, double[] distribution) {
+        Scratch buffers = scratch.get();
+        pack(values, buffers.query, 0);
+        search(buffers.query, 0, buffers);
+        neighbours(buffers, k);
+        makeDistribution(buffers.counts, distribution);
+    }
+
+    private void pack(double[] values, long[] into, int offset) {
+        Arrays.fill(into, offset, offset + words, 0L);
+        for (int i = 0; i < numAttributes; i++) {
+            double value = values[i];
+            // Missing and out-of-range values match nothing
+            if (i == classIndex || Double.isNaN(value) || value < 0 || value >= numValues[i]) {
+                continue;
+            }
+            int bit = firstBit[i] + (int) value;
+            into[offset + bit / Long.SIZE] |= 1L << bit;
+        }
+    }
+
+    private int distance(int bucket, long[] query, int offset) {
+        int matches = 0;
+        int base = bucket * words;
+        for (int j = 0; j < words; j++) {
+            matches += Long.bitCount(rows[base + j] & query[offset + j]);
+        }
+        return numAttributes - 1 - matches;
+    }
+
+    /** Counts the training rows of each class at each distance from the query. */
+    private void search(long[] query, int offset, Scratch buffers) {
+        int[] classesAt = buffers.classesAt;
+        int[] rowsAt = buffers.rowsAt;
+        Arrays.fill(classesAt, 0);
+        Arrays.fill(rowsAt, 0);
+        for (int b = 0; b < numBuckets(); b++) {
+            int distance = distance(b, query, offset);
+            for (int e = bucketStart[b]; e < bucketStart[b + 1]; e++) {
+                classesAt[distance * numClasses + bucketClass[e]] += bucketCount[e];
+                rowsAt[distance] += bucketCount[e];
+            }
+        }
+    }
+
+    /**
+     * Class counts of the k nearest rows and every row tied with the k-th, as
+     * LinearNNSearch returns them.
+     */
+    private void neighbours(Scratch buffers, int k) {
+        int[] counts = buffers.counts;
+        Arrays.fill(counts, 0);
+        int found = 0;
+        for (int distance = 0; distance < numAttributes && found < k; distance++) {
+            if (buffers.rowsAt[distance] == 0) {
+                continue;
+            }
+            found += buffers.rowsAt[distance];
+            for (int c = 0; c < numClasses; c++) {
+                counts[c] += buffers.classesAt[distance * numClasses + c];
+            }
+        }
+    }
+
+    /** IBk's makeDistribution without weighting: a small prior plus one per neighbour. */
+    private void makeDistribution(int[] counts, double[] distribution) {
+        double total = (double) numClasses / numTrain;
+        for (int c = 0; c < numClasses; c++) {
+            distribution[c] = 1.0 / numTrain;
+        }
+        // Added one at a time, as Weka adds them, so the sums round the same way
+        for (int c = 0; c < numClasses; c++) {
+            for (int n = 0; n < counts[c]; n++) {
+                distribution[c] += 1.0;
+                total += 1.0;
+            }
+        }
+        Utils.normalize(distribution, total);
+    }
+
+    void write(CompactModelFile.Writer out) {
+        out.putInt(numClasses);
+        out.putInt(classIndex);
+        out.putInt(numTrain);
+        out.putInt(k);
+        out.putInts(numValues);
+        out.putLongs(rows);
+        out.putInts(bucketStart);
+        out.putInts(bucketClass);
+        out.putInts(bucketCount);
+    }
+
+    static CompiledKNN read(CompactModelFile.Reader in) throws IOException {
+        int numClasses = in.getInt();
+        int classIndex = in.getInt();
+        int numTrain = in.getInt();
+        int k = in.getInt();
+        int[] numValues = in.getInts();
+        long[] rows = in.getLongs();
+        int[] bucketStart = in.getInts();
+        int[] bucketClass = in.getInts();
+        int[] bucketCount = in.getInts();
+
+        if (classIndex < 0 || classIndex >= numValues.length || numValues[classIndex] != numClasses
+                || numTrain < 2 || k < 1 || bucketStart.length == 0) {
+            throw new IOException("Nearest neighbour model has an invalid layout");
+        }
+        CompiledKNN model = new CompiledKNN(numClasses, classIndex, numTrain, k, numValues, rows, bucketStart,
+                bucketClass, bucketCount);
+        int entries = bucketStart[bucketStart.length - 1];
+        if (rows.length != model.numBuckets() * model.words || bucketClass.length != entries
+                || bucketCount.length != entries) {
+            throw new IOException("Nearest neighbour arrays do not match " + model.numBuckets() + " rows");
+        }
+        return model;
+    }
+}
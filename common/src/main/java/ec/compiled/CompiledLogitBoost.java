@@ -0,0 +1,228 @@
+package ec.compiled;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.meta.LogitBoost;
+import weka.classifiers.rules.ZeroR;
+import weka.classifiers.trees.DecisionStump;
+import weka.core.Instances;
+import weka.core.Utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A Weka {@link LogitBoost} of {@link DecisionStump}s flattened into primitive
+ * arrays: per stump the split attribute, the split value, and its three
+ * shrunken outputs (split value matched, not matched, missing).
+ * <p>
+ * Predictions reproduce {@code LogitBoost.distributionForInstance} exactly, and
+ * allocate nothing once a thread has made its first prediction.
+ */
+public final class CompiledLogitBoost implements CompiledEnsemble {
+
+    private static final int MISSING = 2;
+
+    private final int numClasses;
+    private final int numAttributes;
+    private final int numIterations;
+    private final int stumpsPerIteration; // One per class, but one in all for two classes
+    private final double[] initialFs;
+
+    private final int[] attribute;      // Split attribute, -1 for a stump that fell back to ZeroR
+    private final boolean[] nominal;    // Split on equality with the nominal code rather than <=
+    private final double[] splitPoint;
+    private final double[] output;      // Three per stump, already multiplied by the shrinkage
+
+    private final ThreadLocal<double[]> scratch;
+
+    private CompiledLogitBoost(int numClasses, int numAttributes, int numIterations, double[] initialFs,
+            int[] attribute, boolean[] nominal, double[] splitPoint, double[] output) {
+        this.numClasses = numClasses;
+        this.numAttributes = numAttributes;
+        this.numIterations = numIterations;
+        this.stumpsPerIteration = numClasses == 2 ? 1 : numClasses;
+        this.initialFs = initialFs;
+        this.attribute = attribute;
+        this.nominal = nominal;
+        this.splitPoint = splitPoint;
+        this.output = output;
+        scratch = ThreadLocal.withInitial(() -> new double[numClasses]);
+    }
+
+    /**
+     * Flattens a trained LogitBoost.
+     *
+     * @throws IllegalArgumentException if it fell back to ZeroR as a whole or has
+     *         base learners other than DecisionStumps
+     */
+    public static CompiledLogitBoost compile(LogitBoost boost) {
+        if (CompiledForest.readField(boost, "m_ZeroR") != null) {
+            throw new IllegalArgumentException("LogitBoost fell back to ZeroR");
+        }
+        int numClasses = (Integer) CompiledForest.readField(boost, "m_NumClasses");
+        int numIterations = (Integer) CompiledForest.readField(boost, "m_NumGenerated");
+        double shrinkage = (Double) CompiledForest.readField(boost, "m_Shrinkage");
+        @SuppressWarnings("unchecked")
+        ArrayList<Classifier[]> members = (ArrayList<Classifier[]>) CompiledForest.readField(boost, "m_Classifiers");
+        Instances data = (Instances) CompiledForest.readField(boost, "m_NumericClassData");
+        double[] priors = (double[]) CompiledForest.readField(boost, "m_InitialFs");
+        if (members == null || members.size() < numIterations || data == null) {
+            throw new IllegalArgumentException("LogitBoost has not been built");
+        }
+
+        int perIteration = numClasses == 2 ? 1 : numClasses;
+        int stumps = numIterations * perIteration;
+        int[] attribute = new int[stumps];
+        boolean[] nominal = new boolean[stumps];
+        double[] splitPoint = new double[stumps];
+        double[] output = new double[stumps * 3];
+
+        for (int i = 0; i < numIterations; i++) {
+            for (int j = 0; j < perIteration; j++) {
+                Classifier member = members.get(i)[j];
+                if (!(member instanceof DecisionStump)) {
+                    throw new IllegalArgumentException("Iteration " + i + " uses a " + member.getClass().getName()
+                            + ", not a DecisionStump");
+                }
+                int stump = i * perIteration + j;
+                Object zeroR = CompiledForest.readField(member, "m_ZeroR");
+                if (zeroR != null) {
+                    // ZeroR on a numeric class predicts its mean for everything
+                    double mean = (Double) CompiledForest.readField((ZeroR) zeroR, "m_ClassValue");
+                    attribute[stump] = -1;
+                    Arrays.fill(output, stump * 3, stump * 3 + 3, shrink(shrinkage, mean));
+                    continue;
+                }
+
+                int splitAttribute = (Integer) CompiledForest.readField(member, "m_AttIndex");
+                double[][] distribution = (double[][]) CompiledForest.readField(member, "m_Distribution");
+                attribute[stump] = splitAttribute;
+                nominal[stump] = data.attribute(splitAttribute).isNominal();
+                splitPoint[stump] = (Double) CompiledForest.readField(member, "m_SplitPoint");
+                for (int subset = 0; subset < 3; subset++) {
+                    output[stump * 3 + subset] = shrink(shrinkage, distribution[subset][0]);
+                }
+            }
+        }
+
+        return new CompiledLogitBoost(numClasses, data.numAttributes(), numIterations,
+                priors != null ? priors.clone() : new double[numClasses], attribute, nominal, splitPoint, output);
+    }
+
+    private static double shrink(double shrinkage, double value) {
+        double shrunk = shrinkage * value;
+        // Weka throws for such a stump when it is used; refuse it up front
+        if (Utils.isMissingValue(shrunk)) {
+            throw new IllegalArgumentException("Decision stump predicts a missing value");
+        }
+        return shrunk;
+    }
+
+    @Override
+    public int numClasses() {
+        return numClasses;
+    }
+
+    @Override
+    public int numAttributes() {
+        return numAttributes;
+    }
+
+    public int numIterations() {
+        return numIterations;
+    }
+
+    public int numStumps() {
+        return attribute.length;
+    }
+
+    @Override
+    public void distributionForInstance(double[] values, double[] distribution) {
+        // The additive scores Fs, built up in the result array
+        System.arraycopy(initialFs, 0, distribution, 0, numClasses);
+        double[] prediction = scratch.get();
+
+        int stump = 0;
+        for (int i = 0; i < numIterations; i++) {
+            double mean = 0;
+            for (int j = 0; j < numClasses; j++) {
+                double value = stumpOutput(stump + j, values);
+                prediction[j] = value;
+                if (numClasses == 2) {
+                    prediction[1] = -value;
+                    break;
+                }
+                mean += prediction[j];
+            }
+            stump += stumpsPerIteration;
+
+            mean /= numClasses;
+            for (int j = 0; j < numClasses; j++) {
+                distribution[j] += (prediction[j] - mean) * (numClasses - 1) / numClasses;
+            }
+        }
+
+        // Scores to probabilities, as LogitBoost.probs does
+        double max = -Double.MAX_VALUE;
+        for (int j = 0; j < numClasses; j++) {
+            if (distribution[j] > max) {
+                max = distribution[j];
+            }
+        }
+        double sum = 0;
+        for (int j = 0; j < numClasses; j++) {
+            distribution[j] = Math.exp(distribution[j] - max);
+            sum += distribution[j];
+        }
+        Utils.normalize(distribution, sum);
+    }
+
+    private double stumpOutput(int stump, double[] values) {
+        int splitAttribute = attribute[stump];
+        if (splitAttribute < 0) {
+            return output[stump * 3];
+        }
+        double value = values[splitAttribute];
+        int subset;
+        if (Double.isNaN(value)) {
+            subset = MISSING;
+        } else if (nominal[stump]) {
+            subset = (int) value == splitPoint[stump] ? 0 : 1;
+        } else {
+            subset = value <= splitPoint[stump] ? 0 : 1;
+        }
+        return output[stump * 3 + subset];
+    }
+
+    void write(CompactModelFile.Writer out) {
+        out.putInt(numClasses);
+        out.putInt(numAttributes);
+        out.putInt(numIterations);
+        out.putDoubles(initialFs);
+        out.putInts(attribute);
+        out.putBooleans(nominal);
+        out.putDoubles(splitPoint);
+        out.putDoubles(output);
+    }
+
+    static CompiledLogitBoost read(CompactModelFile.Reader in) throws IOException {
+        int numClasses = in.getInt();
+        int numAttributes = in.getInt();
+        int numIterations = in.getInt();
+        double[] initialFs = in.getDoubles();
+        int[] attribute = in.getInts();
+        boolean[] nominal = in.getBooleans();
+        double[] splitPoint = in.getDoubles();
+        double[] output = in.getDoubles();
+
+        int stumps = numIterations * (numClasses == 2 ? 1 : numClasses);
+        if (initialFs.length != numClasses || attribute.length != stumps || nominal.length != stumps
+                || splitPoint.length != stumps || output.length != stumps * 3) {
+            throw new IOException("LogitBoost arrays do not match " + numIterations + " iterations of "
+                    + numClasses + " classes");
+        }
+        return new CompiledLogitBoost(numClasses, numAttributes, numIterations, initialFs, attribute, nominal,
+                splitPoint, output);
+    }
+}
@@ -0,0 +1,493 @@
+package ec.csv;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * RFC 4180 CSV reader that works directly on a {@link ByteBuffer}. Files are
+ * memory-mapped in windows, so files larger than 2 GB can be read, and records
+ * are located by scanning bytes without copying them. Streams, such as request
+ * bodies, are read through a reusable buffer that only grows to fit the largest
+ * record. A field is only decoded into a String when it is asked for, so
+ * columns a caller never reads are never materialized.
+ * <p>
+ * Quoted fields may contain commas, line breaks and escaped {@code ""} quotes.
+ * Records end with LF or CRLF and the text is UTF-8; a leading byte order mark
+ * is skipped. By default whitespace outside quotes is trimmed from each field,
+ * which matches how the Cell Lines CSV has always been read.
+ * <p>
+ * Instances are not thread-safe.
+ */
+public class CsvReader implements Closeable {
+
+    /** Size of each memory-mapped window when reading a file. */
+    public static final int DEFAULT_WINDOW_SIZE = 64 << 20;
+
+    /** Initial buffer size when reading a stream. */
+    public static final int DEFAULT_STREAM_BUFFER_SIZE = 64 << 10;
+
+    private static final int RECORD = 0;
+    private static final int END = 1;
+    private static final int NEED_MORE = 2;
+
+    private final FileChannel channel;
+    private final ReadableByteChannel stream;
+    private boolean streamEnded;
+    private boolean started;
+    private final long fileSize;
+    private int windowSize;
+    private ByteBuffer buffer;
+    private long windowOffset;
+    private int pos;
+
+    private boolean trimWhitespace = true;
+
+    private int fieldCount;
+    private boolean terminated;
+    private int[] fieldStart = new int[16];
+    private int[] fieldEnd = new int[16];
+    private boolean[] fieldQuoted = new boolean[16];
+    private byte[] scratch = new byte[256];
+    private long recordNumber;
+
+    private CsvReader(FileChannel channel, ReadableByteChannel stream, long fileSize, int windowSize,
+                      ByteBuffer buffer) {
+        this.channel = channel;
+        this.stream = stream;
+        this.fileSize = fileSize;
+        this.windowSize = windowSize;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Opens a file for reading through memory-mapped windows.
+     */
+    public static CsvReader open(Path path) throws IOException {
+        return open(path, DEFAULT_WINDOW_SIZE);
+    }
+
+    public static CsvReader open(Path path, int windowSize) throws IOException {
+        return openAt(path, 0, windowSize);
+    }
+
+    /**
+     * Opens a file for reading from a byte position, which must be the start of a
+     * record, such as a {@link #getPosition()} saved by an earlier reader. Records
+     * appended to the file since then are read without scanning those before.
+     */
+    public static CsvReader openAt(Path path, long position) throws IOException {
+        return openAt(path, position, DEFAULT_WINDOW_SIZE);
+    }
+
+    public static CsvReader openAt(Path path, long position, int windowSize) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (position < 0 || position > size) {
+                throw new IOException("Position " + position + " is outside " + path + " (" + size + " bytes)");
+            }
+            ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                    Math.min(size - position, windowSize));
+            CsvReader reader = new CsvReader(channel, null, size, windowSize, window);
+            reader.windowOffset = position;
+            return reader;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the remaining bytes of a heap, direct or mapped buffer. The buffer is
+     * not copied, and its position is left unchanged.
+     */
+    public static CsvReader wrap(ByteBuffer buffer) {
+        ByteBuffer slice = buffer.slice();
+        return new CsvReader(null, null, slice.limit(), slice.limit(), slice);
+    }
+
+    /**
+     * Reads a stream as it arrives. Closing the reader closes the stream.
+     */
+    public static CsvReader read(InputStream in) {
+        return read(in, DEFAULT_STREAM_BUFFER_SIZE);
+    }
+
+    public static CsvReader read(InputStream in, int bufferSize) {
+        ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+        ((Buffer) buffer).limit(0);
+        return new CsvReader(null, Channels.newChannel(in), Long.MAX_VALUE, bufferSize, buffer);
+    }
+
+    /**
+     * Sets whether whitespace outside quotes is trimmed from each field.
+     */
+    public CsvReader trimWhitespace(boolean trim) {
+        this.trimWhitespace = trim;
+        return this;
+    }
+
+    /**
+     * Advances to the next record, returning false at the end of the input.
+     * Values of the previous record are no longer available afterwards.
+     */
+    public boolean next() throws IOException {
+        if (!started) {
+            started = true;
+            if (stream != null) {
+                fill();
+            }
+            skipByteOrderMark();
+        }
+        while (true) {
+            int result = scanRecord();
+            if (result == RECORD) {
+                recordNumber++;
+                return true;
+            }
+            if (result == END) {
+                return false;
+            }
+            remap();
+        }
+    }
+
+    /**
+     * Number of records read so far, starting with the header line if there is one.
+     */
+    public long getRecordNumber() {
+        return recordNumber;
+    }
+
+    /**
+     * Byte offset just past the current record and its line break, which is where
+     * the next record starts.
+     */
+    public long getPosition() {
+        return windowOffset + pos;
+    }
+
+    /**
+     * Whether the current record ended with a line break. Only the last record of
+     * the input can lack one, for example while a row is still being appended.
+     */
+    public boolean isRecordTerminated() {
+        return terminated;
+    }
+
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * Decodes one field of the current record. Fields past the end of a short
+     * record read as empty strings.
+     */
+    public String get(int column) {
+        if (column < 0) {
+            throw new IndexOutOfBoundsException("Negative column index: " + column);
+        }
+        if (column >= fieldCount) {
+            return "";
+        }
+        return decode(fieldStart[column], fieldEnd[column], fieldQuoted[column]);
+    }
+
+    /**
+     * Decodes only the given columns of the current record into {@code target},
+     * so that {@code target[i]} holds the value of {@code columns[i]}.
+     */
+    public void get(int[] columns, String[] target) {
+        for (int i = 0; i < columns.length; i++) {
+            target[i] = get(columns[i]);
+        }
+    }
+
+    /**
+     * Decodes every field of the current record.
+     */
+    public String[] getAll() {
+        String[] values = new String[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            values[i] = get(i);
+        }
+        return values;
+    }
+
+    /**
+     * Whether a field of the current record is empty, checked without decoding it.
+     */
+    public boolean isEmpty(int column) {
+        if (column >= fieldCount) {
+            return true;
+        }
+        if (fieldQuoted[column]) {
+            return get(column).isEmpty();
+        }
+        int start = fieldStart[column];
+        int end = fieldEnd[column];
+        if (trimWhitespace) {
+            while (start < end && isWhitespace(buffer.get(start))) {
+                start++;
+            }
+        }
+        return start >= end;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+        if (stream != null) {
+            stream.close();
+        }
+    }
+
+    private void skipByteOrderMark() throws IOException {
+        if (windowOffset != 0) {
+            return;
+        }
+        // A first window or buffer too small to hold the mark is widened until it does
+        while (buffer.limit() < 3 && !isLastWindow()) {
+            remap();
+        }
+        if (buffer.limit() >= 3 && buffer.get(0) == (byte) 0xEF && buffer.get(1) == (byte) 0xBB
+                && buffer.get(2) == (byte) 0xBF) {
+            pos = 3;
+        }
+    }
+
+    private boolean isLastWindow() {
+        if (stream != null) {
+            return streamEnded;
+        }
+        return windowOffset + buffer.limit() >= fileSize;
+    }
+
+    /**
+     * Finds the field boundaries of the record starting at {@code pos}. If the
+     * record runs past the end of the current window, nothing is consumed and
+     * the caller maps a new window starting at this record.
+     */
+    private int scanRecord() {
+        int limit = buffer.limit();
+        if (pos >= limit) {
+            return isLastWindow() ? END : NEED_MORE;
+        }
+
+        fieldCount = 0;
+        int p = pos;
+        int start = p;
+        boolean inQuotes = false;
+        boolean quoted = false;
+
+        while (true) {
+            if (p >= limit) {
+                if (!isLastWindow()) {
+                    return NEED_MORE;
+                }
+                addField(start, p, quoted);
+                pos = p;
+                terminated = false;
+                return RECORD;
+            }
+
+            byte b = buffer.get(p);
+            if (inQuotes) {
+                if (b == '"') {
+                    if (p + 1 >= limit && !isLastWindow()) {
+                        return NEED_MORE;
+                    }
+                    if (p + 1 < limit && buffer.get(p + 1) == '"') {
+                        p += 2;
+                        continue;
+                    }
+                    inQuotes = false;
+                }
+            } else if (b == '"') {
+                inQuotes = true;
+                quoted = true;
+            } else if (b == ',') {
+                addField(start, p, quoted);
+                start = p + 1;
+                quoted = false;
+            } else if (b == '\n') {
+                int end = p;
+                if (end > start && buffer.get(end - 1) == '\r') {
+                    end--;
+                }
+                addField(start, end, quoted);
+                pos = p + 1;
+                terminated = true;
+                return RECORD;
+            }
+            p++;
+        }
+    }
+
+    private void addField(int start, int end, boolean quoted) {
+        if (fieldCount == fieldStart.length) {
+            int capacity = fieldCount * 2;
+            fieldStart = Arrays.copyOf(fieldStart, capacity);
+            fieldEnd = Arrays.copyOf(fieldEnd, capacity);
+            fieldQuoted = Arrays.copyOf(fieldQuoted, capacity);
+        }
+        fieldStart[fieldCount] = start;
+        fieldEnd[fieldCount] = end;
+        fieldQuoted[fieldCount] = quoted;
+        fieldCount++;
+    }
+
+    /**
+     * Maps the next window so that it starts at the first unconsumed record. A
+     * record that did not fit into a whole window doubles the window size.
+     */
+    private void remap() throws IOException {
+        if (stream != null) {
+            fill();
+            return;
+        }
+        if (channel == null) {
+            throw new IllegalStateException("Buffer ended in the middle of a record");
+        }
+        long start = windowOffset + pos;
+        if (pos == 0) {
+            if (windowSize > Integer.MAX_VALUE / 2) {
+                throw new IOException("CSV record at byte " + start + " is larger than " + windowSize + " bytes");
+            }
+            windowSize *= 2;
+        }
+        long length = Math.min(windowSize, fileSize - start);
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        windowOffset = start;
+        pos = 0;
+    }
+
+    /**
+     * Keeps the unconsumed bytes of a stream at the start of the buffer and reads
+     * more after them. A record that fills the whole buffer doubles its size.
+     * <p>
+     * Buffer methods are called through {@link Buffer}: ByteBuffer only overrides
+     * them from Java 9 on, and those overrides don't exist on Java 8.
+     */
+    private void fill() throws IOException {
+        if (pos == 0 && buffer.limit() == buffer.capacity() && buffer.capacity() > 0) {
+            if (buffer.capacity() > Integer.MAX_VALUE / 2) {
+                throw new IOException("CSV record at byte " + windowOffset + " is larger than " + buffer.capacity() + " bytes");
+            }
+            ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+            ((Buffer) buffer).position(0);
+            larger.put(buffer);
+            buffer = larger;
+        } else {
+            ((Buffer) buffer).position(pos);
+            buffer.compact();
+        }
+        windowOffset += pos;
+        pos = 0;
+
+        int read = 0;
+        while (read == 0 && buffer.hasRemaining()) {
+            read = stream.read(buffer);
+        }
+        if (read < 0) {
+            streamEnded = true;
+        }
+        ((Buffer) buffer).flip();
+    }
+
+    private String decode(int start, int end, boolean quoted) {
+        if (quoted) {
+            return decodeQuoted(start, end);
+        }
+        if (trimWhitespace) {
+            while (start < end && isWhitespace(buffer.get(start))) {
+                start++;
+            }
+            while (end > start && isWhitespace(buffer.get(end - 1))) {
+                end--;
+            }
+        }
+        int length = end - start;
+        if (length == 0) {
+            return "";
+        }
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + start, length, StandardCharsets.UTF_8);
+        }
+        byte[] bytes = scratch(length);
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Removes the quotes of a field and unescapes doubled quotes. Whitespace
+     * inside the quotes is kept even when trimming is on.
+     */
+    private String decodeQuoted(int start, int end) {
+        byte[] bytes = scratch(end - start);
+        int length = 0;
+        int firstQuoted = -1;
+        int lastQuoted = -1;
+        boolean inQuotes = false;
+
+        for (int p = start; p < end; p++) {
+            byte b = buffer.get(p);
+            if (b == '"') {
+                if (inQuotes && p + 1 < end && buffer.get(p + 1) == '"') {
+                    bytes[length++] = '"';
+                    p++;
+                } else {
+                    inQuotes = !inQuotes;
+                    if (firstQuoted < 0) {
+                        firstQuoted = length;
+                    }
+                    lastQuoted = length;
+                    continue;
+                }
+            } else {
+                bytes[length++] = b;
+            }
+            if (inQuotes) {
+                lastQuoted = length;
+            }
+        }
+
+        int from = 0;
+        int to = length;
+        if (trimWhitespace) {
+            int keepFrom = firstQuoted < 0 ? length : firstQuoted;
+            while (from < keepFrom && isWhitespace(bytes[from])) {
+                from++;
+            }
+            while (to > from && to > lastQuoted && isWhitespace(bytes[to - 1])) {
+                to--;
+            }
+        }
+        return new String(bytes, from, to - from, StandardCharsets.UTF_8);
+    }
+
+    private byte[] scratch(int length) {
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        return scratch;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b >= 0 && b <= ' ';
+    }
+}
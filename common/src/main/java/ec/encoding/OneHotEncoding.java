@@ -0,0 +1,297 @@
+package ec.encoding;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+import weka.core.Utils;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The 0/1 encoding that SMO builds from nominal data inside buildClassifier,
+ * fitted once and applied without Weka filters: ReplaceMissingValues (the most
+ * frequent training value), NominalToBinary (a column per value, or a single
+ * column for an attribute with two values) and Normalize, which leaves 0/1
+ * columns as they are except those that never change in the training data,
+ * which become 0. Encoded rows are sparse instances holding only their ones, so
+ * SMO trained on them reaches the same model as on the nominal data.
+ */
+public final class OneHotEncoding implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The one-hot columns of a nominal header, before any training data is seen.
+     */
+    public static final class Layout implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int classIndex;
+        private final int[] firstColumn;    // First column of each attribute, -1 for the class
+        private final boolean[] binary;     // A single column that is 1 for the second value
+        private final int numColumns;
+
+        public Layout(Instances header) {
+            if (!supports(header)) {
+                throw new IllegalArgumentException("One-hot encoding needs a nominal class and nominal attributes");
+            }
+            classIndex = header.classIndex();
+            firstColumn = new int[header.numAttributes()];
+            binary = new boolean[header.numAttributes()];
+            int column = 0;
+            for (int i = 0; i < header.numAttributes(); i++) {
+                if (i == classIndex) {
+                    firstColumn[i] = -1;
+                    continue;
+                }
+                int numValues = header.attribute(i).numValues();
+                firstColumn[i] = column;
+                binary[i] = numValues <= 2;
+                column += binary[i] ? 1 : numValues;
+            }
+            numColumns = column;
+        }
+
+        /** Whether every attribute, the class included, is nominal. */
+        public static boolean supports(Instances header) {
+            if (header.classIndex() < 0) {
+                return false;
+            }
+            for (int i = 0; i < header.numAttributes(); i++) {
+                if (!header.attribute(i).isNominal()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public int numColumns() {
+            return numColumns;
+        }
+
+        public int classIndex() {
+            return classIndex;
+        }
+
+        /** The column that is 1 for this value of the attribute, or -1 if none is. */
+        public int column(int attribute, int value) {
+            if (binary[attribute]) {
+                return value == 1 ? firstColumn[attribute] : -1;
+            }
+            return firstColumn[attribute] + value;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Layout)) {
+                return false;
+            }
+            Layout layout = (Layout) other;
+            return classIndex == layout.classIndex && Arrays.equals(firstColumn, layout.firstColumn)
+                    && Arrays.equals(binary, layout.binary);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Arrays.hashCode(firstColumn) + classIndex;
+        }
+    }
+
+    private final Layout layout;
+    private final int[] modes;          // Replacement for a missing value of each attribute
+    private final int[] encoded;        // Index of each column in the encoded header, -1 if always 0
+    private final int classPosition;    // Index of the class in the encoded header
+    private final Instances header;
+
+    private OneHotEncoding(Layout layout, Instances nominalHeader, int[] modes, int[] columnCounts, int numRows) {
+        this.layout = layout;
+        this.modes = modes;
+        this.encoded = new int[layout.numColumns()];
+
+        ArrayList<Attribute> attributes = new ArrayList<>();
+        int position = -1;
+        for (int i = 0; i < nominalHeader.numAttributes(); i++) {
+            Attribute attribute = nominalHeader.attribute(i);
+            if (i == layout.classIndex()) {
+                position = attributes.size();
+                ArrayList<String> values = new ArrayList<>();
+                for (int v = 0; v < attribute.numValues(); v++) {
+                    values.add(attribute.value(v));
+                }
+                attributes.add(new Attribute(attribute.name(), values));
+                continue;
+            }
+            int numColumns = layout.binary[i] ? 1 : attribute.numValues();
+            for (int v = 0; v < numColumns; v++) {
+                int column = layout.firstColumn[i] + v;
+                // Normalize turns a column that is the same in every training row into 0
+                if (columnCounts[column] == 0 || columnCounts[column] == numRows) {
+                    encoded[column] = -1;
+                    continue;
+                }
+                encoded[column] = attributes.size();
+                attributes.add(new Attribute(layout.binary[i] ? attribute.name()
+                        : attribute.name() + "=" + attribute.value(v)));
+            }
+        }
+        classPosition = position;
+        header = new Instances(nominalHeader.relationName() + "-onehot", attributes, 0);
+        header.setClassIndex(classPosition);
+    }
+
+    /**
+     * Fits the encoding to nominal training data. Rows with a missing class are
+     * left out, as SMO leaves them out.
+     */
+    public static OneHotEncoding fit(Instances data) {
+        Layout layout = new Layout(data);
+        double[][] counts = new double[data.numAttributes()][];
+        for (int i = 0; i < data.numAttributes(); i++) {
+            counts[i] = new double[data.attribute(i).numValues()];
+        }
+        int numRows = 0;
+        for (int r = 0; r < data.numInstances(); r++) {
+            Instance instance = data.instance(r);
+            if (instance.classIsMissing()) {
+                continue;
+            }
+            numRows++;
+            for (int i = 0; i < data.numAttributes(); i++) {
+                if (i != layout.classIndex() && !instance.isMissing(i)) {
+                    counts[i][(int) instance.value(i)] += instance.weight();
+                }
+            }
+        }
+
+        int[] modes = new int[data.numAttributes()];
+        for (int i = 0; i < data.numAttributes(); i++) {
+            modes[i] = i == layout.classIndex() ? 0 : Utils.maxIndex(counts[i]);
+        }
+        int[] columnCounts = new int[layout.numColumns()];
+        for (int r = 0; r < data.numInstances(); r++) {
+            Instance instance = data.instance(r);
+            if (instance.classIsMissing()) {
+                continue;
+            }
+            for (int i = 0; i < data.numAttributes(); i++) {
+                if (i == layout.classIndex()) {
+                    continue;
+                }
+                int value = instance.isMissing(i) ? modes[i] : (int) instance.value(i);
+                int column = layout.column(i, value);
+                if (column >= 0) {
+                    columnCounts[column]++;
+                }
+            }
+        }
+        return new OneHotEncoding(layout, new Instances(data, 0), modes, columnCounts, numRows);
+    }
+
+    /**
+     * Fits the encoding from how many of {@code numRows} training rows have each
+     * column set, for data without missing values.
+     */
+    public static OneHotEncoding fit(Instances header, Layout layout, int[] columnCounts, int numRows) {
+        int[] modes = new int[header.numAttributes()];
+        for (int i = 0; i < header.numAttributes(); i++) {
+            if (i == layout.classIndex()) {
+                continue;
+            }
+            double[] counts = new double[header.attribute(i).numValues()];
+            if (layout.binary[i]) {
+                int ones = counts.length > 1 ? columnCounts[layout.firstColumn[i]] : 0;
+                counts[0] = numRows - ones;
+                if (counts.length > 1) {
+                    counts[1] = ones;
+                }
+            } else {
+                for (int v = 0; v < counts.length; v++) {
+                    counts[v] = columnCounts[layout.firstColumn[i] + v];
+                }
+            }
+            modes[i] = Utils.maxIndex(counts);
+        }
+        return new OneHotEncoding(layout, new Instances(header, 0), modes, columnCounts, numRows);
+    }
+
+    public Layout getLayout() {
+        return layout;
+    }
+
+    /** The encoded header: a numeric attribute per column kept, and the nominal class. */
+    public Instances getHeader() {
+        return header;
+    }
+
+    /** Index of a one-hot column in the encoded header, or -1 if it is always 0. */
+    public int encodedIndex(int column) {
+        return encoded[column];
+    }
+
+    /**
+     * Encodes a row given by its one-hot columns, in ascending order.
+     */
+    public Instance encode(int[] columns, int from, int to, double classValue, double weight) {
+        int[] indices = new int[to - from + 1];
+        int count = 0;
+        boolean classAdded = false;
+        for (int c = from; c < to; c++) {
+            int index = encoded[columns[c]];
+            if (index < 0) {
+                continue;
+            }
+            if (!classAdded && index > classPosition) {
+                indices[count++] = classPosition;
+                classAdded = true;
+            }
+            indices[count++] = index;
+        }
+        if (!classAdded) {
+            indices[count++] = classPosition;
+        }
+
+        // Sparse rows store only their ones, and the class unless it is the first value
+        int[] kept = new int[count];
+        double[] values = new double[count];
+        int n = 0;
+        for (int k = 0; k < count; k++) {
+            if (indices[k] == classPosition) {
+                if (classValue == 0) {
+                    continue;
+                }
+                values[n] = classValue;
+            } else {
+                values[n] = 1;
+            }
+            kept[n++] = indices[k];
+        }
+        Instance instance = new SparseInstance(weight, Arrays.copyOf(values, n), Arrays.copyOf(kept, n),
+                header.numAttributes());
+        instance.setDataset(header);
+        return instance;
+    }
+
+    /**
+     * Encodes one nominal instance, replacing missing values as in training.
+     */
+    public Instance encode(Instance instance) {
+        int[] columns = new int[instance.numAttributes()];
+        int count = 0;
+        for (int i = 0; i < instance.numAttributes(); i++) {
+            if (i == layout.classIndex()) {
+                continue;
+            }
+            int value = instance.isMissing(i) ? modes[i] : (int) instance.value(i);
+            int column = layout.column(i, value);
+            if (column >= 0) {
+                columns[count++] = column;
+            }
+        }
+        return encode(columns, 0, count, instance.classIsMissing() ? Utils.missingValue() : instance.classValue(),
+                instance.weight());
+    }
+}
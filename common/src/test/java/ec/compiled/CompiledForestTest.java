@@ -0,0 +1,59 @@
+package ec.compiled;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import weka.classifiers.trees.RandomForest;
+import weka.core.Instances;
+
+import java.io.File;
+
+import static ec.compiled.ParityTestData.assertSameDistributions;
+import static ec.compiled.ParityTestData.dataset;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CompiledForestTest {
+
+    @TempDir
+    File tempDir;
+
+    private static RandomForest train(Instances data) throws Exception {
+        RandomForest forest = new RandomForest();
+        forest.setNumIterations(25);
+        forest.setSeed(7);
+        forest.buildClassifier(data);
+        return forest;
+    }
+
+    @Test
+    void matchesWekaWithoutMissingValues() throws Exception {
+        Instances data = dataset(400, 4, true, 0, 1);
+        RandomForest forest = train(data);
+        assertSameDistributions(forest, CompiledForest.compile(forest), data, 0, 2000, 2);
+    }
+
+    @Test
+    void matchesWekaWithMissingValues() throws Exception {
+        // Missing values in training give fractional branch weights; missing ones in queries descend every branch
+        Instances data = dataset(400, 4, true, 0.15, 3);
+        RandomForest forest = train(data);
+        CompiledForest compiled = CompiledForest.compile(forest);
+        assertSameDistributions(forest, compiled, data, 0.3, 2000, 4);
+        assertSameDistributions(forest, compiled, data, 1.0, 10, 5);
+    }
+
+    @Test
+    void matchesWekaAfterCompactFileRoundTrip() throws Exception {
+        Instances data = dataset(300, 3, true, 0.1, 6);
+        RandomForest forest = train(data);
+        File file = new File(tempDir, "forest" + CompactModelFile.SUFFIX);
+        CompactModelFile.write(file, CompiledForest.compile(forest), new Instances(data, 0));
+
+        CompactModelFile.Contents contents = CompactModelFile.read(file);
+        assertSameDistributions(forest, contents.getModel(), contents.getHeader(), 0.2, 1000, 7);
+    }
+
+    @Test
+    void rejectsUnbuiltForest() {
+        assertThrows(IllegalArgumentException.class, () -> CompiledForest.compile(new RandomForest()));
+    }
+}
@@ -0,0 +1,111 @@
+package ec.compiled;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import weka.classifiers.lazy.IBk;
+import weka.core.Instances;
+import weka.core.SelectedTag;
+
+import java.io.File;
+
+import static ec.compiled.ParityTestData.assertSameDistributions;
+import static ec.compiled.ParityTestData.dataset;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CompiledKNNTest {
+
+    @TempDir
+    File tempDir;
+
+    /** The trainer's IBk: k up to 5, chosen by hold-one-out. */
+    private static IBk train(Instances data) throws Exception {
+        IBk knn = new IBk();
+        knn.setKNN(5);
+        knn.setCrossValidate(true);
+        knn.buildClassifier(data);
+        return knn;
+    }
+
+    @Test
+    void matchesIBkWithoutMissingValues() throws Exception {
+        Instances data = dataset(300, 4, false, 0, 21);
+        IBk knn = train(data);
+        CompiledKNN compiled = CompiledKNN.compile(knn);
+        assertSameDistributions(knn, compiled, data, 0, 2000, 22);
+        // IBk chose its k on the first prediction above
+        assertEquals(knn.getKNN(), compiled.getK());
+    }
+
+    @Test
+    void matchesIBkWithMissingValues() throws Exception {
+        // A missing value differs from everything, another missing value included
+        Instances data = dataset(300, 4, false, 0.15, 23);
+        IBk knn = train(data);
+        CompiledKNN compiled = CompiledKNN.compile(knn);
+        assertSameDistributions(knn, compiled, data, 0.3, 2000, 24);
+        assertSameDistributions(knn, compiled, data, 1.0, 10, 25);
+        assertEquals(knn.getKNN(), compiled.getK());
+    }
+
+    @Test
+    void matchesIBkWithDuplicateRowsAndTies() throws Exception {
+        // Far more rows than distinct combinations of values, so most neighbours tie
+        Instances data = dataset(1000, 3, false, 0.05, 26);
+        IBk knn = train(data);
+        CompiledKNN bucketed = CompiledKNN.compile(knn, true);
+        CompiledKNN flat = CompiledKNN.compile(knn, false);
+        assertTrue(bucketed.numBuckets() < flat.numBuckets());
+        assertEquals(data.numInstances(), flat.numBuckets());
+        assertSameDistributions(knn, bucketed, data, 0.1, 1000, 27);
+        assertSameDistributions(knn, flat, data, 0.1, 1000, 28);
+        assertEquals(knn.getKNN(), bucketed.getK());
+        assertEquals(knn.getKNN(), flat.getK());
+    }
+
+    @Test
+    void matchesIBkWithFewerRowsThanK() throws Exception {
+        for (int rows = 2; rows <= 8; rows++) {
+            Instances data = dataset(rows, 3, false, 0.1, 30 + rows);
+            IBk knn = train(data);
+            CompiledKNN compiled = CompiledKNN.compile(knn);
+            assertSameDistributions(knn, compiled, data, 0.1, 200, 40 + rows);
+            assertEquals(knn.getKNN(), compiled.getK(), rows + " rows");
+        }
+    }
+
+    @Test
+    void usesTheKIBkAlreadyChose() throws Exception {
+        Instances data = dataset(200, 4, false, 0, 51);
+        IBk knn = train(data);
+        knn.distributionForInstance(data.instance(0));
+        CompiledKNN compiled = CompiledKNN.compile(knn);
+        assertEquals(knn.getKNN(), compiled.getK());
+        assertSameDistributions(knn, compiled, data, 0.1, 500, 52);
+    }
+
+    @Test
+    void matchesIBkAfterCompactFileRoundTrip() throws Exception {
+        Instances data = dataset(300, 3, false, 0.1, 53);
+        IBk knn = train(data);
+        File file = new File(tempDir, "knn" + CompactModelFile.SUFFIX);
+        CompactModelFile.write(file, CompiledKNN.compile(knn), new Instances(data, 0));
+
+        CompactModelFile.Contents contents = CompactModelFile.read(file);
+        assertSameDistributions(knn, contents.getModel(), contents.getHeader(), 0.2, 1000, 54);
+    }
+
+    @Test
+    void rejectsNumericAttributes() throws Exception {
+        IBk knn = train(dataset(100, 3, true, 0, 55));
+        assertThrows(IllegalArgumentException.class, () -> CompiledKNN.compile(knn));
+    }
+
+    @Test
+    void rejectsDistanceWeighting() throws Exception {
+        IBk knn = train(dataset(100, 3, false, 0, 56));
+        knn.setDistanceWeighting(new SelectedTag(IBk.WEIGHT_INVERSE, IBk.TAGS_WEIGHTING));
+        assertThrows(IllegalArgumentException.class, () -> CompiledKNN.compile(knn));
+    }
+}
@@ -0,0 +1,72 @@
+package ec.compiled;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import weka.classifiers.meta.LogitBoost;
+import weka.core.Instances;
+
+import java.io.File;
+
+import static ec.compiled.ParityTestData.assertSameDistributions;
+import static ec.compiled.ParityTestData.dataset;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CompiledLogitBoostTest {
+
+    @TempDir
+    File tempDir;
+
+    private static LogitBoost train(Instances data) throws Exception {
+        LogitBoost boost = new LogitBoost();
+        boost.setNumIterations(30);
+        boost.setSeed(42);
+        boost.buildClassifier(data);
+        return boost;
+    }
+
+    @Test
+    void matchesWekaWithoutMissingValues() throws Exception {
+        Instances data = dataset(400, 4, true, 0, 11);
+        LogitBoost boost = train(data);
+        CompiledLogitBoost compiled = CompiledLogitBoost.compile(boost);
+        assertEquals(30 * 4, compiled.numStumps());
+        assertSameDistributions(boost, compiled, data, 0, 2000, 12);
+    }
+
+    @Test
+    void matchesWekaWithMissingValues() throws Exception {
+        // A stump sends a missing value to its third output
+        Instances data = dataset(400, 4, true, 0.15, 13);
+        LogitBoost boost = train(data);
+        CompiledLogitBoost compiled = CompiledLogitBoost.compile(boost);
+        assertSameDistributions(boost, compiled, data, 0.3, 2000, 14);
+        assertSameDistributions(boost, compiled, data, 1.0, 10, 15);
+    }
+
+    @Test
+    void matchesWekaWithTwoClasses() throws Exception {
+        // With two classes LogitBoost fits one stump per iteration, not one per class
+        Instances data = dataset(300, 2, true, 0.1, 16);
+        LogitBoost boost = train(data);
+        CompiledLogitBoost compiled = CompiledLogitBoost.compile(boost);
+        assertEquals(30, compiled.numStumps());
+        assertSameDistributions(boost, compiled, data, 0.2, 2000, 17);
+    }
+
+    @Test
+    void matchesWekaAfterCompactFileRoundTrip() throws Exception {
+        Instances data = dataset(300, 3, true, 0.1, 18);
+        LogitBoost boost = train(data);
+        File file = new File(tempDir, "boost" + CompactModelFile.SUFFIX);
+        CompactModelFile.write(file, CompiledLogitBoost.compile(boost), new Instances(data, 0));
+
+        CompactModelFile.Contents contents = CompactModelFile.read(file);
+        assertSameDistributions(boost, contents.getModel(), contents.getHeader(), 0.2, 1000, 19);
+    }
+
+    @Test
+    void rejectsUnbuiltModel() {
+        assertThrows(IllegalArgumentException.class, () -> CompiledLogitBoost.compile(new LogitBoost()));
+    }
+}
@@ -0,0 +1,102 @@
+package ec.compiled;
+
+import weka.classifiers.Classifier;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+/**
+ * Small synthetic datasets shaped like the Cell Lines data, and the check that a
+ * compiled model gives Weka's distributions bit for bit.
+ */
+final class ParityTestData {
+
+    /** Values of each nominal attribute; a 2-valued one exercises the binary cases. */
+    private static final int[] NOMINAL_VALUES = {2, 3, 5, 4, 2};
+
+    private ParityTestData() {
+    }
+
+    /**
+     * A dataset whose class mostly follows the attributes, so trained models have
+     * some structure, with a share of the non-class values missing.
+     *
+     * @param numeric add a numeric attribute before the class
+     */
+    static Instances dataset(int rows, int numClasses, boolean numeric, double missingRate, long seed) {
+        ArrayList<Attribute> attributes = new ArrayList<>();
+        for (int i = 0; i < NOMINAL_VALUES.length; i++) {
+            attributes.add(new Attribute("a" + i, values("v", NOMINAL_VALUES[i])));
+        }
+        if (numeric) {
+            attributes.add(new Attribute("x"));
+        }
+        attributes.add(new Attribute("class", values("c", numClasses)));
+        Instances data = new Instances("parity", attributes, rows);
+        data.setClassIndex(data.numAttributes() - 1);
+
+        Random random = new Random(seed);
+        for (int r = 0; r < rows; r++) {
+            double[] values = new double[data.numAttributes()];
+            int signal = 0;
+            for (int i = 0; i < NOMINAL_VALUES.length; i++) {
+                values[i] = random.nextInt(NOMINAL_VALUES[i]);
+                signal += (int) values[i];
+            }
+            if (numeric) {
+                values[NOMINAL_VALUES.length] = random.nextGaussian();
+                signal += values[NOMINAL_VALUES.length] > 0 ? 1 : 0;
+            }
+            values[data.classIndex()] = random.nextInt(10) == 0 ? random.nextInt(numClasses) : signal % numClasses;
+            for (int i = 0; i < data.classIndex(); i++) {
+                if (random.nextDouble() < missingRate) {
+                    values[i] = Utils.missingValue();
+                }
+            }
+            data.add(new DenseInstance(1.0, values));
+        }
+        return data;
+    }
+
+    /**
+     * Asserts that the compiled model gives exactly the reference's distribution
+     * for random instances, with the given share of values missing.
+     */
+    static void assertSameDistributions(Classifier reference, CompiledEnsemble compiled, Instances header,
+            double missingRate, int samples, long seed) throws Exception {
+        Random random = new Random(seed);
+        for (int n = 0; n < samples; n++) {
+            double[] values = new double[header.numAttributes()];
+            for (int i = 0; i < values.length; i++) {
+                if (i == header.classIndex() || random.nextDouble() < missingRate) {
+                    values[i] = Utils.missingValue();
+                } else if (header.attribute(i).isNominal()) {
+                    values[i] = random.nextInt(header.attribute(i).numValues());
+                } else {
+                    values[i] = random.nextGaussian();
+                }
+            }
+            Instance instance = new DenseInstance(1.0, values.clone());
+            instance.setDataset(header);
+            assertArrayEquals(reference.distributionForInstance(instance), compiled.distributionForInstance(values),
+                    "distribution for " + Arrays.toString(values));
+        }
+    }
+
+    private static List<String> values(String prefix, int count) {
+        List<String> values = new ArrayList<>();
+        for (int v = 0; v < count; v++) {
+            values.add(prefix + v);
+        }
+        return values;
+    }
+}
@@ -0,0 +1,214 @@
+package ec.csv;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CsvReaderTest {
+
+    /**
+     * Records with every construct that can straddle a window or buffer boundary:
+     * quoted commas and line breaks, escaped quotes, CRLF, empty and multi-byte fields.
+     */
+    private static final String TEXT = "name,notes,count\r\n"
+            + "a,\"x, y\",1\n"
+            + "b,\"line one\r\nline two\",2\r\n"
+            + "c,\"she said \"\"hi\"\"\",3\n"
+            + "d,\"\"\"\",4\n"
+            + "e,,5\r\n"
+            + "f,\"\",\n"
+            + "g,Grüße été,7\n"
+            + "h,\"ends with quote\"\"\",8";
+
+    private static final String[][] RECORDS = {
+            {"name", "notes", "count"},
+            {"a", "x, y", "1"},
+            {"b", "line one\r\nline two", "2"},
+            {"c", "she said \"hi\"", "3"},
+            {"d", "\"", "4"},
+            {"e", "", "5"},
+            {"f", "", ""},
+            {"g", "Grüße été", "7"},
+            {"h", "ends with quote\"", "8"},
+    };
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    void readsEveryRecordWhateverTheWindowSize() throws Exception {
+        Path file = write("records.csv", TEXT);
+        int length = TEXT.getBytes(StandardCharsets.UTF_8).length;
+        // Every size up to the whole file puts a boundary inside each construct somewhere
+        for (int windowSize = 1; windowSize <= length + 1; windowSize++) {
+            try (CsvReader reader = CsvReader.open(file, windowSize)) {
+                assertRecords(RECORDS, readAll(reader), "window of " + windowSize);
+            }
+        }
+    }
+
+    @Test
+    void readsEveryRecordWhateverTheBufferSize() throws Exception {
+        byte[] bytes = TEXT.getBytes(StandardCharsets.UTF_8);
+        for (int bufferSize = 1; bufferSize <= bytes.length + 1; bufferSize++) {
+            try (CsvReader reader = CsvReader.read(new ByteArrayInputStream(bytes), bufferSize)) {
+                assertRecords(RECORDS, readAll(reader), "buffer of " + bufferSize);
+            }
+        }
+    }
+
+    @Test
+    void readsHeapAndDirectBuffers() throws Exception {
+        byte[] bytes = TEXT.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes);
+        direct.flip();
+        assertRecords(RECORDS, readAll(CsvReader.wrap(ByteBuffer.wrap(bytes))), "heap buffer");
+        assertRecords(RECORDS, readAll(CsvReader.wrap(direct)), "direct buffer");
+        assertEquals(0, direct.position());
+    }
+
+    @Test
+    void reportsWhetherTheLastRecordIsTerminated() throws Exception {
+        try (CsvReader reader = CsvReader.open(write("open.csv", "a,b\n1,2"), 4)) {
+            assertTrue(reader.next());
+            assertTrue(reader.isRecordTerminated());
+            assertTrue(reader.next());
+            assertFalse(reader.isRecordTerminated());
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    void trimsWhitespaceOutsideQuotesOnly() throws Exception {
+        byte[] bytes = " a , \" b \" ,\tc\t\n".getBytes(StandardCharsets.UTF_8);
+        assertRecords(new String[][] {{"a", " b ", "c"}}, readAll(CsvReader.wrap(ByteBuffer.wrap(bytes))), "trimmed");
+        assertRecords(new String[][] {{" a ", "  b  ", "\tc\t"}},
+                readAll(CsvReader.wrap(ByteBuffer.wrap(bytes)).trimWhitespace(false)), "untrimmed");
+    }
+
+    @Test
+    void skipsByteOrderMark() throws Exception {
+        String text = "﻿name,count\nx,1\n";
+        Path file = write("bom.csv", text);
+        String[][] expected = {{"name", "count"}, {"x", "1"}};
+        for (int size = 1; size <= 8; size++) {
+            try (CsvReader reader = CsvReader.open(file, size)) {
+                assertRecords(expected, readAll(reader), "window of " + size);
+            }
+            try (CsvReader reader = CsvReader.read(
+                    new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)), size)) {
+                assertRecords(expected, readAll(reader), "buffer of " + size);
+            }
+        }
+    }
+
+    @Test
+    void emptyInputHasNoRecords() throws Exception {
+        Path file = write("empty.csv", "");
+        try (CsvReader reader = CsvReader.open(file, 4)) {
+            assertFalse(reader.next());
+            assertEquals(0, reader.getPosition());
+        }
+        try (CsvReader reader = CsvReader.openAt(file, 0, 4)) {
+            assertFalse(reader.next());
+        }
+        try (CsvReader reader = CsvReader.read(new ByteArrayInputStream(new byte[0]), 4)) {
+            assertFalse(reader.next());
+        }
+        assertFalse(CsvReader.wrap(ByteBuffer.allocate(0)).next());
+    }
+
+    @Test
+    void opensAtASavedPosition() throws Exception {
+        Path file = write("records.csv", TEXT);
+        for (int skipped = 0; skipped <= RECORDS.length; skipped++) {
+            long position;
+            try (CsvReader reader = CsvReader.open(file, 5)) {
+                for (int i = 0; i < skipped; i++) {
+                    assertTrue(reader.next());
+                }
+                position = reader.getPosition();
+            }
+            for (int windowSize = 1; windowSize <= 16; windowSize++) {
+                try (CsvReader reader = CsvReader.openAt(file, position, windowSize)) {
+                    assertRecords(Arrays.copyOfRange(RECORDS, skipped, RECORDS.length), readAll(reader),
+                            "from record " + skipped + ", window of " + windowSize);
+                }
+            }
+        }
+    }
+
+    @Test
+    void readsOnlyRecordsAppendedSinceASavedPosition() throws Exception {
+        Path file = write("growing.csv", "name,count\na,1\n");
+        long position;
+        try (CsvReader reader = CsvReader.open(file, 4)) {
+            assertEquals(2, readAll(reader).size());
+            position = reader.getPosition();
+        }
+        assertEquals(Files.size(file), position);
+
+        Files.write(file, "b,\"2\r\n3\"\r\nc,4\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        try (CsvReader reader = CsvReader.openAt(file, position, 3)) {
+            assertRecords(new String[][] {{"b", "2\r\n3"}, {"c", "4"}}, readAll(reader), "appended");
+            assertEquals(Files.size(file), reader.getPosition());
+        }
+    }
+
+    @Test
+    void rejectsPositionsOutsideTheFile() throws Exception {
+        Path file = write("short.csv", "a,b\n");
+        assertThrows(IOException.class, () -> CsvReader.openAt(file, -1));
+        assertThrows(IOException.class, () -> CsvReader.openAt(file, 5));
+    }
+
+    @Test
+    void shortRecordsReadAsEmptyFields() throws Exception {
+        CsvReader reader = CsvReader.wrap(ByteBuffer.wrap("a,b,c\nx\n".getBytes(StandardCharsets.UTF_8)));
+        assertTrue(reader.next());
+        assertTrue(reader.next());
+        assertEquals(1, reader.getFieldCount());
+        assertEquals("", reader.get(2));
+        assertTrue(reader.isEmpty(2));
+        assertFalse(reader.isEmpty(0));
+        assertEquals(2, reader.getRecordNumber());
+    }
+
+    private Path write(String name, String text) throws IOException {
+        Path file = new File(tempDir, name).toPath();
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static List<String[]> readAll(CsvReader reader) throws IOException {
+        List<String[]> records = new ArrayList<>();
+        while (reader.next()) {
+            records.add(reader.getAll());
+        }
+        return records;
+    }
+
+    private static void assertRecords(String[][] expected, List<String[]> actual, String message) {
+        assertEquals(expected.length, actual.size(), message + ": record count");
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(Arrays.asList(expected[i]), Arrays.asList(actual.get(i)), message + ": record " + i);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package ec.encoding;
+
+import org.junit.jupiter.api.Test;
+import weka.classifiers.functions.SMO;
+import weka.classifiers.trees.J48;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SelectedTag;
+import weka.core.Utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OneHotSMOTest {
+
+    /**
+     * Values of each attribute. The last two are awkward for the encoding: a
+     * value that never occurs in training, and an attribute that never changes.
+     */
+    private static final int[] NOMINAL_VALUES = {2, 3, 5, 4, 3, 2};
+    private static final int UNUSED_VALUE_ATTRIBUTE = 4;
+    private static final int CONSTANT_ATTRIBUTE = 5;
+
+    /** The filter types {@link OneHotSMO#isEquivalent} accepts. */
+    private static final int[] FILTER_TYPES = {SMO.FILTER_NORMALIZE};
+
+    /** SMO's solver tolerance leaves room for rounding, not for different models. */
+    private static final double TOLERANCE = 1e-6;
+
+    @Test
+    void matchesSMOWithoutMissingValues() throws Exception {
+        for (int filterType : FILTER_TYPES) {
+            assertSamePredictions(filterType, false, dataset(300, 3, 0, 1), 0, 2);
+        }
+    }
+
+    @Test
+    void matchesSMOWithMissingValues() throws Exception {
+        for (int filterType : FILTER_TYPES) {
+            Instances data = dataset(300, 4, 0.15, 3);
+            assertSamePredictions(filterType, false, data, 0.3, 4);
+            assertSamePredictions(filterType, false, data, 1.0, 5);
+        }
+    }
+
+    @Test
+    void matchesSMOWithCalibrationModels() throws Exception {
+        for (int filterType : FILTER_TYPES) {
+            assertSamePredictions(filterType, true, dataset(200, 3, 0.1, 6), 0.2, 7);
+        }
+    }
+
+    @Test
+    void matchesSMOWithTwoClasses() throws Exception {
+        for (int filterType : FILTER_TYPES) {
+            assertSamePredictions(filterType, false, dataset(200, 2, 0.1, 8), 0.2, 9);
+        }
+    }
+
+    @Test
+    void acceptsOnlyFilteringTheEncodingReproduces() {
+        for (int filterType : FILTER_TYPES) {
+            assertTrue(OneHotSMO.isEquivalent(smo(filterType, false)));
+        }
+        for (int filterType : new int[] {SMO.FILTER_STANDARDIZE, SMO.FILTER_NONE}) {
+            SMO other = smo(filterType, false);
+            assertFalse(OneHotSMO.isEquivalent(other));
+            assertThrows(IllegalArgumentException.class, () -> new OneHotSMO(other));
+        }
+        assertFalse(OneHotSMO.isEquivalent(new J48()));
+    }
+
+    private static void assertSamePredictions(int filterType, boolean calibrated, Instances data,
+            double missingRate, long seed) throws Exception {
+        SMO reference = smo(filterType, calibrated);
+        reference.buildClassifier(data);
+        OneHotSMO encoded = new OneHotSMO(smo(filterType, calibrated));
+        encoded.buildClassifier(data);
+
+        Random random = new Random(seed);
+        for (int n = 0; n < 500; n++) {
+            Instance instance = new DenseInstance(data.numAttributes());
+            instance.setDataset(data);
+            for (int i = 0; i < data.classIndex(); i++) {
+                if (random.nextDouble() >= missingRate) {
+                    instance.setValue(i, random.nextInt(data.attribute(i).numValues()));
+                }
+            }
+            assertArrayEquals(reference.distributionForInstance(instance), encoded.distributionForInstance(instance),
+                    TOLERANCE, "filter " + filterType + ", distribution for " + instance);
+        }
+    }
+
+    private static SMO smo(int filterType, boolean calibrated) {
+        SMO smo = new SMO();
+        smo.setC(1.0);
+        smo.setFilterType(new SelectedTag(filterType, SMO.TAGS_FILTER));
+        smo.setBuildCalibrationModels(calibrated);
+        smo.setRandomSeed(1);
+        return smo;
+    }
+
+    /**
+     * A nominal dataset whose class mostly follows the attributes, with a share of
+     * the non-class values missing.
+     */
+    private static Instances dataset(int rows, int numClasses, double missingRate, long seed) {
+        ArrayList<Attribute> attributes = new ArrayList<>();
+        for (int i = 0; i < NOMINAL_VALUES.length; i++) {
+            attributes.add(new Attribute("a" + i, values("v", NOMINAL_VALUES[i])));
+        }
+        attributes.add(new Attribute("class", values("c", numClasses)));
+        Instances data = new Instances("onehot", attributes, rows);
+        data.setClassIndex(data.numAttributes() - 1);
+
+        Random random = new Random(seed);
+        for (int r = 0; r < rows; r++) {
+            double[] values = new double[data.numAttributes()];
+            int signal = 0;
+            for (int i = 0; i < NOMINAL_VALUES.length; i++) {
+                if (i == CONSTANT_ATTRIBUTE) {
+                    values[i] = 1;
+                } else if (i == UNUSED_VALUE_ATTRIBUTE) {
+                    values[i] = random.nextInt(NOMINAL_VALUES[i] - 1);
+                } else {
+                    values[i] = random.nextInt(NOMINAL_VALUES[i]);
+                }
+                signal += (int) values[i];
+            }
+            values[data.classIndex()] = random.nextInt(10) == 0 ? random.nextInt(numClasses) : signal % numClasses;
+            for (int i = 0; i < data.classIndex(); i++) {
+                if (i != CONSTANT_ATTRIBUTE && random.nextDouble() < missingRate) {
+                    values[i] = Utils.missingValue();
+                }
+            }
+            data.add(new DenseInstance(1.0, values));
+        }
+        return data;
+    }
+
+    private static List<String> values(String prefix, int count) {
+        List<String> values = new ArrayList<>();
+        for (int v = 0; v < count; v++) {
+            values.add(prefix + v);
+        }
+        return values;
+    }
+}
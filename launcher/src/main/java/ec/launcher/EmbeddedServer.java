@@ -0,0 +1,133 @@
+package ec.launcher;
+
+import ec.config.ApiConfig;
+import ec.controller.AdminReloadServlet;
+import ec.controller.BatchPredictionServlet;
+import ec.controller.CategoriesServlet;
+import ec.controller.HealthCheckServlet;
+import ec.controller.MetricsFilter;
+import ec.controller.MetricsServlet;
+import ec.controller.PredictionServlet;
+import ec.controller.PredictionStreamServlet;
+import ec.controller.TreatmentInfoServlet;
+import ec.util.VirtualThreads;
+import io.undertow.Handlers;
+import io.undertow.Undertow;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.handlers.resource.ClassPathResourceManager;
+import io.undertow.servlet.Servlets;
+import io.undertow.servlet.api.DeploymentInfo;
+import io.undertow.servlet.api.DeploymentManager;
+import io.undertow.servlet.api.FilterInfo;
+import io.undertow.servlet.api.ServletInfo;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.MultipartConfigElement;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.MultipartConfig;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import java.net.InetSocketAddress;
+
+/**
+ * Hosts the webapp on embedded Undertow: the same servlets and filter as the
+ * WAR, mapped from their own annotations, plus the page, scripts and styles
+ * from the classpath. With threads.virtual on JDK 21, servlets run on a virtual
+ * thread per request, and requests.virtual.max.concurrent replaces the worker
+ * pool as the limit.
+ */
+public class EmbeddedServer implements AutoCloseable {
+
+    private final Undertow server;
+    private final DeploymentManager manager;
+    private final String contextPath;
+    private final String host;
+    private final int port;
+
+    /**
+     * Deploys and starts the webapp; returns once the model is loaded.
+     *
+     * @param port          port to listen on, or 0 for any free one
+     * @param contextPath   "/" or a path such as "/cancer-predictor"
+     * @param workerThreads size of the request thread pool, unless on virtual threads
+     */
+    public EmbeddedServer(String host, int port, String contextPath, int workerThreads) throws ServletException {
+        this.contextPath = contextPath.equals("/") ? "" : contextPath;
+        this.host = host;
+
+        DeploymentInfo deployment = Servlets.deployment()
+                .setClassLoader(EmbeddedServer.class.getClassLoader())
+                .setContextPath(contextPath)
+                .setDeploymentName("cancer-predictor.war")
+                .setResourceManager(new ClassPathResourceManager(EmbeddedServer.class.getClassLoader(), "webapp"))
+                .addWelcomePage("index.html")
+                // Loaded at start-up, as web.xml has it, so a bad model fails the start
+                .addServlet(servlet(PredictionServlet.class).setLoadOnStartup(1))
+                .addServlet(servlet(HealthCheckServlet.class).setLoadOnStartup(1))
+                .addServlet(servlet(PredictionStreamServlet.class))
+                .addServlet(servlet(BatchPredictionServlet.class))
+                .addServlet(servlet(CategoriesServlet.class))
+                .addServlet(servlet(TreatmentInfoServlet.class))
+                .addServlet(servlet(MetricsServlet.class))
+                .addServlet(servlet(AdminReloadServlet.class));
+
+        WebFilter metricsFilter = MetricsFilter.class.getAnnotation(WebFilter.class);
+        deployment.addFilter(new FilterInfo("MetricsFilter", MetricsFilter.class)
+                .setAsyncSupported(metricsFilter.asyncSupported()));
+        for (String path : metricsFilter.urlPatterns()) {
+            deployment.addFilterUrlMapping("MetricsFilter", path, DispatcherType.REQUEST);
+        }
+
+        boolean virtual = VirtualThreads.isEnabled();
+        if (virtual) {
+            deployment.setExecutor(VirtualThreads.newExecutor("request-", Integer.MAX_VALUE));
+        }
+
+        manager = Servlets.defaultContainer().addDeployment(deployment);
+        manager.deploy();
+        HttpHandler handler = Handlers.path().addPrefixPath(contextPath, manager.start());
+        if (virtual) {
+            // Nothing queues for a thread any more, so turn away the excess with 503 instead
+            handler = Handlers.requestLimitingHandler(ApiConfig.getRequestsVirtualMaxConcurrent(), 0, handler);
+        }
+        server = Undertow.builder()
+                .addHttpListener(port, host)
+                .setWorkerThreads(workerThreads)
+                .setHandler(handler)
+                .build();
+        server.start();
+        this.port = ((InetSocketAddress) server.getListenerInfo().get(0).getAddress()).getPort();
+    }
+
+    // Maps a servlet the way its annotations ask the container to
+    private static ServletInfo servlet(Class<? extends HttpServlet> servletClass) {
+        WebServlet annotation = servletClass.getAnnotation(WebServlet.class);
+        ServletInfo servlet = Servlets.servlet(servletClass.getSimpleName(), servletClass)
+                .setAsyncSupported(annotation.asyncSupported());
+        servlet.addMappings(annotation.value().length > 0 ? annotation.value() : annotation.urlPatterns());
+
+        MultipartConfig multipart = servletClass.getAnnotation(MultipartConfig.class);
+        if (multipart != null) {
+            servlet.setMultipartConfig(new MultipartConfigElement(multipart));
+        }
+        return servlet;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /** Base URL of the application, without a trailing slash. */
+    public String getBaseUrl() {
+        String address = host.equals("0.0.0.0") ? "127.0.0.1" : host;
+        return "http://" + address + ":" + port + contextPath;
+    }
+
+    @Override
+    public void close() throws ServletException {
+        server.stop();
+        manager.stop();
+        manager.undeploy();
+    }
+}
@@ -0,0 +1,149 @@
+package ec.launcher;
+
+import ec.util.VirtualThreads;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Entry point of launcher.jar: serves the webapp from embedded Undertow instead
+ * of a WildFly deployment, and reports how long start-up took.
+ * <p>
+ * Options, all {@code --name=value}:
+ * <pre>
+ *   --port=8080            or the PORT environment variable; 0 picks a free port
+ *   --host=0.0.0.0
+ *   --context-path=/       e.g. /cancer-predictor to match the WAR
+ *   --workers=N            request threads (8 per processor)
+ *   --model=path           model bundle, the same as -Dmodel.path
+ *   --data=path            Cell_Lines_Details.csv, the same as -Ddata.path
+ *   --exit-after-start     start, send one request to each endpoint, and exit
+ * </pre>
+ * Other settings are read from config.properties and can be overridden with
+ * system properties of the same name, e.g. {@code -Dgemini.api.url=...}, or
+ * {@code -Dthreads.virtual=true} to serve requests on virtual threads (JDK 21).
+ * <p>
+ * For faster starts on JDK 13 or later, record the classes a started server uses
+ * once and map them at every later start:
+ * <pre>
+ *   java -XX:ArchiveClassesAtExit=launcher.jsa -jar launcher.jar --exit-after-start
+ *   java -XX:SharedArchiveFile=launcher.jsa -jar launcher.jar
+ * </pre>
+ * ({@code mvn -P cds package} writes launcher/target/launcher.jsa.)
+ */
+public class Launcher {
+
+    public static void main(String[] args) throws Exception {
+        long mainStarted = System.currentTimeMillis();
+
+        Map<String, String> options = new LinkedHashMap<>();
+        options.put("port", System.getenv("PORT") != null ? System.getenv("PORT") : "8080");
+        options.put("host", "0.0.0.0");
+        options.put("context-path", "/");
+        options.put("workers", String.valueOf(Runtime.getRuntime().availableProcessors() * 8));
+        options.put("model", "");
+        options.put("data", "");
+        boolean exitAfterStart = false;
+        for (String arg : args) {
+            if (arg.equals("--exit-after-start")) {
+                exitAfterStart = true;
+                continue;
+            }
+            int equals = arg.indexOf('=');
+            String name = arg.startsWith("--") && equals > 2 ? arg.substring(2, equals) : null;
+            if (name == null || !options.containsKey(name)) {
+                System.err.println("Unknown option: " + arg + "; known options are " + options.keySet()
+                        + " and --exit-after-start");
+                System.exit(2);
+            }
+            options.put(name, arg.substring(equals + 1));
+        }
+        if (!options.get("model").isEmpty()) {
+            System.setProperty("model.path", options.get("model"));
+        }
+        if (!options.get("data").isEmpty()) {
+            System.setProperty("data.path", options.get("data"));
+        }
+
+        EmbeddedServer server = new EmbeddedServer(options.get("host"), Integer.parseInt(options.get("port")),
+                options.get("context-path"), Integer.parseInt(options.get("workers")));
+
+        long ready = System.currentTimeMillis();
+        long jvmStarted = ManagementFactory.getRuntimeMXBean().getStartTime();
+        System.out.println(String.format("Cancer Type Predictor started at %s in %d ms "
+                        + "(%d ms since JVM start, %d ms before main; class data sharing %s; %s threads)",
+                server.getBaseUrl(), ready - mainStarted, ready - jvmStarted, mainStarted - jvmStarted,
+                sharedArchive(), VirtualThreads.isEnabled() ? "virtual" : "platform"));
+
+        if (exitAfterStart) {
+            warmUp(server.getBaseUrl());
+            server.close();
+            return;
+        }
+
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+            } catch (Exception e) {
+                System.err.println("Error stopping the server: " + e.getMessage());
+            }
+            stopped.countDown();
+        }, "launcher-shutdown"));
+        stopped.await();
+    }
+
+    // One request per endpoint, so the classes that serve them are loaded (and archived)
+    private static void warmUp(String baseUrl) {
+        String[][] requests = {
+            {"GET", "/"},
+            {"GET", "/health"},
+            {"GET", "/categories"},
+            {"POST", "/predict"},
+            {"GET", "/metrics"}
+        };
+        for (String[] request : requests) {
+            try {
+                HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + request[1]).openConnection();
+                connection.setRequestMethod(request[0]);
+                if (request[0].equals("POST")) {
+                    connection.setDoOutput(true);
+                    connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+                    try (OutputStream out = connection.getOutputStream()) {
+                        out.write("wes=Y".getBytes("UTF-8"));
+                    }
+                }
+                int status = connection.getResponseCode();
+                try (InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream()) {
+                    byte[] buffer = new byte[8192];
+                    while (in != null && in.read(buffer) >= 0) {
+                        // discard
+                    }
+                }
+                System.out.println("Warm-up " + request[0] + " " + request[1] + ": " + status);
+            } catch (IOException e) {
+                System.err.println("Warm-up " + request[0] + " " + request[1] + " failed: " + e.getMessage());
+            }
+        }
+    }
+
+    // Whether the JVM mapped a class-data-sharing archive, as far as it tells us
+    private static String sharedArchive() {
+        for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (argument.startsWith("-XX:SharedArchiveFile=")) {
+                return "on (" + argument.substring("-XX:SharedArchiveFile=".length()) + ")";
+            }
+            if (argument.startsWith("-XX:ArchiveClassesAtExit=")) {
+                return "recording";
+            }
+        }
+        return "default";
+    }
+}
@@ -0,0 +1,60 @@
+package ec.loadtest;
+
+import ec.metrics.LatencyHistogram;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What one endpoint did during a run: latencies, responses by status, and
+ * errors. A status of 0 stands for a request that got no response at all.
+ */
+public class EndpointStats {
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+
+    /** Counts a response; 4xx, 5xx and failed requests are errors. */
+    public void record(int status, long nanos) {
+        latency.record(nanos);
+        requests.increment();
+        if (status == 0 || status >= 400) {
+            errors.increment();
+        }
+        statuses.computeIfAbsent(status, s -> new LongAdder()).increment();
+        long max;
+        while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+            // retry
+        }
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    public Map<Integer, Long> getStatuses() {
+        Map<Integer, Long> snapshot = new TreeMap<>();
+        for (Map.Entry<Integer, LongAdder> entry : statuses.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().sum());
+        }
+        return snapshot;
+    }
+}
@@ -0,0 +1,168 @@
+package ec.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stands in for the Gemini API: answers generateContent and streamGenerateContent
+ * with a fixed summary after a configurable delay, and fails a configurable
+ * share of calls with 503, so load tests neither depend on nor pay for the real
+ * API. Point the webapp at {@link #getModelUrl()} with gemini.api.url.
+ */
+public class GeminiStub implements AutoCloseable {
+
+    private static final String[] SUMMARY = {
+        "Treatment usually combines surgery,",
+        " radiation therapy and systemic therapy,",
+        " chosen by stage and molecular profile."
+    };
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final long latencyMillis;
+    private final long jitterMillis;
+    private final double errorRate;
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * @param latencyMillis delay before each answer
+     * @param jitterMillis  random extra delay, uniform between 0 and this
+     * @param errorRate     share of calls answered with 503, between 0 and 1
+     */
+    public GeminiStub(long latencyMillis, long jitterMillis, double errorRate) throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+        this.errorRate = errorRate;
+
+        // Headers and body go out in separate writes; without this, Nagle's algorithm
+        // and delayed ACKs add about 40 ms to every answer
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 4096);
+        // One thread per call, so the stub's delay is the only one
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "gemini-stub");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    /** Model URL to configure as gemini.api.url. */
+    public String getModelUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/v1/models/stub";
+    }
+
+    public long getCalls() {
+        return calls.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /** Threads the stub itself is using to answer calls. */
+    public int getThreads() {
+        return ((ThreadPoolExecutor) executor).getPoolSize();
+    }
+
+    public long getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    public long getJitterMillis() {
+        return jitterMillis;
+    }
+
+    public double getErrorRate() {
+        return errorRate;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buffer = new byte[4096];
+            while (in.read(buffer) >= 0) {
+                // The prompt is not needed
+            }
+        }
+        calls.incrementAndGet();
+        boolean streaming = exchange.getRequestURI().getPath().endsWith(":streamGenerateContent");
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long delay = latencyMillis + (jitterMillis > 0 ? random.nextLong(jitterMillis + 1) : 0);
+
+        if (random.nextDouble() < errorRate) {
+            failures.incrementAndGet();
+            pause(delay);
+            send(exchange, 503, "application/json",
+                    "{\"error\":{\"code\":503,\"message\":\"Injected failure\",\"status\":\"UNAVAILABLE\"}}");
+            return;
+        }
+
+        if (!streaming) {
+            pause(delay);
+            StringBuilder text = new StringBuilder();
+            for (String part : SUMMARY) {
+                text.append(part);
+            }
+            send(exchange, 200, "application/json", candidateJson(text.toString()));
+            return;
+        }
+
+        // Spread the delay over the chunks, as a model generating text would
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            for (String part : SUMMARY) {
+                pause(delay / SUMMARY.length);
+                out.write(("data: " + candidateJson(part) + "\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+        }
+    }
+
+    private static String candidateJson(String text) {
+        return "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"" + text
+                + "\"}],\"role\":\"model\"},\"finishReason\":\"STOP\"}]}";
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static void pause(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,187 @@
+package ec.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends a {@link Workload} to the application, in one of two ways:
+ * <ul>
+ * <li>closed loop: a fixed number of clients, each sending its next request as
+ * soon as the previous one is answered, which finds the maximum throughput;</li>
+ * <li>open loop: requests arrive at a fixed rate whether or not earlier ones have
+ * been answered, as real users do. Latency is measured from when a request was
+ * due, not when it was sent, so a stalled server cannot hide its queueing
+ * delay (coordinated omission).</li>
+ * </ul>
+ */
+public class LoadGenerator {
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 10000;
+    private static final int READ_TIMEOUT_MILLIS = 60000;
+
+    /** The outcome of one run. */
+    public static class Run {
+        private final Map<String, EndpointStats> endpoints = new ConcurrentHashMap<>();
+        private final EndpointStats total = new EndpointStats();
+        private final AtomicLong dropped = new AtomicLong();
+        private long elapsedNanos;
+
+        void record(String endpoint, int status, long nanos) {
+            endpoints.computeIfAbsent(endpoint, e -> new EndpointStats()).record(status, nanos);
+            total.record(status, nanos);
+        }
+
+        /** Statistics by endpoint, sorted by path. */
+        public Map<String, EndpointStats> getEndpoints() {
+            return new TreeMap<>(endpoints);
+        }
+
+        /** All endpoints together. */
+        public EndpointStats getTotal() {
+            return total;
+        }
+
+        /** Open-loop arrivals not sent because too many requests were outstanding. */
+        public long getDropped() {
+            return dropped.get();
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+    }
+
+    private final String baseUrl;
+    private final Workload workload;
+
+    public LoadGenerator(String baseUrl, Workload workload) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.workload = workload;
+    }
+
+    /**
+     * Runs {@code clients} clients back to back for the given time.
+     */
+    public Run runClosedLoop(int clients, long durationMillis) throws InterruptedException {
+        Run run = new Run();
+        long start = System.nanoTime();
+        long end = start + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+
+        Thread[] threads = new Thread[clients];
+        for (int i = 0; i < clients; i++) {
+            threads[i] = new Thread(() -> {
+                while (System.nanoTime() < end) {
+                    Workload.Request request = workload.next();
+                    long sent = System.nanoTime();
+                    int status = send(request);
+                    run.record(request.endpoint, status, System.nanoTime() - sent);
+                }
+            }, "load-client-" + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        run.elapsedNanos = System.nanoTime() - start;
+        return run;
+    }
+
+    /**
+     * Sends requests at {@code ratePerSecond} for the given time, evenly spaced or
+     * with exponential gaps (a Poisson process). Arrivals that find
+     * {@code maxInFlight} requests outstanding are dropped and counted.
+     */
+    public Run runOpenLoop(double ratePerSecond, boolean poisson, int maxInFlight, long durationMillis)
+            throws InterruptedException {
+        Run run = new Run();
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService senders = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "load-sender-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger inFlight = new AtomicInteger();
+
+        double intervalNanos = 1e9 / ratePerSecond;
+        long start = System.nanoTime();
+        long end = start + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        double offset = 0;
+        while (true) {
+            long due = start + (long) offset;
+            if (due >= end) {
+                break;
+            }
+            offset += poisson ? -Math.log(1 - ThreadLocalRandom.current().nextDouble()) * intervalNanos : intervalNanos;
+
+            long wait;
+            while ((wait = due - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            if (inFlight.incrementAndGet() > maxInFlight) {
+                inFlight.decrementAndGet();
+                run.dropped.incrementAndGet();
+                continue;
+            }
+            Workload.Request request = workload.next();
+            senders.execute(() -> {
+                try {
+                    int status = send(request);
+                    run.record(request.endpoint, status, System.nanoTime() - due);
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            });
+        }
+        senders.shutdown();
+        senders.awaitTermination(READ_TIMEOUT_MILLIS + CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        run.elapsedNanos = System.nanoTime() - start;
+        return run;
+    }
+
+    /** Sends the request and reads the whole response; returns the status, or 0 on failure. */
+    int send(Workload.Request request) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + request.pathAndQuery).openConnection();
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+            if (request.body != null) {
+                byte[] body = request.body.getBytes(StandardCharsets.UTF_8);
+                connection.setRequestMethod("POST");
+                connection.setDoOutput(true);
+                connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+                connection.setFixedLengthStreamingMode(body.length);
+                try (OutputStream out = connection.getOutputStream()) {
+                    out.write(body);
+                }
+            }
+            int status = connection.getResponseCode();
+            // Read to the end so the connection is kept alive for the next request
+            try (InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream()) {
+                if (in != null) {
+                    byte[] buffer = new byte[8192];
+                    while (in.read(buffer) >= 0) {
+                        // discard
+                    }
+                }
+            }
+            return status;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package ec.loadtest;
+
+import ec.metrics.LatencyHistogram;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonWriter;
+import javax.json.JsonWriterFactory;
+import javax.json.stream.JsonGenerator;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Turns a {@link LoadGenerator.Run} into a JSON report. Keys are written in a
+ * fixed order so reports from two builds can be compared with a plain diff.
+ */
+public class LoadReport {
+
+    private LoadReport() {
+    }
+
+    public static JsonObject build(Map<String, String> settings, LoadGenerator.Run run, GeminiStub stub) {
+        double seconds = run.getElapsedNanos() / 1e9;
+
+        JsonObjectBuilder config = Json.createObjectBuilder();
+        for (Map.Entry<String, String> setting : settings.entrySet()) {
+            config.add(setting.getKey(), setting.getValue());
+        }
+
+        EndpointStats total = run.getTotal();
+        long attempted = total.getRequests() + run.getDropped();
+        JsonObjectBuilder summary = Json.createObjectBuilder()
+                .add("requests", total.getRequests())
+                .add("errors", total.getErrors())
+                .add("dropped", run.getDropped())
+                .add("errorRate", round(attempted == 0 ? 0 : (total.getErrors() + run.getDropped()) / (double) attempted))
+                .add("throughputPerSecond", round(total.getRequests() / seconds))
+                .add("elapsedSeconds", round(seconds))
+                .add("latencyMillis", latency(total));
+
+        JsonObjectBuilder endpoints = Json.createObjectBuilder();
+        for (Map.Entry<String, EndpointStats> entry : run.getEndpoints().entrySet()) {
+            EndpointStats stats = entry.getValue();
+            JsonObjectBuilder statuses = Json.createObjectBuilder();
+            for (Map.Entry<Integer, Long> status : stats.getStatuses().entrySet()) {
+                statuses.add(status.getKey() == 0 ? "failed" : String.valueOf(status.getKey()), status.getValue());
+            }
+            endpoints.add(entry.getKey(), Json.createObjectBuilder()
+                    .add("requests", stats.getRequests())
+                    .add("errors", stats.getErrors())
+                    .add("errorRate", round(stats.getRequests() == 0 ? 0
+                            : stats.getErrors() / (double) stats.getRequests()))
+                    .add("throughputPerSecond", round(stats.getRequests() / seconds))
+                    .add("latencyMillis", latency(stats))
+                    .add("statuses", statuses));
+        }
+
+        JsonObjectBuilder report = Json.createObjectBuilder()
+                .add("generatedAt", Instant.now().toString())
+                .add("javaVersion", System.getProperty("java.version"))
+                .add("config", config)
+                .add("summary", summary)
+                .add("endpoints", endpoints);
+        if (stub != null) {
+            report.add("geminiStub", Json.createObjectBuilder()
+                    .add("latencyMillis", stub.getLatencyMillis())
+                    .add("jitterMillis", stub.getJitterMillis())
+                    .add("errorRate", stub.getErrorRate())
+                    .add("calls", stub.getCalls())
+                    .add("failures", stub.getFailures()));
+        }
+        return report.build();
+    }
+
+    public static void write(JsonObject report, File file) throws IOException {
+        JsonWriterFactory factory = Json.createWriterFactory(
+                Collections.singletonMap(JsonGenerator.PRETTY_PRINTING, true));
+        try (OutputStream out = Files.newOutputStream(file.toPath());
+             JsonWriter writer = factory.createWriter(out)) {
+            writer.writeObject(report);
+        }
+    }
+
+    private static JsonObjectBuilder latency(EndpointStats stats) {
+        LatencyHistogram histogram = stats.getLatency();
+        long count = histogram.getCount();
+        return Json.createObjectBuilder()
+                .add("mean", millis(count == 0 ? 0 : histogram.getSumNanos() / count))
+                .add("p50", millis(histogram.percentile(0.50)))
+                .add("p90", millis(histogram.percentile(0.90)))
+                .add("p99", millis(histogram.percentile(0.99)))
+                .add("p999", millis(histogram.percentile(0.999)))
+                .add("max", millis(stats.getMaxNanos()));
+    }
+
+    private static BigDecimal millis(long nanos) {
+        return round(nanos / 1e6);
+    }
+
+    private static BigDecimal round(double value) {
+        return BigDecimal.valueOf(value).setScale(3, RoundingMode.HALF_UP);
+    }
+}
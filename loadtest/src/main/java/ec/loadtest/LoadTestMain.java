@@ -0,0 +1,184 @@
+package ec.loadtest;
+
+import ec.launcher.EmbeddedServer;
+
+import javax.json.JsonObject;
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Entry point of loadtest.jar. Unless {@code --target} names a running server,
+ * starts the servlets in this JVM against a local Gemini stub, warms up, then
+ * measures and writes a JSON report.
+ * <p>
+ * Options, all {@code --name=value}:
+ * <pre>
+ *   --mode=closed|open          closed: fixed clients back to back; open: fixed arrival rate (closed)
+ *   --clients=16                closed-loop clients
+ *   --rate=200                  open-loop requests per second
+ *   --arrival=uniform|poisson   open-loop spacing of arrivals (uniform)
+ *   --max-in-flight=1000        open-loop arrivals beyond this many outstanding are dropped
+ *   --duration=30 --warmup=10   seconds measured, and run before measuring
+ *   --mix=predict:8,categories:1,treatment:1
+ *   --model=path --data=path    model bundle and Cell_Lines_Details.csv
+ *   --workers=64                in-process request threads
+ *   --stub-latency=200 --stub-jitter=100 --stub-error-rate=0
+ *   --treatment-cache=false     keep the treatment summary cache on
+ *   --target=http://host:port/cancer-predictor
+ *   --out=loadtest-report.json
+ * </pre>
+ * Example: {@code java -jar loadtest/target/loadtest.jar --mode=open --rate=500 --model=tmp/model/model}
+ */
+public class LoadTestMain {
+
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    static {
+        DEFAULTS.put("mode", "closed");
+        DEFAULTS.put("clients", "16");
+        DEFAULTS.put("rate", "200");
+        DEFAULTS.put("arrival", "uniform");
+        DEFAULTS.put("max-in-flight", "1000");
+        DEFAULTS.put("duration", "30");
+        DEFAULTS.put("warmup", "10");
+        DEFAULTS.put("mix", "predict:8,categories:1,treatment:1");
+        DEFAULTS.put("model", "");
+        DEFAULTS.put("data", "");
+        DEFAULTS.put("workers", "64");
+        DEFAULTS.put("stub-latency", "200");
+        DEFAULTS.put("stub-jitter", "100");
+        DEFAULTS.put("stub-error-rate", "0");
+        DEFAULTS.put("treatment-cache", "false");
+        DEFAULTS.put("target", "");
+        DEFAULTS.put("out", "loadtest-report.json");
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> settings = new LinkedHashMap<>(DEFAULTS);
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            String name = arg.startsWith("--") && equals > 2 ? arg.substring(2, equals) : null;
+            if (name == null || !DEFAULTS.containsKey(name)) {
+                System.err.println("Unknown option: " + arg + "; known options are " + DEFAULTS.keySet());
+                System.exit(2);
+            }
+            settings.put(name, arg.substring(equals + 1));
+        }
+
+        boolean open = settings.get("mode").equalsIgnoreCase("open");
+        int clients = Integer.parseInt(settings.get("clients"));
+        int maxInFlight = Integer.parseInt(settings.get("max-in-flight"));
+        // Let every client keep its own connection alive
+        System.setProperty("http.maxConnections", String.valueOf(open ? maxInFlight : clients));
+
+        File data = dataFile(settings.get("data"));
+        Workload workload = new Workload(data, parseMix(settings.get("mix")));
+        System.out.println("Workload: " + workload.getPredictRows() + " cell lines, "
+                + workload.getCancerTypes() + " cancer types");
+
+        GeminiStub stub = null;
+        EmbeddedServer webapp = null;
+        String baseUrl = settings.get("target");
+        try {
+            if (baseUrl.isEmpty()) {
+                stub = new GeminiStub(Long.parseLong(settings.get("stub-latency")),
+                        Long.parseLong(settings.get("stub-jitter")),
+                        Double.parseDouble(settings.get("stub-error-rate")));
+                configureWebapp(settings, stub, data);
+
+                long start = System.nanoTime();
+                webapp = new EmbeddedServer("127.0.0.1", 0, "/cancer-predictor",
+                        Integer.parseInt(settings.get("workers")));
+                baseUrl = webapp.getBaseUrl();
+                System.out.println(String.format("Started the webapp at %s in %.0f ms", baseUrl,
+                        (System.nanoTime() - start) / 1e6));
+            }
+
+            LoadGenerator generator = new LoadGenerator(baseUrl, workload);
+            long warmupMillis = Long.parseLong(settings.get("warmup")) * 1000;
+            long durationMillis = Long.parseLong(settings.get("duration")) * 1000;
+            if (warmupMillis > 0) {
+                System.out.println("Warming up for " + warmupMillis / 1000 + " s");
+                run(generator, settings, warmupMillis);
+            }
+            System.out.println("Measuring for " + durationMillis / 1000 + " s ("
+                    + (open ? settings.get("rate") + " requests/s open loop" : clients + " clients closed loop") + ")");
+            long stubCallsBefore = stub != null ? stub.getCalls() : 0;
+            LoadGenerator.Run run = run(generator, settings, durationMillis);
+
+            JsonObject report = LoadReport.build(settings, run, stub);
+            File out = new File(settings.get("out"));
+            LoadReport.write(report, out);
+
+            JsonObject summary = report.getJsonObject("summary");
+            JsonObject latency = summary.getJsonObject("latencyMillis");
+            System.out.println(String.format("%d requests, %s/s, errors %s, p50 %s ms, p99 %s ms, p99.9 %s ms",
+                    summary.getJsonNumber("requests").longValue(), summary.get("throughputPerSecond"),
+                    summary.get("errorRate"), latency.get("p50"), latency.get("p99"), latency.get("p999")));
+            if (stub != null) {
+                System.out.println("Gemini stub calls while measuring: " + (stub.getCalls() - stubCallsBefore));
+            }
+            System.out.println("Report written to " + out.getAbsolutePath());
+        } finally {
+            if (webapp != null) {
+                webapp.close();
+            }
+            if (stub != null) {
+                stub.close();
+            }
+        }
+    }
+
+    private static LoadGenerator.Run run(LoadGenerator generator, Map<String, String> settings, long millis)
+            throws InterruptedException {
+        if (settings.get("mode").equalsIgnoreCase("open")) {
+            return generator.runOpenLoop(Double.parseDouble(settings.get("rate")),
+                    settings.get("arrival").equalsIgnoreCase("poisson"),
+                    Integer.parseInt(settings.get("max-in-flight")), millis);
+        }
+        return generator.runClosedLoop(Integer.parseInt(settings.get("clients")), millis);
+    }
+
+    // The webapp reads these through ApiConfig, where system properties win over config.properties
+    private static void configureWebapp(Map<String, String> settings, GeminiStub stub, File dataFile) {
+        System.setProperty("gemini.api.url", stub.getModelUrl());
+        System.setProperty("gemini.api.key", "stub");
+        System.setProperty("model.watch.interval.seconds", "0");
+        System.setProperty("treatment.cache.prefill", "false");
+        System.setProperty("data.path", dataFile.getPath());
+        if (!Boolean.parseBoolean(settings.get("treatment-cache"))) {
+            System.setProperty("treatment.cache.ttl.hours", "0");
+        }
+        if (!settings.get("model").isEmpty()) {
+            System.setProperty("model.path", settings.get("model"));
+        }
+    }
+
+    private static File dataFile(String configured) {
+        File[] candidates = configured.isEmpty()
+                ? new File[] {new File("data/Cell_Lines_Details.csv"), new File("../data/Cell_Lines_Details.csv")}
+                : new File[] {new File(configured)};
+        for (File candidate : candidates) {
+            if (candidate.isFile()) {
+                return candidate;
+            }
+        }
+        throw new IllegalStateException("Cell_Lines_Details.csv not found; run from the project root "
+                + "or pass --data=<path>");
+    }
+
+    private static Map<String, Integer> parseMix(String mix) {
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        for (String part : mix.split(",")) {
+            String[] nameAndWeight = part.trim().split(":");
+            String name = nameAndWeight[0].trim();
+            String endpoint = name.equals("predict") ? Workload.PREDICT
+                    : name.equals("categories") ? Workload.CATEGORIES
+                    : name.equals("treatment") ? Workload.TREATMENT
+                    : name;
+            weights.put(endpoint, nameAndWeight.length > 1 ? Integer.parseInt(nameAndWeight[1].trim()) : 1);
+        }
+        return weights;
+    }
+}
@@ -0,0 +1,218 @@
+package ec.loadtest;
+
+import ec.metrics.LatencyHistogram;
+import ec.service.GeminiService;
+import ec.util.LimitedExecutor;
+import ec.util.VirtualThreads;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * How many treatment lookups one node keeps in flight against a slow Gemini,
+ * by how the lookups get their threads. For each executor and each level of
+ * offered concurrency, that many lookups are kept outstanding through
+ * {@link GeminiService} (cache off) against a {@link GeminiStub}, and the
+ * most lookups seen waiting on Gemini at once, successful lookups per second,
+ * their latency from submission (queueing included), failures, rejections and
+ * platform threads are reported.
+ * <p>
+ * Executors: a platform pool of each --platform-threads size (8 is what
+ * /treatment-info uses by default), a new platform thread per lookup, and a new
+ * virtual thread per lookup under the same limiter as threads.virtual uses
+ * (JDK 21 and later only).
+ * <p>
+ * Options, all {@code --name=value}:
+ * <pre>
+ *   --levels=64,512,2048          lookups kept outstanding
+ *   --platform-threads=8,200      platform pool sizes
+ *   --virtual-limit=10000         limit of the virtual-thread executor
+ *   --duration=10 --warmup=2      seconds per level, and run before measuring
+ *   --stub-latency=500 --stub-jitter=0
+ * </pre>
+ * Run with {@code java -cp loadtest/target/loadtest.jar ec.loadtest.TreatmentConcurrencyBenchmark}.
+ */
+public class TreatmentConcurrencyBenchmark {
+
+    private static final String[] CANCER_TYPES = {"LUAD", "BRCA", "SKCM", "COREAD", "GBM", "OV"};
+
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    static {
+        DEFAULTS.put("levels", "64,512,2048");
+        DEFAULTS.put("platform-threads", "8,200");
+        DEFAULTS.put("virtual-limit", "10000");
+        DEFAULTS.put("duration", "10");
+        DEFAULTS.put("warmup", "2");
+        DEFAULTS.put("stub-latency", "500");
+        DEFAULTS.put("stub-jitter", "0");
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> settings = new LinkedHashMap<>(DEFAULTS);
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            String name = arg.startsWith("--") && equals > 2 ? arg.substring(2, equals) : null;
+            if (name == null || !DEFAULTS.containsKey(name)) {
+                System.err.println("Unknown option: " + arg + "; known options are " + DEFAULTS.keySet());
+                System.exit(2);
+            }
+            settings.put(name, arg.substring(equals + 1));
+        }
+        List<Integer> levels = parseInts(settings.get("levels"));
+        long durationMillis = Long.parseLong(settings.get("duration")) * 1000;
+        long warmupMillis = Long.parseLong(settings.get("warmup")) * 1000;
+        int maxLevel = 0;
+        for (int level : levels) {
+            maxLevel = Math.max(maxLevel, level);
+        }
+
+        try (GeminiStub stub = new GeminiStub(Long.parseLong(settings.get("stub-latency")),
+                Long.parseLong(settings.get("stub-jitter")), 0)) {
+            // GeminiService reads these when it is first used
+            System.setProperty("gemini.api.url", stub.getModelUrl());
+            System.setProperty("gemini.api.key", "stub");
+            System.setProperty("treatment.cache.ttl.hours", "0");
+            System.setProperty("gemini.circuit.failure.threshold", String.valueOf(Integer.MAX_VALUE));
+            System.setProperty("http.maxConnections", String.valueOf(maxLevel));
+
+            System.out.println(String.format("Java %s, %d processors, Gemini stub answering in %s ms",
+                    System.getProperty("java.version"), Runtime.getRuntime().availableProcessors(),
+                    settings.get("stub-latency")));
+            System.out.println(String.format("%-22s %8s %10s %12s %10s %10s %9s %9s %9s",
+                    "executor", "offered", "in Gemini", "lookups/s", "p50 ms", "p99 ms", "failed", "rejected",
+                    "threads"));
+
+            for (int threads : parseInts(settings.get("platform-threads"))) {
+                for (int level : levels) {
+                    AtomicInteger threadNumber = new AtomicInteger();
+                    ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                            new LinkedBlockingQueue<>(), runnable -> {
+                                Thread thread = new Thread(runnable, "pool-" + threadNumber.incrementAndGet());
+                                thread.setDaemon(true);
+                                return thread;
+                            });
+                    measure("platform pool " + threads, pool, level, warmupMillis, durationMillis, stub);
+                }
+            }
+            for (int level : levels) {
+                LimitedExecutor perTask = new LimitedExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "per-task");
+                    thread.setDaemon(true);
+                    return thread;
+                }, Integer.MAX_VALUE);
+                measure("platform per lookup", perTask, level, warmupMillis, durationMillis, stub);
+            }
+            if (!VirtualThreads.isSupported()) {
+                System.out.println("virtual per lookup: not available on Java " + System.getProperty("java.version")
+                        + "; run on JDK 21 or later");
+                return;
+            }
+            for (int level : levels) {
+                measure("virtual per lookup", VirtualThreads.newExecutor("lookup-",
+                        Integer.parseInt(settings.get("virtual-limit"))), level, warmupMillis, durationMillis, stub);
+            }
+        }
+    }
+
+    // Keeps `offered` lookups outstanding on the executor, then prints one row
+    private static void measure(String name, ExecutorService executor, int offered, long warmupMillis,
+            long durationMillis, GeminiStub stub) throws InterruptedException {
+        Semaphore outstanding = new Semaphore(offered);
+        AtomicInteger inGemini = new AtomicInteger();
+        AtomicInteger peakInGemini = new AtomicInteger();
+        LongAdder rejected = new LongAdder();
+        LongAdder failed = new LongAdder();
+        LatencyHistogram[] latency = {new LatencyHistogram()};
+        LongAdder[] completed = {new LongAdder()};
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.MILLISECONDS.toNanos(warmupMillis);
+        long end = measureFrom + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        boolean measuring = false;
+        int peakThreads = 0;
+        long lastSample = 0;
+        int lookup = 0;
+
+        while (true) {
+            long now = System.nanoTime();
+            if (now >= end) {
+                break;
+            }
+            if (!measuring && now >= measureFrom) {
+                measuring = true;
+                latency[0] = new LatencyHistogram();
+                completed[0] = new LongAdder();
+                peakInGemini.set(inGemini.get());
+                rejected.reset();
+                failed.reset();
+            }
+            if (measuring && now - lastSample > TimeUnit.MILLISECONDS.toNanos(50)) {
+                // Platform threads of this JVM, less the stub's own
+                peakThreads = Math.max(peakThreads, threads.getThreadCount() - stub.getThreads());
+                lastSample = now;
+            }
+            if (!outstanding.tryAcquire(10, TimeUnit.MILLISECONDS)) {
+                continue;
+            }
+            String cancerType = CANCER_TYPES[lookup++ % CANCER_TYPES.length];
+            long submitted = System.nanoTime();
+            try {
+                executor.execute(() -> {
+                    try {
+                        int running = inGemini.incrementAndGet();
+                        int peak;
+                        while (running > (peak = peakInGemini.get()) && !peakInGemini.compareAndSet(peak, running)) {
+                            // retry
+                        }
+                        String text = GeminiService.getCancerTreatmentInfo(cancerType, 30000);
+                        if (text == null || text.startsWith("Unable to retrieve")) {
+                            failed.increment();
+                        } else {
+                            latency[0].record(System.nanoTime() - submitted);
+                            completed[0].increment();
+                        }
+                    } catch (Exception e) {
+                        failed.increment();
+                    } finally {
+                        inGemini.decrementAndGet();
+                        outstanding.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                rejected.increment();
+                outstanding.release();
+                Thread.sleep(1);
+            }
+        }
+
+        executor.shutdownNow();
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+        LatencyHistogram measured = latency[0];
+        System.out.println(String.format("%-22s %8d %10d %12.1f %10.1f %10.1f %9d %9d %9d",
+                name, offered, peakInGemini.get(), completed[0].sum() * 1000.0 / durationMillis,
+                measured.percentile(0.5) / 1e6, measured.percentile(0.99) / 1e6, failed.sum(), rejected.sum(),
+                peakThreads));
+    }
+
+    private static List<Integer> parseInts(String list) {
+        List<Integer> values = new ArrayList<>();
+        for (String value : list.split(",")) {
+            values.add(Integer.parseInt(value.trim()));
+        }
+        return values;
+    }
+}
@@ -0,0 +1,149 @@
+package ec.loadtest;
+
+import ec.csv.CsvReader;
+import ec.util.FeatureKeys;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The requests a load test sends: /predict with the feature values of a random
+ * real cell line, /categories, and /treatment-info for a random cancer type,
+ * mixed in configurable proportions.
+ */
+public class Workload {
+
+    public static final String PREDICT = "/predict";
+    public static final String CATEGORIES = "/categories";
+    public static final String TREATMENT = "/treatment-info";
+
+    private static final String TARGET_COLUMN = "Cancer Type (matching TCGA label)";
+
+    /** One HTTP request; body is null for GET. */
+    public static class Request {
+        final String endpoint;
+        final String pathAndQuery;
+        final String body;
+
+        Request(String endpoint, String pathAndQuery, String body) {
+            this.endpoint = endpoint;
+            this.pathAndQuery = pathAndQuery;
+            this.body = body;
+        }
+    }
+
+    private final List<String> predictBodies;
+    private final List<String> cancerTypes;
+    private final String[] endpoints;
+    private final int[] cumulativeWeights;
+
+    /**
+     * @param csv  the Cell Lines dataset to draw feature values and cancer types from
+     * @param mix  endpoint to relative weight, e.g. /predict=8, /categories=1, /treatment-info=1
+     */
+    public Workload(File csv, Map<String, Integer> mix) throws IOException {
+        predictBodies = new ArrayList<>();
+        TreeSet<String> types = new TreeSet<>();
+
+        try (CsvReader reader = CsvReader.open(csv.toPath())) {
+            if (!reader.next()) {
+                throw new IOException(csv + " is empty");
+            }
+            Map<String, Integer> columnIndex = new HashMap<>();
+            String[] header = reader.getAll();
+            for (int i = 0; i < header.length; i++) {
+                columnIndex.put(header[i], i);
+            }
+            Map<String, Integer> keyIndex = new LinkedHashMap<>();
+            for (Map.Entry<String, String> feature : FeatureKeys.columnsByKey().entrySet()) {
+                Integer index = columnIndex.get(feature.getValue());
+                if (index == null) {
+                    throw new IOException(csv + " has no column " + feature.getValue());
+                }
+                keyIndex.put(feature.getKey(), index);
+            }
+            Integer targetIndex = columnIndex.get(TARGET_COLUMN);
+
+            while (reader.next()) {
+                StringBuilder body = new StringBuilder();
+                for (Map.Entry<String, Integer> feature : keyIndex.entrySet()) {
+                    if (body.length() > 0) {
+                        body.append('&');
+                    }
+                    body.append(feature.getKey()).append('=').append(encode(reader.get(feature.getValue())));
+                }
+                predictBodies.add(body.toString());
+                if (targetIndex != null && !reader.isEmpty(targetIndex)) {
+                    types.add(reader.get(targetIndex));
+                }
+            }
+        }
+        if (predictBodies.isEmpty()) {
+            throw new IOException(csv + " has no records");
+        }
+        types.remove("UNCLASSIFIED");
+        cancerTypes = types.isEmpty() ? Collections.singletonList("BRCA") : new ArrayList<>(types);
+
+        endpoints = new String[mix.size()];
+        cumulativeWeights = new int[mix.size()];
+        int total = 0;
+        int i = 0;
+        for (Map.Entry<String, Integer> entry : mix.entrySet()) {
+            if (!entry.getKey().equals(PREDICT) && !entry.getKey().equals(CATEGORIES)
+                    && !entry.getKey().equals(TREATMENT)) {
+                throw new IllegalArgumentException("Unknown endpoint in mix: " + entry.getKey());
+            }
+            total += Math.max(0, entry.getValue());
+            endpoints[i] = entry.getKey();
+            cumulativeWeights[i++] = total;
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("The endpoint mix has no positive weight");
+        }
+    }
+
+    /** Picks the next request at random according to the mix. */
+    public Request next() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int pick = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        int i = 0;
+        while (pick >= cumulativeWeights[i]) {
+            i++;
+        }
+        switch (endpoints[i]) {
+            case PREDICT:
+                return new Request(PREDICT, PREDICT, predictBodies.get(random.nextInt(predictBodies.size())));
+            case CATEGORIES:
+                return new Request(CATEGORIES, CATEGORIES, null);
+            default:
+                String cancerType = cancerTypes.get(random.nextInt(cancerTypes.size()));
+                return new Request(TREATMENT, TREATMENT + "?cancerType=" + encode(cancerType), null);
+        }
+    }
+
+    public int getPredictRows() {
+        return predictBodies.size();
+    }
+
+    public int getCancerTypes() {
+        return cancerTypes.size();
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
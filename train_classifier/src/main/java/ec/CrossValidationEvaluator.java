@@ -0,0 +1,255 @@
+package ec;
+
+import weka.classifiers.Classifier;
+import weka.core.Instances;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Stratified, optionally repeated, k-fold cross-validation that runs every
+ * (repeat, fold, model) combination as its own task on a bounded thread pool.
+ * The fold assignment of each repeat is computed once and shared by all models,
+ * so every candidate is scored on exactly the same splits, and so is the
+ * {@link FeatureMatrix} the folds are taken from. Given a deadline, folds still
+ * running or queued when it passes are cancelled and left out of the results.
+ */
+public class CrossValidationEvaluator {
+
+    /** Deadline meaning "wait for every fold". */
+    public static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    private final int numFolds;
+    private final int numRepeats;
+    private final long seed;
+    private final int numThreads;
+
+    public CrossValidationEvaluator(int numFolds, int numRepeats, long seed, int numThreads) {
+        if (numFolds < 2) {
+            throw new IllegalArgumentException("Cross-validation needs at least 2 folds, got " + numFolds);
+        }
+        this.numFolds = numFolds;
+        this.numRepeats = Math.max(1, numRepeats);
+        this.seed = seed;
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    /**
+     * Cross-validates every candidate on the data, returning the results in the
+     * same order as the candidate map.
+     */
+    public List<CrossValidationResult> evaluate(Map<String, Supplier<Classifier>> candidates,
+                                                Instances data) throws Exception {
+        return evaluate(candidates, data, NO_DEADLINE);
+    }
+
+    /**
+     * Like {@link #evaluate(Map, Instances)}, but stops waiting at the deadline, a
+     * {@link System#nanoTime()} value. Candidates whose folds did not all finish
+     * by then get a result over the folds that did, which may be none.
+     */
+    public List<CrossValidationResult> evaluate(Map<String, Supplier<Classifier>> candidates,
+                                                Instances data, long deadline) throws Exception {
+        int[][] foldAssignments = new int[numRepeats][];
+        for (int repeat = 0; repeat < numRepeats; repeat++) {
+            foldAssignments[repeat] = stratifiedFolds(data, numFolds, new Random(seed + repeat));
+        }
+
+        // Encoded once and shared by every candidate and fold
+        FeatureMatrix matrix = new FeatureMatrix(data);
+
+        int numTasks = candidates.size() * numRepeats * numFolds;
+        // Daemon threads, so a fold that ignores being cancelled cannot keep the JVM alive
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(numThreads, numTasks), runnable -> {
+            Thread thread = new Thread(runnable, "cv-fold");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            Map<String, List<Future<Double>>> futures = new LinkedHashMap<>();
+            for (Map.Entry<String, Supplier<Classifier>> entry : candidates.entrySet()) {
+                Supplier<Classifier> factory = entry.getValue();
+                List<Future<Double>> modelFutures = new ArrayList<>();
+                for (int repeat = 0; repeat < numRepeats; repeat++) {
+                    int[] folds = foldAssignments[repeat];
+                    for (int fold = 0; fold < numFolds; fold++) {
+                        int testFold = fold;
+                        modelFutures.add(executor.submit(() -> evaluateFold(factory.get(), matrix, folds, testFold)));
+                    }
+                }
+                futures.put(entry.getKey(), modelFutures);
+            }
+
+            List<CrossValidationResult> results = new ArrayList<>();
+            for (Map.Entry<String, List<Future<Double>>> entry : futures.entrySet()) {
+                List<Future<Double>> modelFutures = entry.getValue();
+                double[] accuracies = new double[modelFutures.size()];
+                int completed = 0;
+                for (Future<Double> future : modelFutures) {
+                    Double accuracy = getResult(future, deadline);
+                    if (accuracy != null) {
+                        accuracies[completed++] = accuracy;
+                    }
+                }
+                results.add(new CrossValidationResult(entry.getKey(), Arrays.copyOf(accuracies, completed),
+                                                       modelFutures.size()));
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Assigns every instance to a fold so that each class is spread as evenly as
+     * possible over the folds. The data itself is never reordered.
+     */
+    static int[] stratifiedFolds(Instances data, int numFolds, Random random) {
+        List<Integer> order = new ArrayList<>(data.numInstances());
+        for (int i = 0; i < data.numInstances(); i++) {
+            order.add(i);
+        }
+        Collections.shuffle(order, random);
+
+        // Bucket the shuffled indices by class, then deal each bucket round-robin
+        List<List<Integer>> byClass = new ArrayList<>();
+        for (int c = 0; c < data.numClasses(); c++) {
+            byClass.add(new ArrayList<>());
+        }
+        List<Integer> missingClass = new ArrayList<>();
+        for (int index : order) {
+            if (data.instance(index).classIsMissing()) {
+                missingClass.add(index);
+            } else {
+                byClass.get((int) data.instance(index).classValue()).add(index);
+            }
+        }
+        byClass.add(missingClass);
+
+        int[] folds = new int[data.numInstances()];
+        int next = 0;
+        for (List<Integer> bucket : byClass) {
+            for (int index : bucket) {
+                folds[index] = next;
+                next = (next + 1) % numFolds;
+            }
+        }
+        return folds;
+    }
+
+    private static double evaluateFold(Classifier model, FeatureMatrix matrix, int[] folds, int testFold)
+            throws Exception {
+        int numTest = 0;
+        for (int fold : folds) {
+            if (fold == testFold) {
+                numTest++;
+            }
+        }
+        int[] trainRows = new int[folds.length - numTest];
+        int[] testRows = new int[numTest];
+        int numTrain = 0;
+        numTest = 0;
+        for (int i = 0; i < folds.length; i++) {
+            if (folds[i] == testFold) {
+                testRows[numTest++] = i;
+            } else {
+                trainRows[numTrain++] = i;
+            }
+        }
+
+        return matrix.evaluate(matrix.train(model, trainRows), testRows);
+    }
+
+    // Null if the fold has not finished by the deadline, in which case it is cancelled
+    private static Double getResult(Future<Double> future, long deadline) throws Exception {
+        try {
+            if (deadline == NO_DEADLINE) {
+                return future.get();
+            }
+            return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            return null;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : new Exception(cause);
+        }
+    }
+
+    /**
+     * Per-fold accuracies of one candidate, with their mean and sample variance.
+     * If not every fold finished they cover only those that did; the mean is NaN
+     * if none did.
+     */
+    public static class CrossValidationResult {
+        private final String name;
+        private final double[] accuracies;
+        private final int numFolds;
+        private final double mean;
+        private final double variance;
+
+        CrossValidationResult(String name, double[] accuracies, int numFolds) {
+            this.name = name;
+            this.accuracies = accuracies;
+            this.numFolds = numFolds;
+
+            double sum = 0;
+            for (double accuracy : accuracies) {
+                sum += accuracy;
+            }
+            this.mean = sum / accuracies.length;
+
+            double squares = 0;
+            for (double accuracy : accuracies) {
+                squares += (accuracy - mean) * (accuracy - mean);
+            }
+            this.variance = accuracies.length > 1 ? squares / (accuracies.length - 1) : 0.0;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public double[] getAccuracies() {
+            return accuracies.clone();
+        }
+
+        /** Folds, over all repeats, that finished and are in the scores. */
+        public int getCompletedFolds() {
+            return accuracies.length;
+        }
+
+        /** Folds, over all repeats, that were to be evaluated. */
+        public int getNumFolds() {
+            return numFolds;
+        }
+
+        public boolean isComplete() {
+            return accuracies.length == numFolds;
+        }
+
+        public double getMeanAccuracy() {
+            return mean;
+        }
+
+        public double getVariance() {
+            return variance;
+        }
+
+        public double getStandardDeviation() {
+            return Math.sqrt(variance);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package ec;
+
+import ec.encoding.OneHotEncoding;
+import ec.encoding.OneHotSMO;
+import weka.classifiers.Classifier;
+import weka.classifiers.Evaluation;
+import weka.classifiers.functions.SMO;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.util.Arrays;
+
+/**
+ * A nominal dataset together with its one-hot encoding, computed once and
+ * shared by every candidate model, fold and evaluation that uses it. The
+ * encoding is stored as the list of columns set in each row (the nominal
+ * attributes give one per attribute at most), so a training or test set is
+ * made by copying a few ints per row rather than by running Weka filters.
+ * <p>
+ * Only SMO reads the encoding, through {@link OneHotSMO}. IBk compares nominal
+ * values directly, and one-hot columns would double its distances for all but
+ * two-valued attributes; the decision stumps of LogitBoost and the trees of
+ * Random Forest split on nominal values as they are. Those models train on the
+ * nominal rows.
+ */
+public class FeatureMatrix {
+
+    private final Instances data;
+    private final boolean encodable;
+    private final OneHotEncoding.Layout layout;
+    private final int[] rowStart;
+    private final int[] columns;
+
+    public FeatureMatrix(Instances data) {
+        this.data = data;
+        boolean complete = OneHotEncoding.Layout.supports(data);
+        for (int r = 0; complete && r < data.numInstances(); r++) {
+            Instance instance = data.instance(r);
+            for (int i = 0; complete && i < data.numAttributes(); i++) {
+                complete = i == data.classIndex() || !instance.isMissing(i);
+            }
+        }
+        // Missing values would be replaced by the modes of each training set; SMO then encodes the data itself
+        this.encodable = complete;
+        if (!encodable) {
+            layout = null;
+            rowStart = null;
+            columns = null;
+            return;
+        }
+
+        layout = new OneHotEncoding.Layout(data);
+        int numAttributes = data.numAttributes();
+        rowStart = new int[data.numInstances() + 1];
+        int[] set = new int[data.numInstances() * (numAttributes - 1)];
+        int count = 0;
+        for (int r = 0; r < data.numInstances(); r++) {
+            Instance instance = data.instance(r);
+            rowStart[r] = count;
+            for (int i = 0; i < numAttributes; i++) {
+                if (i == layout.classIndex()) {
+                    continue;
+                }
+                int column = layout.column(i, (int) instance.value(i));
+                if (column >= 0) {
+                    set[count++] = column;
+                }
+            }
+        }
+        rowStart[data.numInstances()] = count;
+        columns = Arrays.copyOf(set, count);
+    }
+
+    public Instances getData() {
+        return data;
+    }
+
+    public int numInstances() {
+        return data.numInstances();
+    }
+
+    /** Indices of every row, for training or testing on all of them. */
+    public int[] allRows() {
+        int[] rows = new int[data.numInstances()];
+        for (int r = 0; r < rows.length; r++) {
+            rows[r] = r;
+        }
+        return rows;
+    }
+
+    /**
+     * Trains a model on the given rows, on the shared encoding if the model is an
+     * SMO that would otherwise encode the data itself. Returns the trained model,
+     * which takes nominal instances either way.
+     */
+    public Classifier train(Classifier model, int[] rows) throws Exception {
+        if (!encodable || !OneHotSMO.isEquivalent(model)) {
+            model.buildClassifier(select(rows));
+            return model;
+        }
+
+        // Fit the encoding on the rows SMO keeps, those with a class
+        int[] columnCounts = new int[layout.numColumns()];
+        int numRows = 0;
+        for (int r : rows) {
+            if (!data.instance(r).classIsMissing()) {
+                numRows++;
+                for (int c = rowStart[r]; c < rowStart[r + 1]; c++) {
+                    columnCounts[columns[c]]++;
+                }
+            }
+        }
+        OneHotEncoding encoding = OneHotEncoding.fit(data, layout, columnCounts, numRows);
+
+        Instances encoded = new Instances(encoding.getHeader(), numRows);
+        for (int r : rows) {
+            if (!data.instance(r).classIsMissing()) {
+                encoded.add(encode(encoding, r));
+            }
+        }
+        OneHotSMO classifier = new OneHotSMO((SMO) model);
+        classifier.buildClassifier(encoding, encoded);
+        return classifier;
+    }
+
+    /**
+     * Percentage of the given rows the trained model classifies correctly. A model
+     * trained on an encoding is evaluated on the shared encoding of these rows.
+     */
+    public double evaluate(Classifier model, int[] rows) throws Exception {
+        if (encodable && model instanceof OneHotSMO) {
+            OneHotEncoding encoding = ((OneHotSMO) model).getEncoding();
+            if (encoding.getLayout().equals(layout)) {
+                Instances test = new Instances(encoding.getHeader(), rows.length);
+                for (int r : rows) {
+                    test.add(encode(encoding, r));
+                }
+                Evaluation eval = new Evaluation(test);
+                eval.evaluateModel(((OneHotSMO) model).getClassifier(), test);
+                return eval.pctCorrect();
+            }
+        }
+        Instances test = select(rows);
+        Evaluation eval = new Evaluation(test);
+        eval.evaluateModel(model, test);
+        return eval.pctCorrect();
+    }
+
+    private Instance encode(OneHotEncoding encoding, int row) {
+        Instance instance = data.instance(row);
+        return encoding.encode(columns, rowStart[row], rowStart[row + 1], instance.classValue(), instance.weight());
+    }
+
+    private Instances select(int[] rows) {
+        Instances subset = new Instances(data, rows.length);
+        for (int r : rows) {
+            subset.add(data.instance(r));
+        }
+        return subset;
+    }
+}
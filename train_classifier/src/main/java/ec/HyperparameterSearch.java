@@ -0,0 +1,282 @@
+package ec;
+
+import weka.classifiers.Classifier;
+import weka.core.Instances;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Hyperparameter search driven by successive halving. Every configuration is
+ * first cross-validated on a small stratified sample of the data; only the best
+ * 1/eta of them move on to the next rung, which uses eta times as many
+ * instances, until the survivors are scored on the full dataset.
+ * <p>
+ * The time budget covers every rung, the first included: when it runs out,
+ * folds still running are cancelled, configurations that did not finish all
+ * their folds are reported as partly evaluated, and no further rung is started.
+ * Only fully evaluated configurations are ranked, unless none of the first rung
+ * finished, in which case its partial scores have to do.
+ */
+public class HyperparameterSearch {
+
+    private final int numFolds;
+    private final int eta;
+    private final int minInstances;
+    private final long timeBudgetMillis;
+    private final long seed;
+    private final int numThreads;
+
+    public HyperparameterSearch(int numFolds, int eta, int minInstances, long timeBudgetMillis,
+                                long seed, int numThreads) {
+        if (eta < 2) {
+            throw new IllegalArgumentException("Successive halving needs eta of at least 2, got " + eta);
+        }
+        this.numFolds = numFolds;
+        this.eta = eta;
+        this.minInstances = minInstances;
+        this.timeBudgetMillis = timeBudgetMillis;
+        this.seed = seed;
+        this.numThreads = numThreads;
+    }
+
+    public SearchResult search(List<SearchSpace.Configuration> configurations, Instances data) throws Exception {
+        long deadline = System.nanoTime() + timeBudgetMillis * 1_000_000L;
+        CrossValidationEvaluator evaluator = new CrossValidationEvaluator(numFolds, 1, seed, numThreads);
+
+        // The smallest rung still has to leave every fold a reasonable amount of data
+        int numRungs = 1;
+        while (data.numInstances() / pow(eta, numRungs) >= minInstances
+                && configurations.size() > pow(eta, numRungs - 1)) {
+            numRungs++;
+        }
+
+        List<Trial> trials = new ArrayList<>();
+        List<Trial> ranking = Collections.emptyList();
+        List<SearchSpace.Configuration> survivors = configurations;
+        boolean budgetExhausted = false;
+
+        for (int rung = 0; rung < numRungs; rung++) {
+            if (rung > 0 && System.nanoTime() - deadline > 0) {
+                budgetExhausted = true;
+                System.out.println("Search time budget exhausted, stopping before rung " + (rung + 1));
+                break;
+            }
+
+            Instances subset = stratifiedSubset(data, pow(eta, numRungs - 1 - rung));
+            System.out.println("Rung " + (rung + 1) + "/" + numRungs + ": evaluating " + survivors.size() +
+                              " configurations on " + subset.numInstances() + " instances...");
+
+            Map<String, Supplier<Classifier>> candidates = new LinkedHashMap<>();
+            Map<String, SearchSpace.Configuration> byName = new LinkedHashMap<>();
+            for (SearchSpace.Configuration configuration : survivors) {
+                candidates.put(configuration.toString(), configuration::create);
+                byName.put(configuration.toString(), configuration);
+            }
+
+            List<Trial> rungTrials = new ArrayList<>();
+            List<Trial> completeTrials = new ArrayList<>();
+            int notStarted = 0;
+            for (CrossValidationEvaluator.CrossValidationResult result
+                    : evaluator.evaluate(candidates, subset, deadline)) {
+                if (result.getCompletedFolds() == 0) {
+                    notStarted++;
+                    continue;
+                }
+                if (!result.isComplete()) {
+                    System.out.println("  Partly evaluated, " + result.getCompletedFolds() + " of " +
+                                      result.getNumFolds() + " folds: " + result.getName());
+                }
+                Trial trial = new Trial(byName.get(result.getName()), rung + 1, subset.numInstances(),
+                                        result.getMeanAccuracy(), result.getStandardDeviation(),
+                                        result.getCompletedFolds(), result.getNumFolds());
+                rungTrials.add(trial);
+                if (trial.isComplete()) {
+                    completeTrials.add(trial);
+                }
+            }
+            trials.addAll(rungTrials);
+
+            boolean cutShort = completeTrials.size() < survivors.size();
+            List<Trial> ranked = completeTrials.isEmpty() && rung == 0 ? rungTrials : completeTrials;
+            if (ranked.isEmpty()) {
+                if (rung == 0) {
+                    throw new IllegalStateException("Search time budget of " + timeBudgetMillis +
+                                                    " ms ran out before any configuration finished a fold");
+                }
+            } else {
+                ranking = new ArrayList<>(ranked);
+                ranking.sort(Comparator.comparingDouble(Trial::getMeanAccuracy).reversed()
+                        .thenComparingDouble(Trial::getStandardDeviation));
+            }
+            if (cutShort) {
+                budgetExhausted = true;
+                System.out.println("Search time budget exhausted during rung " + (rung + 1) + ": " +
+                                  (rungTrials.size() - completeTrials.size()) + " configurations partly evaluated, " +
+                                  notStarted + " not evaluated");
+                break;
+            }
+
+            int keep = Math.max(1, (int) Math.ceil(ranking.size() / (double) eta));
+            survivors = new ArrayList<>();
+            for (Trial trial : ranking.subList(0, keep)) {
+                survivors.add(trial.getConfiguration());
+            }
+        }
+
+        return new SearchResult(trials, ranking.get(0), budgetExhausted);
+    }
+
+    private Instances stratifiedSubset(Instances data, int numChunks) {
+        if (numChunks <= 1) {
+            return data;
+        }
+        int[] chunks = CrossValidationEvaluator.stratifiedFolds(data, numChunks, new Random(seed));
+        Instances subset = new Instances(data, data.numInstances() / numChunks + 1);
+        for (int i = 0; i < data.numInstances(); i++) {
+            if (chunks[i] == 0) {
+                subset.add(data.instance(i));
+            }
+        }
+        return subset;
+    }
+
+    private static int pow(int base, int exponent) {
+        int result = 1;
+        for (int i = 0; i < exponent; i++) {
+            result *= base;
+        }
+        return result;
+    }
+
+    /**
+     * The cross-validated score of one configuration at one rung, over the folds
+     * that finished within the time budget.
+     */
+    public static class Trial {
+        private final SearchSpace.Configuration configuration;
+        private final int rung;
+        private final int numInstances;
+        private final double meanAccuracy;
+        private final double standardDeviation;
+        private final int completedFolds;
+        private final int numFolds;
+
+        Trial(SearchSpace.Configuration configuration, int rung, int numInstances,
+              double meanAccuracy, double standardDeviation, int completedFolds, int numFolds) {
+            this.configuration = configuration;
+            this.rung = rung;
+            this.numInstances = numInstances;
+            this.meanAccuracy = meanAccuracy;
+            this.standardDeviation = standardDeviation;
+            this.completedFolds = completedFolds;
+            this.numFolds = numFolds;
+        }
+
+        public SearchSpace.Configuration getConfiguration() {
+            return configuration;
+        }
+
+        public int getRung() {
+            return rung;
+        }
+
+        public int getNumInstances() {
+            return numInstances;
+        }
+
+        public double getMeanAccuracy() {
+            return meanAccuracy;
+        }
+
+        public double getStandardDeviation() {
+            return standardDeviation;
+        }
+
+        public int getCompletedFolds() {
+            return completedFolds;
+        }
+
+        public int getNumFolds() {
+            return numFolds;
+        }
+
+        public boolean isComplete() {
+            return completedFolds == numFolds;
+        }
+    }
+
+    /**
+     * All trials of a search, partly evaluated ones included, and the winner of
+     * the last rung in which any configuration was fully evaluated.
+     */
+    public static class SearchResult {
+        private final List<Trial> trials;
+        private final Trial best;
+        private final boolean budgetExhausted;
+
+        SearchResult(List<Trial> trials, Trial best, boolean budgetExhausted) {
+            this.trials = trials;
+            this.best = best;
+            this.budgetExhausted = budgetExhausted;
+        }
+
+        public List<Trial> getTrials() {
+            return trials;
+        }
+
+        public Trial getBest() {
+            return best;
+        }
+
+        public boolean isBudgetExhausted() {
+            return budgetExhausted;
+        }
+
+        /**
+         * Writes search_results.csv with every trial and best_config.properties
+         * with the winning configuration into the given directory.
+         */
+        public void writeResults(File directory) throws IOException {
+            File resultsFile = new File(directory, "search_results.csv");
+            try (PrintWriter writer = new PrintWriter(resultsFile, StandardCharsets.UTF_8.name())) {
+                writer.println("model,parameters,rung,instances,mean_accuracy,std_dev,folds_completed,folds");
+                for (Trial trial : trials) {
+                    writer.println("\"" + trial.getConfiguration().getModelName() + "\",\"" +
+                                   trial.getConfiguration().describeParameters() + "\"," +
+                                   trial.getRung() + "," + trial.getNumInstances() + "," +
+                                   trial.getMeanAccuracy() + "," + trial.getStandardDeviation() + "," +
+                                   trial.getCompletedFolds() + "," + trial.getNumFolds());
+                }
+            }
+            System.out.println("Search results written to: " + resultsFile.getPath());
+
+            File bestFile = new File(directory, "best_config.properties");
+            try (PrintWriter writer = new PrintWriter(bestFile, StandardCharsets.UTF_8.name())) {
+                writer.println("model=" + best.getConfiguration().getModelName());
+                for (Map.Entry<String, Double> parameter : best.getConfiguration().getParameters().entrySet()) {
+                    writer.println("param." + parameter.getKey() + "=" +
+                                   SearchSpace.Configuration.formatValue(parameter.getValue()));
+                }
+                writer.println("rung=" + best.getRung());
+                writer.println("instances=" + best.getNumInstances());
+                writer.println("meanAccuracy=" + best.getMeanAccuracy());
+                writer.println("stdDev=" + best.getStandardDeviation());
+                writer.println("foldsCompleted=" + best.getCompletedFolds());
+                writer.println("folds=" + best.getNumFolds());
+                writer.println("budgetExhausted=" + budgetExhausted);
+            }
+            System.out.println("Best configuration written to: " + bestFile.getPath());
+        }
+    }
+}
@@ -0,0 +1,352 @@
+package ec;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.UpdateableClassifier;
+import weka.classifiers.bayes.NaiveBayes;
+import weka.classifiers.trees.HoeffdingTree;
+import weka.core.Attribute;
+import weka.core.Instances;
+import weka.core.SerializationHelper;
+import weka.estimators.DiscreteEstimator;
+import weka.estimators.Estimator;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps an updateable model current with rows appended to the Cell Lines CSV.
+ * <p>
+ * The checkpoint is a model bundle like the one ModelTrainingApp saves, the
+ * classifier and its training header, followed by the {@link Progress} that
+ * records how far into the CSV the model has read. A refresh reads only the rows
+ * after that point, appends nominal values it has not seen to the header and
+ * widens the model to match, updates the model row by row and writes the
+ * checkpoint back, so it costs time in proportion to the new rows. The webapp
+ * loads the checkpoint as it would any other model bundle, when pointed at it
+ * with {@code -Dmodel.path}.
+ * <p>
+ * A file at the checkpoint path that is not a checkpoint, such as the bundle
+ * the batch trainer saves, is left alone unless overwriting it is forced.
+ * <p>
+ * A Hoeffding tree or an updateable Naive Bayes is trained; both produce the same
+ * model as a single pass over all the rows would.
+ */
+public class IncrementalTrainer {
+
+    /** Bytes at either end of what was read that are compared to tell an append from a rewrite. */
+    private static final int FINGERPRINT_BYTES = 4096;
+
+    /**
+     * How much of the CSV a checkpoint has consumed: the rows read, the byte
+     * position after the last one, and a checksum of the bytes read. It is saved
+     * as a plain {@code long[]}, so the webapp can read the checkpoint without
+     * this class.
+     */
+    public static class Progress {
+        private final long position;
+        private final long rows;
+        private final long fingerprint;
+
+        Progress(long position, long rows, long fingerprint) {
+            this.position = position;
+            this.rows = rows;
+            this.fingerprint = fingerprint;
+        }
+
+        static Progress fromArray(long[] values) {
+            return new Progress(values[0], values[1], values[2]);
+        }
+
+        long[] toArray() {
+            return new long[]{position, rows, fingerprint};
+        }
+
+        public long getPosition() {
+            return position;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+    }
+
+    private final StreamingInstancesLoader loader;
+    private final File csvFile;
+    private final File checkpointFile;
+    private final String learner;
+    private final boolean force;
+
+    /**
+     * @param learner "hoeffding" or "naive-bayes", used when a new model is started
+     * @param force replace a file at the checkpoint path even if it is not a checkpoint
+     */
+    public IncrementalTrainer(String csvFilePath, File checkpointFile, String learner, boolean force) {
+        this.loader = new StreamingInstancesLoader(csvFilePath);
+        this.csvFile = new File(csvFilePath);
+        this.checkpointFile = checkpointFile;
+        this.learner = learner;
+        this.force = force;
+    }
+
+    /**
+     * Brings the checkpoint up to date with the CSV, starting a new model from every
+     * row if there is no checkpoint yet. Returns true if the checkpoint was written.
+     *
+     * @throws IllegalStateException if the path holds some other file and
+     *         overwriting it was not forced
+     */
+    public boolean refresh(String targetColumn, List<String> columnsToKeep) throws Exception {
+        Classifier model = null;
+        Instances header = null;
+        Progress progress = null;
+
+        if (checkpointFile.isFile()) {
+            Object[] bundle;
+            try {
+                bundle = SerializationHelper.readAll(checkpointFile.getPath());
+            } catch (Exception e) {
+                bundle = new Object[0];
+            }
+            if (bundle.length > 2 && bundle[0] instanceof UpdateableClassifier
+                    && bundle[1] instanceof Instances && bundle[2] instanceof long[]
+                    && ((long[]) bundle[2]).length == 3) {
+                model = (Classifier) bundle[0];
+                header = (Instances) bundle[1];
+                progress = Progress.fromArray((long[]) bundle[2]);
+            } else if (!force) {
+                // Most likely the model the batch trainer saved, which the webapp may be serving
+                throw new IllegalStateException(checkpointFile + " is not an incremental checkpoint; not "
+                        + "overwriting it. Choose another --checkpoint, or pass --force to replace it");
+            } else {
+                System.out.println(checkpointFile + " is not an incremental checkpoint; replacing it with a new "
+                        + learner + " model");
+            }
+        }
+        if (progress != null && !isAppendedTo(progress)) {
+            System.out.println("The CSV file was changed before row " + progress.getRows()
+                    + ", not only appended to; starting a new " + learner + " model");
+            model = null;
+            progress = null;
+        }
+        if (progress == null) {
+            header = loader.createHeader(targetColumn, columnsToKeep);
+            progress = new Progress(0, 0, 0);
+        } else {
+            System.out.println("Checkpoint has consumed " + progress.getRows() + " rows ("
+                    + progress.getPosition() + " bytes) with a " + model.getClass().getSimpleName());
+        }
+
+        long start = System.nanoTime();
+        StreamingInstancesLoader.Appended appended = loader.loadAppended(header, progress.getPosition());
+        Instances rows = appended.getRows();
+        if (appended.hasPartialRow()) {
+            System.out.println("The last row has no line break yet and is left for the next refresh");
+        }
+        if (rows.numInstances() == 0) {
+            System.out.println("No new rows since the checkpoint");
+            return false;
+        }
+        long read = System.nanoTime();
+
+        if (model == null) {
+            model = createModel();
+            model.buildClassifier(new Instances(rows, 0));
+        } else if (appended.getNewValues() > 0) {
+            System.out.println(appended.getNewValues() + " new nominal values, widening the model");
+            widen(model, rows);
+        }
+        UpdateableClassifier updateable = (UpdateableClassifier) model;
+        for (int i = 0; i < rows.numInstances(); i++) {
+            updateable.updateClassifier(rows.instance(i));
+        }
+        long trained = System.nanoTime();
+
+        Progress updated = new Progress(appended.getPosition(), progress.getRows() + rows.numInstances(),
+                fingerprint(appended.getPosition()));
+        Instances updatedHeader = new Instances(rows, 0);
+        writeCheckpoint(model, updatedHeader, updated);
+        System.out.println(String.format("Trained on %d new rows (%d in all) in %.0f ms: %.0f ms reading, "
+                        + "%.0f ms updating; checkpoint saved to %s",
+                rows.numInstances(), updated.getRows(), (trained - start) / 1e6, (read - start) / 1e6,
+                (trained - read) / 1e6, checkpointFile));
+        ModelTrainingApp.writeCompactModel(checkpointFile, model, updatedHeader);
+        return true;
+    }
+
+    private Classifier createModel() {
+        if (learner.equalsIgnoreCase("naive-bayes")) {
+            return ModelTrainingApp.createNaiveBayes();
+        }
+        if (learner.equalsIgnoreCase("hoeffding")) {
+            return ModelTrainingApp.createHoeffdingTree();
+        }
+        throw new IllegalArgumentException("Unknown learner '" + learner + "'; use hoeffding or naive-bayes");
+    }
+
+    /**
+     * Whether the CSV still holds the bytes the checkpoint read, so that reading on
+     * from its position continues where it stopped.
+     */
+    private boolean isAppendedTo(Progress progress) throws IOException {
+        return csvFile.length() >= progress.getPosition() && fingerprint(progress.getPosition()) == progress.fingerprint;
+    }
+
+    /**
+     * Checksum of the first and the last few KB before a position: the header line,
+     * the oldest rows and the newest rows read, at a cost that does not grow with the file.
+     */
+    private long fingerprint(long position) throws IOException {
+        CRC32 crc = new CRC32();
+        try (FileChannel channel = FileChannel.open(csvFile.toPath(), StandardOpenOption.READ)) {
+            int length = (int) Math.min(position, FINGERPRINT_BYTES);
+            crc.update(read(channel, 0, length));
+            crc.update(read(channel, position - length, length));
+        }
+        return crc.getValue();
+    }
+
+    private static ByteBuffer read(FileChannel channel, long offset, int length) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(length);
+        while (bytes.hasRemaining()) {
+            if (channel.read(bytes, offset + bytes.position()) < 0) {
+                break;
+            }
+        }
+        ((Buffer) bytes).flip();
+        return bytes;
+    }
+
+    private void writeCheckpoint(Classifier model, Instances header, Progress progress) throws Exception {
+        File dir = checkpointFile.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.exists()) {
+            dir.mkdirs();
+        }
+        // Written aside and moved into place, so a crash never leaves half a checkpoint
+        File temp = new File(dir, checkpointFile.getName() + ".tmp");
+        SerializationHelper.writeAll(temp.getPath(), new Object[]{model, header, progress.toArray()});
+        try {
+            Files.move(temp.toPath(), checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Resizes the model's per-value counts to a header whose nominal attributes have
+     * gained values at the end. Codes already in use are unchanged, so the counts are
+     * copied over and the new values start out as if the model had been built with
+     * them and never seen them.
+     */
+    static void widen(Classifier model, Instances header) throws Exception {
+        if (model instanceof NaiveBayes) {
+            widenNaiveBayes((NaiveBayes) model, header);
+        } else if (model instanceof HoeffdingTree) {
+            // The tree keys its statistics by value and class name; only the header
+            // used for new leaves and the Naive Bayes models at its leaves are sized
+            writeField(model, "m_header", new Instances(header, 0));
+            widenLeaves(readField(model, "m_root"), header);
+        } else {
+            throw new IllegalArgumentException(model.getClass().getName() + " cannot take new nominal values");
+        }
+    }
+
+    private static void widenLeaves(Object node, Instances header) throws Exception {
+        if (node == null) {
+            return;
+        }
+        Object bayes = findField(node.getClass(), "m_bayes") != null ? readField(node, "m_bayes") : null;
+        if (bayes != null) {
+            widenNaiveBayes((NaiveBayes) bayes, header);
+        }
+        Object children = findField(node.getClass(), "m_children") != null ? readField(node, "m_children") : null;
+        if (children != null) {
+            for (Object child : ((Map<?, ?>) children).values()) {
+                widenLeaves(child, header);
+            }
+        }
+    }
+
+    private static void widenNaiveBayes(NaiveBayes bayes, Instances header) throws Exception {
+        if (bayes.getUseKernelEstimator() || bayes.getUseSupervisedDiscretization()) {
+            throw new IllegalArgumentException("Only Naive Bayes with discrete estimators can take new nominal values");
+        }
+        Estimator[][] distributions = (Estimator[][]) readField(bayes, "m_Distributions");
+        int numClasses = header.numClasses();
+
+        // One row per attribute other than the class, in the order NaiveBayes enumerates them
+        Estimator[][] widened = new Estimator[distributions.length][numClasses];
+        int attIndex = 0;
+        Enumeration<Attribute> attributes = header.enumerateAttributes();
+        while (attributes.hasMoreElements()) {
+            Attribute attribute = attributes.nextElement();
+            for (int j = 0; j < numClasses; j++) {
+                Estimator estimator = j < distributions[attIndex].length ? distributions[attIndex][j] : null;
+                widened[attIndex][j] = attribute.isNominal()
+                        ? widen((DiscreteEstimator) estimator, attribute.numValues()) : estimator;
+            }
+            attIndex++;
+        }
+
+        writeField(bayes, "m_Distributions", widened);
+        writeField(bayes, "m_ClassDistribution",
+                widen((DiscreteEstimator) readField(bayes, "m_ClassDistribution"), numClasses));
+        writeField(bayes, "m_NumClasses", numClasses);
+        writeField(bayes, "m_Instances", new Instances(header, 0));
+    }
+
+    private static DiscreteEstimator widen(DiscreteEstimator estimator, int numSymbols) {
+        if (estimator != null && estimator.getNumSymbols() == numSymbols) {
+            return estimator;
+        }
+        // Laplace counts, as NaiveBayes creates them; the old counts include their prior of 1
+        DiscreteEstimator widened = new DiscreteEstimator(numSymbols, true);
+        if (estimator != null) {
+            for (int v = 0; v < estimator.getNumSymbols(); v++) {
+                widened.addValue(v, estimator.getCount(v) - 1);
+            }
+        }
+        return widened;
+    }
+
+    private static Field findField(Class<?> type, String name) {
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            try {
+                return c.getDeclaredField(name);
+            } catch (NoSuchFieldException e) {
+                // Look in the superclass
+            }
+        }
+        return null;
+    }
+
+    private static Object readField(Object target, String name) throws IllegalAccessException {
+        Field field = findField(target.getClass(), name);
+        if (field == null) {
+            throw new IllegalStateException(target.getClass().getName() + " has no field " + name);
+        }
+        field.setAccessible(true);
+        return field.get(target);
+    }
+
+    private static void writeField(Object target, String name, Object value) throws IllegalAccessException {
+        Field field = findField(target.getClass(), name);
+        if (field == null) {
+            throw new IllegalStateException(target.getClass().getName() + " has no field " + name);
+        }
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+}
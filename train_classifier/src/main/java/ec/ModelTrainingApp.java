@@ -1,9 +1,13 @@
 package ec;
 
+import ec.compiled.CompactModelFile;
+import ec.compiled.CompiledEnsemble;
+import ec.csv.CsvReader;
 import weka.classifiers.Classifier;
-import weka.classifiers.Evaluation;
+import weka.classifiers.bayes.NaiveBayesUpdateable;
 import weka.classifiers.functions.SMO;
 import weka.classifiers.lazy.IBk;
+import weka.classifiers.trees.HoeffdingTree;
 import weka.classifiers.trees.RandomForest;
 import weka.classifiers.meta.LogitBoost;  // Changed from AdaBoostM1 to LogitBoost
 import weka.core.Instances;
@@ -12,17 +16,54 @@ import weka.core.Attribute;
 import weka.core.SerializationHelper;
 
 import java.io.*;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.function.Supplier;
 
 /**
  * Main application class for training and comparing models on the Cell Lines dataset
  */
 public class ModelTrainingApp {
+    
+    private static final String MODEL_SAVE_PATH = "C:\\enterprise\\workspace\\630project\\tmp\\model";
 
     public static void main(String[] args) {
         try {
             System.out.println("Starting Cell Lines ML model training");
             
+            // Parallel mode trains and evaluates all holdout candidates at the same time
+            boolean parallel = hasFlag(args, "--parallel");
+            int numThreads = getIntOption(args, "--threads", Runtime.getRuntime().availableProcessors());
+            
+            // Models are selected by stratified k-fold cross-validation unless the old holdout is asked for
+            boolean holdout = hasFlag(args, "--holdout");
+            int numFolds = getIntOption(args, "--folds", 10);
+            int numRepeats = getIntOption(args, "--repeats", 1);
+            
+            // Optional hyperparameter search ("grid" or "random") bounded by a time budget in seconds
+            String searchMode = getStringOption(args, "--search", null);
+            
+            // Cross-validation and the search always spread their work over --threads
+            if (parallel && (!holdout || searchMode != null)) {
+                System.out.println("Note: --parallel only applies to --holdout without --search; "
+                        + (searchMode != null ? "the search" : "cross-validation") + " already runs on "
+                        + numThreads + " threads (set with --threads)");
+            }
+            int searchSamples = getIntOption(args, "--search-samples", 20);
+            int searchBudgetSeconds = getIntOption(args, "--search-budget", 600);
+            int eta = getIntOption(args, "--eta", 3);
+            
+            // The CSV is streamed straight into the dataset unless the old in-memory reader is asked for
+            boolean inMemory = hasFlag(args, "--in-memory");
+            
+            // Incremental mode only trains an updateable model on the rows added since its checkpoint,
+            // kept apart from the batch model unless --force lets it replace another file
+            boolean incremental = hasFlag(args, "--incremental");
+            String learner = getStringOption(args, "--learner", "hoeffding");
+            String checkpointPath = getStringOption(args, "--checkpoint",
+                    MODEL_SAVE_PATH + File.separator + "model.incremental");
+            boolean force = hasFlag(args, "--force");
+            
             // Define paths
             String csvFilePath = locateCSVFile();
             if (csvFilePath == null) {
@@ -31,14 +72,25 @@ public class ModelTrainingApp {
             }
             
             // Read and analyze the CSV file
-            List<String[]> csvData = readCSVFile(csvFilePath);
-            if (csvData.isEmpty() || csvData.size() < 2) {
-                System.err.println("CSV file is empty or has insufficient data");
-                return;
+            StreamingInstancesLoader loader = new StreamingInstancesLoader(csvFilePath);
+            List<String[]> csvData = null;
+            String[] headers;
+            if (inMemory && !incremental) {
+                csvData = readCSVFile(csvFilePath);
+                if (csvData.isEmpty() || csvData.size() < 2) {
+                    System.err.println("CSV file is empty or has insufficient data");
+                    return;
+                }
+                headers = csvData.get(0);
+            } else {
+                headers = loader.readHeader();
+                if (headers.length == 0) {
+                    System.err.println("CSV file is empty or has insufficient data");
+                    return;
+                }
             }
             
             // Extract column names and display them
-            String[] headers = csvData.get(0);
             System.out.println("\nFound " + headers.length + " columns in CSV file:");
             for (int i = 0; i < headers.length; i++) {
                 System.out.println((i + 1) + ": " + headers[i]);
@@ -73,36 +125,82 @@ public class ModelTrainingApp {
                 System.out.println("- " + col);
             }
             
-            // Convert to WEKA instances, filling empty values with "unknown"
-            Instances data = convertToInstances(csvData, targetColumn, columnsToKeep);
-            
-            // Split data into training and testing sets - changed to 0.7 for 70/30 split
-            Instances[] splitData = splitData(data, 0.7);  // Changed from 0.8 to 0.7 for 70/30 split
-            Instances trainingData = splitData[0];
-            Instances testingData = splitData[1];
+            if (incremental) {
+                IncrementalTrainer trainer = new IncrementalTrainer(csvFilePath, new File(checkpointPath), learner, force);
+                try {
+                    trainer.refresh(targetColumn, columnsToKeep);
+                } catch (IllegalStateException e) {
+                    System.err.println(e.getMessage());
+                    return;
+                }
+                System.out.println("Incremental training completed successfully!");
+                return;
+            }
             
-            // Train models
-            System.out.println("\nTraining machine learning models...");
-            Map<String, Classifier> models = new HashMap<>();
-            models.put("Random Forest", trainRandomForest(trainingData));
-            models.put("K-Nearest Neighbors", trainKNN(trainingData));
-            models.put("Support Vector Machine", trainSVM(trainingData));
-            models.put("XGBoost", trainXGBoost(trainingData));
+            // Convert to WEKA instances, filling empty values with "unknown"
+            Instances data = inMemory ? convertToInstances(csvData, targetColumn, columnsToKeep) 
+                                      : loader.load(targetColumn, columnsToKeep);
+            if (data.numInstances() == 0) {
+                System.err.println("CSV file is empty or has insufficient data");
+                return;
+            }
             
-            // Find best model
-            Map.Entry<String, Classifier> bestModel = findBestModel(models, testingData);
+            Map.Entry<String, Classifier> bestModel;
+            HyperparameterSearch.SearchResult searchResult = null;
+            if (searchMode != null) {
+                searchResult = searchHyperparameters(data, searchMode, searchSamples, searchBudgetSeconds, 
+                                                     eta, numFolds, numThreads);
+                
+                // Retrain the winning configuration on all of the data before it is saved
+                SearchSpace.Configuration bestConfiguration = searchResult.getBest().getConfiguration();
+                System.out.println("Retraining " + bestConfiguration + " on all " + data.numInstances() + " instances...");
+                FeatureMatrix matrix = new FeatureMatrix(data);
+                Classifier model = matrix.train(bestConfiguration.create(), matrix.allRows());
+                bestModel = new AbstractMap.SimpleEntry<>(bestConfiguration.getModelName(), model);
+            } else if (holdout) {
+                // Split data into training and testing sets - changed to 0.7 for 70/30 split
+                Instances[] splitData = splitData(data, 0.7);  // Changed from 0.8 to 0.7 for 70/30 split
+                Instances trainingData = splitData[0];
+                Instances testingData = splitData[1];
+                
+                if (parallel) {
+                    bestModel = trainModelsInParallel(trainingData, testingData, numThreads);
+                } else {
+                    // Train models; SVM trains and every model is tested on a shared encoding
+                    FeatureMatrix trainingMatrix = new FeatureMatrix(trainingData);
+                    FeatureMatrix testingMatrix = new FeatureMatrix(testingData);
+                    System.out.println("\nTraining machine learning models...");
+                    Map<String, Classifier> models = new LinkedHashMap<>();
+                    models.put("Random Forest", trainRandomForest(trainingData));
+                    models.put("K-Nearest Neighbors", trainKNN(trainingData));
+                    models.put("Support Vector Machine", trainSVM(trainingMatrix));
+                    models.put("XGBoost", trainXGBoost(trainingData));
+                    
+                    // Find best model
+                    bestModel = findBestModel(models, testingMatrix);
+                }
+            } else {
+                bestModel = selectModelByCrossValidation(data, numFolds, numRepeats, numThreads);
+            }
             
             // Create directory if it doesn't exist - using absolute path
-            String modelSavePath = "C:\\enterprise\\workspace\\630project\\tmp\\model";
+            String modelSavePath = MODEL_SAVE_PATH;
             File dir = new File(modelSavePath);
             if (!dir.exists()) {
                 dir.mkdirs();
             }
             
-            // Save the best model with simple name
+            // Save the best model with simple name, followed by the header it was trained on
+            // so the webapp gets the exact attributes and values without reading the CSV
             String fileName = modelSavePath + File.separator + "model";
-            SerializationHelper.write(fileName, bestModel.getValue());
-            System.out.println("Model saved to: " + fileName);
+            Instances header = new Instances(data, 0);
+            SerializationHelper.writeAll(fileName, new Object[]{bestModel.getValue(), header});
+            System.out.println("Model bundle (classifier and training header) saved to: " + fileName);
+            writeCompactModel(new File(fileName), bestModel.getValue(), header);
+            
+            if (searchResult != null) {
+                searchResult.writeResults(dir);
+            }
             
             System.out.println("Model training completed successfully!");
             
@@ -112,6 +210,66 @@ public class ModelTrainingApp {
         }
     }
     
+    /**
+     * Writes the compact form of the model next to the bundle, which the webapp
+     * loads without Java serialization, or removes an old one if this model has none.
+     */
+    static void writeCompactModel(File modelFile, Classifier model, Instances header) {
+        File compactFile = CompactModelFile.siblingOf(modelFile);
+        try {
+            if (CompiledEnsemble.isSupported(model)) {
+                CompiledEnsemble compiled = CompiledEnsemble.compile(model);
+                if (compiled.agreesWith(model, header, 1000, new Random(1))) {
+                    CompactModelFile.write(compactFile, compiled, header);
+                    System.out.println("Compact model saved to: " + compactFile);
+                    return;
+                }
+                System.out.println("Compiled model does not match Weka, no compact model written");
+            } else {
+                System.out.println("No compact form for " + model.getClass().getSimpleName()
+                        + ", the webapp will read the serialized model");
+            }
+        } catch (Exception e) {
+            System.out.println("Could not write the compact model: " + e.getMessage());
+        }
+        if (compactFile.exists() && !compactFile.delete()) {
+            System.err.println("Could not remove the outdated compact model " + compactFile);
+        }
+    }
+    
+    private static boolean hasFlag(String[] args, String flag) {
+        for (String arg : args) {
+            if (arg.equals(flag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private static int getIntOption(String[] args, String option, int defaultValue) {
+        String prefix = option + "=";
+        for (String arg : args) {
+            if (arg.startsWith(prefix)) {
+                try {
+                    return Integer.parseInt(arg.substring(prefix.length()).trim());
+                } catch (NumberFormatException e) {
+                    System.err.println("Invalid value for " + option + ": " + arg + ". Using " + defaultValue);
+                }
+            }
+        }
+        return defaultValue;
+    }
+    
+    private static String getStringOption(String[] args, String option, String defaultValue) {
+        String prefix = option + "=";
+        for (String arg : args) {
+            if (arg.startsWith(prefix)) {
+                return arg.substring(prefix.length()).trim();
+            }
+        }
+        return defaultValue;
+    }
+    
     private static String locateCSVFile() {
         // Try different potential locations for the CSV file
         String[] file_path = {
@@ -138,29 +296,11 @@ public class ModelTrainingApp {
         return null;
     }
     
-    private static List<String[]> readCSVFile(String filePath) {
+    public static List<String[]> readCSVFile(String filePath) {
         List<String[]> data = new ArrayList<>();
-        try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Handle CSV parsing with quoted values
-                List<String> tokens = new ArrayList<>();
-                StringBuilder sb = new StringBuilder();
-                boolean inQuotes = false;
-                
-                for (char c : line.toCharArray()) {
-                    if (c == '"') {
-                        inQuotes = !inQuotes;
-                    } else if (c == ',' && !inQuotes) {
-                        tokens.add(sb.toString().trim());
-                        sb.setLength(0);
-                    } else {
-                        sb.append(c);
-                    }
-                }
-                tokens.add(sb.toString().trim());
-                
-                data.add(tokens.toArray(new String[0]));
+        try (CsvReader reader = CsvReader.open(Paths.get(filePath))) {
+            while (reader.next()) {
+                data.add(reader.getAll());
             }
             System.out.println("Read " + data.size() + " lines from CSV file");
             
@@ -186,7 +326,7 @@ public class ModelTrainingApp {
         return false;
     }
     
-    private static Instances convertToInstances(List<String[]> csvData, String targetColumn, List<String> columnsToKeep) {
+    public static Instances convertToInstances(List<String[]> csvData, String targetColumn, List<String> columnsToKeep) {
         String[] headers = csvData.get(0);
         
         // Find indices of columns to keep
@@ -297,62 +437,248 @@ public class ModelTrainingApp {
         return new Instances[]{train, test};
     }
     
+    private static Map.Entry<String, Classifier> trainModelsInParallel(Instances trainingData, Instances testingData,
+                                                                      int numThreads) throws Exception {
+        // Random Forest gets whatever threads the other three candidates leave free
+        int forestSlots = Math.max(1, numThreads - 3);
+        Map<String, Supplier<Classifier>> candidates = createCandidates(forestSlots);
+        
+        System.out.println("\nTraining machine learning models in parallel on " + numThreads + 
+                          " threads (Random Forest execution slots: " + forestSlots + ")...");
+        
+        long startWall = System.nanoTime();
+        List<ParallelModelTrainer.TrainedModel> results = 
+                new ParallelModelTrainer(numThreads).trainAndEvaluate(candidates, trainingData, testingData);
+        long totalWallMillis = (System.nanoTime() - startWall) / 1_000_000;
+        
+        System.out.println("Comparing models to find the best one...");
+        
+        String bestModelName = null;
+        Classifier bestModel = null;
+        double bestAccuracy = -1;
+        long sumWallMillis = 0;
+        
+        for (ParallelModelTrainer.TrainedModel result : results) {
+            System.out.println(result.getName() + " accuracy: " + result.getAccuracy() + 
+                              " (wall: " + result.getWallMillis() + " ms, cpu: " + result.getCpuMillis() + " ms)");
+            sumWallMillis += result.getWallMillis();
+            
+            if (result.getAccuracy() > bestAccuracy) {
+                bestAccuracy = result.getAccuracy();
+                bestModelName = result.getName();
+                bestModel = result.getClassifier();
+            }
+        }
+        
+        System.out.println("Parallel training took " + totalWallMillis + " ms wall-clock for " + 
+                          sumWallMillis + " ms of per-model work");
+        System.out.println("Best model: " + bestModelName + " with accuracy: " + bestAccuracy + "%");
+        
+        return new AbstractMap.SimpleEntry<>(bestModelName, bestModel);
+    }
+    
+    private static Map.Entry<String, Classifier> selectModelByCrossValidation(Instances data, int numFolds,
+                                                                             int numRepeats, int numThreads) throws Exception {
+        // Folds x models already keep every thread busy, so each forest builds its trees on one slot
+        Map<String, Supplier<Classifier>> candidates = createCandidates(1);
+        
+        System.out.println("\nCross-validating machine learning models (" + numFolds + " folds x " + 
+                          numRepeats + " repeats, stratified) on " + numThreads + " threads...");
+        
+        long startWall = System.nanoTime();
+        List<CrossValidationEvaluator.CrossValidationResult> results = 
+                new CrossValidationEvaluator(numFolds, numRepeats, 42, numThreads).evaluate(candidates, data);
+        long totalWallMillis = (System.nanoTime() - startWall) / 1_000_000;
+        
+        System.out.println("Comparing models to find the best one...");
+        
+        CrossValidationEvaluator.CrossValidationResult best = null;
+        for (CrossValidationEvaluator.CrossValidationResult result : results) {
+            System.out.println(String.format("%s accuracy: mean %.2f%%, variance %.2f, std dev %.2f", 
+                              result.getName(), result.getMeanAccuracy(), result.getVariance(), 
+                              result.getStandardDeviation()));
+            
+            // Prefer the higher mean accuracy, and the more stable model when the means tie
+            if (best == null || result.getMeanAccuracy() > best.getMeanAccuracy() || 
+                    (result.getMeanAccuracy() == best.getMeanAccuracy() && result.getVariance() < best.getVariance())) {
+                best = result;
+            }
+        }
+        
+        System.out.println("Cross-validation took " + totalWallMillis + " ms wall-clock");
+        System.out.println("Best model: " + best.getName() + " with mean accuracy: " + best.getMeanAccuracy() + "%");
+        
+        // Retrain the winner on all of the data before it is saved
+        System.out.println("Retraining " + best.getName() + " on all " + data.numInstances() + " instances...");
+        FeatureMatrix matrix = new FeatureMatrix(data);
+        Classifier bestModel = matrix.train(createCandidates(numThreads).get(best.getName()).get(), matrix.allRows());
+        
+        return new AbstractMap.SimpleEntry<>(best.getName(), bestModel);
+    }
+    
+    private static HyperparameterSearch.SearchResult searchHyperparameters(Instances data, String searchMode, 
+                                                                         int searchSamples, int searchBudgetSeconds, 
+                                                                         int eta, int numFolds, int numThreads) throws Exception {
+        List<SearchSpace.Configuration> configurations = new ArrayList<>();
+        Random random = new Random(42);
+        for (SearchSpace space : createSearchSpaces()) {
+            if (searchMode.equalsIgnoreCase("random")) {
+                configurations.addAll(space.sample(searchSamples, random));
+            } else {
+                configurations.addAll(space.grid());
+            }
+        }
+        
+        System.out.println("\nSearching " + configurations.size() + " " + searchMode.toLowerCase() + 
+                          " configurations with successive halving (eta " + eta + ", " + numFolds + 
+                          " folds, budget " + searchBudgetSeconds + " s) on " + numThreads + " threads...");
+        
+        long startWall = System.nanoTime();
+        // The cheapest rung still needs enough instances to see every class in every fold
+        int minInstances = Math.max(10 * numFolds, 5 * data.numClasses());
+        HyperparameterSearch search = new HyperparameterSearch(numFolds, eta, minInstances, 
+                                                               searchBudgetSeconds * 1000L, 42, numThreads);
+        HyperparameterSearch.SearchResult result = search.search(configurations, data);
+        long totalWallMillis = (System.nanoTime() - startWall) / 1_000_000;
+        
+        HyperparameterSearch.Trial best = result.getBest();
+        System.out.println("Search took " + totalWallMillis + " ms wall-clock for " + result.getTrials().size() + " trials");
+        System.out.println("Best configuration: " + best.getConfiguration() + " with mean accuracy: " + 
+                          best.getMeanAccuracy() + "% on " + best.getNumInstances() + " instances" +
+                          (best.isComplete() ? "" : " (only " + best.getCompletedFolds() + " of " +
+                                                    best.getNumFolds() + " folds finished)"));
+        
+        return result;
+    }
+    
+    private static List<SearchSpace> createSearchSpaces() {
+        List<SearchSpace> spaces = new ArrayList<>();
+        
+        spaces.add(new SearchSpace("Random Forest", params -> {
+                    RandomForest rf = createRandomForest(1);
+                    rf.setNumIterations(params.get("numIterations").intValue());
+                    rf.setMaxDepth(params.get("maxDepth").intValue());
+                    rf.setNumFeatures(params.get("numFeatures").intValue());
+                    return rf;
+                })
+                .addParameter("numIterations", 50, 100, 200)
+                .addParameter("maxDepth", 0, 10, 20)
+                .addParameter("numFeatures", 0, 2, 4));
+        
+        // Cross-validation inside IBk is turned off so that the searched k is the one used
+        spaces.add(new SearchSpace("K-Nearest Neighbors", params -> {
+                    IBk knn = createKNN();
+                    knn.setKNN(params.get("KNN").intValue());
+                    knn.setCrossValidate(false);
+                    return knn;
+                })
+                .addParameter("KNN", 1, 3, 5, 7, 9, 15));
+        
+        spaces.add(new SearchSpace("Support Vector Machine", params -> {
+                    SMO svm = createSVM();
+                    svm.setC(params.get("C"));
+                    return svm;
+                })
+                .addParameter("C", 0.1, 0.5, 1.0, 2.0, 5.0, 10.0));
+        
+        spaces.add(new SearchSpace("XGBoost", params -> {
+                    LogitBoost booster = createXGBoost();
+                    booster.setNumIterations(params.get("numIterations").intValue());
+                    booster.setShrinkage(params.get("shrinkage"));
+                    return booster;
+                })
+                .addParameter("numIterations", 25, 50, 100, 200)
+                .addParameter("shrinkage", 0.1, 0.5, 1.0));
+        
+        return spaces;
+    }
+    
+    private static Map<String, Supplier<Classifier>> createCandidates(int forestSlots) {
+        Map<String, Supplier<Classifier>> candidates = new LinkedHashMap<>();
+        candidates.put("Random Forest", () -> createRandomForest(forestSlots));
+        candidates.put("K-Nearest Neighbors", ModelTrainingApp::createKNN);
+        candidates.put("Support Vector Machine", ModelTrainingApp::createSVM);
+        candidates.put("XGBoost", ModelTrainingApp::createXGBoost);
+        return candidates;
+    }
+    
     private static Classifier trainRandomForest(Instances trainingData) throws Exception {
         System.out.println("Training Random Forest model...");
         
+        RandomForest rf = createRandomForest(1);
+        rf.buildClassifier(trainingData);
+        
+        return rf;
+    }
+    
+    public static RandomForest createRandomForest(int executionSlots) {
         RandomForest rf = new RandomForest();
         rf.setNumIterations(100);
         rf.setNumFeatures(0);
         rf.setSeed(42);
-        
-        rf.buildClassifier(trainingData);
-        
+        rf.setNumExecutionSlots(executionSlots);
         return rf;
     }
     
     private static Classifier trainKNN(Instances trainingData) throws Exception {
         System.out.println("Training KNN model...");
         
+        IBk knn = createKNN();
+        knn.buildClassifier(trainingData);
+        
+        return knn;
+    }
+    
+    public static IBk createKNN() {
         IBk knn = new IBk();
         knn.setKNN(5);
         knn.setCrossValidate(true);
-        
-        knn.buildClassifier(trainingData);
-        
         return knn;
     }
     
-    private static Classifier trainSVM(Instances trainingData) throws Exception {
+    private static Classifier trainSVM(FeatureMatrix trainingData) throws Exception {
         System.out.println("Training SVM model...");
         
+        return trainingData.train(createSVM(), trainingData.allRows());
+    }
+    
+    public static SMO createSVM() {
         SMO svm = new SMO();
         svm.setC(1.0);
-        
-        svm.buildClassifier(trainingData);
-        
         return svm;
     }
     
     private static Classifier trainXGBoost(Instances trainingData) throws Exception {
         System.out.println("Training XGBoost model...");
         
+        LogitBoost booster = createXGBoost();
+        booster.buildClassifier(trainingData);
+        
+        return booster;
+    }
+    
+    public static LogitBoost createXGBoost() {
         // Changed from AdaBoostM1 to LogitBoost since AdaBoostM1 cannot be resolved
         LogitBoost booster = new LogitBoost();
         booster.setNumIterations(100);
         booster.setSeed(42);
-        
-        booster.buildClassifier(trainingData);
-        
         return booster;
     }
     
-    private static double evaluateModel(Classifier model, Instances testData, String modelName) throws Exception {
-        Evaluation eval = new Evaluation(testData);
-        eval.evaluateModel(model, testData);
-        return eval.pctCorrect();
+    public static HoeffdingTree createHoeffdingTree() {
+        // Weka's defaults: information gain splits and adaptive Naive Bayes leaves
+        return new HoeffdingTree();
+    }
+    
+    public static NaiveBayesUpdateable createNaiveBayes() {
+        return new NaiveBayesUpdateable();
+    }
+    
+    private static double evaluateModel(Classifier model, FeatureMatrix testData, String modelName) throws Exception {
+        return testData.evaluate(model, testData.allRows());
     }
     
-    private static Map.Entry<String, Classifier> findBestModel(Map<String, Classifier> models, Instances testData) throws Exception {
+    private static Map.Entry<String, Classifier> findBestModel(Map<String, Classifier> models, FeatureMatrix testData) throws Exception {
         System.out.println("Comparing models to find the best one...");
         
         String bestModelName = null;
@@ -0,0 +1,128 @@
+package ec;
+
+import weka.classifiers.Classifier;
+import weka.core.Instances;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * Builds and evaluates candidate classifiers concurrently on a bounded thread pool.
+ * The data is encoded once into a {@link FeatureMatrix} that all candidates
+ * read, and every candidate trains on its own copy of the rows, so the results
+ * are the same as a sequential run with the same seeds.
+ */
+public class ParallelModelTrainer {
+
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+    private final int numThreads;
+
+    public ParallelModelTrainer(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    /**
+     * Trains and evaluates every candidate, returning the results in the same
+     * order as the candidate map.
+     */
+    public List<TrainedModel> trainAndEvaluate(Map<String, Supplier<Classifier>> candidates,
+                                               Instances trainingData, Instances testingData) throws Exception {
+        FeatureMatrix train = new FeatureMatrix(trainingData);
+        FeatureMatrix test = new FeatureMatrix(testingData);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(numThreads, candidates.size()));
+        try {
+            List<Future<TrainedModel>> futures = new ArrayList<>();
+            for (Map.Entry<String, Supplier<Classifier>> entry : candidates.entrySet()) {
+                String modelName = entry.getKey();
+                Supplier<Classifier> factory = entry.getValue();
+                futures.add(executor.submit(() -> trainAndEvaluate(modelName, factory.get(), train, test)));
+            }
+
+            List<TrainedModel> results = new ArrayList<>();
+            for (Future<TrainedModel> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw cause instanceof Exception ? (Exception) cause : new Exception(cause);
+                }
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static TrainedModel trainAndEvaluate(String modelName, Classifier model,
+                                                 FeatureMatrix train, FeatureMatrix test) throws Exception {
+        System.out.println("Training " + modelName + " on " + Thread.currentThread().getName() + "...");
+
+        long startWall = System.nanoTime();
+        long startCpu = currentThreadCpuTime();
+
+        Classifier trained = train.train(model, train.allRows());
+        double accuracy = test.evaluate(trained, test.allRows());
+
+        long wallMillis = (System.nanoTime() - startWall) / 1_000_000;
+        long cpuMillis = (currentThreadCpuTime() - startCpu) / 1_000_000;
+
+        return new TrainedModel(modelName, trained, accuracy, wallMillis, cpuMillis);
+    }
+
+    private static long currentThreadCpuTime() {
+        if (THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported()) {
+            return THREAD_MX_BEAN.getCurrentThreadCpuTime();
+        }
+        return 0L;
+    }
+
+    /**
+     * A trained candidate together with its test accuracy and timings. The CPU
+     * time is measured on the worker thread only, so it does not include the
+     * extra execution slots Random Forest uses for its trees.
+     */
+    public static class TrainedModel {
+        private final String name;
+        private final Classifier classifier;
+        private final double accuracy;
+        private final long wallMillis;
+        private final long cpuMillis;
+
+        TrainedModel(String name, Classifier classifier, double accuracy, long wallMillis, long cpuMillis) {
+            this.name = name;
+            this.classifier = classifier;
+            this.accuracy = accuracy;
+            this.wallMillis = wallMillis;
+            this.cpuMillis = cpuMillis;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Classifier getClassifier() {
+            return classifier;
+        }
+
+        public double getAccuracy() {
+            return accuracy;
+        }
+
+        public long getWallMillis() {
+            return wallMillis;
+        }
+
+        public long getCpuMillis() {
+            return cpuMillis;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package ec;
+
+import weka.classifiers.Classifier;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+
+/**
+ * The hyperparameter values to try for one kind of classifier, together with a
+ * factory that builds an untrained classifier from a chosen combination.
+ */
+public class SearchSpace {
+
+    private final String modelName;
+    private final Map<String, double[]> parameterValues = new LinkedHashMap<>();
+    private final Function<Map<String, Double>, Classifier> factory;
+
+    public SearchSpace(String modelName, Function<Map<String, Double>, Classifier> factory) {
+        this.modelName = modelName;
+        this.factory = factory;
+    }
+
+    public SearchSpace addParameter(String name, double... values) {
+        parameterValues.put(name, values);
+        return this;
+    }
+
+    public String getModelName() {
+        return modelName;
+    }
+
+    /**
+     * Every combination of the parameter values, in a fixed order.
+     */
+    public List<Configuration> grid() {
+        List<Map<String, Double>> combinations = new ArrayList<>();
+        combinations.add(new LinkedHashMap<>());
+
+        for (Map.Entry<String, double[]> parameter : parameterValues.entrySet()) {
+            List<Map<String, Double>> expanded = new ArrayList<>();
+            for (Map<String, Double> partial : combinations) {
+                for (double value : parameter.getValue()) {
+                    Map<String, Double> combination = new LinkedHashMap<>(partial);
+                    combination.put(parameter.getKey(), value);
+                    expanded.add(combination);
+                }
+            }
+            combinations = expanded;
+        }
+
+        List<Configuration> configurations = new ArrayList<>();
+        for (Map<String, Double> combination : combinations) {
+            configurations.add(new Configuration(modelName, combination, factory));
+        }
+        return configurations;
+    }
+
+    /**
+     * Up to {@code count} distinct combinations drawn at random from the grid.
+     */
+    public List<Configuration> sample(int count, Random random) {
+        List<Configuration> configurations = grid();
+        Collections.shuffle(configurations, random);
+        return new ArrayList<>(configurations.subList(0, Math.min(count, configurations.size())));
+    }
+
+    /**
+     * One concrete combination of hyperparameter values for a classifier.
+     */
+    public static class Configuration {
+        private final String modelName;
+        private final Map<String, Double> parameters;
+        private final Function<Map<String, Double>, Classifier> factory;
+
+        Configuration(String modelName, Map<String, Double> parameters,
+                      Function<Map<String, Double>, Classifier> factory) {
+            this.modelName = modelName;
+            this.parameters = Collections.unmodifiableMap(parameters);
+            this.factory = factory;
+        }
+
+        public String getModelName() {
+            return modelName;
+        }
+
+        public Map<String, Double> getParameters() {
+            return parameters;
+        }
+
+        public Classifier create() {
+            return factory.apply(parameters);
+        }
+
+        /**
+         * The parameters as {@code name=value} pairs separated by spaces.
+         */
+        public String describeParameters() {
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<String, Double> parameter : parameters.entrySet()) {
+                if (sb.length() > 0) {
+                    sb.append(' ');
+                }
+                sb.append(parameter.getKey()).append('=').append(formatValue(parameter.getValue()));
+            }
+            return sb.toString();
+        }
+
+        @Override
+        public String toString() {
+            return modelName + " [" + describeParameters() + "]";
+        }
+
+        static String formatValue(double value) {
+            return value == Math.rint(value) ? String.valueOf((long) value) : String.valueOf(value);
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package ec;
+
+import ec.csv.CsvReader;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the Cell Lines CSV in a single pass and turns the selected columns into
+ * nominal WEKA instances. Each kept column is dictionary-encoded through a hash
+ * map as the rows arrive, and only the integer codes are kept, so the raw string
+ * rows are never held in memory, and columns that are not kept are never
+ * decoded. The resulting dataset is identical to the one built by
+ * {@code ModelTrainingApp.convertToInstances}.
+ * <p>
+ * {@link #loadAppended} reads only the rows added to the file since an earlier
+ * read, encoding them against the dictionaries of an existing header.
+ */
+public class StreamingInstancesLoader {
+
+    private static final String UNKNOWN = "unknown";
+
+    private final String filePath;
+
+    public StreamingInstancesLoader(String filePath) {
+        this.filePath = filePath;
+    }
+
+    /**
+     * Rows read from a position in the file, with the header they were encoded
+     * against.
+     */
+    public static class Appended {
+        private final Instances rows;
+        private final long position;
+        private final int newValues;
+        private final boolean partialRow;
+
+        Appended(Instances rows, long position, int newValues, boolean partialRow) {
+            this.rows = rows;
+            this.position = position;
+            this.newValues = newValues;
+            this.partialRow = partialRow;
+        }
+
+        /** The rows read; their header is the given one with any new nominal values appended. */
+        public Instances getRows() {
+            return rows;
+        }
+
+        /** Byte position just past the last row read, where the next read should start. */
+        public long getPosition() {
+            return position;
+        }
+
+        /** Nominal values that were not in the given header. */
+        public int getNewValues() {
+            return newValues;
+        }
+
+        /** Whether the file ends with a row that has no line break yet, which was left unread. */
+        public boolean hasPartialRow() {
+            return partialRow;
+        }
+    }
+
+    /**
+     * Reads only the header line of the CSV file.
+     */
+    public String[] readHeader() throws IOException {
+        try (CsvReader reader = CsvReader.open(Paths.get(filePath))) {
+            return reader.next() ? reader.getAll() : new String[0];
+        }
+    }
+
+    public Instances load(String targetColumn, List<String> columnsToKeep) throws IOException {
+        Instances dataset = read(createHeader(targetColumn, columnsToKeep), 0, false).getRows();
+
+        System.out.println("Streamed " + dataset.numInstances() + " rows from " + filePath);
+        System.out.println("Created dataset with " + dataset.numInstances() + " instances and " +
+                          dataset.numAttributes() + " attributes");
+        System.out.println("Class attribute: " + dataset.classAttribute().name() + " with " +
+                          dataset.numClasses() + " unique values");
+
+        return dataset;
+    }
+
+    /**
+     * Creates the header that loading starts from: the kept columns found in the
+     * file, in the order they were asked for, each with only the value "unknown".
+     */
+    public Instances createHeader(String targetColumn, List<String> columnsToKeep) throws IOException {
+        String[] headers = readHeader();
+        if (headers.length == 0) {
+            throw new IOException("CSV file is empty: " + filePath);
+        }
+
+        ArrayList<Attribute> attributes = new ArrayList<>();
+        int targetIndex = -1;
+        for (String column : columnsToKeep) {
+            for (String header : headers) {
+                if (header.trim().equalsIgnoreCase(column.trim())) {
+                    if (header.trim().equalsIgnoreCase(targetColumn.trim())) {
+                        targetIndex = attributes.size();
+                    }
+                    attributes.add(new Attribute(header, new ArrayList<>(Arrays.asList(UNKNOWN))));
+                    break;
+                }
+            }
+        }
+        if (targetIndex < 0) {
+            throw new IllegalArgumentException("Target column '" + targetColumn + "' is not among the kept columns");
+        }
+        Instances header = new Instances("CellLinesDataset", attributes, 0);
+        header.setClassIndex(targetIndex);
+        return header;
+    }
+
+    /**
+     * Reads the rows that start at {@code position}, a value returned by an earlier
+     * {@link Appended#getPosition()} or 0 for the whole file. Columns are matched to
+     * the header's attributes by name, and values are encoded with the header's
+     * nominal values, so codes already in use keep their meaning; values not seen
+     * before are appended to their attribute. A last row without a line break may
+     * still be being written and is left for the next read.
+     */
+    public Appended loadAppended(Instances header, long position) throws IOException {
+        return read(header, position, true);
+    }
+
+    private Appended read(Instances header, long position, boolean completeRowsOnly) throws IOException {
+        String[] headers = readHeader();
+        int numKept = header.numAttributes();
+        int[] columns = new int[numKept];
+        for (int j = 0; j < numKept; j++) {
+            String name = header.attribute(j).name();
+            columns[j] = -1;
+            for (int i = 0; i < headers.length; i++) {
+                if (headers[i].trim().equalsIgnoreCase(name.trim())) {
+                    columns[j] = i;
+                    break;
+                }
+            }
+            if (columns[j] < 0) {
+                throw new IOException("Column '" + name + "' is not in " + filePath);
+            }
+        }
+
+        // Dictionaries start from the header's values, so existing codes are kept
+        List<Map<String, Integer>> dictionaries = new ArrayList<>();
+        List<List<String>> values = new ArrayList<>();
+        for (int j = 0; j < numKept; j++) {
+            Attribute attribute = header.attribute(j);
+            Map<String, Integer> dictionary = new HashMap<>();
+            List<String> columnValues = new ArrayList<>();
+            for (int v = 0; v < attribute.numValues(); v++) {
+                dictionary.put(attribute.value(v), v);
+                columnValues.add(attribute.value(v));
+            }
+            dictionaries.add(dictionary);
+            values.add(columnValues);
+        }
+
+        // Row-major codes of every row read so far
+        int[] codes = new int[numKept * 1024];
+        int numRows = 0;
+        int newValues = 0;
+        boolean partialRow = false;
+        String[] fields = new String[numKept];
+
+        Path path = Paths.get(filePath);
+        try (CsvReader reader = CsvReader.openAt(path, position)) {
+            if (position == 0 && !reader.next()) {
+                throw new IOException("CSV file is empty: " + filePath);
+            }
+            long end = reader.getPosition();
+
+            while (reader.next()) {
+                if (completeRowsOnly && !reader.isRecordTerminated()) {
+                    partialRow = true;
+                    break;
+                }
+                reader.get(columns, fields);
+
+                if ((numRows + 1) * numKept > codes.length) {
+                    codes = Arrays.copyOf(codes, codes.length * 2);
+                }
+                int offset = numRows * numKept;
+                for (int j = 0; j < numKept; j++) {
+                    // Replace empty values with "unknown"
+                    String value = fields[j].isEmpty() ? UNKNOWN : fields[j];
+                    Map<String, Integer> dictionary = dictionaries.get(j);
+                    Integer code = dictionary.get(value);
+                    if (code == null) {
+                        code = dictionary.size();
+                        dictionary.put(value, code);
+                        values.get(j).add(value);
+                        newValues++;
+                    }
+                    codes[offset + j] = code;
+                }
+                numRows++;
+                end = reader.getPosition();
+            }
+            position = end;
+        }
+
+        ArrayList<Attribute> attributes = new ArrayList<>();
+        for (int j = 0; j < numKept; j++) {
+            attributes.add(new Attribute(header.attribute(j).name(), values.get(j)));
+        }
+
+        Instances dataset = new Instances(header.relationName(), attributes, numRows);
+        dataset.setClassIndex(header.classIndex());
+
+        for (int i = 0; i < numRows; i++) {
+            double[] instanceValues = new double[numKept];
+            int offset = i * numKept;
+            for (int j = 0; j < numKept; j++) {
+                instanceValues[j] = codes[offset + j];
+            }
+            dataset.add(new DenseInstance(1.0, instanceValues));
+        }
+
+        return new Appended(dataset, position, newValues, partialRow);
+    }
+}
@@ -0,0 +1,132 @@
+package ec;
+
+import org.junit.jupiter.api.Test;
+import weka.classifiers.Classifier;
+import weka.classifiers.UpdateableClassifier;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class IncrementalTrainerTest {
+
+    /** Values of each attribute before and after the appended rows bring new ones. */
+    private static final int[] OLD_VALUES = {2, 3, 4, 3};
+    private static final int[] NEW_VALUES = {3, 3, 6, 4};
+    private static final int OLD_CLASSES = 3;
+    private static final int NEW_CLASSES = 5;
+
+    @Test
+    void widenedNaiveBayesMatchesASinglePass() throws Exception {
+        assertWidenedMatchesSinglePass(ModelTrainingApp::createNaiveBayes, 300, 200);
+    }
+
+    @Test
+    void widenedHoeffdingTreeMatchesASinglePass() throws Exception {
+        // Enough rows on both sides of the append for the tree to split before and after it
+        assertWidenedMatchesSinglePass(ModelTrainingApp::createHoeffdingTree, 3000, 3000);
+    }
+
+    @Test
+    void widenRejectsModelsItCannotResize() {
+        Instances header = header(NEW_VALUES, NEW_CLASSES);
+        assertThrows(IllegalArgumentException.class,
+                () -> IncrementalTrainer.widen(ModelTrainingApp.createSVM(), header));
+    }
+
+    /**
+     * Trains on rows that use only the old values, appends rows with new attribute
+     * and class values, widens the model to the new header and updates it, then
+     * compares it with a model that saw every row under the new header in one pass.
+     */
+    private static void assertWidenedMatchesSinglePass(Supplier<Classifier> learner, int oldRows, int newRows)
+            throws Exception {
+        Instances oldHeader = header(OLD_VALUES, OLD_CLASSES);
+        Instances newHeader = header(NEW_VALUES, NEW_CLASSES);
+        Instances before = rows(oldHeader, oldRows, 1);
+        Instances after = rows(newHeader, newRows, 2);
+
+        Classifier widened = learner.get();
+        widened.buildClassifier(new Instances(oldHeader, 0));
+        update(widened, before);
+        IncrementalTrainer.widen(widened, newHeader);
+        update(widened, after);
+
+        // Appending values keeps the codes of the old ones, so the old rows read the same under the new header
+        Instances all = new Instances(newHeader, oldRows + newRows);
+        for (int i = 0; i < before.numInstances(); i++) {
+            all.add(new DenseInstance(1.0, before.instance(i).toDoubleArray()));
+        }
+        for (int i = 0; i < after.numInstances(); i++) {
+            all.add(after.instance(i));
+        }
+        Classifier singlePass = learner.get();
+        singlePass.buildClassifier(new Instances(newHeader, 0));
+        update(singlePass, all);
+
+        assertEquals(singlePass.toString(), widened.toString());
+        Instances probes = rows(newHeader, 1000, 3);
+        for (int i = 0; i < probes.numInstances(); i++) {
+            Instance probe = probes.instance(i);
+            assertArrayEquals(singlePass.distributionForInstance(probe), widened.distributionForInstance(probe),
+                    1e-12, "distribution for " + probe);
+        }
+    }
+
+    private static void update(Classifier model, Instances rows) throws Exception {
+        for (int i = 0; i < rows.numInstances(); i++) {
+            ((UpdateableClassifier) model).updateClassifier(rows.instance(i));
+        }
+    }
+
+    private static Instances header(int[] numValues, int numClasses) {
+        ArrayList<Attribute> attributes = new ArrayList<>();
+        for (int i = 0; i < numValues.length; i++) {
+            attributes.add(new Attribute("a" + i, values("v", numValues[i])));
+        }
+        attributes.add(new Attribute("class", values("c", numClasses)));
+        Instances header = new Instances("cells", attributes, 0);
+        header.setClassIndex(header.numAttributes() - 1);
+        return header;
+    }
+
+    /**
+     * Rows drawn from every value of the header, whose class mostly follows the
+     * first two attributes, with a few values missing.
+     */
+    private static Instances rows(Instances header, int count, long seed) {
+        Instances rows = new Instances(header, count);
+        Random random = new Random(seed);
+        for (int r = 0; r < count; r++) {
+            double[] values = new double[header.numAttributes()];
+            for (int i = 0; i < header.classIndex(); i++) {
+                values[i] = random.nextInt(20) == 0 ? Utils.missingValue()
+                        : random.nextInt(header.attribute(i).numValues());
+            }
+            int numClasses = header.numClasses();
+            int signal = (int) (Utils.isMissingValue(values[0]) ? 0 : values[0])
+                    + 2 * (int) (Utils.isMissingValue(values[1]) ? 0 : values[1]);
+            values[header.classIndex()] = random.nextInt(10) == 0 ? random.nextInt(numClasses) : signal % numClasses;
+            rows.add(new DenseInstance(1.0, values));
+        }
+        return rows;
+    }
+
+    private static List<String> values(String prefix, int count) {
+        List<String> values = new ArrayList<>();
+        for (int v = 0; v < count; v++) {
+            values.add(prefix + v);
+        }
+        return values;
+    }
+}